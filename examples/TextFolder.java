@@ -2,6 +2,7 @@ import java.io.File;
 import java.text.Normalizer;
 import java.util.regex.Pattern;
 
+import org.wikipedia.miner.db.LabelDatabase;
 import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.util.WikipediaConfiguration;
 import org.wikipedia.miner.util.text.CaseFolder;
@@ -32,7 +33,7 @@ public class TextFolder extends TextProcessor{
 		TextFolder folder = new TextFolder() ;
 		
 		WikipediaConfiguration conf = new WikipediaConfiguration(new File(args[0])) ;
-		WEnvironment.prepareTextProcessor(folder, conf, new File("tmp"), true, 3) ;
+		WEnvironment.prepareTextProcessor(folder, conf, new File("tmp"), true, LabelDatabase.getDefaultMemoryBudget()) ;
 		
 	}
 }
\ No newline at end of file
@@ -0,0 +1,349 @@
+package org.wikipedia.miner.annotation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.wikipedia.miner.annotation.TopicDetector.DisambiguationPolicy;
+import org.wikipedia.miner.annotation.preprocessing.DocumentPreprocessor;
+import org.wikipedia.miner.annotation.preprocessing.HtmlPreprocessor;
+import org.wikipedia.miner.annotation.preprocessing.PreprocessedDocument;
+import org.wikipedia.miner.annotation.weighting.LinkDetector;
+import org.wikipedia.miner.model.Wikipedia;
+import org.wikipedia.miner.util.RelatednessCache;
+
+/**
+ * Annotates many documents concurrently, using a fixed pool of worker threads that all share a single instance of Wikipedia
+ * (and therefore all of its cached databases) and a single {@link RelatednessCache}.
+ * <p>
+ * Each document is preprocessed, mined for topics with a {@link TopicDetector}, and weighted with a {@link LinkDetector}.
+ * Disambiguators, topic detectors and link detectors are not safe to share between threads, so each worker lazily creates its own.
+ * These load their models from the wikipedia configuration.
+ * <p>
+ * Options are supplied with each call, rather than stored in the annotator, so the same annotator can safely serve
+ * several callers at once. Results are always returned in the same order as the documents they were produced from.
+ */
+public class BatchAnnotator {
+
+	private Wikipedia wikipedia ;
+	private int threads ;
+
+	private ExecutorService pool ;
+	private RelatednessCache relatednessCache ;
+
+	private ThreadLocal<Worker> workers = new ThreadLocal<Worker>() ;
+
+	/**
+	 * Initializes a new batch annotator.
+	 *
+	 * @param wikipedia an initialized instance of Wikipedia, whose configuration specifies disambiguation, link detection and article comparison models.
+	 * @param threads the number of documents to annotate concurrently
+	 */
+	public BatchAnnotator(Wikipedia wikipedia, int threads) {
+
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1") ;
+
+		this.wikipedia = wikipedia ;
+		this.threads = threads ;
+		this.pool = Executors.newFixedThreadPool(threads) ;
+	}
+
+	/**
+	 * @return the number of documents that are annotated concurrently
+	 */
+	public int getThreadCount() {
+		return threads ;
+	}
+
+	/**
+	 * Annotates each of the given documents.
+	 *
+	 * @param documents the documents to annotate
+	 * @param options options for preprocessing, disambiguating and weighting topics
+	 * @return an annotation for each document, in the same order as the documents
+	 */
+	public ArrayList<Annotation> annotate(List<String> documents, Options options) {
+
+		ArrayList<Annotation> annotations = new ArrayList<Annotation>() ;
+
+		Iterator<Annotation> iter = annotate(documents.iterator(), options) ;
+		while (iter.hasNext())
+			annotations.add(iter.next()) ;
+
+		return annotations ;
+	}
+
+	/**
+	 * Annotates a stream of documents. Documents are read from the given iterator only as quickly as they can be annotated,
+	 * so arbitrarily many documents can be processed without holding them all in memory.
+	 *
+	 * The given iterator is only ever accessed from the calling thread (i.e. from the methods of the returned iterator).
+	 *
+	 * @param documents the documents to annotate
+	 * @param options options for preprocessing, disambiguating and weighting topics
+	 * @return an iterator of annotations, in the same order as the documents
+	 */
+	public Iterator<Annotation> annotate(final Iterator<String> documents, final Options options) {
+
+		return new Iterator<Annotation>() {
+
+			//keep enough documents in flight that no worker is left idle while the caller consumes results
+			private LinkedList<Future<Annotation>> pending = new LinkedList<Future<Annotation>>() ;
+
+			@Override
+			public boolean hasNext() {
+				fill() ;
+				return !pending.isEmpty() ;
+			}
+
+			@Override
+			public Annotation next() {
+
+				if (!hasNext())
+					throw new NoSuchElementException() ;
+
+				Future<Annotation> result = pending.removeFirst() ;
+				fill() ;
+
+				try {
+					return result.get() ;
+				} catch (InterruptedException e) {
+					result.cancel(true) ;
+					Thread.currentThread().interrupt() ;
+					throw new RuntimeException("Interrupted while waiting for annotation", e) ;
+				} catch (ExecutionException e) {
+					//annotations capture their own failures, so this should never happen
+					throw new RuntimeException(e.getCause()) ;
+				}
+			}
+
+			private void fill() {
+				while (pending.size() < 2*threads && documents.hasNext())
+					pending.add(submit(documents.next(), options)) ;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException() ;
+			}
+		} ;
+	}
+
+	/**
+	 * Annotates a single document in the background.
+	 *
+	 * @param document the document to annotate
+	 * @param options options for preprocessing, disambiguating and weighting topics
+	 * @return a future annotation of the document
+	 */
+	public Future<Annotation> submit(final String document, final Options options) {
+
+		return pool.submit(new Callable<Annotation>() {
+			@Override
+			public Annotation call() {
+
+				try {
+					return getWorker().annotate(document, options) ;
+				} catch (Exception e) {
+					return new Annotation(null, null, e) ;
+				}
+			}
+		}) ;
+	}
+
+	/**
+	 * Stops all worker threads. Any documents that are still being annotated will be abandoned.
+	 */
+	public void close() {
+		pool.shutdownNow() ;
+	}
+
+	private Worker getWorker() throws Exception {
+
+		Worker worker = workers.get() ;
+
+		if (worker == null) {
+			worker = new Worker() ;
+			workers.set(worker) ;
+		}
+
+		return worker ;
+	}
+
+	private synchronized RelatednessCache getRelatednessCache(Disambiguator disambiguator) {
+
+		if (relatednessCache == null)
+			relatednessCache = new RelatednessCache(disambiguator.getArticleComparer(), wikipedia.getConfig().getRelatednessCacheCapacity()) ;
+
+		return relatednessCache.withComparer(disambiguator.getArticleComparer()) ;
+	}
+
+
+	private class Worker {
+
+		private TopicDetector topicDetector ;
+		private LinkDetector linkDetector ;
+		private RelatednessCache relatednessCache ;
+
+		Worker() throws Exception {
+
+			Disambiguator disambiguator = new Disambiguator(wikipedia) ;
+
+			topicDetector = new TopicDetector(wikipedia, disambiguator) ;
+			linkDetector = new LinkDetector(wikipedia) ;
+			relatednessCache = getRelatednessCache(disambiguator) ;
+		}
+
+		Annotation annotate(String document, Options options) throws Exception {
+
+			PreprocessedDocument doc = options.getPreprocessor().preprocess(document) ;
+
+			ArrayList<Topic> topics = new ArrayList<Topic>() ;
+
+			Vector<Topic> detectedTopics = topicDetector.getTopics(doc, relatednessCache, options.getDisambiguationPolicy(), options.areDisambiguationsAllowed()) ;
+			for (Topic topic:linkDetector.getWeightedTopics(detectedTopics)) {
+
+				//topics are sorted by weight, so we can stop at the first one that is too low
+				if (topic.getWeight() < options.getMinWeight())
+					break ;
+
+				topics.add(topic) ;
+			}
+
+			return new Annotation(doc, topics, null) ;
+		}
+	}
+
+	/**
+	 * Options for annotating a batch of documents
+	 */
+	public static class Options {
+
+		private DocumentPreprocessor preprocessor = new HtmlPreprocessor() ;
+		private DisambiguationPolicy disambiguationPolicy = DisambiguationPolicy.STRICT ;
+		private boolean allowDisambiguations = false ;
+		private double minWeight = 0 ;
+
+		/**
+		 * @return the preprocessor used to clean markup from documents (defaults to an {@link HtmlPreprocessor})
+		 */
+		public DocumentPreprocessor getPreprocessor() {
+			return preprocessor ;
+		}
+
+		/**
+		 * @param preprocessor the preprocessor used to clean markup from documents. This will be shared between threads.
+		 * @return these options
+		 */
+		public Options setPreprocessor(DocumentPreprocessor preprocessor) {
+			this.preprocessor = preprocessor ;
+			return this ;
+		}
+
+		/**
+		 * @return whether each term is disambiguated to a single topic, or to multiple ones (defaults to {@link DisambiguationPolicy#STRICT})
+		 */
+		public DisambiguationPolicy getDisambiguationPolicy() {
+			return disambiguationPolicy ;
+		}
+
+		/**
+		 * @param disambiguationPolicy whether each term should be disambiguated to a single topic, or to multiple ones
+		 * @return these options
+		 */
+		public Options setDisambiguationPolicy(DisambiguationPolicy disambiguationPolicy) {
+			this.disambiguationPolicy = disambiguationPolicy ;
+			return this ;
+		}
+
+		/**
+		 * @return true if disambiguation pages can be returned as topics, otherwise false (the default)
+		 */
+		public boolean areDisambiguationsAllowed() {
+			return allowDisambiguations ;
+		}
+
+		/**
+		 * @param allowDisambiguations true if disambiguation pages can be returned as topics, otherwise false
+		 * @return these options
+		 */
+		public Options allowDisambiguations(boolean allowDisambiguations) {
+			this.allowDisambiguations = allowDisambiguations ;
+			return this ;
+		}
+
+		/**
+		 * @return the weight (link probability) below which topics are discarded (defaults to 0, so all topics are kept)
+		 */
+		public double getMinWeight() {
+			return minWeight ;
+		}
+
+		/**
+		 * @param minWeight the weight (link probability) below which topics are discarded
+		 * @return these options
+		 */
+		public Options setMinWeight(double minWeight) {
+			this.minWeight = minWeight ;
+			return this ;
+		}
+	}
+
+	/**
+	 * The result of annotating a single document
+	 */
+	public static class Annotation {
+
+		private PreprocessedDocument document ;
+		private ArrayList<Topic> topics ;
+		private Exception failureCause ;
+
+		private Annotation(PreprocessedDocument document, ArrayList<Topic> topics, Exception failureCause) {
+			this.document = document ;
+			this.topics = topics ;
+			this.failureCause = failureCause ;
+		}
+
+		/**
+		 * @return true if the document could not be annotated, otherwise false
+		 */
+		public boolean failed() {
+			return failureCause != null ;
+		}
+
+		/**
+		 * @return the reason the document could not be annotated, or null if it was annotated successfully
+		 */
+		public Exception getFailureCause() {
+			return failureCause ;
+		}
+
+		/**
+		 * @return the preprocessed document, which can be passed to a {@link org.wikipedia.miner.annotation.tagging.DocumentTagger}, or null if annotation failed
+		 */
+		public PreprocessedDocument getDocument() {
+			return document ;
+		}
+
+		/**
+		 * @return the topics detected in the document, sorted by descending weight, or null if annotation failed
+		 */
+		public List<Topic> getTopics() {
+
+			if (topics == null)
+				return null ;
+
+			return Collections.unmodifiableList(topics) ;
+		}
+	}
+}
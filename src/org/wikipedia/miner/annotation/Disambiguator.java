@@ -29,6 +29,7 @@ import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import org.wikipedia.miner.annotation.ArticleCleaner.SnippetLength;
 import org.wikipedia.miner.comparison.ArticleComparer;
+import org.wikipedia.miner.db.LabelTrie;
 import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.*;
 import org.wikipedia.miner.util.*;
@@ -535,7 +536,11 @@ public class Disambiguator {
 		
 		HashSet<String> detectedLabels = new HashSet<String>() ;
 		Vector<Label> labels = new Vector<Label>() ;
-		for (NGramSpan span:nGrammer.ngramPosDetect(content)) {
+		//if labels are available as a trie, only spans that are actually labels need to be looked up
+		LabelTrie trie = wikipedia.getLabelTrie() ;
+		NGramSpan[] spans = (trie != null) ? nGrammer.labelPosDetect(content, trie) : nGrammer.ngramPosDetect(content) ;
+		
+		for (NGramSpan span:spans) {
 			
 			Label label = wikipedia.getLabel(span, content) ;
 			
@@ -27,6 +27,7 @@ import java.util.regex.*;
 import opennlp.tools.sentdetect.SentenceDetector;
 import opennlp.tools.util.Span;
 
+import org.wikipedia.miner.db.LabelTrie;
 import org.wikipedia.miner.model.*;
 import org.wikipedia.miner.model.Page.PageType;
 import org.wikipedia.miner.util.*;
@@ -111,6 +112,21 @@ public class TopicDetector {
 	 * @throws Exception
 	 */
 	public Vector<Topic> getTopics(PreprocessedDocument doc, RelatednessCache rc) throws Exception {
+		return getTopics(doc, rc, disambigPolicy, allowDisambiguations) ;
+	}
+	
+	/**
+	 * Gathers a collection of topics from the given document, using the given disambiguation options rather than those 
+	 * stored in this detector. This does not modify the detector, so it is safe to call concurrently with different options.
+	 * 
+	 * @param doc a document that has been preprocessed so that markup (html, mediawiki, etc) is safely ignored.
+	 * @param rc a cache in which relatedness measures will be saved so they aren't repeatedly calculated. This may be null.  
+	 * @param policy whether each term should be disambiguated to a single topic, or to multiple ones
+	 * @param allowDisambiguations true if disambiguation pages can be returned as topics, otherwise false
+	 * @return a vector of topics that were mined from the document.
+	 * @throws Exception
+	 */
+	public Vector<Topic> getTopics(PreprocessedDocument doc, RelatednessCache rc, DisambiguationPolicy policy, boolean allowDisambiguations) throws Exception {
 		
 		if (rc == null)
 			rc = new RelatednessCache(disambiguator.getArticleComparer()) ;
@@ -119,7 +135,7 @@ public class TopicDetector {
 		//Vector<String> sentences = ss.getSentences(doc.getPreprocessedText(), SentenceSplitter.MULTIPLE_NEWLINES) ;
 		Vector<TopicReference> references = getReferences(doc.getPreprocessedText()) ;
 		
-		Collection<Topic> temp = getTopics(references, doc.getContextText(), doc.getOriginalText().length(), rc).values() ;
+		Collection<Topic> temp = getTopics(references, doc.getContextText(), doc.getOriginalText().length(), rc, policy, allowDisambiguations).values() ;
 		calculateRelatedness(temp, rc) ;
 
 		Vector<Topic> topics = new Vector<Topic>() ;
@@ -148,7 +164,7 @@ public class TopicDetector {
 		//Vector<String> sentences = ss.getSentences(text, SentenceSplitter.MULTIPLE_NEWLINES) ;
 		Vector<TopicReference> references = getReferences(text) ;
 		
-		HashMap<Integer,Topic> topicsById = getTopics(references, "", text.length(), rc) ;
+		HashMap<Integer,Topic> topicsById = getTopics(references, "", text.length(), rc, disambigPolicy, allowDisambiguations) ;
 
 		Collection<Topic> topics = topicsById.values() ;
 		calculateRelatedness(topics, rc) ;
@@ -198,7 +214,11 @@ public class TopicDetector {
 	private Vector<TopicReference> getReferences(String text) {
 		
 		Vector<TopicReference> references = new Vector<TopicReference>() ;
-		for (NGramSpan span:nGrammer.ngramPosDetect(text)) {
+		//if labels are available as a trie, only spans that are actually labels need to be looked up
+		LabelTrie trie = wikipedia.getLabelTrie() ;
+		NGramSpan[] spans = (trie != null) ? nGrammer.labelPosDetect(text, trie) : nGrammer.ngramPosDetect(text) ;
+		
+		for (NGramSpan span:spans) {
 						
 			Label label = wikipedia.getLabel(span, text) ;
 			
@@ -221,7 +241,7 @@ public class TopicDetector {
 		return references ;
 	}
 	
-	private HashMap<Integer,Topic> getTopics(Vector<TopicReference> references, String contextText, int docLength, RelatednessCache cache) throws Exception{
+	private HashMap<Integer,Topic> getTopics(Vector<TopicReference> references, String contextText, int docLength, RelatednessCache cache, DisambiguationPolicy disambigPolicy, boolean allowDisambiguations) throws Exception{
 		HashMap<Integer,Topic> chosenTopics = new HashMap<Integer,Topic>() ;
 	
 		/*
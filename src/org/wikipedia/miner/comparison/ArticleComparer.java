@@ -4,15 +4,22 @@ package org.wikipedia.miner.comparison;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 
 import jsc.correlation.SpearmanCorrelation;
 import jsc.datastructures.PairedData;
 
 import org.apache.log4j.Logger;
+import org.wikipedia.miner.db.IntListView;
+import org.wikipedia.miner.db.LinkCountTable;
+import org.wikipedia.miner.db.LinkGraph;
+import org.wikipedia.miner.db.WDatabase;
 import org.wikipedia.miner.db.WDatabase.DatabaseType;
+import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.db.WEnvironment.StatisticName;
 import org.wikipedia.miner.db.struct.DbIntList;
+import org.wikipedia.miner.db.struct.DbPageLinkCounts;
 import org.wikipedia.miner.model.Article;
 import org.wikipedia.miner.model.Wikipedia;
 import org.wikipedia.miner.util.ProgressTracker;
@@ -57,6 +64,9 @@ public class ArticleComparer {
 	Double m ;
 	
 	private long articlesCompared = 0 ;
+	
+	//each thread reuses the same pair of cursors for every comparison it makes
+	private ThreadLocal<LinkCursor[]> linkCursors = new ThreadLocal<LinkCursor[]>() ;
 
 	enum Attributes {
 		inLinkGoogleMeasure, 
@@ -340,42 +350,46 @@ public class ArticleComparer {
 	// names of all parameters make sense if we assume dir is out
 	private ArticleComparison setPageLinkFeatures(ArticleComparison cmp, LinkDirection dir, boolean useLinkCounts) {
 
+		int idA = cmp.getArticleA().getId() ;
+		int idB = cmp.getArticleB().getId() ;
+		
 		//don't gather training or testing data when articles are the same: this screws up normalization
-		if (cmp.getArticleA().getId() == cmp.getArticleB().getId())
+		if (idA == idB)
+			return cmp ;
+		
+		//without link counts only the overlap between the lists is needed, which views can count without decoding them
+		if (!useLinkCounts && setPageLinkFeaturesFromViews(cmp, dir))
 			return cmp ;
 
-		ArrayList<Integer> linksA = getLinks(cmp.getArticleA().getId(), dir) ;
-		ArrayList<Integer> linksB = getLinks(cmp.getArticleB().getId(), dir) ;
+		LinkCursor[] cursors = getLinkCursors(idA, idB, dir) ;
+		LinkCursor linksA = cursors[0] ;
+		LinkCursor linksB = cursors[1] ;
 
 		//we can't do anything if there are no links
-		if (linksA.isEmpty() || linksB.isEmpty()) 
+		if (linksA.size() == 0 || linksB.size() == 0) 
 			return cmp ;
 		
+		//the opposite direction, used to count links made to (or from) each link target 
+		LinkDirection targetDir = (dir == LinkDirection.Out) ? LinkDirection.In : LinkDirection.Out ;
 
 		int intersection = 0 ;
-		//int sentenceIntersection = 0 ;
 		int union = 0 ;
 
-		int indexA = 0 ;
-		int indexB = 0 ;
-
-		ArrayList<Double> vectA = new ArrayList<Double>() ;
-		ArrayList<Double> vectB = new ArrayList<Double>() ;
-
+		//components of vector (tfidf) inspired measure, accumulated as we go
+		double dotProduct = 0 ;
+		double magnitudeA = 0 ;
+		double magnitudeB = 0 ;
+		
 		//get denominators for link frequency
-		Integer linksFromSourceA = 0 ;
-		Integer linksFromSourceB = 0 ;
+		int linksFromSourceA = 0 ;
+		int linksFromSourceB = 0 ;
 		if (useLinkCounts) {
-			if (dir == LinkDirection.Out) {
-				linksFromSourceA = cmp.getArticleA().getTotalLinksOutCount() ;
-				linksFromSourceB = cmp.getArticleB().getTotalLinksOutCount() ;
-			} else {
-				linksFromSourceA = cmp.getArticleA().getTotalLinksInCount() ;
-				linksFromSourceB = cmp.getArticleB().getTotalLinksInCount() ;
-			}
+			linksFromSourceA = getTotalLinkCount(idA, dir) ;
+			linksFromSourceB = getTotalLinkCount(idB, dir) ;
 		}
 
-		while (indexA < linksA.size() || indexB < linksB.size()) {
+		// a single merge over both sorted lists, which reads them where they are held and does not allocate anything 
+		while (linksA.hasCurrent() || linksB.hasCurrent()) {
 
 			//identify which links to use (A, B, or both)
 
@@ -383,39 +397,28 @@ public class ArticleComparer {
 			boolean useB = false;
 			boolean mutual = false ;
 
-			Integer linkA = null ;
-			Integer linkB = null ;
-			Article linkArt ;
+			int link ;
 
-			if (indexA < linksA.size())
-				linkA = linksA.get(indexA) ;
-
-			if (indexB < linksB.size())
-				linkB = linksB.get(indexB) ;
-
-			if (linkA != null && linkB != null && linkA.equals(linkB)) {
+			if (linksA.hasCurrent() && linksB.hasCurrent() && linksA.current() == linksB.current()) {
 				useA = true ;
 				useB = true ;
-				linkArt = new Article(wikipedia.getEnvironment(), linkA) ;
+				link = linksA.current() ;
 				intersection ++ ;
-
-				//if (hasSentenceIntersection(linkA.getSentenceIndexes(), linkB.getSentenceIndexes()))
-					//        sentenceIntersection++ ;
 			} else {
-				if (linkA != null && (linkB == null || linkA < linkB)) {
+				if (linksA.hasCurrent() && (!linksB.hasCurrent() || linksA.current() < linksB.current())) {
 					useA = true ;
-					linkArt = new Article(wikipedia.getEnvironment(), linkA) ;
+					link = linksA.current() ;
 
-					if (linkA.equals(cmp.getArticleB().getId())) {
+					if (link == idB) {
 						intersection++ ;
 						mutual = true ;
 					}
 
 				} else {
 					useB = true ;
-					linkArt = new Article(wikipedia.getEnvironment(), linkB) ;
+					link = linksB.current() ;
 
-					if (linkB.equals(cmp.getArticleA().getId())) {
+					if (link == idA) {
 						intersection++ ;
 						mutual = true ;
 					}
@@ -425,11 +428,7 @@ public class ArticleComparer {
 
 			if (useLinkCounts) {
 				//calculate lfiaf values for each vector
-				int linksToTarget ;
-				if (dir == LinkDirection.Out)
-					linksToTarget = linkArt.getTotalLinksInCount() ;
-				else
-					linksToTarget = linkArt.getTotalLinksOutCount() ;
+				int linksToTarget = getTotalLinkCount(link, targetDir) ;
 
 				double valA = 0 ;
 				double valB = 0 ;
@@ -442,25 +441,96 @@ public class ArticleComparer {
 					if (useB) valB = getLfiaf(1, linksFromSourceB, linksToTarget) ;
 				}
 
-				vectA.add(valA) ;
-				vectB.add(valB) ;
+				dotProduct = dotProduct + (valA * valB) ;
+				magnitudeA = magnitudeA + (valA * valA) ;
+				magnitudeB = magnitudeB + (valB * valB) ;
 			}
 
 			if (useA)
-				indexA++ ;
+				linksA.advance() ;
 			if (useB)
-				indexB++ ;
+				linksB.advance() ;
 		}
 
+		//calculate vector (tfidf) inspired measure
+
+		double vectorMeasure = 0 ;
+		if (useLinkCounts) {
+
+			double angle = Math.acos(dotProduct / (Math.sqrt(magnitudeA) * Math.sqrt(magnitudeB))) ;
+			if (Double.isNaN(angle))
+				angle = Math.PI/2 ;
+				
+			vectorMeasure = ArticleComparison.normalizeVectorMeasure(angle) ;
+		}
 
+		setLinkFeatures(cmp, dir, linksA.size(), linksB.size(), intersection, union, vectorMeasure, useLinkCounts) ;
+		return cmp ;
+	}
+	
+	/**
+	 * Sets the link features of the given comparison (other than the vector measure) directly from the cached views of
+	 * each article's links, if they are available. 
+	 * 
+	 * The sorted lists are intersected by skipping through them, so blocks of links that the articles can't share are never decoded. 
+	 * Links from one article directly to the other count towards the intersection, exactly as they do in the full merge. 
+	 * 
+	 * @return true if the features could be calculated from views, otherwise false
+	 */
+	private boolean setPageLinkFeaturesFromViews(ArticleComparison cmp, LinkDirection dir) {
+		
+		WEnvironment env = wikipedia.getEnvironment() ;
+		
+		if (env.getLinkGraph(dir == LinkDirection.In ? DatabaseType.pageLinksIn : DatabaseType.pageLinksOut) != null)
+			return false ;
+		
+		WDatabase<Integer,DbIntList> db ;
+		if (dir == LinkDirection.In)
+			db = env.getDbPageLinkInNoSentences() ;
+		else
+			db = env.getDbPageLinkOutNoSentences() ;
+		
+		if (!db.isViewable())
+			return false ;
+		
+		int idA = cmp.getArticleA().getId() ;
+		int idB = cmp.getArticleB().getId() ;
+		
+		LinkCursor[] cursors = getLinkCursors() ;
+		IntListView linksA = cursors[0].view ;
+		IntListView linksB = cursors[1].view ;
+		
+		//we can't do anything if there are no links
+		if (!db.retrieveView(idA, linksA) || !db.retrieveView(idB, linksB))
+			return true ;
+		
+		if (linksA.size() == 0 || linksB.size() == 0)
+			return true ;
+		
+		int shared = IntListView.intersectionSize(linksA, linksB) ;
+		
+		int intersection = shared ;
+		if (linksA.contains(idB) && !linksB.contains(idB))
+			intersection++ ;
+		if (linksB.contains(idA) && !linksA.contains(idA))
+			intersection++ ;
+		
+		int union = linksA.size() + linksB.size() - shared ;
+		
+		setLinkFeatures(cmp, dir, linksA.size(), linksB.size(), intersection, union, 0, false) ;
+		return true ;
+	}
+	
+	private void setLinkFeatures(ArticleComparison cmp, LinkDirection dir, int linkCountA, int linkCountB, int intersection, int union, double vectorMeasure, boolean hasVectorMeasure) {
+		
 		//calculate google distance inspired measure
-		Double googleMeasure = null ;
+		double googleMeasure ;
 
 		if (intersection == 0) {
 			googleMeasure = 1.0 ;
 		} else {
-			double a = Math.log(linksA.size()) ;
-			double b = Math.log(linksB.size()) ;
+			double a = Math.log(linkCountA) ;
+			double b = Math.log(linkCountB) ;
 			double ab = Math.log(intersection) ;
 
 			googleMeasure = (Math.max(a, b) -ab) / (m - Math.min(a, b)) ;
@@ -468,90 +538,176 @@ public class ArticleComparer {
 		
 		googleMeasure = ArticleComparison.normalizeGoogleMeasure(googleMeasure) ;
 
-		//calculate vector (tfidf) inspired measure
-
-		Double vectorMeasure = null ;
-		if (useLinkCounts) {
-
-			if (vectA.isEmpty() || vectB.isEmpty())
-				vectorMeasure = Math.PI/2 ;
-			else {
-
-				double dotProduct = 0 ;
-				double magnitudeA = 0 ;
-				double magnitudeB = 0 ;
-
-				//StringBuffer strA = new StringBuffer() ;
-				//StringBuffer strB = new StringBuffer() ;
-
-
-				for (int x=0;x<vectA.size();x++) {
-					double valA = vectA.get(x) ;
-					double valB = vectB.get(x) ;
+		double intersectionProportion = (double)intersection/union ;
 
-					/*
-                            if (valA > 0)
-                                    strA.append(df.format(valA) + "\t") ;
-                            else
-                                    strA.append("-.---\t") ;
-
-                            if (valB > 0)
-                                    strB.append(df.format(valB)+ "\t") ;
-                            else
-                                    strB.append("-.---\t") ;
-					 */
-					dotProduct = dotProduct + (valA * valB) ;
-					magnitudeA = magnitudeA + (valA * valA) ;
-					magnitudeB = magnitudeB + (valB * valB) ;
-				}
-
-				magnitudeA = Math.sqrt(magnitudeA) ;
-				magnitudeB = Math.sqrt(magnitudeB) ;
-
-				vectorMeasure = Math.acos(dotProduct / (magnitudeA * magnitudeB)) ;
-				if (vectorMeasure.isNaN())
-					vectorMeasure = Math.PI/2 ;
-				
-				vectorMeasure = ArticleComparison.normalizeVectorMeasure(vectorMeasure) ;
-			}
-
-			//if (vectorMeasure.isNaN()) {
-			//      System.out.println("A: (" + cmp.getArticleA() + ") " + strA) ;
-			//      System.out.println("B: (" + cmp.getArticleB() + ") " + strB) ;
-			//}
-		}
-
-		double intersectionProportion ;
-		if (union == 0)
-			intersectionProportion = 0 ;
+		//features are only boxed here, where they are stored
+		if (dir == LinkDirection.Out)
+			cmp.setOutLinkFeatures(googleMeasure, hasVectorMeasure ? vectorMeasure : null, union, intersectionProportion) ;
 		else
-			intersectionProportion = (double)intersection/union ;
-
-		//System.out.println("Intersection: " + intersection + "\tUnion: " + union) ;
-		//System.out.println("Relatedness:" + df.format(googleMeasure)) ;
-		//System.out.println();
-
+			cmp.setInLinkFeatures(googleMeasure, hasVectorMeasure ? vectorMeasure : null, union, intersectionProportion) ;
+	}
+	
+	private int getTotalLinkCount(int artId, LinkDirection dir) {
+		
+		LinkCountTable counts = wikipedia.getEnvironment().getLinkCountTable() ;
+		
+		if (counts != null) {
+			if (dir == LinkDirection.Out)
+				return counts.getTotalLinksOut(artId) ;
+			else
+				return counts.getTotalLinksIn(artId) ;
+		}
+		
+		DbPageLinkCounts lc = wikipedia.getEnvironment().getDbPageLinkCounts().retrieve(artId) ;
+		if (lc == null)
+			return 0 ;
+		
 		if (dir == LinkDirection.Out)
-			cmp.setOutLinkFeatures(googleMeasure, vectorMeasure, union, intersectionProportion) ;
+			return lc.getTotalLinksOut() ;
 		else
-			cmp.setInLinkFeatures(googleMeasure, vectorMeasure, union, intersectionProportion) ;
-
-		return cmp ;
+			return lc.getTotalLinksIn() ;
 	}
 
-	private ArrayList<Integer> getLinks(int artId, LinkDirection dir) {
-
-		DbIntList ids ;
+	private LinkCursor[] getLinkCursors() {
+		
+		LinkCursor[] cursors = linkCursors.get() ;
+		if (cursors == null) {
+			cursors = new LinkCursor[] {new LinkCursor(), new LinkCursor()} ;
+			linkCursors.set(cursors) ;
+		}
+		return cursors ;
+	}
+	
+	/**
+	 * Points this thread's pair of cursors at the links of the given articles 
+	 */
+	private LinkCursor[] getLinkCursors(int artIdA, int artIdB, LinkDirection dir) {
 
+		WEnvironment env = wikipedia.getEnvironment() ;
+		LinkCursor[] cursors = getLinkCursors() ;
+		
+		LinkGraph graph = env.getLinkGraph(dir == LinkDirection.In ? DatabaseType.pageLinksIn : DatabaseType.pageLinksOut) ;
+		if (graph != null) {
+			cursors[0].wrap(graph, artIdA) ;
+			cursors[1].wrap(graph, artIdB) ;
+			return cursors ;
+		}
+		
+		WDatabase<Integer,DbIntList> db ;
 		if (dir == LinkDirection.In)
-			ids = wikipedia.getEnvironment().getDbPageLinkInNoSentences().retrieve(artId) ;
+			db = env.getDbPageLinkInNoSentences() ;
 		else
-			ids = wikipedia.getEnvironment().getDbPageLinkOutNoSentences().retrieve(artId) ;
-
-		if (ids == null || ids.getValues() == null) 
-			return new ArrayList<Integer>() ;
-
-		return ids.getValues() ;
+			db = env.getDbPageLinkOutNoSentences() ;
+		
+		if (db.isViewable()) {
+			cursors[0].wrap(db, artIdA) ;
+			cursors[1].wrap(db, artIdB) ;
+			return cursors ;
+		}
+		
+		//both lists are retrieved together, so they share a single pass over the database (or a single request to each shard)
+		ArrayList<DbIntList> ids = db.retrieveAll(Arrays.asList(artIdA, artIdB)) ;
+		
+		cursors[0].wrap(ids.get(0)) ;
+		cursors[1].wrap(ids.get(1)) ;
+		return cursors ;
+	}
+	
+	/**
+	 * Steps through the links of a single article, reading them directly from a link graph, a cached view, or a deserialised 
+	 * list, rather than copying them out first.
+	 */
+	private static class LinkCursor {
+		
+		private LinkGraph graph ;
+		private int start ;
+		
+		private IntListView view = new IntListView() ;
+		private boolean viewing ;
+		
+		private ArrayList<Integer> values ;
+		
+		private int size ;
+		private int index ;
+		
+		private int current ;
+		private boolean hasCurrent ;
+		
+		void wrap(LinkGraph graph, int id) {
+			
+			reset() ;
+			this.graph = graph ;
+			
+			int row = graph.indexOf(id) ;
+			if (row >= 0) {
+				start = graph.getStart(row) ;
+				size = graph.getEnd(row) - start ;
+			}
+			
+			advance() ;
+		}
+		
+		void wrap(WDatabase<Integer,DbIntList> db, int id) {
+			
+			reset() ;
+			
+			if (db.retrieveView(id, view)) {
+				viewing = true ;
+				size = view.size() ;
+			}
+			
+			advance() ;
+		}
+		
+		void wrap(DbIntList ids) {
+			
+			reset() ;
+			
+			if (ids != null && ids.getValues() != null) {
+				values = ids.getValues() ;
+				size = values.size() ;
+			}
+			
+			advance() ;
+		}
+		
+		private void reset() {
+			
+			graph = null ;
+			viewing = false ;
+			values = null ;
+			
+			size = 0 ;
+			index = 0 ;
+		}
+		
+		int size() {
+			return size ;
+		}
+		
+		boolean hasCurrent() {
+			return hasCurrent ;
+		}
+		
+		int current() {
+			return current ;
+		}
+		
+		void advance() {
+			
+			hasCurrent = index < size ;
+			if (!hasCurrent)
+				return ;
+			
+			if (graph != null)
+				current = graph.getNeighbourAt(start + index) ;
+			else if (viewing)
+				current = view.next() ;
+			else
+				current = values.get(index) ;
+			
+			index++ ;
+		}
 	}
 
 
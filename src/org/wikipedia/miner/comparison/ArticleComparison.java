@@ -114,10 +114,7 @@ public class ArticleComparison {
 		outLinkIntersectionProportion = intersectionProportion ;
 	}
 	
-	protected static double normalizeGoogleMeasure(Double googleMeasure) {
-		
-		if (googleMeasure == null)
-			return 0 ;
+	protected static double normalizeGoogleMeasure(double googleMeasure) {
 		
 		if (googleMeasure >= 1)
 			return 0 ;
@@ -125,10 +122,7 @@ public class ArticleComparison {
 		return 1-googleMeasure ;
 	}
 	
-	protected static double normalizeVectorMeasure(Double vectorMeasure) {
-		
-		if (vectorMeasure == null)
-			return 0 ;
+	protected static double normalizeVectorMeasure(double vectorMeasure) {
 		
 		if (vectorMeasure == (Math.PI/2))
 			return 0 ;
@@ -0,0 +1,306 @@
+package org.wikipedia.miner.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded, read-through cache of the values held by a {@link WDatabase}, for databases that are too large to cache in full
+ * (see {@link WDatabase.CachePriority#bounded}). Values are cached as they are retrieved, including the absence of a value for keys
+ * that are not found.
+ * <p>
+ * The cache is safe to share between threads. It is split into a number of independently locked segments, each of which evicts
+ * its least recently used entry once it is full. Eviction is guarded by a TinyLFU admission policy: each segment keeps a compact,
+ * periodically aged count-min sketch of how often keys have been requested, and a new entry only displaces the least recently
+ * used one if its key has been requested more often. This stops one-off lookups (such as those made while iterating over a database)
+ * from flushing out the hot set.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public class BoundedCache<K,V> {
+
+	/**
+	 * The capacity used when none is specified
+	 */
+	public static final int DEFAULT_CAPACITY = 100000 ;
+
+	/**
+	 * Stands in for the value of keys that are known not to be in the database
+	 */
+	static final Object ABSENT = new Object() ;
+
+	private static final int MAX_SEGMENT_BITS = 4 ;
+	private static final int MIN_SEGMENT_CAPACITY = 64 ;
+
+	private int capacity ;
+	private int segmentBits ;
+	private Segment[] segments ;
+
+	private AtomicLong requests = new AtomicLong() ;
+	private AtomicLong hits = new AtomicLong() ;
+	private AtomicLong evictions = new AtomicLong() ;
+	private AtomicLong rejections = new AtomicLong() ;
+
+	/**
+	 * Initializes an empty cache
+	 *
+	 * @param capacity the maximum number of entries to cache
+	 */
+	public BoundedCache(int capacity) {
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1") ;
+
+		this.capacity = capacity ;
+
+		//small caches are split into fewer segments, so that each one is still large enough to judge what is worth keeping
+		segmentBits = 0 ;
+		while (segmentBits < MAX_SEGMENT_BITS && (capacity >> (segmentBits + 1)) >= MIN_SEGMENT_CAPACITY)
+			segmentBits++ ;
+
+		//spread capacity as evenly as possible over segments
+		int segmentCount = 1 << segmentBits ;
+		segments = new Segment[segmentCount] ;
+		for (int i=0 ; i<segmentCount ; i++) {
+			int segmentCapacity = capacity / segmentCount ;
+			if (i < capacity % segmentCount)
+				segmentCapacity++ ;
+
+			segments[i] = new Segment(segmentCapacity) ;
+		}
+	}
+
+	/**
+	 * Looks up the given key, and records that it has been requested.
+	 *
+	 * @param key the key to search for
+	 * @return the cached value, {@link #ABSENT} if the key is known not to be in the database, or null if it has not been cached
+	 */
+	Object get(K key) {
+
+		requests.incrementAndGet() ;
+
+		int hash = hash(key) ;
+		Object value = getSegment(hash).get(key, hash) ;
+
+		if (value != null)
+			hits.incrementAndGet() ;
+
+		return value ;
+	}
+
+	/**
+	 * Offers a value that has just been read from the database. It will only be cached if there is room for it, or
+	 * if its key is requested more often than that of the entry it would replace.
+	 *
+	 * @param key the key that was requested
+	 * @param value the value that was retrieved, or null if the key was not found
+	 */
+	void put(K key, V value) {
+
+		int hash = hash(key) ;
+
+		switch (getSegment(hash).put(key, hash, value == null ? ABSENT : value)) {
+		case evicted:
+			evictions.incrementAndGet() ;
+			break ;
+		case rejected:
+			rejections.incrementAndGet() ;
+			break ;
+		default:
+			break ;
+		}
+	}
+
+	/**
+	 * @return the maximum number of entries this cache will hold
+	 */
+	public int getCapacity() {
+		return capacity ;
+	}
+
+	/**
+	 * @return the number of entries currently cached
+	 */
+	public int size() {
+
+		int size = 0 ;
+		for (Segment segment:segments)
+			size = size + segment.size() ;
+
+		return size ;
+	}
+
+	/**
+	 * @return the number of lookups that have been made
+	 */
+	public long getRequests() {
+		return requests.get() ;
+	}
+
+	/**
+	 * @return the number of lookups that were answered without going to the database
+	 */
+	public long getHits() {
+		return hits.get() ;
+	}
+
+	/**
+	 * @return the proportion of lookups that were answered without going to the database
+	 */
+	public double getHitRatio() {
+
+		long r = getRequests() ;
+		if (r == 0)
+			return 0 ;
+
+		return (double)getHits()/r ;
+	}
+
+	/**
+	 * @return the number of entries that have been evicted to make room for more frequently requested ones
+	 */
+	public long getEvictions() {
+		return evictions.get() ;
+	}
+
+	/**
+	 * @return the number of values that were not cached, because they were requested less often than the entries they would have replaced
+	 */
+	public long getRejections() {
+		return rejections.get() ;
+	}
+
+	/**
+	 * Discards all cached entries and request frequencies (but not the statistics gathered so far)
+	 */
+	public void clear() {
+		for (Segment segment:segments)
+			segment.clear() ;
+	}
+
+	private static int hash(Object key) {
+		return key.hashCode() * 0x9E3779B9 ;
+	}
+
+	private Segment getSegment(int hash) {
+		if (segmentBits == 0)
+			return segments[0] ;
+
+		return segments[hash >>> (32 - segmentBits)] ;
+	}
+
+
+	private enum Admission {added, evicted, rejected}
+
+	private static class Segment {
+
+		private int capacity ;
+
+		private LinkedHashMap<Object,Object> entries ;
+		private FrequencySketch sketch ;
+
+		Segment(int capacity) {
+			this.capacity = capacity ;
+			clear() ;
+		}
+
+		synchronized Object get(Object key, int hash) {
+			sketch.increment(hash) ;
+			return entries.get(key) ;
+		}
+
+		synchronized Admission put(Object key, int hash, Object value) {
+
+			if (entries.size() < capacity || entries.containsKey(key)) {
+				entries.put(key, value) ;
+				return Admission.added ;
+			}
+
+			Iterator<Map.Entry<Object,Object>> iter = entries.entrySet().iterator() ;
+			Object victim = iter.next().getKey() ;
+
+			if (sketch.frequency(hash) <= sketch.frequency(hash(victim)))
+				return Admission.rejected ;
+
+			iter.remove() ;
+			entries.put(key, value) ;
+			return Admission.evicted ;
+		}
+
+		synchronized int size() {
+			return entries.size() ;
+		}
+
+		synchronized void clear() {
+			//access order, so that the first entry is always the least recently used
+			entries = new LinkedHashMap<Object,Object>(Math.min(capacity, 64), 0.75f, true) ;
+			sketch = new FrequencySketch(capacity) ;
+		}
+	}
+
+	/**
+	 * A count-min sketch of 4-bit counters, which are all halved once enough increments have been made, so that
+	 * keys that used to be popular are eventually forgotten.
+	 */
+	private static class FrequencySketch {
+
+		private static final int DEPTH = 4 ;
+		private static final int MAX_COUNT = 15 ;
+		private static final int[] SEEDS = {0x97CB3127, 0x7FEB352D, 0x846CA68B, 0xC2B2AE35} ;
+
+		private byte[] counts ;
+		private int widthBits ;
+
+		private int increments = 0 ;
+		private int sampleSize ;
+
+		FrequencySketch(int capacity) {
+
+			widthBits = 4 ;
+			while ((1 << widthBits) < capacity && widthBits < 30)
+				widthBits++ ;
+
+			counts = new byte[DEPTH << widthBits] ;
+			sampleSize = 10 << widthBits ;
+		}
+
+		void increment(int hash) {
+
+			boolean added = false ;
+			for (int row=0 ; row<DEPTH ; row++) {
+				int index = indexOf(hash, row) ;
+				if (counts[index] < MAX_COUNT) {
+					counts[index]++ ;
+					added = true ;
+				}
+			}
+
+			if (added && ++increments >= sampleSize)
+				age() ;
+		}
+
+		int frequency(int hash) {
+
+			int min = MAX_COUNT ;
+			for (int row=0 ; row<DEPTH ; row++)
+				min = Math.min(min, counts[indexOf(hash, row)]) ;
+
+			return min ;
+		}
+
+		private int indexOf(int hash, int row) {
+			return (row << widthBits) + ((hash * SEEDS[row]) >>> (32 - widthBits)) ;
+		}
+
+		private void age() {
+
+			for (int i=0 ; i<counts.length ; i++)
+				counts[i] = (byte)(counts[i] >> 1) ;
+
+			increments = increments / 2 ;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.wikipedia.miner.db;
+
+import java.util.Arrays;
+
+/**
+ * A purpose-built binary layout for values of a particular type, which a {@link WDatabase} can use in place of its value binding
+ * when it is cached with {@link WDatabase.CachePriority#space}.
+ *
+ * Unlike Hadoop's record serialization, these layouts are designed to be read in place. A {@link CompactView} of the matching type
+ * can be wrapped around the cached bytes (via {@link WDatabase#retrieveView(Object, CompactView)}) to read individual fields
+ * without materialising the value or any of the objects nested within it.
+ *
+ * Encodings hold no state, so a single instance can be shared by any number of databases and threads.
+ *
+ * @param <V> the type of value that is encoded
+ */
+public abstract class CompactEncoding<V> {
+
+	/**
+	 * Encodes the given value
+	 *
+	 * @param value the value to encode
+	 * @return the encoded bytes
+	 */
+	public abstract byte[] encode(V value) ;
+
+	/**
+	 * Decodes a value that was encoded with {@link #encode(Object)}
+	 *
+	 * @param data the encoded bytes
+	 * @return the decoded value
+	 */
+	public abstract V decode(byte[] data) ;
+
+	/**
+	 * @return the type of {@link CompactView} that can read bytes produced by this encoding
+	 */
+	public abstract Class<? extends CompactView> getViewClass() ;
+
+
+	/**
+	 * A growable buffer for writing encoded values
+	 */
+	protected static class Output {
+
+		private byte[] buffer = new byte[32] ;
+		private int length = 0 ;
+
+		/**
+		 * Writes a single byte
+		 *
+		 * @param b the byte to write
+		 */
+		public void writeByte(int b) {
+			ensureCapacity(1) ;
+			buffer[length++] = (byte)b ;
+		}
+
+		/**
+		 * Writes an int as an unsigned varint, using between 1 and 5 bytes. Negative values are valid, but always use 5 bytes.
+		 *
+		 * @param value the value to write
+		 */
+		public void writeVarInt(int value) {
+			ensureCapacity(5) ;
+
+			while ((value & ~0x7F) != 0) {
+				buffer[length++] = (byte)((value & 0x7F) | 0x80) ;
+				value >>>= 7 ;
+			}
+			buffer[length++] = (byte)value ;
+		}
+
+		/**
+		 * Writes a long as an unsigned varint, using between 1 and 10 bytes. Negative values are valid, but always use 10 bytes.
+		 *
+		 * @param value the value to write
+		 */
+		public void writeVarLong(long value) {
+			ensureCapacity(10) ;
+
+			while ((value & ~0x7FL) != 0) {
+				buffer[length++] = (byte)((value & 0x7F) | 0x80) ;
+				value >>>= 7 ;
+			}
+			buffer[length++] = (byte)value ;
+		}
+
+		/**
+		 * Writes an int as four bytes, most significant first, so that it can be read in place at a known position
+		 *
+		 * @param value the value to write
+		 */
+		public void writeInt(int value) {
+			ensureCapacity(4) ;
+
+			buffer[length++] = (byte)(value >>> 24) ;
+			buffer[length++] = (byte)(value >>> 16) ;
+			buffer[length++] = (byte)(value >>> 8) ;
+			buffer[length++] = (byte)value ;
+		}
+
+		/**
+		 * Writes everything that has been written to another output
+		 *
+		 * @param other the output to copy
+		 */
+		public void write(Output other) {
+			ensureCapacity(other.length) ;
+
+			System.arraycopy(other.buffer, 0, buffer, length, other.length) ;
+			length += other.length ;
+		}
+
+		/**
+		 * @return the number of bytes that have been written
+		 */
+		public int length() {
+			return length ;
+		}
+
+		/**
+		 * @return a copy of the bytes that have been written, trimmed to length
+		 */
+		public byte[] toByteArray() {
+			return Arrays.copyOf(buffer, length) ;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (length + extra > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra)) ;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.wikipedia.miner.db;
+
+/**
+ * A flyweight reader for bytes produced by a {@link CompactEncoding}.
+ *
+ * A view can be wrapped around any number of values in turn (see {@link WDatabase#retrieveView(Object, CompactView)}),
+ * so a single instance can be reused across many lookups without allocating anything. Views are not thread-safe.
+ */
+public abstract class CompactView {
+
+	/**
+	 * The encoded bytes that are currently being read
+	 */
+	protected byte[] data ;
+
+	/**
+	 * The position of the next byte to be read
+	 */
+	protected int pos ;
+
+	/**
+	 * Points this view at the given encoded bytes, and reads any header fields they start with.
+	 *
+	 * @param data bytes produced by the matching {@link CompactEncoding}
+	 */
+	public void wrap(byte[] data) {
+		this.data = data ;
+		this.pos = 0 ;
+		readHeader() ;
+	}
+
+	/**
+	 * Reads any fields that precede the body of the encoded value, leaving {@link #pos} at the start of the body.
+	 */
+	protected abstract void readHeader() ;
+
+	/**
+	 * @return the next byte, as an unsigned value
+	 */
+	protected int readByte() {
+		return data[pos++] & 0xFF ;
+	}
+
+	/**
+	 * Reads an int written with {@link CompactEncoding.Output#writeInt(int)}, without moving the current position
+	 *
+	 * @param at the position of the first byte of the int
+	 * @return the int
+	 */
+	protected int readIntAt(int at) {
+		return ((data[at] & 0xFF) << 24) | ((data[at+1] & 0xFF) << 16) | ((data[at+2] & 0xFF) << 8) | (data[at+3] & 0xFF) ;
+	}
+
+	/**
+	 * @return the next int, written with {@link CompactEncoding.Output#writeVarInt(int)}
+	 */
+	protected int readVarInt() {
+
+		int value = 0 ;
+		int shift = 0 ;
+		byte b ;
+
+		do {
+			b = data[pos++] ;
+			value |= (b & 0x7F) << shift ;
+			shift += 7 ;
+		} while (b < 0) ;
+
+		return value ;
+	}
+
+	/**
+	 * @return the next long, written with {@link CompactEncoding.Output#writeVarLong(long)}
+	 */
+	protected long readVarLong() {
+
+		long value = 0 ;
+		int shift = 0 ;
+		byte b ;
+
+		do {
+			b = data[pos++] ;
+			value |= (long)(b & 0x7F) << shift ;
+			shift += 7 ;
+		} while (b < 0) ;
+
+		return value ;
+	}
+}
@@ -0,0 +1,180 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TLongHashSet;
+import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongLongIterator;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.hadoop.record.CsvRecordInput;
+
+/**
+ * The differences between two versions of a CSV file produced by {@link org.wikipedia.miner.extraction.DumpExtractor},
+ * identified by comparing 64 bit hashes of each line.
+ *
+ * Lines are matched up by their first field (the key of the record), so each line of the newer file is either unchanged,
+ * changed or new, and each line of the older file is either unchanged, stale (replaced by a changed line) or removed.
+ * Only hashes are held in memory, so the files themselves must be read again to apply the differences.
+ */
+class CsvDelta {
+
+	private TLongHashSet changedKeys = new TLongHashSet() ;
+	private TLongHashSet staleKeys = new TLongHashSet() ;
+	private TLongHashSet removedKeys = new TLongHashSet() ;
+
+	/**
+	 * Compares the given files
+	 *
+	 * @param previousFile the older version of the file
+	 * @param currentFile the newer version of the file
+	 * @throws IOException if either file cannot be read
+	 */
+	public CsvDelta(File previousFile, File currentFile) throws IOException {
+
+		TLongLongHashMap previousLines = new TLongLongHashMap() ;
+
+		BufferedReader input = openCsvFile(previousFile) ;
+		try {
+			String line ;
+			while ((line=input.readLine()) != null)
+				previousLines.put(hashKey(line), hash(line, line.length())) ;
+		} finally {
+			input.close() ;
+		}
+
+		input = openCsvFile(currentFile) ;
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				long key = hashKey(line) ;
+
+				if (!previousLines.containsKey(key)) {
+					changedKeys.add(key) ;
+					continue ;
+				}
+
+				if (previousLines.get(key) != hash(line, line.length())) {
+					changedKeys.add(key) ;
+					staleKeys.add(key) ;
+				}
+				previousLines.remove(key) ;
+			}
+		} finally {
+			input.close() ;
+		}
+
+		//anything left over has no counterpart in the current file
+		TLongLongIterator iter = previousLines.iterator() ;
+		while (iter.hasNext()) {
+			iter.advance() ;
+			staleKeys.add(iter.key()) ;
+			removedKeys.add(iter.key()) ;
+		}
+	}
+
+	/**
+	 * @return true if the files contain exactly the same records, otherwise false
+	 */
+	public boolean isEmpty() {
+		return changedKeys.isEmpty() && staleKeys.isEmpty() ;
+	}
+
+	/**
+	 * @return the number of records that were added, changed or removed
+	 */
+	public int size() {
+		return changedKeys.size() + removedKeys.size() ;
+	}
+
+	/**
+	 * @param currentLine a line from the newer file
+	 * @return true if the line is new, or differs from the line with the same key in the older file
+	 */
+	public boolean isChanged(String currentLine) {
+		return changedKeys.contains(hashKey(currentLine)) ;
+	}
+
+	/**
+	 * @param previousLine a line from the older file
+	 * @return true if the line has been changed or removed in the newer file
+	 */
+	public boolean isStale(String previousLine) {
+		return staleKeys.contains(hashKey(previousLine)) ;
+	}
+
+	/**
+	 * @param previousLine a line from the older file
+	 * @return true if there is no line with the same key in the newer file
+	 */
+	public boolean isRemoved(String previousLine) {
+		return removedKeys.contains(hashKey(previousLine)) ;
+	}
+
+	/**
+	 * Opens a CSV file for reading, line by line
+	 *
+	 * @param file a CSV file produced by {@link org.wikipedia.miner.extraction.DumpExtractor}
+	 * @return a reader for the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static BufferedReader openCsvFile(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
+	}
+
+	/**
+	 * @param line a line of CSV
+	 * @return a record for reading the fields of the line
+	 * @throws IOException if the line cannot be encoded
+	 */
+	public static CsvRecordInput toRecord(String line) throws IOException {
+		return new CsvRecordInput(new ByteArrayInputStream((line + "\n").getBytes("UTF-8"))) ;
+	}
+
+	/**
+	 * @param line a line of CSV, whose first field is an int
+	 * @return the first field of the line
+	 * @throws IOException if the first field is not an int
+	 */
+	public static int readIntKey(String line) throws IOException {
+
+		//ints are written as plain decimals, so there is no need to encode the whole line and parse it as a record
+		int end = line.indexOf(',') ;
+		if (end < 0)
+			end = line.length() ;
+
+		try {
+			return Integer.parseInt(line.substring(0, end)) ;
+		} catch (NumberFormatException e) {
+			throw new IOException("Expected an int at the start of '" + line + "'") ;
+		}
+	}
+
+	private static long hashKey(String line) {
+
+		int end = line.indexOf(',') ;
+		if (end < 0)
+			end = line.length() ;
+
+		return hash(line, end) ;
+	}
+
+	/**
+	 * @param chars some characters
+	 * @param end the number of characters (from the start) to hash
+	 * @return a 64 bit FNV-1a hash of the given characters
+	 */
+	static long hash(CharSequence chars, int end) {
+
+		long hash = 0xcbf29ce484222325L ;
+		for (int i=0 ; i<end ; i++) {
+			hash ^= chars.charAt(i) ;
+			hash *= 0x100000001b3L ;
+		}
+		return hash ;
+	}
+}
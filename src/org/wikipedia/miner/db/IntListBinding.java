@@ -0,0 +1,53 @@
+package org.wikipedia.miner.db;
+
+import org.wikipedia.miner.db.struct.DbIntList;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * An {@link EntryBinding} that stores {@link DbIntList DbIntLists} with {@link IntListView#ENCODING}, so that sorted lists 
+ * are stored on disk as varint gaps with skip pointers rather than as full Hadoop records. 
+ * 
+ * Each stored value starts with a tag byte that can never begin a Hadoop record of a DbIntList (the record starts with the
+ * length of the list as a Hadoop varint, and a non-negative length never starts with this byte). Values without the tag 
+ * are read as Hadoop records, so databases that were built before this binding was introduced can still be read.
+ */
+public class IntListBinding implements EntryBinding<DbIntList> {
+
+	private static final byte TAG = (byte)0x80 ;
+
+	private RecordBinding<DbIntList> legacyBinding = new RecordBinding<DbIntList>() {
+		public DbIntList createRecordInstance() {
+			return new DbIntList() ;
+		}
+	} ;
+
+	@Override
+	public DbIntList entryToObject(DatabaseEntry input) {
+
+		byte[] data = input.getData() ;
+		int offset = input.getOffset() ;
+		int length = input.getSize() ;
+
+		if (length == 0 || data[offset] != TAG)
+			return legacyBinding.entryToObject(input) ;
+
+		byte[] encoded = new byte[length-1] ;
+		System.arraycopy(data, offset+1, encoded, 0, length-1) ;
+
+		return IntListView.ENCODING.decode(encoded) ;
+	}
+
+	@Override
+	public void objectToEntry(DbIntList object, DatabaseEntry entry) {
+
+		byte[] encoded = IntListView.ENCODING.encode(object) ;
+
+		byte[] data = new byte[encoded.length + 1] ;
+		data[0] = TAG ;
+		System.arraycopy(encoded, 0, data, 1, encoded.length) ;
+
+		entry.setData(data) ;
+	}
+}
@@ -0,0 +1,349 @@
+package org.wikipedia.miner.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.wikipedia.miner.db.struct.DbIntList;
+
+/**
+ * A flyweight reader for a {@link DbIntList}, encoded with {@link IntListView#ENCODING}.
+ *
+ * The encoding starts with the number of values and flags indicating whether they are sorted. Sorted lists (such as links,
+ * parents and children, which are always sorted by id) are stored as a varint first value followed by varint gaps between
+ * consecutive values, so most values take only one or two bytes. Unsorted lists store each value as a varint.
+ *
+ * Longer sorted lists also carry a table of skip pointers, one for every {@link #SKIP_INTERVAL} values, each holding the last value 
+ * before a block and the position at which the block starts. These let {@link #skipTo(int)}, {@link #contains(int)} and 
+ * {@link #intersectionSize(IntListView, IntListView)} jump over whole blocks without decoding them. 
+ *
+ * Values are otherwise read in order, via {@link #hasNext()} and {@link #next()}.
+ */
+public class IntListView extends CompactView {
+
+	/**
+	 * The encoding read by this view
+	 */
+	public static final CompactEncoding<DbIntList> ENCODING = new CompactEncoding<DbIntList>() {
+
+		@Override
+		public byte[] encode(DbIntList value) {
+
+			ArrayList<Integer> values = value.getValues() ;
+			int size = values == null ? 0 : values.size() ;
+
+			boolean sorted = true ;
+			for (int i=1 ; i<size && sorted ; i++) {
+				if (values.get(i) < values.get(i-1))
+					sorted = false ;
+			}
+
+			int flags = sorted ? SORTED : 0 ;
+			if (sorted && size >= 2 * SKIP_INTERVAL)
+				flags |= SKIPS ;
+
+			Output body = new Output() ;
+			
+			int skipCount = (flags & SKIPS) != 0 ? (size - 1) / SKIP_INTERVAL : 0 ;
+			int[] skipValues = new int[skipCount] ;
+			int[] skipOffsets = new int[skipCount] ;
+
+			int prev = 0 ;
+			for (int i=0 ; i<size ; i++) {
+				int v = values.get(i) ;
+
+				if (sorted) {
+					if (skipCount > 0 && i > 0 && i % SKIP_INTERVAL == 0) {
+						skipValues[i/SKIP_INTERVAL - 1] = prev ;
+						skipOffsets[i/SKIP_INTERVAL - 1] = body.length() ;
+					}
+					
+					//overflow is harmless here, because the gap is added back with the same int arithmetic
+					body.writeVarInt(v - prev) ;
+					prev = v ;
+				} else {
+					body.writeVarInt(v) ;
+				}
+			}
+
+			Output out = new Output() ;
+			out.writeVarInt(size) ;
+			out.writeByte(flags) ;
+
+			if ((flags & SKIPS) != 0) {
+				out.writeVarInt(skipCount) ;
+				for (int i=0 ; i<skipCount ; i++) {
+					out.writeInt(skipValues[i]) ;
+					out.writeInt(skipOffsets[i]) ;
+				}
+			}
+			
+			out.write(body) ;
+
+			return out.toByteArray() ;
+		}
+
+		@Override
+		public DbIntList decode(byte[] data) {
+
+			IntListView view = new IntListView() ;
+			view.wrap(data) ;
+
+			ArrayList<Integer> values = new ArrayList<Integer>(view.size()) ;
+			while (view.hasNext())
+				values.add(view.next()) ;
+
+			return new DbIntList(values) ;
+		}
+
+		@Override
+		public Class<? extends CompactView> getViewClass() {
+			return IntListView.class ;
+		}
+	} ;
+
+	/**
+	 * The number of values between each skip pointer
+	 */
+	public static final int SKIP_INTERVAL = 64 ;
+
+	private static final int SORTED = 1 ;
+	private static final int SKIPS = 2 ;
+
+	private int size ;
+	private boolean sorted ;
+	private int skipCount ;
+	private int skipTableStart ;
+	private int bodyStart ;
+
+	private int index ;
+	private int prev ;
+
+	@Override
+	protected void readHeader() {
+
+		size = readVarInt() ;
+		
+		int flags = readByte() ;
+		sorted = (flags & SORTED) != 0 ;
+		
+		if ((flags & SKIPS) != 0) {
+			skipCount = readVarInt() ;
+			skipTableStart = pos ;
+			pos = pos + (8 * skipCount) ;
+		} else {
+			skipCount = 0 ;
+		}
+		
+		bodyStart = pos ;
+
+		index = 0 ;
+		prev = 0 ;
+	}
+
+	/**
+	 * @return the number of values in the list
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * @return true if values are sorted in ascending order, otherwise false
+	 */
+	public boolean isSorted() {
+		return sorted ;
+	}
+
+	/**
+	 * @return true if there are more values to read, otherwise false
+	 */
+	public boolean hasNext() {
+		return index < size ;
+	}
+
+	/**
+	 * @return the next value in the list
+	 */
+	public int next() {
+
+		if (index >= size)
+			throw new NoSuchElementException() ;
+
+		index++ ;
+
+		if (sorted) {
+			prev += readVarInt() ;
+			return prev ;
+		} else {
+			return readVarInt() ;
+		}
+	}
+
+	/**
+	 * Returns to the start of the list
+	 */
+	public void reset() {
+		pos = bodyStart ;
+		index = 0 ;
+		prev = 0 ;
+	}
+
+	/**
+	 * Reads all of the values in the list, starting from the beginning
+	 *
+	 * @return the values in the list
+	 */
+	public int[] toArray() {
+
+		reset() ;
+
+		int[] values = new int[size] ;
+		for (int i=0 ; i<size ; i++)
+			values[i] = next() ;
+
+		return values ;
+	}
+
+	/**
+	 * Moves forward past any values that are smaller than the given target, jumping over whole blocks of values where possible. 
+	 * Afterwards, {@link #next()} will return the first remaining value that is greater than or equal to the target. 
+	 * 
+	 * @param target the value to skip to
+	 * @return true if there is such a value, otherwise false
+	 * @throws IllegalStateException if the values are not sorted
+	 */
+	public boolean skipTo(int target) {
+		
+		if (!sorted)
+			throw new IllegalStateException("Cannot skip through unsorted values") ;
+		
+		//find the last block that begins after a value that is smaller than the target
+		int lo = 0 ;
+		int hi = skipCount - 1 ;
+		int block = -1 ;
+		
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1 ;
+			
+			if (readIntAt(skipTableStart + (8 * mid)) < target) {
+				block = mid ;
+				lo = mid + 1 ;
+			} else {
+				hi = mid - 1 ;
+			}
+		}
+		
+		if (block >= 0 && (block + 1) * SKIP_INTERVAL > index) {
+			int at = skipTableStart + (8 * block) ;
+			
+			prev = readIntAt(at) ;
+			pos = bodyStart + readIntAt(at + 4) ;
+			index = (block + 1) * SKIP_INTERVAL ;
+		}
+		
+		while (index < size) {
+			
+			int lastPos = pos ;
+			int lastPrev = prev ;
+			
+			if (next() >= target) {
+				//step back, so the value can be read again
+				pos = lastPos ;
+				prev = lastPrev ;
+				index-- ;
+				return true ;
+			}
+		}
+		return false ;
+	}
+
+	/**
+	 * Checks whether the list contains the given value, skipping over blocks of smaller values if the list is sorted.
+	 *
+	 * @param value the value to search for
+	 * @return true if the list contains the given value, otherwise false
+	 */
+	public boolean contains(int value) {
+
+		reset() ;
+
+		if (sorted) 
+			return skipTo(value) && next() == value ;
+		
+		while (hasNext()) {
+			if (next() == value)
+				return true ;
+		}
+		return false ;
+	}
+	
+	/**
+	 * Counts the values that are common to both of the given lists, reading both from the beginning. If both are sorted, 
+	 * each list skips ahead to the current value of the other, so blocks of values that can't be shared are never decoded.
+	 * 
+	 * @param a a list of distinct values
+	 * @param b another list of distinct values
+	 * @return the number of values that occur in both lists
+	 */
+	public static int intersectionSize(IntListView a, IntListView b) {
+		
+		if (!a.sorted || !b.sorted) {
+			int[] valuesA = a.toArray() ;
+			int[] valuesB = b.toArray() ;
+			
+			Arrays.sort(valuesA) ;
+			Arrays.sort(valuesB) ;
+			
+			int count = 0 ;
+			int i = 0 ;
+			int j = 0 ;
+			while (i < valuesA.length && j < valuesB.length) {
+				if (valuesA[i] < valuesB[j]) {
+					i++ ;
+				} else if (valuesA[i] > valuesB[j]) {
+					j++ ;
+				} else {
+					count++ ;
+					i++ ;
+					j++ ;
+				}
+			}
+			return count ;
+		}
+		
+		a.reset() ;
+		b.reset() ;
+		
+		if (!a.hasNext() || !b.hasNext())
+			return 0 ;
+		
+		int count = 0 ;
+		int valueA = a.next() ;
+		int valueB = b.next() ;
+		
+		while (true) {
+			if (valueA == valueB) {
+				count++ ;
+				
+				if (!a.hasNext() || !b.hasNext())
+					break ;
+				
+				valueA = a.next() ;
+				valueB = b.next() ;
+			} else if (valueA < valueB) {
+				if (!a.skipTo(valueB))
+					break ;
+				
+				valueA = a.next() ;
+			} else {
+				if (!b.skipTo(valueA))
+					break ;
+				
+				valueB = b.next() ;
+			}
+		}
+		
+		return count ;
+	}
+}
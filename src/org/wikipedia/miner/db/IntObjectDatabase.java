@@ -1,10 +1,16 @@
 package org.wikipedia.miner.db;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
 import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.tuple.IntegerBinding;
 import com.sleepycat.je.DatabaseEntry;
 
 import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectIterator;
 
 /**
  * A {@link WDatabase} for associating Integer keys with some generic value type.
@@ -40,15 +46,34 @@ public abstract class IntObjectDatabase<V> extends WDatabase<Integer,V> {
 		super(env, type, name, new IntegerBinding(), valueBinding) ;
 	}
 	
+	/**
+	 * Retrieves the values associated with each of the given keys, exactly as {@link #retrieve(Object)} would. 
+	 * 
+	 * @see WDatabase#retrieveAll(java.util.Collection)
+	 * @param keys the keys to search for
+	 * @return the value associated with each key (or null if none exists), in the same order as the given keys
+	 */
+	public ArrayList<V> retrieveAll(int[] keys) {
+		
+		ArrayList<Integer> keyList = new ArrayList<Integer>(keys.length) ;
+		for (int key:keys) 
+			keyList.add(key) ;
+		
+		return retrieveAll(keyList) ;
+	}
+	
 	@Override
 	public long getCacheSize() {
+		if (getBoundedCache() != null)
+			return getBoundedCache().size() ;
+		
 		if (!isCached())
 			return 0 ;
 		
 		if (getCachePriority() == CachePriority.space)
-			return fastCache.size();
-		else
 			return compactCache.size();
+		else
+			return fastCache.size();
 	}
 		
 	@Override
@@ -62,11 +87,42 @@ public abstract class IntObjectDatabase<V> extends WDatabase<Integer,V> {
 			if (cachedData == null)
 				return null ;
 			
-			DatabaseEntry dbValue = new DatabaseEntry(cachedData) ;
-			return valueBinding.entryToObject(dbValue) ;
+			return fromCompactValue(cachedData) ;
 		}
 	}
 	
+	@Override
+	protected byte[] retrieveCompactFromCache(Integer key) {
+		return compactCache.get(key) ;
+	}
+	
+	@Override
+	protected SnapshotFile.Layout getSnapshotLayout() {
+		return SnapshotFile.Layout.intKeys ;
+	}
+
+	@Override
+	protected byte[] retrieveFromSnapshot(SnapshotFile snapshot, Integer key) {
+		return snapshot.get(key) ;
+	}
+
+	@Override
+	protected void addToSnapshot(SnapshotFile.Writer writer, DatabaseEntry key, byte[] value) throws IOException {
+		writer.add(keyBinding.entryToObject(key), value) ;
+	}
+
+	/**
+	 * Pages are partitioned by id, so that neighbouring ids are spread evenly over every shard.
+	 */
+	@Override
+	protected int getShard(byte[] key, int shardCount) {
+
+		int id = IntegerBinding.entryToInt(new DatabaseEntry(key)) ;
+
+		int shard = id % shardCount ;
+		return shard < 0 ? shard + shardCount : shard ;
+	}
+
 	@Override
 	protected void initializeCache() {
 		
@@ -84,10 +140,43 @@ public abstract class IntObjectDatabase<V> extends WDatabase<Integer,V> {
 		if (getCachePriority() == CachePriority.speed) {
 			fastCache.put(entry.getKey(), entry.getValue()) ;
 		} else {
-			DatabaseEntry cacheValue = new DatabaseEntry() ;
-			valueBinding.objectToEntry(entry.getValue(), cacheValue) ;
+			compactCache.put(entry.getKey(), toCompactValue(entry.getValue())) ;
+		}
+	}
 	
-			compactCache.put(entry.getKey(), cacheValue.getData()) ;
+	@Override
+	protected void writeCacheEntries(DataOutputStream out) throws IOException {
+		
+		if (getCachePriority() == CachePriority.speed) {
+			DatabaseEntry dbValue = new DatabaseEntry() ;
+			
+			TIntObjectIterator<V> iter = fastCache.iterator() ;
+			while (iter.hasNext()) {
+				iter.advance() ;
+				out.writeInt(iter.key()) ;
+				
+				valueBinding.objectToEntry(iter.value(), dbValue) ;
+				writeCacheBytes(out, toBytes(dbValue)) ;
+			}
+		} else {
+			TIntObjectIterator<byte[]> iter = compactCache.iterator() ;
+			while (iter.hasNext()) {
+				iter.advance() ;
+				out.writeInt(iter.key()) ;
+				writeCacheBytes(out, iter.value()) ;
+			}
 		}
 	}
+	
+	@Override
+	protected void readCacheEntry(DataInputStream in) throws IOException {
+		
+		int key = in.readInt() ;
+		byte[] value = readCacheBytes(in) ;
+		
+		if (getCachePriority() == CachePriority.speed) 
+			fastCache.put(key, valueBinding.entryToObject(new DatabaseEntry(value))) ;
+		else
+			compactCache.put(key, value) ;
+	}
 }
@@ -2,19 +2,21 @@ package org.wikipedia.miner.db;
 
 import gnu.trove.THashMap;
 import gnu.trove.TIntHash;
-import gnu.trove.TIntHashSet;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.record.CsvRecordInput;
-import org.apache.hadoop.record.CsvRecordOutput;
-import org.apache.log4j.Logger;
 import org.wikipedia.miner.db.struct.DbLabel;
 import org.wikipedia.miner.db.struct.DbSenseForLabel;
 import org.wikipedia.miner.util.ProgressTracker;
@@ -22,24 +24,28 @@ import org.wikipedia.miner.util.WikipediaConfiguration;
 import org.wikipedia.miner.util.text.TextProcessor;
 
 import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
 
 /**
  * A {@link WDatabase} for associating Strings with statistics about the articles (senses) this string could refer to. 
  */
 public class LabelDatabase extends WDatabase<String, DbLabel> {
 
-	//TODO: Labels cached as patricia trie
-	// It would be extremely cool to cache labels in a Patricia Trie rather than a HashMap. 
-	// This would give us:
-	// - iteration in lexicographical order
-	// - prefix-based search (i.e. autocomplete queries)
-	// - fast generation of labels within edit distance (i.e spelling correction)
-	// - faster detection of labels within texts, because we wouldn't need to check every single n-gram.
-	
+	private static final int BATCH_SIZE = 1000 ;
+	private static final int MAX_PENDING_BATCHES = 16 ;
+	private static final int RUN_BUFFER = 1 << 16 ;
 	
+	//the most runs that are merged at once, so that preparing a large database does not open too many files
+	private static final int MAX_MERGE_FAN_IN = 64 ;
+
 	private TextProcessor textProcessor ;
+	
+	private volatile LabelTrie trie ;
 
 	/**
 	 * Creates or connects to a database, whose name and type will be {@link WDatabase.DatabaseType#label}. 
@@ -97,15 +103,46 @@ public class LabelDatabase extends WDatabase<String, DbLabel> {
 	}
 
 	/**
-	 * If this database uses a text processor, you must prepare it (by calling {@link #prepare(File,int)} before use. 
+	 * If this database uses a text processor, you must prepare it (by calling {@link #prepare(File,int,long)} before use. 
 	 * This returns true if that call has been made.
 	 * 
 	 * @return true if the database has been prepared for use, otherwise false
 	 */
 	public boolean isPrepared() {
+		if (isSharded())
+			return exists() ;
+
 		return getDatabase(true) != null ;
 	}
 
+	/**
+	 * Builds a {@link LabelTrie} of all the texts in this database, for prefix-based and fuzzy lookups. 
+	 * Labels are only filtered if the configuration caches this database in full (and so filters it in the same way), 
+	 * so the trie holds exactly the texts that can be retrieved. 
+	 * 
+	 * @param conf a configuration specifying which labels are of interest
+	 * @param tracker an optional progress tracker (may be null)
+	 */
+	public void cacheTrie(WikipediaConfiguration conf, ProgressTracker tracker) {
+		
+		//bounded caches are filled with unfiltered values, as they are requested
+		CachePriority priority = conf.getCachePriority(getType()) ;
+		boolean filtered = priority != null && priority != CachePriority.bounded ;
+		
+		trie = LabelTrie.build(this, filtered ? conf : null, tracker) ;
+	}
+	
+	/**
+	 * Returns a trie of the texts in this database, if one has been built via {@link #cacheTrie(WikipediaConfiguration, ProgressTracker)}. 
+	 * 
+	 * <p>Note:<b> the texts stored in the trie have already been processed by this database's text processor (if any).
+	 * 
+	 * @return a trie of the texts in this database, or null if one has not been built.
+	 */
+	public LabelTrie getTrie() {
+		return trie ;
+	}
+	
 	/**
 	 * Retrieves the label statistics associated with the given text key. 
 	 * 
@@ -122,10 +159,73 @@ public class LabelDatabase extends WDatabase<String, DbLabel> {
 			return super.retrieve(textProcessor.processText(key)) ;
 	}
 
+	/**
+	 * Starts retrieving the label associated with the given text key, without waiting for it. 
+	 * 
+	 * <p>Note:<b> you should NOT apply text processors to the key; that will be done internally within this method.
+	 * 
+	 * @see WDatabase#retrieveAsync(Object)
+	 */
+	@Override
+	public Future<DbLabel> retrieveAsync(String key) {
+
+		if (textProcessor == null)
+			return super.retrieveAsync(key) ;
+		else
+			return super.retrieveAsync(textProcessor.processText(key)) ;
+	}
+
+	/**
+	 * Retrieves the label statistics associated with each of the given text keys. 
+	 * 
+	 * <p>Note:<b> you should NOT apply text processors to the keys; that will be done internally within this method.
+	 * 
+	 * @see WDatabase#retrieveAll(Collection)
+	 */
+	@Override
+	public ArrayList<DbLabel> retrieveAll(Collection<String> keys) {
+
+		if (textProcessor == null)
+			return super.retrieveAll(keys) ;
+		
+		ArrayList<String> processedKeys = new ArrayList<String>(keys.size()) ;
+		for (String key:keys)
+			processedKeys.add(textProcessor.processText(key)) ;
+		
+		return super.retrieveAll(processedKeys) ;
+	}
+
+	/**
+	 * Points the given view at the cached bytes of the label associated with the given text key.
+	 * 
+	 * <p>Note:<b> you should NOT apply text processors to the key; that will be done internally within this method.
+	 * 
+	 * @see WDatabase#retrieveView(Object, CompactView)
+	 */
+	@Override
+	public boolean retrieveView(String key, CompactView view) {
+
+		if (textProcessor == null)
+			return super.retrieveView(key, view) ;
+		else
+			return super.retrieveView(textProcessor.processText(key), view) ;
+	}
+
+	@Override
+	protected CompactEncoding<DbLabel> getCompactEncoding() {
+		return LabelView.ENCODING ;
+	}
+
+	@Override
+	public void close() {
+		super.close() ;
+		trie = null ;
+	}
+
 	@Override
 	public DbLabel filterCacheEntry(WEntry<String,DbLabel> e, WikipediaConfiguration conf) {
 
-		TIntHashSet validIds = conf.getArticlesOfInterest() ;
+		PageIdSet validIds = conf.getArticlesOfInterest() ;
 		
 		DbLabel label = e.getValue() ;
 
@@ -170,187 +270,470 @@ public class LabelDatabase extends WDatabase<String, DbLabel> {
 	 * from the original label database (the one with no text processor), re-indexing all entries, and merging statistics whose
 	 * processed texts collide with each other. 
 	 * 
-	 * This is done via an external sort, to avoid memory overflow. 
+	 * This is done via an external sort, to avoid memory overflow. The original labels are read in a single pass, and their texts
+	 * are processed by several threads at once. Processed labels are gathered until they fill the given memory budget, and are then 
+	 * sorted and written to a temporary file (a run) in the background, while reading continues. Finally, all runs are merged 
+	 * together, so that labels are stored in key order, while a separate thread writes them to the database. If there are too 
+	 * many runs to merge at once, they are first merged in groups into longer runs. 
+	 * 
+	 * Labels are kept exactly as they were stored (without being deserialised) unless their processed texts collide. 
 	 * 
 	 * @param tempDir a directory for writing temporary files. Any files created will be deleted, but directories will not.
-	 * @param passes the number of passes to break the task into (more = slower, but less memory required) 
+	 * @param threads the number of threads to process and sort labels with
+	 * @param memoryBudget the approximate number of bytes of labels to gather before writing each run (as much as twice this may be held in memory at once)
 	 * @throws IOException if the temporary directory is not writable. 
 	 */
-	public void prepare(File tempDir, int passes) throws IOException {
+	public void prepare(File tempDir, int threads, long memoryBudget) throws IOException {
 
 		if (textProcessor == null) 
 			return ;
 
 		WDatabase<String,DbLabel> originalLabels = env.getDbLabel(null) ; 
-		long labelCount = originalLabels.getDatabaseSize() ;
 
 		tempDir.mkdirs() ;
 
-		ProgressTracker tracker = new ProgressTracker((2*passes)+1, LabelDatabase.class) ;
-
-		for (int pass=0 ; pass<passes ; pass++) {
-
-			tracker.startTask(labelCount, "Gathering and processing labels (pass " + (pass+1) + " of " + passes + ")") ;
-
-			TreeMap<String, DbLabel> tmpProcessedLabels = new TreeMap<String, DbLabel>() ;
-
-			WIterator<String,DbLabel> dbIter = originalLabels.getIterator() ;
-			while (dbIter.hasNext()) {
-
-				WEntry<String,DbLabel> e = dbIter.next();
-
-				String processedText = textProcessor.processText(e.getKey()) ;
-
-				if (Math.abs(processedText.hashCode()) % passes == pass) {
-
-					DbLabel storedLabel = tmpProcessedLabels.get(processedText) ; 
+		ProgressTracker tracker = new ProgressTracker(2, LabelDatabase.class) ;
+		
+		ExecutorService workers = Executors.newFixedThreadPool(Math.max(threads, 1)) ;
+		RunWriter runs = new RunWriter(tempDir, memoryBudget, workers) ;
+		
+		try {
+			gatherRuns(originalLabels, runs, workers, tracker) ;
+			reduceRuns(runs.getFiles(), tempDir) ;
+			mergeRuns(runs.getFiles(), runs.getEntryCount(), tracker) ;
+		} finally {
+			workers.shutdownNow() ;
+			
+			for (File runFile:runs.getFiles())
+				runFile.delete() ;
+		}
 
-					if (storedLabel == null) {
-						tmpProcessedLabels.put(processedText, e.getValue()) ;
-					} else {
-						tmpProcessedLabels.put(processedText, mergeLabels(storedLabel, e.getValue())) ;
-					}
+		env.cleanAndCheckpoint() ;
+		getDatabase(true) ;
+	}
+	
+	/**
+	 * Prepares this database with as many threads as there are processors, and the default memory budget.
+	 * 
+	 * @param tempDir a directory for writing temporary files. Any files created will be deleted, but directories will not.
+	 * @throws IOException if the temporary directory is not writable. 
+	 * @see #prepare(File, int, long)
+	 * @see #getDefaultMemoryBudget()
+	 */
+	public void prepare(File tempDir) throws IOException {
+		prepare(tempDir, Runtime.getRuntime().availableProcessors(), getDefaultMemoryBudget()) ;
+	}
+	
+	/**
+	 * Prepares this database with as many threads as there are processors, and the default memory budget. 
+	 * 
+	 * @param tempDir a directory for writing temporary files. Any files created will be deleted, but directories will not.
+	 * @param passes ignored; labels are now sorted in runs that fit a memory budget rather than in a fixed number of passes
+	 * @throws IOException if the temporary directory is not writable. 
+	 * @deprecated use {@link #prepare(File)} or {@link #prepare(File, int, long)}
+	 */
+	@Deprecated
+	public void prepare(File tempDir, int passes) throws IOException {
+		prepare(tempDir) ;
+	}
+	
+	/**
+	 * @return a memory budget for {@link #prepare(File, int, long)} of a quarter of the maximum heap size
+	 */
+	public static long getDefaultMemoryBudget() {
+		return Runtime.getRuntime().maxMemory()/4 ;
+	}
+	
+	/**
+	 * Reads every original label, and hands them to the given workers in batches to have their texts processed. 
+	 * Processed batches are collected in the order they were read, and passed on to be written out as runs. 
+	 */
+	private void gatherRuns(WDatabase<String,DbLabel> originalLabels, RunWriter runs, ExecutorService workers, ProgressTracker tracker) throws IOException {
+		
+		tracker.startTask(originalLabels.getDatabaseSize(), "Gathering and processing labels") ;
+		
+		LinkedList<Future<ArrayList<byte[][]>>> pendingBatches = new LinkedList<Future<ArrayList<byte[][]>>>() ;
+		
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+		
+		Cursor cursor = originalLabels.getDatabase(true).openCursor(null, null) ;
+		cursor.setCacheMode(CacheMode.UNCHANGED) ;
+		
+		try {
+			ArrayList<byte[][]> batch = new ArrayList<byte[][]>(BATCH_SIZE) ;
+			
+			OperationStatus status = cursor.getFirst(dbKey, dbValue, LockMode.READ_UNCOMMITTED) ;
+			while (status == OperationStatus.SUCCESS) {
+				
+				batch.add(new byte[][] {toBytes(dbKey), toBytes(dbValue)}) ;
+				
+				if (batch.size() == BATCH_SIZE) {
+					pendingBatches.add(processBatch(batch, workers)) ;
+					batch = new ArrayList<byte[][]>(BATCH_SIZE) ;
 				}
-				tracker.update();
+				
+				if (pendingBatches.size() > MAX_PENDING_BATCHES) 
+					addBatch(runs, pendingBatches.removeFirst(), tracker) ;
+				
+				status = cursor.getNext(dbKey, dbValue, LockMode.READ_UNCOMMITTED) ;
 			}
 			
-			dbIter.close();
-
-			//Dump gathered labels into temporary file
-			tracker.startTask(tmpProcessedLabels.size(), "Dumping processed labels (pass " + (pass+1) + " of " + passes + ")") ;
-
-			Iterator<Map.Entry<String,DbLabel>> mapIter = tmpProcessedLabels.entrySet().iterator() ;
-
-			File tempFile = new File(tempDir.getPath() + File.separator + "tmpLabels" + pass + ".csv") ;
-			tempFile.deleteOnExit() ;
+			if (!batch.isEmpty())
+				pendingBatches.add(processBatch(batch, workers)) ;
 			
-			BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile)) ;
-
-			while (mapIter.hasNext()) {
-				tracker.update();
-
-				Map.Entry<String, DbLabel> e = mapIter.next();
-
-				ByteArrayOutputStream outStream = new ByteArrayOutputStream() ;
-
-				CsvRecordOutput cro = new CsvRecordOutput(outStream) ;
-				cro.writeString(e.getKey(), null) ;
-				e.getValue().serialize(cro) ;
-
-				writer.write(outStream.toString("UTF-8")) ;
-
-			}
+			while (!pendingBatches.isEmpty()) 
+				addBatch(runs, pendingBatches.removeFirst(), tracker) ;
+			
+			runs.finish() ;
+		} finally {
+			cursor.close() ;
+			
+			for (Future<ArrayList<byte[][]>> pendingBatch:pendingBatches)
+				pendingBatch.cancel(true) ;
 		}
-
-
-		Database db = getDatabase(false) ;
-
-		long bytesToRead = 0 ;
-		long bytesRead = 0 ;
-		BufferedReader[] readers = new BufferedReader[passes] ;
-
-		String[] currKeys = new String[passes] ;
-		DbLabel[] currValues = new DbLabel[passes] ;
-
-		String line ;
+	}
+	
+	private void addBatch(RunWriter runs, Future<ArrayList<byte[][]>> pendingBatch, ProgressTracker tracker) throws IOException {
 		
-		File[] tempFiles = new File[passes] ;
-
-		for (int pass=0 ; pass<passes ; pass++) {
-
-			File tempFile = new File(tempDir.getPath() + File.separator + "tmpLabels" + pass + ".csv") ;
-			tempFiles[pass] = tempFile ;
-			bytesToRead = bytesToRead + tempFile.length() ;
-
-			readers[pass] = new BufferedReader(new FileReader(tempFile)) ;
-
-			if ((line=readers[pass].readLine()) != null) {
-				bytesRead = bytesRead + line.length() + 1 ;
-				//System.out.println(line) ;
-
-				line = line + "\n" ;
-
-				try {
-					CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream(line.getBytes("UTF8"))) ;
-					currKeys[pass] = cri.readString(null) ;
-					currValues[pass] = new DbLabel() ;
-					currValues[pass].deserialize(cri) ;
-				} catch (Exception e) {
-					Logger.getLogger(LabelDatabase.class).error("Could not parse '" + line + "'") ;
-					currKeys[pass] = null ;
-					currValues[pass] = null ;
+		runs.add(waitFor(pendingBatch)) ;
+		tracker.update(runs.getEntryCount()) ;
+	}
+	
+	/**
+	 * Replaces the key of every entry in the given batch with the stored form of its processed text
+	 */
+	private Future<ArrayList<byte[][]>> processBatch(final ArrayList<byte[][]> batch, ExecutorService workers) {
+		
+		return workers.submit(new Callable<ArrayList<byte[][]>>() {
+			public ArrayList<byte[][]> call() {
+				
+				DatabaseEntry dbKey = new DatabaseEntry() ;
+				
+				for (byte[][] entry:batch) {
+					String text = keyBinding.entryToObject(new DatabaseEntry(entry[0])) ;
+					
+					keyBinding.objectToEntry(textProcessor.processText(text), dbKey) ;
+					entry[0] = toBytes(dbKey) ;
+				}
+				
+				return batch ;
+			}
+		}) ;
+	}
+	
+	/**
+	 * Merges runs in groups of {@link #MAX_MERGE_FAN_IN} into longer runs, until there are few enough to be merged at once. 
+	 * The given list is updated as this goes, so that it always holds every run that has yet to be deleted. 
+	 * Labels with colliding texts are left as they are, to be combined by the final merge. 
+	 */
+	private static void reduceRuns(ArrayList<File> runFiles, File tempDir) throws IOException {
+		
+		while (runFiles.size() > MAX_MERGE_FAN_IN) {
+			
+			ArrayList<File> group = new ArrayList<File>(runFiles.subList(0, MAX_MERGE_FAN_IN)) ;
+			
+			File mergedFile = File.createTempFile("tmpLabels", ".run", tempDir) ;
+			mergedFile.deleteOnExit() ;
+			runFiles.add(mergedFile) ;
+			
+			PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(group.size()) ;
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mergedFile), RUN_BUFFER)) ;
+			
+			try {
+				openRuns(group, readers) ;
+				
+				while (!readers.isEmpty()) {
+					RunReader reader = readers.poll() ;
+					writeEntry(out, reader.key, reader.value) ;
+					
+					if (reader.advance())
+						readers.add(reader) ;
+					else
+						reader.close() ;
 				}
-			} else {
-				currKeys[pass] = null ;
-				currValues[pass] = null ;
+			} finally {
+				out.close() ;
+				
+				for (RunReader reader:readers)
+					reader.close() ;
+			}
+			
+			for (File runFile:group) {
+				runFiles.remove(runFile) ;
+				runFile.delete() ;
 			}
 		}
-
-		tracker.startTask(bytesToRead, "Storing processed labels") ;
-
-		while (true) {
-
-
-			String lowestKey = null ;
-			int pass = -1 ;
-
-			for (int i=0 ; i<passes ; i++) {
-
-				if (currKeys[i] != null && (lowestKey == null || currKeys[i].compareTo(lowestKey) < 0)) {
-					lowestKey = currKeys[i] ;
-					pass = i ;
+	}
+	
+	/**
+	 * Opens a reader for each of the given runs, and adds those that are not empty to the given heap
+	 */
+	private static void openRuns(ArrayList<File> runFiles, PriorityQueue<RunReader> readers) throws IOException {
+		
+		for (File runFile:runFiles) {
+			RunReader reader = new RunReader(runFile) ;
+			if (reader.advance())
+				readers.add(reader) ;
+			else
+				reader.close() ;
+		}
+	}
+	
+	private static void writeEntry(DataOutputStream out, byte[] key, byte[] value) throws IOException {
+		
+		out.writeInt(key.length) ;
+		out.write(key) ;
+		out.writeInt(value.length) ;
+		out.write(value) ;
+	}
+	
+	/**
+	 * Merges the given runs (each of which is sorted) with a heap, combining the labels of any processed texts that 
+	 * collide, and stores the results. 
+	 */
+	private void mergeRuns(ArrayList<File> runFiles, long entryCount, ProgressTracker tracker) throws IOException {
+		
+		tracker.startTask(entryCount, "Storing processed labels") ;
+		
+		final Database db = getDatabase(false) ;
+		
+		//storing is done by a single thread, so that it overlaps with reading and merging runs
+		ExecutorService storer = Executors.newSingleThreadExecutor() ;
+		LinkedList<Future<Void>> pendingBatches = new LinkedList<Future<Void>>() ;
+		
+		PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(Math.max(runFiles.size(), 1)) ;
+		
+		try {
+			openRuns(runFiles, readers) ;
+			
+			ArrayList<byte[][]> batch = new ArrayList<byte[][]>(BATCH_SIZE) ;
+			ArrayList<byte[]> collidingValues = new ArrayList<byte[]>() ;
+			
+			while (!readers.isEmpty()) {
+				
+				//gather every value stored with the lowest key
+				byte[] key = readers.peek().key ;
+				collidingValues.clear() ;
+				
+				while (!readers.isEmpty() && KEY_ORDER.compare(readers.peek().key, key) == 0) {
+					RunReader reader = readers.poll() ;
+					collidingValues.add(reader.value) ;
+					
+					if (reader.advance())
+						readers.add(reader) ;
+					else
+						reader.close() ;
+					
+					tracker.update() ;
+				}
+				
+				batch.add(new byte[][] {key, mergeValues(collidingValues)}) ;
+				
+				if (batch.size() == BATCH_SIZE) {
+					pendingBatches.add(storeBatch(db, batch, storer)) ;
+					batch = new ArrayList<byte[][]>(BATCH_SIZE) ;
 				}
+				
+				if (pendingBatches.size() > MAX_PENDING_BATCHES) 
+					waitFor(pendingBatches.removeFirst()) ;
 			}
-
-			if (pass < 0) {
-				//all readers are finished
-				break ;
-			} else {
-				//save lowestKey and associated value
-				DatabaseEntry k = new DatabaseEntry() ;
-				keyBinding.objectToEntry(lowestKey, k) ;
-
-				DatabaseEntry v = new DatabaseEntry() ;
-				valueBinding.objectToEntry(currValues[pass], v) ;
-
-				db.put(null, k, v) ;
-
-
-				//advance reader
-
-				if ((line=readers[pass].readLine()) != null) {
-					bytesRead = bytesRead + line.length() + 1 ;
-					tracker.update(bytesRead) ;
-
-					line = line + "\n" ;
-
+			
+			if (!batch.isEmpty())
+				pendingBatches.add(storeBatch(db, batch, storer)) ;
+			
+			while (!pendingBatches.isEmpty()) 
+				waitFor(pendingBatches.removeFirst()) ;
+		} finally {
+			storer.shutdownNow() ;
+			
+			for (RunReader reader:readers)
+				reader.close() ;
+		}
+	}
+	
+	private byte[] mergeValues(ArrayList<byte[]> values) {
+		
+		if (values.size() == 1)
+			return values.get(0) ;
+		
+		DbLabel mergedLabel = valueBinding.entryToObject(new DatabaseEntry(values.get(0))) ;
+		for (int i=1 ; i<values.size() ; i++)
+			mergedLabel = mergeLabels(mergedLabel, valueBinding.entryToObject(new DatabaseEntry(values.get(i)))) ;
+		
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+		valueBinding.objectToEntry(mergedLabel, dbValue) ;
+		return toBytes(dbValue) ;
+	}
+	
+	private static Future<Void> storeBatch(final Database db, final ArrayList<byte[][]> batch, ExecutorService storer) {
+		
+		return storer.submit(new Callable<Void>() {
+			public Void call() {
+				for (byte[][] entry:batch) 
+					db.put(null, new DatabaseEntry(entry[0]), new DatabaseEntry(entry[1])) ;
+				
+				return null ;
+			}
+		}) ;
+	}
+	
+	private static <T> T waitFor(Future<T> result) throws IOException {
+		
+		try {
+			return result.get() ;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while preparing labels") ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause() ;
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause() ;
+			
+			throw new IOException("Could not prepare labels: " + e.getCause()) ;
+		}
+	}
+	
+	private static final Comparator<byte[][]> ENTRY_ORDER = new Comparator<byte[][]>() {
+		public int compare(byte[][] a, byte[][] b) {
+			return KEY_ORDER.compare(a[0], b[0]) ;
+		}
+	} ;
+	
+	/**
+	 * Gathers processed labels in memory, and writes them out as sorted runs whenever they fill the memory budget.
+	 * Only one run is written at a time, in the background. 
+	 */
+	private static class RunWriter {
+		
+		//a rough allowance for the arrays that hold each entry
+		private static final int ENTRY_OVERHEAD = 64 ;
+		
+		private File tempDir ;
+		private long memoryBudget ;
+		private ExecutorService workers ;
+		
+		private ArrayList<File> files = new ArrayList<File>() ;
+		private long entryCount = 0 ;
+		
+		private ArrayList<byte[][]> entries = new ArrayList<byte[][]>() ;
+		private long entryBytes = 0 ;
+		
+		private Future<Void> pendingRun ;
+		
+		RunWriter(File tempDir, long memoryBudget, ExecutorService workers) {
+			this.tempDir = tempDir ;
+			this.memoryBudget = memoryBudget ;
+			this.workers = workers ;
+		}
+		
+		void add(ArrayList<byte[][]> batch) throws IOException {
+			
+			for (byte[][] entry:batch) {
+				entries.add(entry) ;
+				entryBytes += entry[0].length + entry[1].length + ENTRY_OVERHEAD ;
+			}
+			entryCount += batch.size() ;
+			
+			if (entryBytes >= memoryBudget)
+				writeRun() ;
+		}
+		
+		void finish() throws IOException {
+			
+			if (!entries.isEmpty())
+				writeRun() ;
+			
+			if (pendingRun != null)
+				waitFor(pendingRun) ;
+			
+			pendingRun = null ;
+		}
+		
+		ArrayList<File> getFiles() {
+			return files ;
+		}
+		
+		long getEntryCount() {
+			return entryCount ;
+		}
+		
+		private void writeRun() throws IOException {
+			
+			//the previous run must be finished before another one is started, so that no more than two are held in memory
+			if (pendingRun != null)
+				waitFor(pendingRun) ;
+			
+			final ArrayList<byte[][]> run = entries ;
+			final File runFile = File.createTempFile("tmpLabels", ".run", tempDir) ;
+			runFile.deleteOnExit() ;
+			files.add(runFile) ;
+			
+			pendingRun = workers.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					
+					Collections.sort(run, ENTRY_ORDER) ;
+					
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER)) ;
 					try {
-						CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream(line.getBytes("UTF8"))) ;
-						currKeys[pass] = cri.readString(null) ;
-						currValues[pass] = new DbLabel() ;
-						currValues[pass].deserialize(cri) ;
-					} catch (Exception e) {
-						Logger.getLogger(LabelDatabase.class).error("Could not parse '" + line + "'") ;
-						currKeys[pass] = null ;
-						currValues[pass] = null ;
+						for (byte[][] entry:run) 
+							writeEntry(out, entry[0], entry[1]) ;
+					} finally {
+						out.close() ;
 					}
-				} else {
-					currKeys[pass] = null ;
-					currValues[pass] = null ;
+					return null ;
 				}
+			}) ;
+			
+			entries = new ArrayList<byte[][]>() ;
+			entryBytes = 0 ;
+		}
+	}
+	
+	/**
+	 * Reads back a run written by a {@link RunWriter}, one entry at a time. Readers are ordered by their current keys.
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		
+		private DataInputStream in ;
+		
+		byte[] key ;
+		byte[] value ;
+		
+		RunReader(File runFile) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), RUN_BUFFER)) ;
+		}
+		
+		/**
+		 * @return true if another entry was read, or false if the run is finished
+		 */
+		boolean advance() throws IOException {
+			
+			int keyLength ;
+			try {
+				keyLength = in.readInt() ;
+			} catch (EOFException e) {
+				return false ;
 			}
+			
+			key = new byte[keyLength] ;
+			in.readFully(key) ;
+			
+			value = new byte[in.readInt()] ;
+			in.readFully(value) ;
+			
+			return true ;
 		}
-
-		for (BufferedReader r:readers) 
-			r.close();
 		
+		public int compareTo(RunReader reader) {
+			return KEY_ORDER.compare(key, reader.key) ;
+		}
 		
-		for (File tempFile:tempFiles)
-			tempFile.delete() ;
-
-		env.cleanAndCheckpoint() ;
-		getDatabase(true) ;
-
+		void close() {
+			try {
+				in.close() ;
+			} catch (IOException e) {}
+		}
 	}
 
 	private DbLabel mergeLabels(DbLabel lblA, DbLabel lblB) {
@@ -0,0 +1,575 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+import org.wikipedia.miner.db.struct.DbLabel;
+import org.wikipedia.miner.util.ProgressTracker;
+import org.wikipedia.miner.util.WikipediaConfiguration;
+import org.wikipedia.miner.util.text.TextProcessor;
+
+/**
+ * A compact, immutable dictionary of label texts, stored as a Patricia trie (a trie in which chains of nodes with a single
+ * child are collapsed into one edge).
+ *
+ * Each text is identified by an ordinal; its position in the lexicographically sorted list of all texts. Each text also carries
+ * a count (the number of times the label is mentioned in articles), which is used to rank completions. If the texts have been 
+ * processed (see {@link LabelDatabase#getTextProcessor()}), each one also carries the unprocessed text it most often comes from 
+ * (see {@link #getSurfaceText(int)}).
+ *
+ * The trie supports exact lookup ({@link #getOrdinal(String)}), prefix-based completion ({@link #getCompletions(String, int)}),
+ * the gathering of all texts within an edit distance of a query ({@link #getMatches(String, int)}) and character-by-character
+ * walks ({@link #step(long, char)}), without touching the underlying database.
+ *
+ * Nodes are numbered breadth-first, so the children of each node are stored contiguously. The whole trie is stored as a handful of
+ * primitive arrays.
+ */
+public class LabelTrie {
+
+	//the characters of the edge leading into each node are edgeChars[edgeStarts[n]] to edgeChars[edgeStarts[n+1]]
+	private char[] edgeChars ;
+	private int[] edgeStarts ;
+
+	//the children of each node are firstChildren[n] to firstChildren[n+1]
+	private int[] firstChildren ;
+	private int[] parents ;
+
+	//the ordinal of the text that ends at each node, or -1
+	private int[] ordinals ;
+
+	//the ordinals of all texts below each node are rangeStarts[n] to rangeEnds[n]
+	private int[] rangeStarts ;
+	private int[] rangeEnds ;
+
+	//the largest count of any text below each node
+	private int[] maxCounts ;
+
+	private int[] nodesByOrdinal ;
+	private int[] counts ;
+
+	//the most frequent unprocessed text of each processed text, or null if texts have not been processed
+	private String[] surfaceTexts ;
+
+
+	private LabelTrie(String[] texts, int[] counts) {
+
+		this.counts = counts ;
+
+		nodesByOrdinal = new int[texts.length] ;
+
+		TIntArrayList edgeStarts = new TIntArrayList() ;
+		StringBuffer edgeChars = new StringBuffer() ;
+		TIntArrayList firstChildren = new TIntArrayList() ;
+		TIntArrayList parents = new TIntArrayList() ;
+		TIntArrayList ordinals = new TIntArrayList() ;
+		TIntArrayList rangeStarts = new TIntArrayList() ;
+		TIntArrayList rangeEnds = new TIntArrayList() ;
+
+		//each pending node is {start of range, end of range, depth of edge start, parent}
+		LinkedList<int[]> pending = new LinkedList<int[]>() ;
+		pending.add(new int[] {0, texts.length, 0, -1}) ;
+		int nextNode = 1 ;
+
+		while (!pending.isEmpty()) {
+			int[] p = pending.removeFirst() ;
+
+			int node = parents.size() ;
+			int lo = p[0] ;
+			int hi = p[1] ;
+			int depth = p[2] ;
+
+			//the root has an empty edge; everything else takes the longest prefix shared by its range
+			int edgeEnd = depth ;
+			if (p[3] >= 0)
+				edgeEnd = getCommonPrefixLength(texts[lo], texts[hi-1]) ;
+
+			edgeStarts.add(edgeChars.length()) ;
+			edgeChars.append(texts[lo], depth, edgeEnd) ;
+			parents.add(p[3]) ;
+			rangeStarts.add(lo) ;
+			rangeEnds.add(hi) ;
+
+			if (lo < hi && texts[lo].length() == edgeEnd) {
+				ordinals.add(lo) ;
+				nodesByOrdinal[lo] = node ;
+				lo++ ;
+			} else {
+				ordinals.add(-1) ;
+			}
+
+			//texts are sorted, so those sharing the next character are contiguous
+			firstChildren.add(nextNode) ;
+			while (lo < hi) {
+				char c = texts[lo].charAt(edgeEnd) ;
+
+				int end = lo + 1 ;
+				while (end < hi && texts[end].charAt(edgeEnd) == c)
+					end++ ;
+
+				pending.add(new int[] {lo, end, edgeEnd, node}) ;
+				nextNode++ ;
+				lo = end ;
+			}
+		}
+		edgeStarts.add(edgeChars.length()) ;
+		firstChildren.add(nextNode) ;
+
+		this.edgeChars = edgeChars.toString().toCharArray() ;
+		this.edgeStarts = edgeStarts.toNativeArray() ;
+		this.firstChildren = firstChildren.toNativeArray() ;
+		this.parents = parents.toNativeArray() ;
+		this.ordinals = ordinals.toNativeArray() ;
+		this.rangeStarts = rangeStarts.toNativeArray() ;
+		this.rangeEnds = rangeEnds.toNativeArray() ;
+
+		//children always come after their parents, so max counts can be gathered in a single backwards pass
+		maxCounts = new int[this.parents.length] ;
+		for (int n=maxCounts.length-1 ; n>=0 ; n--) {
+			if (this.ordinals[n] >= 0)
+				maxCounts[n] = Math.max(maxCounts[n], counts[this.ordinals[n]]) ;
+
+			if (this.parents[n] >= 0)
+				maxCounts[this.parents[n]] = Math.max(maxCounts[this.parents[n]], maxCounts[n]) ;
+		}
+	}
+
+	/**
+	 * @return the number of texts stored in this trie
+	 */
+	public int size() {
+		return counts.length ;
+	}
+
+	/**
+	 * @return the number of nodes in this trie
+	 */
+	public int getNodeCount() {
+		return parents.length ;
+	}
+
+	/**
+	 * @param text the text of a label
+	 * @return the ordinal of the given text, or -1 if it is not stored in this trie
+	 */
+	public int getOrdinal(String text) {
+
+		int node = 0 ;
+		int depth = 0 ;
+
+		while (depth < text.length()) {
+			node = getChild(node, text.charAt(depth)) ;
+			if (node < 0)
+				return -1 ;
+
+			for (int i=edgeStarts[node] ; i<edgeStarts[node+1] ; i++) {
+				if (depth == text.length() || edgeChars[i] != text.charAt(depth))
+					return -1 ;
+				depth++ ;
+			}
+		}
+
+		return ordinals[node] ;
+	}
+
+	/**
+	 * Returns a cursor positioned at the start of every text, for walking the trie one character at a time via {@link #step(long, char)}. 
+	 * 
+	 * @return a cursor for the empty string
+	 */
+	public long getRootCursor() {
+		return 0 ;
+	}
+	
+	/**
+	 * Advances a cursor by a single character. Cursors are immutable, so the same cursor can be advanced in several directions.
+	 * 
+	 * @param cursor a cursor returned by {@link #getRootCursor()} or a previous call to this method
+	 * @param c the next character
+	 * @return a cursor for the text read so far followed by the given character, or -1 if no stored text starts with this
+	 */
+	public long step(long cursor, char c) {
+		
+		//a cursor is a node, and the position within edgeChars of the next character along its edge
+		int node = (int)(cursor >>> 32) ;
+		int pos = (int)cursor ;
+		
+		if (pos == edgeStarts[node+1]) {
+			//at the end of this edge, so move to the child starting with this character
+			node = getChild(node, c) ;
+			if (node < 0)
+				return -1 ;
+			
+			pos = edgeStarts[node] ;
+		} else if (edgeChars[pos] != c) {
+			return -1 ;
+		}
+		
+		return ((long)node << 32) | (pos + 1) ;
+	}
+	
+	/**
+	 * @param cursor a cursor returned by {@link #step(long, char)}
+	 * @return the ordinal of the text read so far, or -1 if it is only the prefix of stored texts
+	 */
+	public int getOrdinal(long cursor) {
+		
+		int node = (int)(cursor >>> 32) ;
+		int pos = (int)cursor ;
+		
+		if (pos != edgeStarts[node+1])
+			return -1 ;
+		
+		return ordinals[node] ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of a text stored in this trie
+	 * @return the text
+	 */
+	public String getText(int ordinal) {
+
+		int length = 0 ;
+		for (int node = nodesByOrdinal[ordinal] ; node > 0 ; node = parents[node])
+			length = length + edgeStarts[node+1] - edgeStarts[node] ;
+
+		//fill from the end, since edges are visited from the bottom of the trie up
+		char[] text = new char[length] ;
+		for (int node = nodesByOrdinal[ordinal] ; node > 0 ; node = parents[node]) {
+			for (int i=edgeStarts[node+1]-1 ; i>=edgeStarts[node] ; i--)
+				text[--length] = edgeChars[i] ;
+		}
+
+		return new String(text) ;
+	}
+
+	/**
+	 * Returns the text that should be shown for the given one. If this trie was built from a label database with a text processor, 
+	 * this is the most frequent of the unprocessed label texts that the stored (processed) text was produced from. Otherwise it is 
+	 * the stored text itself.
+	 *
+	 * @param ordinal the ordinal of a text stored in this trie
+	 * @return the unprocessed form of the text
+	 */
+	public String getSurfaceText(int ordinal) {
+
+		if (surfaceTexts != null && surfaceTexts[ordinal] != null)
+			return surfaceTexts[ordinal] ;
+
+		return getText(ordinal) ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of a text stored in this trie
+	 * @return the number of times the text is mentioned in articles (saturated at {@link Integer#MAX_VALUE})
+	 */
+	public int getCount(int ordinal) {
+		return counts[ordinal] ;
+	}
+
+	/**
+	 * Returns the texts that start with the given prefix, ranked by descending count (and then lexicographically).
+	 *
+	 * Subtrees are explored best-first, so only as much of the trie as is needed to find the top results is visited.
+	 *
+	 * @param prefix the prefix that all texts must start with
+	 * @param max the maximum number of texts to return
+	 * @return the ordinals of the (at most) max highest-ranked texts that start with the given prefix
+	 */
+	public int[] getCompletions(String prefix, int max) {
+
+		TIntArrayList completions = new TIntArrayList() ;
+
+		int node = getPrefixNode(prefix) ;
+		if (node < 0 || max <= 0)
+			return completions.toNativeArray() ;
+
+		//each candidate is {count, ordinal or first ordinal of subtree, node or -1 if this is an individual text}
+		PriorityQueue<int[]> candidates = new PriorityQueue<int[]>(16, candidateComparator) ;
+		candidates.add(new int[] {maxCounts[node], rangeStarts[node], node}) ;
+
+		while (!candidates.isEmpty() && completions.size() < max) {
+			int[] c = candidates.poll() ;
+
+			if (c[2] < 0) {
+				completions.add(c[1]) ;
+				continue ;
+			}
+
+			int n = c[2] ;
+			if (ordinals[n] >= 0)
+				candidates.add(new int[] {counts[ordinals[n]], ordinals[n], -1}) ;
+
+			for (int child=firstChildren[n] ; child<firstChildren[n+1] ; child++)
+				candidates.add(new int[] {maxCounts[child], rangeStarts[child], child}) ;
+		}
+
+		return completions.toNativeArray() ;
+	}
+
+	/**
+	 * @param prefix the prefix that all texts must start with
+	 * @return the number of texts that start with the given prefix
+	 */
+	public int getCompletionCount(String prefix) {
+
+		int node = getPrefixNode(prefix) ;
+		if (node < 0)
+			return 0 ;
+
+		return rangeEnds[node] - rangeStarts[node] ;
+	}
+
+	/**
+	 * Gathers all texts within the given edit distance of the query, where an edit is the insertion, deletion or substitution
+	 * of a single character, or the transposition of two adjacent characters.
+	 *
+	 * The trie is walked depth-first while maintaining the rows of the edit distance matrix, so it behaves like
+	 * a Levenshtein automaton; any subtree that cannot come within the given distance is skipped entirely.
+	 *
+	 * @param query the text to match against
+	 * @param maxDistance the maximum edit distance
+	 * @return the ordinals of all matching texts, mapped to their edit distance from the query
+	 */
+	public TIntIntHashMap getMatches(String query, int maxDistance) {
+
+		TIntIntHashMap matches = new TIntIntHashMap() ;
+
+		ArrayList<int[]> rows = new ArrayList<int[]>() ;
+		int[] firstRow = new int[query.length()+1] ;
+		for (int j=0 ; j<firstRow.length ; j++)
+			firstRow[j] = j ;
+		rows.add(firstRow) ;
+
+		if (ordinals[0] >= 0 && query.length() <= maxDistance)
+			matches.put(ordinals[0], query.length()) ;
+
+		for (int child=firstChildren[0] ; child<firstChildren[1] ; child++)
+			gatherMatches(child, query, maxDistance, rows, 0, matches) ;
+
+		return matches ;
+	}
+
+	private void gatherMatches(int node, String query, int maxDistance, ArrayList<int[]> rows, int depth, TIntIntHashMap matches) {
+
+		int q = query.length() ;
+
+		for (int i=edgeStarts[node] ; i<edgeStarts[node+1] ; i++) {
+			char c = edgeChars[i] ;
+			depth++ ;
+
+			if (rows.size() <= depth)
+				rows.add(new int[q+1]) ;
+
+			int[] row = rows.get(depth) ;
+			int[] prevRow = rows.get(depth-1) ;
+
+			row[0] = depth ;
+			int rowMin = depth ;
+
+			for (int j=1 ; j<=q ; j++) {
+				int cost = (query.charAt(j-1) == c) ? 0 : 1 ;
+				int d = Math.min(Math.min(prevRow[j] + 1, row[j-1] + 1), prevRow[j-1] + cost) ;
+
+				//transposition of this character and the previous one
+				if (depth > 1 && j > 1 && query.charAt(j-1) == getPreviousChar(node, i) && query.charAt(j-2) == c)
+					d = Math.min(d, rows.get(depth-2)[j-2] + 1) ;
+
+				row[j] = d ;
+				rowMin = Math.min(rowMin, d) ;
+			}
+
+			if (rowMin > maxDistance)
+				return ;
+		}
+
+		if (ordinals[node] >= 0 && rows.get(depth)[q] <= maxDistance)
+			matches.put(ordinals[node], rows.get(depth)[q]) ;
+
+		for (int child=firstChildren[node] ; child<firstChildren[node+1] ; child++)
+			gatherMatches(child, query, maxDistance, rows, depth, matches) ;
+	}
+
+	private char getPreviousChar(int node, int pos) {
+
+		if (pos > edgeStarts[node])
+			return edgeChars[pos-1] ;
+
+		//first character of this edge, so the previous one ends the parent's edge (the root has no edge, but is never asked for)
+		return edgeChars[edgeStarts[parents[node]+1]-1] ;
+	}
+
+	private int getPrefixNode(String prefix) {
+
+		int node = 0 ;
+		int depth = 0 ;
+
+		while (depth < prefix.length()) {
+			node = getChild(node, prefix.charAt(depth)) ;
+			if (node < 0)
+				return -1 ;
+
+			//the prefix may end part way along an edge
+			for (int i=edgeStarts[node] ; i<edgeStarts[node+1] && depth<prefix.length() ; i++) {
+				if (edgeChars[i] != prefix.charAt(depth))
+					return -1 ;
+				depth++ ;
+			}
+		}
+
+		return node ;
+	}
+
+	private int getChild(int node, char c) {
+
+		//children are sorted by the first character of their edges
+		int lo = firstChildren[node] ;
+		int hi = firstChildren[node+1] - 1 ;
+
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1 ;
+			char midChar = edgeChars[edgeStarts[mid]] ;
+
+			if (midChar < c)
+				lo = mid + 1 ;
+			else if (midChar > c)
+				hi = mid - 1 ;
+			else
+				return mid ;
+		}
+		return -1 ;
+	}
+
+	private static int getCommonPrefixLength(String a, String b) {
+
+		int len = Math.min(a.length(), b.length()) ;
+		for (int i=0 ; i<len ; i++) {
+			if (a.charAt(i) != b.charAt(i))
+				return i ;
+		}
+		return len ;
+	}
+
+	private static final Comparator<int[]> candidateComparator = new Comparator<int[]>() {
+		@Override
+		public int compare(int[] a, int[] b) {
+
+			if (a[0] != b[0])
+				return a[0] > b[0] ? -1 : 1 ;
+
+			if (a[1] != b[1])
+				return a[1] < b[1] ? -1 : 1 ;
+
+			//an individual text comes before the subtree it starts
+			return a[2] < b[2] ? -1 : (a[2] == b[2] ? 0 : 1) ;
+		}
+	} ;
+
+	/**
+	 * Builds a trie by iterating over the given label database. If a configuration is given, labels are filtered in the same way as 
+	 * when the database is cached (see {@link LabelDatabase#filterCacheEntry(WEntry, WikipediaConfiguration)}).
+	 * 
+	 * If the database has a text processor, the unprocessed label database is also iterated over, to gather the surface text of 
+	 * each processed one (see {@link #getSurfaceText(int)}).
+	 *
+	 * @param db a label database
+	 * @param conf an optional configuration to filter labels with (may be null, in which case every label is included)
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the trie
+	 */
+	public static LabelTrie build(LabelDatabase db, WikipediaConfiguration conf, ProgressTracker tracker) {
+
+		if (tracker == null) tracker = new ProgressTracker(db.getTextProcessor() == null ? 1 : 2, LabelTrie.class) ;
+		tracker.startTask(db.getDatabaseSize(), "building label trie") ;
+
+		ArrayList<String> texts = new ArrayList<String>() ;
+		TIntArrayList counts = new TIntArrayList() ;
+
+		WIterator<String, DbLabel> iter = db.getIterator() ;
+		while (iter.hasNext()) {
+			WEntry<String, DbLabel> e = iter.next() ;
+
+			DbLabel label = conf == null ? e.getValue() : db.filterCacheEntry(e, conf) ;
+			if (label != null) {
+				texts.add(e.getKey()) ;
+				counts.add((int)Math.min(label.getTextOccCount(), Integer.MAX_VALUE)) ;
+			}
+
+			tracker.update() ;
+		}
+		iter.close() ;
+
+		LabelTrie trie = build(texts, counts) ;
+
+		TextProcessor tp = db.getTextProcessor() ;
+		if (tp != null)
+			trie.gatherSurfaceTexts(db.env.getDbLabel(null), tp, tracker) ;
+
+		return trie ;
+	}
+
+	private void gatherSurfaceTexts(LabelDatabase rawDb, TextProcessor tp, ProgressTracker tracker) {
+
+		tracker.startTask(rawDb.getDatabaseSize(), "gathering surface texts for label trie") ;
+
+		surfaceTexts = new String[counts.length] ;
+		long[] bestCounts = new long[counts.length] ;
+
+		WIterator<String, DbLabel> iter = rawDb.getIterator() ;
+		while (iter.hasNext()) {
+			WEntry<String, DbLabel> e = iter.next() ;
+
+			int ordinal = getOrdinal(tp.processText(e.getKey())) ;
+			if (ordinal >= 0 && (surfaceTexts[ordinal] == null || e.getValue().getTextOccCount() > bestCounts[ordinal])) {
+				surfaceTexts[ordinal] = e.getKey() ;
+				bestCounts[ordinal] = e.getValue().getTextOccCount() ;
+			}
+
+			tracker.update() ;
+		}
+		iter.close() ;
+	}
+
+	/**
+	 * Builds a trie from the given texts
+	 *
+	 * @param texts a list of distinct texts, in any order
+	 * @param counts the count associated with each text
+	 * @return the trie
+	 */
+	public static LabelTrie build(final ArrayList<String> texts, TIntArrayList counts) {
+
+		if (texts.size() != counts.size())
+			throw new IllegalArgumentException("there must be exactly one count for each text") ;
+
+		//the database is not necessarily in the same order as java strings, so sort by index
+		Integer[] order = new Integer[texts.size()] ;
+		for (int i=0 ; i<order.length ; i++)
+			order[i] = i ;
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return texts.get(a).compareTo(texts.get(b)) ;
+			}
+		}) ;
+
+		String[] sortedTexts = new String[order.length] ;
+		int[] sortedCounts = new int[order.length] ;
+
+		for (int i=0 ; i<order.length ; i++) {
+			sortedTexts[i] = texts.get(order[i]) ;
+			sortedCounts[i] = counts.get(order[i]) ;
+
+			if (i > 0 && sortedTexts[i].equals(sortedTexts[i-1]))
+				throw new IllegalArgumentException("'" + sortedTexts[i] + "' occurs more than once") ;
+		}
+
+		return new LabelTrie(sortedTexts, sortedCounts) ;
+	}
+}
@@ -0,0 +1,196 @@
+package org.wikipedia.miner.db;
+
+import java.util.ArrayList;
+
+import org.wikipedia.miner.db.struct.DbLabel;
+import org.wikipedia.miner.db.struct.DbSenseForLabel;
+
+/**
+ * A flyweight reader for a {@link DbLabel}, encoded with {@link LabelView#ENCODING}.
+ *
+ * The encoding starts with the label's four counts and the number of senses, as varints, which are read as soon as the view
+ * is wrapped around a value. Senses follow in their original order (most likely first), each as a varint id, two varint counts
+ * and a byte of flags. These are read in order, by calling {@link #nextSense()} and then the getSense* methods.
+ */
+public class LabelView extends CompactView {
+
+	/**
+	 * The encoding read by this view
+	 */
+	public static final CompactEncoding<DbLabel> ENCODING = new CompactEncoding<DbLabel>() {
+
+		@Override
+		public byte[] encode(DbLabel value) {
+
+			ArrayList<DbSenseForLabel> senses = value.getSenses() ;
+			int senseCount = senses == null ? 0 : senses.size() ;
+
+			Output out = new Output() ;
+			out.writeVarLong(value.getLinkOccCount()) ;
+			out.writeVarLong(value.getLinkDocCount()) ;
+			out.writeVarLong(value.getTextOccCount()) ;
+			out.writeVarLong(value.getTextDocCount()) ;
+			out.writeVarInt(senseCount) ;
+
+			for (int i=0 ; i<senseCount ; i++) {
+				DbSenseForLabel sense = senses.get(i) ;
+
+				out.writeVarInt(sense.getId()) ;
+				out.writeVarLong(sense.getLinkOccCount()) ;
+				out.writeVarLong(sense.getLinkDocCount()) ;
+
+				int flags = 0 ;
+				if (sense.getFromTitle()) flags |= FROM_TITLE ;
+				if (sense.getFromRedirect()) flags |= FROM_REDIRECT ;
+				out.writeByte(flags) ;
+			}
+
+			return out.toByteArray() ;
+		}
+
+		@Override
+		public DbLabel decode(byte[] data) {
+
+			LabelView view = new LabelView() ;
+			view.wrap(data) ;
+
+			ArrayList<DbSenseForLabel> senses = new ArrayList<DbSenseForLabel>(view.getSenseCount()) ;
+			while (view.nextSense())
+				senses.add(new DbSenseForLabel(view.getSenseId(), view.getSenseLinkOccCount(), view.getSenseLinkDocCount(), view.isSenseFromTitle(), view.isSenseFromRedirect())) ;
+
+			return new DbLabel(view.getLinkOccCount(), view.getLinkDocCount(), view.getTextOccCount(), view.getTextDocCount(), senses) ;
+		}
+
+		@Override
+		public Class<? extends CompactView> getViewClass() {
+			return LabelView.class ;
+		}
+	} ;
+
+	private static final int FROM_TITLE = 1 ;
+	private static final int FROM_REDIRECT = 2 ;
+
+	private long linkOccCount ;
+	private long linkDocCount ;
+	private long textOccCount ;
+	private long textDocCount ;
+	private int senseCount ;
+	private int sensesStart ;
+
+	private int senseIndex ;
+	private int senseId ;
+	private long senseLinkOccCount ;
+	private long senseLinkDocCount ;
+	private int senseFlags ;
+
+	@Override
+	protected void readHeader() {
+
+		linkOccCount = readVarLong() ;
+		linkDocCount = readVarLong() ;
+		textOccCount = readVarLong() ;
+		textDocCount = readVarLong() ;
+		senseCount = readVarInt() ;
+		sensesStart = pos ;
+
+		senseIndex = -1 ;
+	}
+
+	/**
+	 * @return the number of links that use this label as an anchor
+	 */
+	public long getLinkOccCount() {
+		return linkOccCount ;
+	}
+
+	/**
+	 * @return the number of articles that contain links with this label used as an anchor
+	 */
+	public long getLinkDocCount() {
+		return linkDocCount ;
+	}
+
+	/**
+	 * @return the number of times this label is mentioned in articles (either as links or in plain text)
+	 */
+	public long getTextOccCount() {
+		return textOccCount ;
+	}
+
+	/**
+	 * @return the number of articles that mention this label (either as links or in plain text)
+	 */
+	public long getTextDocCount() {
+		return textDocCount ;
+	}
+
+	/**
+	 * @return the number of senses (articles) that this label can refer to
+	 */
+	public int getSenseCount() {
+		return senseCount ;
+	}
+
+	/**
+	 * Moves on to the next sense, so that its fields can be read.
+	 *
+	 * @return true if there was another sense to move to, otherwise false
+	 */
+	public boolean nextSense() {
+
+		if (senseIndex + 1 >= senseCount)
+			return false ;
+
+		senseIndex++ ;
+
+		senseId = readVarInt() ;
+		senseLinkOccCount = readVarLong() ;
+		senseLinkDocCount = readVarLong() ;
+		senseFlags = readByte() ;
+
+		return true ;
+	}
+
+	/**
+	 * Returns to the start of the senses, so that the next call to {@link #nextSense()} moves to the first one
+	 */
+	public void resetSenses() {
+		pos = sensesStart ;
+		senseIndex = -1 ;
+	}
+
+	/**
+	 * @return the id of the current sense
+	 */
+	public int getSenseId() {
+		return senseId ;
+	}
+
+	/**
+	 * @return the number of links that use this label as an anchor to the current sense
+	 */
+	public long getSenseLinkOccCount() {
+		return senseLinkOccCount ;
+	}
+
+	/**
+	 * @return the number of articles that use this label as an anchor to the current sense
+	 */
+	public long getSenseLinkDocCount() {
+		return senseLinkDocCount ;
+	}
+
+	/**
+	 * @return true if this label matches the title of the current sense, otherwise false
+	 */
+	public boolean isSenseFromTitle() {
+		return (senseFlags & FROM_TITLE) != 0 ;
+	}
+
+	/**
+	 * @return true if this label matches the title of a redirect to the current sense, otherwise false
+	 */
+	public boolean isSenseFromRedirect() {
+		return (senseFlags & FROM_REDIRECT) != 0 ;
+	}
+}
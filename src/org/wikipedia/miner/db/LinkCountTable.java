@@ -0,0 +1,133 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TIntArrayList;
+
+import org.wikipedia.miner.db.struct.DbPageLinkCounts;
+import org.wikipedia.miner.util.ProgressTracker;
+
+/**
+ * A compact, read-only copy of the {@link WDatabase.DatabaseType#pageLinkCounts} database, stored as parallel int arrays
+ * (one for the sorted page ids, and one for each of the four counts).
+ *
+ * Counts can be read without any allocation, which makes this suitable for tight loops such as relatedness measures.
+ */
+public class LinkCountTable {
+
+	private int[] ids ;
+	private int[] totalLinksIn ;
+	private int[] distinctLinksIn ;
+	private int[] totalLinksOut ;
+	private int[] distinctLinksOut ;
+
+	private LinkCountTable(TIntArrayList ids, TIntArrayList totalLinksIn, TIntArrayList distinctLinksIn, TIntArrayList totalLinksOut, TIntArrayList distinctLinksOut) {
+
+		this.ids = ids.toNativeArray() ;
+		this.totalLinksIn = totalLinksIn.toNativeArray() ;
+		this.distinctLinksIn = distinctLinksIn.toNativeArray() ;
+		this.totalLinksOut = totalLinksOut.toNativeArray() ;
+		this.distinctLinksOut = distinctLinksOut.toNativeArray() ;
+	}
+
+	/**
+	 * @return the number of pages stored in this table
+	 */
+	public int size() {
+		return ids.length ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the total number of links made to the given page, or 0 if it is not stored in this table
+	 */
+	public int getTotalLinksIn(int id) {
+		int row = indexOf(id) ;
+		return row < 0 ? 0 : totalLinksIn[row] ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the number of distinct pages that link to the given page, or 0 if it is not stored in this table
+	 */
+	public int getDistinctLinksIn(int id) {
+		int row = indexOf(id) ;
+		return row < 0 ? 0 : distinctLinksIn[row] ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the total number of links made by the given page, or 0 if it is not stored in this table
+	 */
+	public int getTotalLinksOut(int id) {
+		int row = indexOf(id) ;
+		return row < 0 ? 0 : totalLinksOut[row] ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the number of distinct pages that the given page links to, or 0 if it is not stored in this table
+	 */
+	public int getDistinctLinksOut(int id) {
+		int row = indexOf(id) ;
+		return row < 0 ? 0 : distinctLinksOut[row] ;
+	}
+
+	private int indexOf(int id) {
+
+		int lo = 0 ;
+		int hi = ids.length - 1 ;
+
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1 ;
+			int midId = ids[mid] ;
+
+			if (midId < id)
+				lo = mid + 1 ;
+			else if (midId > id)
+				hi = mid - 1 ;
+			else
+				return mid ;
+		}
+		return -1 ;
+	}
+
+	/**
+	 * Builds a table by iterating over the given database
+	 *
+	 * @param db the {@link WDatabase.DatabaseType#pageLinkCounts} database
+	 * @param validIds an optional set of ids (may be null); pages not in this set will be excluded
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the table
+	 */
+	public static LinkCountTable build(WDatabase<Integer, DbPageLinkCounts> db, PageIdSet validIds, ProgressTracker tracker) {
+
+		if (tracker == null) tracker = new ProgressTracker(1, LinkCountTable.class) ;
+		tracker.startTask(db.getDatabaseSize(), "building link count table") ;
+
+		TIntArrayList ids = new TIntArrayList() ;
+		TIntArrayList totalLinksIn = new TIntArrayList() ;
+		TIntArrayList distinctLinksIn = new TIntArrayList() ;
+		TIntArrayList totalLinksOut = new TIntArrayList() ;
+		TIntArrayList distinctLinksOut = new TIntArrayList() ;
+
+		//database is iterated in ascending order of id, so ids will be sorted
+		WIterator<Integer, DbPageLinkCounts> iter = db.getIterator() ;
+		while (iter.hasNext()) {
+			WEntry<Integer, DbPageLinkCounts> e = iter.next() ;
+
+			if (validIds == null || validIds.contains(e.getKey())) {
+				DbPageLinkCounts lc = e.getValue() ;
+
+				ids.add(e.getKey()) ;
+				totalLinksIn.add(lc.getTotalLinksIn()) ;
+				distinctLinksIn.add(lc.getDistinctLinksIn()) ;
+				totalLinksOut.add(lc.getTotalLinksOut()) ;
+				distinctLinksOut.add(lc.getDistinctLinksOut()) ;
+			}
+
+			tracker.update() ;
+		}
+		iter.close() ;
+
+		return new LinkCountTable(ids, totalLinksIn, distinctLinksIn, totalLinksOut, distinctLinksOut) ;
+	}
+}
@@ -0,0 +1,307 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TIntArrayList;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.apache.hadoop.record.CsvRecordInput;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
+import org.wikipedia.miner.db.struct.DbIntList;
+import org.wikipedia.miner.db.struct.DbLinkLocation;
+import org.wikipedia.miner.db.struct.DbLinkLocationList;
+import org.wikipedia.miner.util.ProgressTracker;
+
+/**
+ * A compressed-sparse-row representation of the links between pages, in a single direction
+ * (either {@link DatabaseType#pageLinksIn} or {@link DatabaseType#pageLinksOut}).
+ *
+ * The graph is stored as three int arrays; the sorted ids of pages that have links, the offset of
+ * each page's links within the array of neighbours, and the neighbours themselves (sorted by id for each page).
+ * These arrays can optionally be stored off-heap, in direct buffers.
+ *
+ * Neighbours can be read without any allocation via {@link #indexOf(int)}, {@link #getStart(int)},
+ * {@link #getEnd(int)} and {@link #getNeighbourAt(int)}.
+ */
+public class LinkGraph {
+
+	private DatabaseType type ;
+
+	private int size ;
+	private IntBuffer ids ;
+	private IntBuffer offsets ;
+	private IntBuffer neighbours ;
+
+	private LinkGraph(DatabaseType type, TIntArrayList ids, TIntArrayList offsets, TIntArrayList neighbours, boolean offHeap) {
+
+		this.type = type ;
+		this.size = ids.size() ;
+
+		this.ids = toBuffer(ids, offHeap) ;
+		this.offsets = toBuffer(offsets, offHeap) ;
+		this.neighbours = toBuffer(neighbours, offHeap) ;
+	}
+
+	/**
+	 * @return the direction of links within this graph; either {@link DatabaseType#pageLinksIn} or {@link DatabaseType#pageLinksOut}
+	 */
+	public DatabaseType getType() {
+		return type ;
+	}
+
+	/**
+	 * @return the number of pages that have at least one link in this graph
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * @return the total number of links in this graph
+	 */
+	public int getLinkCount() {
+		return offsets.get(size) ;
+	}
+
+	/**
+	 * @return true if the arrays behind this graph are stored off-heap, otherwise false
+	 */
+	public boolean isOffHeap() {
+		return ids.isDirect() ;
+	}
+
+	/**
+	 * Returns the row that stores the links of the given page, for use with {@link #getStart(int)} and {@link #getEnd(int)}
+	 *
+	 * @param id the id of a page
+	 * @return the row storing this page's links, or -1 if it has none
+	 */
+	public int indexOf(int id) {
+
+		int lo = 0 ;
+		int hi = size - 1 ;
+
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1 ;
+			int midId = ids.get(mid) ;
+
+			if (midId < id)
+				lo = mid + 1 ;
+			else if (midId > id)
+				hi = mid - 1 ;
+			else
+				return mid ;
+		}
+		return -1 ;
+	}
+
+	/**
+	 * @param row a row returned by {@link #indexOf(int)}
+	 * @return the position of the first neighbour of this row
+	 */
+	public int getStart(int row) {
+		return offsets.get(row) ;
+	}
+
+	/**
+	 * @param row a row returned by {@link #indexOf(int)}
+	 * @return the position after the last neighbour of this row
+	 */
+	public int getEnd(int row) {
+		return offsets.get(row+1) ;
+	}
+
+	/**
+	 * @param pos a position between {@link #getStart(int)} (inclusive) and {@link #getEnd(int)} (exclusive) for some row
+	 * @return the id of the neighbour stored at this position
+	 */
+	public int getNeighbourAt(int pos) {
+		return neighbours.get(pos) ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the number of links the given page has in this graph
+	 */
+	public int getNeighbourCount(int id) {
+
+		int row = indexOf(id) ;
+		if (row < 0)
+			return 0 ;
+
+		return getEnd(row) - getStart(row) ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the ids of the pages linked to (or from) the given page, sorted by id.
+	 */
+	public int[] getNeighbours(int id) {
+
+		int row = indexOf(id) ;
+		if (row < 0)
+			return new int[0] ;
+
+		int start = getStart(row) ;
+		int[] n = new int[getEnd(row) - start] ;
+
+		for (int i=0 ; i<n.length ; i++)
+			n[i] = neighbours.get(start + i) ;
+
+		return n ;
+	}
+
+	/**
+	 * Builds a graph by iterating over the given database
+	 *
+	 * @param db either {@link DatabaseType#pageLinksInNoSentences} or {@link DatabaseType#pageLinksOutNoSentences}
+	 * @param validIds an optional set of ids (may be null); links to or from pages not in this set will be excluded
+	 * @param offHeap true if the graph should be stored in direct buffers, otherwise false
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the graph
+	 */
+	public static LinkGraph build(WDatabase<Integer, DbIntList> db, PageIdSet validIds, boolean offHeap, ProgressTracker tracker) {
+
+		DatabaseType type ;
+
+		if (db.getType() == DatabaseType.pageLinksInNoSentences)
+			type = DatabaseType.pageLinksIn ;
+		else if (db.getType() == DatabaseType.pageLinksOutNoSentences)
+			type = DatabaseType.pageLinksOut ;
+		else
+			throw new IllegalArgumentException("database must be either DatabaseType.pageLinksInNoSentences or DatabaseType.pageLinksOutNoSentences") ;
+
+		if (tracker == null) tracker = new ProgressTracker(1, LinkGraph.class) ;
+		tracker.startTask(db.getDatabaseSize(), "building " + type + " link graph") ;
+
+		Builder builder = new Builder(validIds) ;
+
+		WIterator<Integer, DbIntList> iter = db.getIterator() ;
+		while (iter.hasNext()) {
+			WEntry<Integer, DbIntList> e = iter.next() ;
+
+			if (builder.startRow(e.getKey())) {
+				for (int link:e.getValue().getValues())
+					builder.addNeighbour(link) ;
+
+				builder.endRow() ;
+			}
+
+			tracker.update() ;
+		}
+		iter.close() ;
+
+		return builder.build(type, offHeap) ;
+	}
+
+	/**
+	 * Builds a graph from a csv file produced by the extraction process
+	 *
+	 * @param dataFile either pageLinkIn.csv or pageLinkOut.csv
+	 * @param type either {@link DatabaseType#pageLinksIn} or {@link DatabaseType#pageLinksOut}
+	 * @param validIds an optional set of ids (may be null); links to or from pages not in this set will be excluded
+	 * @param offHeap true if the graph should be stored in direct buffers, otherwise false
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the graph
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static LinkGraph build(File dataFile, DatabaseType type, PageIdSet validIds, boolean offHeap, ProgressTracker tracker) throws IOException {
+
+		if (type != DatabaseType.pageLinksIn && type != DatabaseType.pageLinksOut)
+			throw new IllegalArgumentException("type must be either DatabaseType.pageLinksIn or DatabaseType.pageLinksOut") ;
+
+		if (tracker == null) tracker = new ProgressTracker(1, LinkGraph.class) ;
+		tracker.startTask(dataFile.length(), "building " + type + " link graph") ;
+
+		Builder builder = new Builder(validIds) ;
+
+		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), "UTF-8")) ;
+
+		long bytesRead = 0 ;
+		String line ;
+		while ((line=input.readLine()) != null) {
+			bytesRead = bytesRead + line.length() + 1 ;
+
+			CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream((line + "\n").getBytes("UTF-8"))) ;
+
+			int id = cri.readInt(null) ;
+			DbLinkLocationList links = new DbLinkLocationList() ;
+			links.deserialize(cri) ;
+
+			if (builder.startRow(id)) {
+				for (DbLinkLocation ll:links.getLinkLocations())
+					builder.addNeighbour(ll.getLinkId()) ;
+
+				builder.endRow() ;
+			}
+
+			tracker.update(bytesRead) ;
+		}
+		input.close() ;
+
+		return builder.build(type, offHeap) ;
+	}
+
+	private static IntBuffer toBuffer(TIntArrayList values, boolean offHeap) {
+
+		if (!offHeap)
+			return IntBuffer.wrap(values.toNativeArray()) ;
+
+		IntBuffer buffer = ByteBuffer.allocateDirect(4 * Math.max(values.size(), 1)).order(ByteOrder.nativeOrder()).asIntBuffer() ;
+		for (int i=0 ; i<values.size() ; i++)
+			buffer.put(i, values.get(i)) ;
+
+		return buffer ;
+	}
+
+	private static class Builder {
+
+		private PageIdSet validIds ;
+
+		private TIntArrayList ids = new TIntArrayList() ;
+		private TIntArrayList offsets = new TIntArrayList() ;
+		private TIntArrayList neighbours = new TIntArrayList() ;
+
+		private int lastId = Integer.MIN_VALUE ;
+
+		Builder(PageIdSet validIds) {
+			this.validIds = validIds ;
+			offsets.add(0) ;
+		}
+
+		boolean startRow(int id) {
+
+			if (id <= lastId)
+				throw new IllegalArgumentException("link lists must be supplied in ascending order of id") ;
+
+			lastId = id ;
+
+			return validIds == null || validIds.contains(id) ;
+		}
+
+		void addNeighbour(int id) {
+			if (validIds == null || validIds.contains(id))
+				neighbours.add(id) ;
+		}
+
+		void endRow() {
+
+			if (neighbours.size() == offsets.get(offsets.size()-1))
+				return ;
+
+			ids.add(lastId) ;
+			offsets.add(neighbours.size()) ;
+		}
+
+		LinkGraph build(DatabaseType type, boolean offHeap) {
+			return new LinkGraph(type, ids, offsets, neighbours, offHeap) ;
+		}
+	}
+}
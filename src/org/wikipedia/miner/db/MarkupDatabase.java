@@ -1,11 +1,27 @@
 package org.wikipedia.miner.db;
 
-import gnu.trove.TIntHash;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import gnu.trove.TObjectIntHashMap;
+import gnu.trove.TObjectIntIterator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -18,19 +34,68 @@ import org.wikipedia.miner.util.WikipediaConfiguration;
 
 import com.sleepycat.bind.tuple.IntegerBinding;
 import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
 
 import org.apache.tools.bzip2.* ;
 
 /**
  * A {@link WDatabase} for associating page ids with page markup. 
  * 
- * This will throw {@link UnsupportedOperationException}s if any attempt is made to cache this database to memory.
+ * Markup is by far the largest database, so consecutive pages are grouped into blocks of roughly {@link #BLOCK_SIZE} bytes, 
+ * which are compressed with {@link Deflater} using a preset dictionary of lines that are common across many pages 
+ * (template calls, section headings, table syntax and so on). The dictionary is trained from the first pages of the dump 
+ * as it is loaded. Each block is stored against the id of its first page, and every other page in the block is stored as a 
+ * small pointer to it. A small cache of recently decompressed blocks means that neighbouring pages can be read without going 
+ * back to disk. 
+ * 
+ * Databases that were built before markup was compressed (with one plain string per page) can still be read.
+ * 
+ * Iterating over this database (or its partitions) gives the markup of each page in order of id, with each block decompressed 
+ * as it is reached. 
+ * 
+ * When the database is updated from a newer dump (see {@link #updateFromXmlFile(File, TIntHashSet, ProgressTracker)}), changed 
+ * pages are gathered into new blocks, which are stored under negative keys so they can never clash with page ids. 
+ * 
+ * This will throw {@link UnsupportedOperationException}s if any attempt is made to cache this database to memory, other than 
+ * with {@link WDatabase.CachePriority#bounded} priority.
  */
 public class MarkupDatabase extends WDatabase<Integer, String> {
 
+	/**
+	 * The number of bytes of markup (uncompressed) that are grouped together in each block
+	 */
+	public static final int BLOCK_SIZE = 1 << 16 ;
+	
+	private static final int MAX_PAGES_PER_BLOCK = 1024 ;
+	
+	//deflate can only refer back 32KB, so any more dictionary than this would be wasted
+	private static final int MAX_DICTIONARY_SIZE = 1 << 15 ;
+	private static final int DICTIONARY_SAMPLE_SIZE = 1 << 22 ;
+	private static final int MIN_DICTIONARY_LINE = 8 ;
+	private static final int MAX_DICTIONARY_LINE = 512 ;
+	
+	private static final int BLOCK_CACHE_CAPACITY = 64 ;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8") ;
+	
+	//the dictionary is stored alongside the pages, under a key that can never be a page id
+	private static final int DICTIONARY_KEY = -1 ;
+	
+	//these never begin a serialised string, so values written before markup was compressed can still be recognised
+	private static final int TAG_BLOCK = 0xFE ;
+	private static final int TAG_POINTER = 0xFD ;
+	private static final int TAG_DICTIONARY = 0xFC ;
+
 	private enum DumpTag {page, id, text, ignorable} ;
+	
+	private volatile byte[] dictionary ;
+	private volatile boolean dictionaryLoaded = false ;
+	
+	private BoundedCache<Integer,byte[]> blockCache = new BoundedCache<Integer,byte[]>(BLOCK_CACHE_CAPACITY) ;
 
 	/**
 	 * Creates or connects to a database, whose name and type will be {@link WDatabase.DatabaseType#markup}.
@@ -54,6 +119,144 @@ public class MarkupDatabase extends WDatabase<Integer, String> {
 		throw new UnsupportedOperationException() ;
 	}
 	
+	/**
+	 * Skips the dictionary and any blocks that are stored under keys of their own, and gives the markup of every page.
+	 */
+	@Override
+	protected WEntry<Integer,String> toIteratedEntry(DatabaseEntry key, DatabaseEntry value) {
+		
+		int id = keyBinding.entryToObject(key) ;
+		if (id < 0)
+			return null ;
+		
+		return new WEntry<Integer,String>(id, decodeMarkup(null, id, toBytes(value))) ;
+	}
+	
+	/**
+	 * Retrieves the markup of the given page, decompressing (and caching) the block that contains it if necessary. 
+	 * If this has been cached with {@link WDatabase.CachePriority#bounded} priority, the markup of frequently requested pages 
+	 * is read from the bounded cache instead.
+	 * 
+	 * @param id the id of a page
+	 * @return the markup of the given page, or null if there is none.
+	 */
+	@Override
+	public String retrieve(Integer id) {
+		
+		if (id == null)
+			return null ;
+		
+		BoundedCache<Integer,String> boundedCache = getBoundedCache() ;
+		if (boundedCache == null) 
+			return readMarkup(null, id) ;
+		
+		Object cachedMarkup = boundedCache.get(id) ;
+		
+		if (cachedMarkup == BoundedCache.ABSENT)
+			return null ;
+		
+		if (cachedMarkup != null)
+			return (String)cachedMarkup ;
+		
+		String markup = readMarkup(null, id) ;
+		boundedCache.put(id, markup) ;
+		
+		return markup ;
+	}
+	
+	/**
+	 * Reads the markup of the given page, either through the given database handle (while it is being updated) or, if it is null, 
+	 * from wherever values are normally read.
+	 */
+	private String readMarkup(Database db, int id) {
+		
+		if (id < 0)
+			return null ;
+		
+		byte[] data = readStored(db, id) ;
+		if (data == null)
+			return null ;
+		
+		return decodeMarkup(db, id, data) ;
+	}
+	
+	/**
+	 * Gets the markup of the given page from the value stored against it, which may be a block, a pointer to a block, or plain markup
+	 */
+	private String decodeMarkup(Database db, int id, byte[] data) {
+		
+		int blockId ;
+		switch (data[0] & 0xFF) {
+		case TAG_POINTER:
+			blockId = ByteBuffer.wrap(data, 1, 4).getInt() ;
+			break ;
+		case TAG_BLOCK:
+			blockId = id ;
+			break ;
+		default:
+			//stored before markup was compressed
+			return valueBinding.entryToObject(new DatabaseEntry(data)) ;
+		}
+		
+		byte[] block = (byte[])blockCache.get(blockId) ;
+		
+		if (block == null) {
+			byte[] compressed = (blockId == id) ? data : readStored(db, blockId) ;
+			if (compressed == null || (compressed[0] & 0xFF) != TAG_BLOCK)
+				return null ;
+			
+			block = decompressBlock(compressed) ;
+			blockCache.put(blockId, block) ;
+		}
+		
+		return getMarkupFromBlock(block, id) ;
+	}
+	
+	private byte[] readStored(Database db, int key) {
+		
+		if (db == null)
+			return retrieveBytesFromStore(key) ;
+		
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		keyBinding.objectToEntry(key, dbKey) ;
+
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+		
+		if (db.get(null, dbKey, dbValue, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS)
+			return null ;
+		
+		return toBytes(dbValue) ;
+	}
+	
+	/**
+	 * Retrieves the markup of each of the given pages. Pages that share a block are usually only decompressed once, since the block is cached after the first of them is read.
+	 */
+	@Override
+	protected ArrayList<String> retrieveAllStored(Collection<Integer> ids) {
+		
+		ArrayList<String> markups = new ArrayList<String>(ids.size()) ;
+		for (Integer id:ids)
+			markups.add(retrieve(id)) ;
+		
+		return markups ;
+	}
+	
+	/**
+	 * @return the number of decompressed blocks that are held in memory, and how often they are reused
+	 */
+	public BoundedCache<Integer,byte[]> getBlockCache() {
+		return blockCache ;
+	}
+	
+	@Override
+	public void close() {
+		super.close() ;
+		
+		blockCache.clear() ;
+		dictionary = null ;
+		dictionaryLoaded = false ;
+	}
+	
 	@Override 
 	public void loadFromCsvFile(File dataFile, boolean overwrite, ProgressTracker tracker) throws IOException  {
 		throw new UnsupportedOperationException() ;
@@ -79,7 +282,161 @@ public class MarkupDatabase extends WDatabase<Integer, String> {
 		tracker.startTask(dataFile.length(), "Loading " + getName() + " database") ;
 
 		Database db = getDatabase(false) ;
+		
+		//blocks aren't valid once the database is rewritten
+		blockCache.clear() ;
+		dictionary = null ;
+		dictionaryLoaded = false ;
+
+		final BlockWriter writer = new BlockWriter(db) ;
+		
+		readDump(dataFile, tracker, new DumpPageHandler() {
+			@Override
+			public void handle(int id, String markup) throws IOException {
+				writer.add(id, markup) ;
+			}
+		}) ;
+		
+		writer.finish() ;
+
+		env.cleanAndCheckpoint() ;
+		getDatabase(true) ;
+	}
+	
+	/**
+	 * Updates the existing database in place, so that it matches a newer XML dump. 
+	 * 
+	 * Only pages whose markup differs from what is already stored are written, into new blocks. If a changed or removed page 
+	 * heads an existing block, that block is moved to a new key first, so the other pages within it can still be read. 
+	 * Superseded markup is left within its old block, so a database that has been updated many times will be larger than 
+	 * one that has been rebuilt. 
+	 * 
+	 * @param dataFile the newer XML dump
+	 * @param removedIds the ids of pages that are no longer in the dump
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the number of pages whose markup was added, changed or removed
+	 * @throws IOException if there is a problem reading the given data file.
+	 * @throws XMLStreamException if the XML within the data file cannot be parsed.
+	 */
+	public int updateFromXmlFile(File dataFile, TIntHashSet removedIds, ProgressTracker tracker) throws IOException, XMLStreamException  {
+		
+		if (tracker == null) tracker = new ProgressTracker(1, MarkupDatabase.class) ;
+		tracker.startTask(dataFile.length(), "Updating " + getName() + " database") ;
+		
+		//the dictionary must be read before the database is reopened for writing
+		byte[] dictionary = getDictionary() ;
+		
+		final Database db = getDatabaseForUpdate() ;
+		blockCache.clear() ;
+		
+		final BlockWriter writer = new BlockWriter(db, dictionary, getFirstFreeBlockKey(db)) ;
+		final int[] changes = {0} ;
+		
+		readDump(dataFile, tracker, new DumpPageHandler() {
+			@Override
+			public void handle(int id, String markup) throws IOException {
+				
+				if (markup.equals(readMarkup(db, id)))
+					return ;
+				
+				detach(db, id, writer) ;
+				writer.add(id, markup) ;
+				changes[0]++ ;
+			}
+		}) ;
+		
+		writer.finish() ;
+		
+		TIntIterator iter = removedIds.iterator() ;
+		while (iter.hasNext()) {
+			int id = iter.next() ;
+			
+			if (readStored(db, id) == null)
+				continue ;
+			
+			detach(db, id, writer) ;
+			writer.delete(id) ;
+			changes[0]++ ;
+		}
+		
+		blockCache.clear() ;
 
+		env.cleanAndCheckpoint() ;
+		getDatabase(true) ;
+		
+		return changes[0] ;
+	}
+	
+	/**
+	 * If the given page heads a block, moves the block to a new key and points all of the other pages within it to the new key, 
+	 * so that the page can be safely overwritten.
+	 */
+	private void detach(Database db, int id, BlockWriter writer) {
+		
+		byte[] data = readStored(db, id) ;
+		if (data == null || (data[0] & 0xFF) != TAG_BLOCK)
+			return ;
+		
+		int blockKey = writer.takeBlockKey() ;
+		writer.put(blockKey, data) ;
+		
+		byte[] pointer = toPointer(blockKey) ;
+		
+		ByteBuffer block = ByteBuffer.wrap(decompressBlock(data)) ;
+		int count = block.getInt() ;
+		
+		for (int i=0 ; i<count ; i++) {
+			int pageId = block.getInt() ;
+			block.getInt() ;
+			
+			if (pageId == id)
+				continue ;
+			
+			//pages that have already been rewritten no longer point to this block
+			byte[] stored = readStored(db, pageId) ;
+			if (stored != null && (stored[0] & 0xFF) == TAG_POINTER && ByteBuffer.wrap(stored, 1, 4).getInt() == id) 
+				writer.put(pageId, pointer) ;
+		}
+	}
+	
+	private int getFirstFreeBlockKey(Database db) {
+		
+		//keys are sorted numerically, so the first is the lowest
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+		dbValue.setPartial(0, 0, true) ;
+		
+		int lowestKey = DICTIONARY_KEY ;
+		
+		Cursor cursor = db.openCursor(null, null) ;
+		try {
+			if (cursor.getFirst(dbKey, dbValue, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) 
+				lowestKey = Math.min(lowestKey, keyBinding.entryToObject(dbKey)) ;
+		} finally {
+			cursor.close() ;
+		}
+		
+		return lowestKey - 1 ;
+	}
+	
+	private static byte[] toPointer(int blockKey) {
+		
+		ByteBuffer pointer = ByteBuffer.allocate(5) ;
+		pointer.put((byte)TAG_POINTER) ;
+		pointer.putInt(blockKey) ;
+		
+		return pointer.array() ;
+	}
+	
+	/**
+	 * Receives the id and markup of each page, as they are read from an XML dump
+	 */
+	private interface DumpPageHandler {
+		void handle(int id, String markup) throws IOException ;
+	}
+	
+	private void readDump(File dataFile, ProgressTracker tracker, DumpPageHandler handler) throws IOException, XMLStreamException {
+		
 		Integer currId = null ;
 		String currMarkup = null ;
 		StringBuffer characters = new StringBuffer() ;
@@ -95,22 +452,11 @@ public class MarkupDatabase extends WDatabase<Integer, String> {
 		CountingInputStream countingReader = new CountingInputStream(reader) ;
 		XMLStreamReader xmlStreamReader = xmlStreamFactory.createXMLStreamReader(countingReader, "UTF-8") ;
 
-		int pageTotal = 0 ;
-		long charTotal = 0 ;
-		long maxChar = 0 ;
-
 		while (xmlStreamReader.hasNext()) {
 
 			int eventCode = xmlStreamReader.next();
 
 			switch (eventCode) {
-			case XMLStreamReader.START_ELEMENT :
-				switch(resolveDumpTag(xmlStreamReader.getLocalName())) {
-				case page:
-					//System.out.println(" - " + countingReader.getByteCount()) ;
-				}
-
-				break;
 			case XMLStreamReader.END_ELEMENT :
 
 				switch(resolveDumpTag(xmlStreamReader.getLocalName())) {
@@ -125,17 +471,7 @@ public class MarkupDatabase extends WDatabase<Integer, String> {
 					break ;
 				case page:
 
-					DatabaseEntry key = new DatabaseEntry() ;
-					keyBinding.objectToEntry(currId, key) ;
-
-					DatabaseEntry value = new DatabaseEntry() ;
-					valueBinding.objectToEntry(currMarkup, value) ;
-
-					pageTotal++ ;
-					charTotal = charTotal + currMarkup.length();
-
-					maxChar = Math.max(maxChar, currMarkup.length()) ;
-					db.put(null, key, value) ;
+					handler.handle(currId, currMarkup) ;
 
 					currId = null ;
 					currMarkup = null ;
@@ -151,9 +487,6 @@ public class MarkupDatabase extends WDatabase<Integer, String> {
 			}
 		}
 		xmlStreamReader.close();
-
-		env.cleanAndCheckpoint() ;
-		getDatabase(true) ;
 	}
 
 	private DumpTag resolveDumpTag(String tagName) {
@@ -164,4 +497,326 @@ public class MarkupDatabase extends WDatabase<Integer, String> {
 			return DumpTag.ignorable ;
 		}
 	}
+	
+	private byte[] getDictionary() {
+		
+		if (!dictionaryLoaded) {
+			byte[] data = retrieveBytesFromStore(DICTIONARY_KEY) ;
+			
+			if (data != null && (data[0] & 0xFF) == TAG_DICTIONARY)
+				dictionary = Arrays.copyOfRange(data, 1, data.length) ;
+			
+			dictionaryLoaded = true ;
+		}
+		
+		return dictionary ;
+	}
+	
+	private byte[] decompressBlock(byte[] compressed) {
+		
+		ByteBuffer header = ByteBuffer.wrap(compressed, 1, 4) ;
+		byte[] block = new byte[header.getInt()] ;
+		
+		Inflater inflater = new Inflater() ;
+		
+		try {
+			inflater.setInput(compressed, 5, compressed.length - 5) ;
+			
+			boolean dictionarySet = false ;
+			int length = 0 ;
+			while (length < block.length) {
+				int read = inflater.inflate(block, length, block.length - length) ;
+				
+				if (read == 0) {
+					//a dictionary is only ever needed once, so anything else that stops inflation is an error
+					if (inflater.needsDictionary() && getDictionary() != null && !dictionarySet) {
+						inflater.setDictionary(getDictionary()) ;
+						dictionarySet = true ;
+					} else if (inflater.needsDictionary()) {
+						throw new IllegalStateException("Markup block needs a dictionary that is not available") ;
+					} else {
+						throw new IllegalStateException("Markup block is truncated") ;
+					}
+				}
+				
+				length = length + read ;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Markup block is corrupt", e) ;
+		} finally {
+			inflater.end() ;
+		}
+		
+		return block ;
+	}
+	
+	/**
+	 * Blocks begin with the number of pages they contain, followed by the id and length (in bytes) of each page, and then 
+	 * the UTF-8 encoded markup of each page in the same order.
+	 */
+	private static String getMarkupFromBlock(byte[] block, int id) {
+		
+		ByteBuffer buffer = ByteBuffer.wrap(block) ;
+		
+		int count = buffer.getInt() ;
+		int offset = 4 + (8 * count) ;
+		
+		for (int i=0 ; i<count ; i++) {
+			int pageId = buffer.getInt() ;
+			int length = buffer.getInt() ;
+			
+			if (pageId == id) 
+				return new String(block, offset, length, UTF8) ;
+			
+			offset = offset + length ;
+		}
+		
+		return null ;
+	}
+	
+	/**
+	 * Builds a dictionary from the lines that occur in the most pages of the given sample, weighted by how many bytes 
+	 * they would save. The most valuable lines are placed at the end, where deflate can refer to them most cheaply.
+	 */
+	private static byte[] trainDictionary(ArrayList<String> samples) {
+		
+		TObjectIntHashMap<String> pageFrequencies = new TObjectIntHashMap<String>() ;
+		
+		for (String markup:samples) {
+			
+			//count each line once per page
+			HashSet<String> lines = new HashSet<String>() ;
+			for (String line:markup.split("\n")) {
+				if (line.length() >= MIN_DICTIONARY_LINE && line.length() <= MAX_DICTIONARY_LINE)
+					lines.add(line) ;
+			}
+			
+			for (String line:lines) 
+				pageFrequencies.adjustOrPutValue(line, 1, 1) ;
+		}
+		
+		ArrayList<DictionaryLine> candidates = new ArrayList<DictionaryLine>() ;
+		
+		TObjectIntIterator<String> iter = pageFrequencies.iterator() ;
+		while (iter.hasNext()) {
+			iter.advance() ;
+			
+			if (iter.value() > 1) {
+				byte[] bytes = (iter.key() + "\n").getBytes(UTF8) ;
+				candidates.add(new DictionaryLine(bytes, (long)(iter.value() - 1) * bytes.length)) ;
+			}
+		}
+		
+		if (candidates.isEmpty())
+			return null ;
+		
+		//take the most valuable lines that fit...
+		Collections.sort(candidates, new Comparator<DictionaryLine>() {
+			@Override
+			public int compare(DictionaryLine a, DictionaryLine b) {
+				return a.savings == b.savings ? 0 : (a.savings > b.savings ? -1 : 1) ;
+			}
+		}) ;
+		
+		ArrayList<DictionaryLine> chosen = new ArrayList<DictionaryLine>() ;
+		int size = 0 ;
+		for (DictionaryLine line:candidates) {
+			if (size + line.bytes.length > MAX_DICTIONARY_SIZE)
+				continue ;
+			
+			chosen.add(line) ;
+			size = size + line.bytes.length ;
+		}
+		
+		//...and write them least valuable first
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size) ;
+		for (int i=chosen.size()-1 ; i>=0 ; i--) 
+			dictionary.write(chosen.get(i).bytes, 0, chosen.get(i).bytes.length) ;
+		
+		return dictionary.toByteArray() ;
+	}
+	
+	private static class DictionaryLine {
+		
+		byte[] bytes ;
+		long savings ;
+		
+		DictionaryLine(byte[] bytes, long savings) {
+			this.bytes = bytes ;
+			this.savings = savings ;
+		}
+	}
+	
+	/**
+	 * Gathers pages into blocks as they are read from the dump, and writes each block as soon as it is full. 
+	 * The first pages are held back until there are enough of them to train the dictionary.
+	 * 
+	 * When updating an existing database, the existing dictionary is reused, and blocks are stored under new negative keys 
+	 * (with every page in them stored as a pointer) rather than against their first page.
+	 */
+	private class BlockWriter {
+		
+		private Database db ;
+		
+		private ArrayList<String> sample = new ArrayList<String>() ;
+		private int sampleSize = 0 ;
+		
+		private byte[] dictionary = null ;
+		private boolean trained = false ;
+		
+		private ArrayList<Integer> blockIds = new ArrayList<Integer>() ;
+		private ArrayList<byte[]> blockMarkups = new ArrayList<byte[]>() ;
+		private int blockSize = 0 ;
+		
+		private Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION) ;
+		
+		private ArrayList<Integer> sampleIds = new ArrayList<Integer>() ;
+		
+		private boolean keyedByFirstPage = true ;
+		private int nextBlockKey ;
+		
+		BlockWriter(Database db) {
+			this.db = db ;
+		}
+		
+		BlockWriter(Database db, byte[] dictionary, int firstBlockKey) {
+			this.db = db ;
+			this.dictionary = dictionary ;
+			
+			trained = true ;
+			sample = null ;
+			sampleIds = null ;
+			
+			keyedByFirstPage = false ;
+			nextBlockKey = firstBlockKey ;
+		}
+		
+		int takeBlockKey() {
+			return nextBlockKey-- ;
+		}
+		
+		void add(int id, String markup) throws IOException {
+			
+			if (!trained) {
+				sampleIds.add(id) ;
+				sample.add(markup) ;
+				sampleSize = sampleSize + markup.length() ;
+				
+				if (sampleSize >= DICTIONARY_SAMPLE_SIZE)
+					train() ;
+				
+				return ;
+			}
+			
+			addToBlock(id, markup) ;
+		}
+		
+		void finish() throws IOException {
+			
+			if (!trained) 
+				train() ;
+			
+			writeBlock() ;
+			deflater.end() ;
+		}
+		
+		private void train() throws IOException {
+			
+			dictionary = trainDictionary(sample) ;
+			trained = true ;
+			
+			if (dictionary != null) {
+				byte[] value = new byte[dictionary.length + 1] ;
+				value[0] = (byte)TAG_DICTIONARY ;
+				System.arraycopy(dictionary, 0, value, 1, dictionary.length) ;
+				
+				put(DICTIONARY_KEY, value) ;
+			}
+			
+			for (int i=0 ; i<sampleIds.size() ; i++)
+				addToBlock(sampleIds.get(i), sample.get(i)) ;
+			
+			sample = null ;
+			sampleIds = null ;
+		}
+		
+		private void addToBlock(int id, String markup) throws IOException {
+			
+			byte[] bytes = markup.getBytes(UTF8) ;
+			
+			if (!blockIds.isEmpty() && (blockSize + bytes.length > BLOCK_SIZE || blockIds.size() >= MAX_PAGES_PER_BLOCK))
+				writeBlock() ;
+			
+			blockIds.add(id) ;
+			blockMarkups.add(bytes) ;
+			blockSize = blockSize + bytes.length ;
+		}
+		
+		private void writeBlock() throws IOException {
+			
+			if (blockIds.isEmpty())
+				return ;
+			
+			ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize + (8 * blockIds.size()) + 4) ;
+			DataOutputStream out = new DataOutputStream(block) ;
+			
+			out.writeInt(blockIds.size()) ;
+			for (int i=0 ; i<blockIds.size() ; i++) {
+				out.writeInt(blockIds.get(i)) ;
+				out.writeInt(blockMarkups.get(i).length) ;
+			}
+			for (byte[] bytes:blockMarkups) 
+				out.write(bytes) ;
+			out.close() ;
+			
+			byte[] uncompressed = block.toByteArray() ;
+			
+			deflater.reset() ;
+			if (dictionary != null)
+				deflater.setDictionary(dictionary) ;
+			deflater.setInput(uncompressed) ;
+			deflater.finish() ;
+			
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length/4 + 16) ;
+			compressed.write(TAG_BLOCK) ;
+			new DataOutputStream(compressed).writeInt(uncompressed.length) ;
+			
+			byte[] buffer = new byte[1 << 14] ;
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer) ;
+				compressed.write(buffer, 0, length) ;
+			}
+			
+			//the block is stored against its first page (or a new key, when updating), and all other pages point to it
+			int blockId = keyedByFirstPage ? blockIds.get(0) : takeBlockKey() ;
+			put(blockId, compressed.toByteArray()) ;
+			
+			byte[] pointer = toPointer(blockId) ;
+			
+			for (int i=0 ; i<blockIds.size() ; i++) {
+				if (blockIds.get(i) != blockId)
+					put(blockIds.get(i), pointer) ;
+			}
+			
+			blockIds.clear() ;
+			blockMarkups.clear() ;
+			blockSize = 0 ;
+		}
+		
+		void put(int key, byte[] value) {
+			
+			DatabaseEntry dbKey = new DatabaseEntry() ;
+			keyBinding.objectToEntry(key, dbKey) ;
+			
+			db.put(null, dbKey, new DatabaseEntry(value)) ;
+		}
+		
+		void delete(int key) {
+			
+			DatabaseEntry dbKey = new DatabaseEntry() ;
+			keyBinding.objectToEntry(key, dbKey) ;
+			
+			db.delete(null, dbKey) ;
+		}
+	}
 }
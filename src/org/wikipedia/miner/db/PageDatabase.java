@@ -0,0 +1,143 @@
+package org.wikipedia.miner.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.record.CsvRecordInput;
+import org.wikipedia.miner.db.struct.DbPage;
+import org.wikipedia.miner.model.Page.PageType;
+import org.wikipedia.miner.util.WikipediaConfiguration;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * A {@link WDatabase} for associating page ids with the title, type and depth of the page.
+ *
+ * When cached (with either {@link WDatabase.CachePriority#speed} or {@link WDatabase.CachePriority#space}), pages are held in a
+ * columnar {@link PageTable} rather than as individual {@link DbPage} objects, since this is both smaller and faster to query.
+ * The table can be used directly (via {@link #getPageTable()}) to check page types and depths without any allocation.
+ */
+public class PageDatabase extends IntObjectDatabase<DbPage> {
+
+	private PageTable.Builder tableBuilder ;
+	private volatile PageTable table ;
+
+	/**
+	 * Creates or connects to a database, whose name and type will be {@link WDatabase.DatabaseType#page}.
+	 *
+	 * @param env the WEnvironment surrounding this database
+	 */
+	public PageDatabase(WEnvironment env) {
+		super(
+				env,
+				DatabaseType.page,
+				new RecordBinding<DbPage>() {
+					public DbPage createRecordInstance() {
+						return new DbPage() ;
+					}
+				}
+		) ;
+	}
+
+	@Override
+	public WEntry<Integer,DbPage> deserialiseCsvRecord(CsvRecordInput record) throws IOException {
+		Integer id = record.readInt(null) ;
+
+		DbPage p = new DbPage() ;
+		p.deserialize(record) ;
+
+		return new WEntry<Integer,DbPage>(id, p) ;
+	}
+
+	@Override
+	public DbPage filterCacheEntry(WEntry<Integer, DbPage> e, WikipediaConfiguration conf) {
+
+		PageType pageType = PageType.values()[e.getValue().getType()] ;
+
+		PageIdSet validIds = conf.getArticlesOfInterest() ;
+
+		if (validIds == null || validIds.contains(e.getKey()) || pageType == PageType.category || pageType==PageType.redirect)
+			return e.getValue() ;
+		else
+			return null ;
+	}
+
+	/**
+	 * @return the columnar table of cached pages, or null if this database has not (yet) been cached.
+	 */
+	public PageTable getPageTable() {
+
+		if (!isCached())
+			return null ;
+
+		return table ;
+	}
+
+	@Override
+	public long getCacheSize() {
+
+		if (getBoundedCache() != null)
+			return getBoundedCache().size() ;
+
+		if (!isCached())
+			return 0 ;
+
+		return table.size() ;
+	}
+
+	@Override
+	protected DbPage retrieveFromCache(Integer key) {
+		return table.getPage(key) ;
+	}
+
+	@Override
+	protected void initializeCache() {
+		tableBuilder = new PageTable.Builder() ;
+	}
+
+	@Override
+	protected void addToCache(WEntry<Integer, DbPage> entry) {
+		tableBuilder.add(entry.getKey(), entry.getValue()) ;
+	}
+
+	@Override
+	protected void finalizeCache() {
+
+		table = tableBuilder.build() ;
+		tableBuilder = null ;
+
+		super.finalizeCache() ;
+	}
+
+	@Override
+	protected void writeCacheEntries(DataOutputStream out) throws IOException {
+
+		//images are written record by record, so they don't depend on the layout of the table
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+
+		for (int row=0 ; row<table.size() ; row++) {
+			int id = table.getIdAt(row) ;
+
+			out.writeInt(id) ;
+
+			valueBinding.objectToEntry(table.getPage(id), dbValue) ;
+			writeCacheBytes(out, toBytes(dbValue)) ;
+		}
+	}
+
+	@Override
+	protected void readCacheEntry(DataInputStream in) throws IOException {
+
+		int key = in.readInt() ;
+		byte[] value = readCacheBytes(in) ;
+
+		tableBuilder.add(key, valueBinding.entryToObject(new DatabaseEntry(value))) ;
+	}
+
+	@Override
+	public void close() {
+		super.close() ;
+		table = null ;
+	}
+}
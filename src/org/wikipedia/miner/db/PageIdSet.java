@@ -0,0 +1,176 @@
+package org.wikipedia.miner.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compact set of page ids, held as a bitset indexed by id.
+ *
+ * Page ids are dense, so this needs a single bit for every id up to the largest one added, which is far smaller
+ * than a hash set of the same ids. Lookups are a shift and a mask, and never allocate.
+ */
+public class PageIdSet {
+
+	private long[] words ;
+	private int size = 0 ;
+
+	/**
+	 * Creates an empty set
+	 */
+	public PageIdSet() {
+		words = new long[0] ;
+	}
+
+	/**
+	 * Creates an empty set, with room for ids up to the given one without growing
+	 *
+	 * @param maxId the largest id that is expected to be added
+	 */
+	public PageIdSet(int maxId) {
+		words = new long[Math.max(maxId, 0)/64 + 1] ;
+	}
+
+	/**
+	 * Adds the given id to this set
+	 *
+	 * @param id a page id, which must not be negative
+	 * @return true if the id was not already in this set, otherwise false
+	 */
+	public boolean add(int id) {
+
+		if (id < 0)
+			throw new IllegalArgumentException("page ids cannot be negative: " + id) ;
+
+		int word = id >>> 6 ;
+		if (word >= words.length)
+			words = Arrays.copyOf(words, Math.max(word + 1, words.length + (words.length >> 1))) ;
+
+		long bit = 1L << id ;
+		if ((words[word] & bit) != 0)
+			return false ;
+
+		words[word] |= bit ;
+		size++ ;
+		return true ;
+	}
+
+	/**
+	 * Adds every id in the given set to this one
+	 *
+	 * @param ids a set of ids
+	 */
+	public void addAll(PageIdSet ids) {
+
+		if (ids.words.length > words.length)
+			words = Arrays.copyOf(words, ids.words.length) ;
+
+		size = 0 ;
+		for (int w=0 ; w<words.length ; w++) {
+			if (w < ids.words.length)
+				words[w] |= ids.words[w] ;
+
+			size += Long.bitCount(words[w]) ;
+		}
+	}
+
+	/**
+	 * @param id a page id
+	 * @return true if the given id is in this set, otherwise false
+	 */
+	public boolean contains(int id) {
+
+		if (id < 0)
+			return false ;
+
+		int word = id >>> 6 ;
+		return word < words.length && (words[word] & (1L << id)) != 0 ;
+	}
+
+	/**
+	 * @return the number of ids in this set
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * @return true if this set contains no ids, otherwise false
+	 */
+	public boolean isEmpty() {
+		return size == 0 ;
+	}
+
+	/**
+	 * Finds the smallest id in this set that is no smaller than the given one. Every id can be visited in ascending order with
+	 * <code>for (int id=set.nextId(0) ; id>=0 ; id=set.nextId(id+1))</code>
+	 *
+	 * @param fromId the id to start searching from
+	 * @return the smallest id in this set that is greater than or equal to the given one, or -1 if there is none
+	 */
+	public int nextId(int fromId) {
+
+		if (fromId < 0)
+			fromId = 0 ;
+
+		int word = fromId >>> 6 ;
+		if (word >= words.length)
+			return -1 ;
+
+		long bits = words[word] & (-1L << fromId) ;
+
+		while (true) {
+			if (bits != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(bits) ;
+
+			if (++word == words.length)
+				return -1 ;
+
+			bits = words[word] ;
+		}
+	}
+
+	/**
+	 * Writes this set to the given stream, so that it can be read back with {@link #read(DataInputStream)}
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the set cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+
+		//trailing empty words are left out
+		int length = words.length ;
+		while (length > 0 && words[length-1] == 0)
+			length-- ;
+
+		out.writeInt(size) ;
+		out.writeInt(length) ;
+		for (int w=0 ; w<length ; w++)
+			out.writeLong(words[w]) ;
+	}
+
+	/**
+	 * Reads a set that was written with {@link #write(DataOutputStream)}
+	 *
+	 * @param in the stream to read from
+	 * @return the set
+	 * @throws IOException if the set cannot be read
+	 */
+	public static PageIdSet read(DataInputStream in) throws IOException {
+
+		PageIdSet ids = new PageIdSet() ;
+
+		int size = in.readInt() ;
+		ids.words = new long[in.readInt()] ;
+		for (int w=0 ; w<ids.words.length ; w++) {
+			ids.words[w] = in.readLong() ;
+			ids.size += Long.bitCount(ids.words[w]) ;
+		}
+
+		if (ids.size != size)
+			throw new IOException("set of page ids is corrupt") ;
+
+		return ids ;
+	}
+}
@@ -1,7 +1,9 @@
 package org.wikipedia.miner.db;
 
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntHash;
 import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -9,21 +11,40 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.hadoop.record.CsvRecordInput;
 import org.wikipedia.miner.db.struct.DbLinkLocation;
 import org.wikipedia.miner.db.struct.DbLinkLocationList;
+import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.db.struct.DbPageLinkCounts;
+import org.wikipedia.miner.model.Page.PageType;
 import org.wikipedia.miner.util.ProgressTracker;
 import org.wikipedia.miner.util.WikipediaConfiguration;
 
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
 
 public class PageLinkCountDatabase extends IntObjectDatabase<DbPageLinkCounts>{
 
+	private static final int PARTITIONS_PER_THREAD = 4 ;
+	
+	//PageType.values() returns a fresh copy every time it is called
+	private static final PageType[] PAGE_TYPES = PageType.values() ;
+
 	public PageLinkCountDatabase(WEnvironment env) {
 		super(env, 
 				DatabaseType.pageLinkCounts, 
@@ -106,7 +127,7 @@ public class PageLinkCountDatabase extends IntObjectDatabase<DbPageLinkCounts>{
 			WEntry<Integer, DbPageLinkCounts> e,
 			WikipediaConfiguration conf) {
 
-		TIntHashSet validIds = conf.getArticlesOfInterest() ;
+		PageIdSet validIds = conf.getArticlesOfInterest() ;
 		
 		if (validIds != null && !validIds.contains(e.getKey()))
 			return null ; 
@@ -146,7 +167,8 @@ public class PageLinkCountDatabase extends IntObjectDatabase<DbPageLinkCounts>{
 		WEntry<Integer, DbLinkLocationList> outLinkEntry = deserializePageLinkCsvRecord(linksOutRecord) ;
 
 
-		while (inLinkEntry != null && outLinkEntry != null) {
+		//pages that only have in-links (or only out-links) can come after the last entry of the other file, so keep going until both are exhausted
+		while (inLinkEntry != null || outLinkEntry != null) {
 
 			WEntry<Integer, DbPageLinkCounts> linkCountEntry = null;
 			boolean advanceInLinks = false;
@@ -163,7 +185,7 @@ public class PageLinkCountDatabase extends IntObjectDatabase<DbPageLinkCounts>{
 				advanceInLinks = true ;
 			}
 
-			if (inLinkEntry.getKey().equals(outLinkEntry.getKey())) {
+			if (inLinkEntry != null && outLinkEntry != null && inLinkEntry.getKey().equals(outLinkEntry.getKey())) {
 				linkCountEntry = buildLinkSummaryEntry(inLinkEntry, outLinkEntry) ;
 				advanceInLinks = true ;
 				advanceOutLinks = true ;
@@ -211,4 +233,228 @@ public class PageLinkCountDatabase extends IntObjectDatabase<DbPageLinkCounts>{
 		getDatabase(true) ;
 	}
 
+	/**
+	 * Updates the existing database in place, so it matches the newer of two versions of the link csv files. 
+	 * Counts are only recalculated for pages whose in-links or out-links have been added, changed or removed.
+	 * 
+	 * @param previousLinksInFile the pageLinkIn.csv file that the database was built (or last updated) from
+	 * @param previousLinksOutFile the pageLinkOut.csv file that the database was built (or last updated) from
+	 * @param linksInFile the newer version of the pageLinkIn.csv file
+	 * @param linksOutFile the newer version of the pageLinkOut.csv file
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the number of pages whose counts were added, changed or removed
+	 * @throws IOException if there is a problem reading or deserialising any of the files.
+	 */
+	public int updateFromCsvFiles(File previousLinksInFile, File previousLinksOutFile, File linksInFile, File linksOutFile, ProgressTracker tracker) throws IOException  {
+		
+		if (tracker == null) tracker = new ProgressTracker(1, WDatabase.class) ;
+		tracker.startTask(6, "Updating " + getName() + " database") ;
+		
+		CsvDelta linksInDelta = new CsvDelta(previousLinksInFile, linksInFile) ;
+		tracker.update() ;
+		CsvDelta linksOutDelta = new CsvDelta(previousLinksOutFile, linksOutFile) ;
+		tracker.update() ;
+		
+		if (linksInDelta.isEmpty() && linksOutDelta.isEmpty()) {
+			tracker.update(6) ;
+			return 0 ;
+		}
+		
+		//gather every page with a stale or changed record in either file
+		TIntHashSet affectedIds = new TIntHashSet() ;
+		gatherIds(previousLinksInFile, linksInDelta, true, affectedIds) ;
+		gatherIds(linksInFile, linksInDelta, false, affectedIds) ;
+		gatherIds(previousLinksOutFile, linksOutDelta, true, affectedIds) ;
+		gatherIds(linksOutFile, linksOutDelta, false, affectedIds) ;
+		tracker.update() ;
+		
+		HashMap<Integer, WEntry<Integer, DbLinkLocationList>> inLinkEntries = readEntries(linksInFile, affectedIds) ;
+		tracker.update() ;
+		HashMap<Integer, WEntry<Integer, DbLinkLocationList>> outLinkEntries = readEntries(linksOutFile, affectedIds) ;
+		tracker.update() ;
+
+		Database db = getDatabaseForUpdate() ;
+		
+		TIntIterator iter = affectedIds.iterator() ;
+		while (iter.hasNext()) {
+			int id = iter.next() ;
+			
+			DatabaseEntry k = new DatabaseEntry() ;
+			keyBinding.objectToEntry(id, k) ;
+			
+			WEntry<Integer, DbLinkLocationList> inLinkEntry = inLinkEntries.get(id) ;
+			WEntry<Integer, DbLinkLocationList> outLinkEntry = outLinkEntries.get(id) ;
+			
+			if (inLinkEntry == null && outLinkEntry == null) {
+				db.delete(null, k) ;
+				continue ;
+			}
+
+			DatabaseEntry v = new DatabaseEntry() ;
+			valueBinding.objectToEntry(buildLinkSummaryEntry(inLinkEntry, outLinkEntry).getValue(), v) ;
+
+			db.put(null, k, v) ;
+		}
+		
+		env.cleanAndCheckpoint() ;
+		getDatabase(true) ;
+		tracker.update() ;
+		
+		return affectedIds.size() ;
+	}
+	
+	/**
+	 * Identifies the articles that receive and make enough links to be of interest. 
+	 * 
+	 * This only needs the four counts stored for each page, so is much cheaper than reading the link lists themselves. 
+	 * The database is split into partitions (see {@link WDatabase#getPartitions(int)}), which are scanned in parallel.
+	 * 
+	 * @param minLinksIn pages must receive links from more than this many distinct pages 
+	 * @param minLinksOut pages must link to at least this many distinct pages
+	 * @param pages an optional page database (may be null), used to exclude anything that is not an article or disambiguation page
+	 * @param threads the number of ranges to scan at once
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the ids of every page that passes the given thresholds
+	 * @throws IOException if the scan fails
+	 */
+	public PageIdSet getValidIds(final int minLinksIn, final int minLinksOut, final PageDatabase pages, int threads, ProgressTracker tracker) throws IOException {
+		
+		threads = Math.max(threads, 1) ;
+		
+		//more partitions than threads, so that a dense partition doesn't hold everything up
+		List<WPartition<Integer,DbPageLinkCounts>> partitions = getPartitions(threads * PARTITIONS_PER_THREAD) ;
+		
+		if (tracker == null) tracker = new ProgressTracker(1, PageLinkCountDatabase.class) ;
+		tracker.startTask(partitions.size(), "gathering valid page ids") ;
+		
+		ExecutorService scanners = Executors.newFixedThreadPool(threads) ;
+		
+		try {
+			ArrayList<Future<TIntArrayList>> results = new ArrayList<Future<TIntArrayList>>() ;
+			
+			for (final WPartition<Integer,DbPageLinkCounts> partition:partitions) {
+				results.add(scanners.submit(new Callable<TIntArrayList>() {
+					public TIntArrayList call() {
+						return scanPartition(partition, minLinksIn, minLinksOut, pages) ;
+					}
+				})) ;
+			}
+			
+			PageIdSet ids = new PageIdSet() ;
+			
+			for (Future<TIntArrayList> result:results) {
+				
+				TIntArrayList partitionIds = waitForScan(result) ;
+				for (int i=0 ; i<partitionIds.size() ; i++) 
+					ids.add(partitionIds.get(i)) ;
+				
+				tracker.update() ;
+			}
+			
+			return ids ;
+		} finally {
+			scanners.shutdownNow() ;
+		}
+	}
+	
+	private TIntArrayList scanPartition(WPartition<Integer,DbPageLinkCounts> partition, int minLinksIn, int minLinksOut, PageDatabase pages) {
+		
+		TIntArrayList ids = new TIntArrayList() ;
+		
+		DatabaseEntry pageKey = new DatabaseEntry() ;
+		DatabaseEntry pageValue = new DatabaseEntry() ;
+		
+		WIterator<Integer,DbPageLinkCounts> iter = partition.getIterator() ;
+		
+		Cursor pageCursor = null ;
+		if (pages != null) {
+			pageCursor = pages.getDatabase(true).openCursor(null, null) ;
+			pageCursor.setCacheMode(CacheMode.UNCHANGED) ;
+		}
+		
+		try {
+			while (iter.hasNext()) {
+				
+				WEntry<Integer,DbPageLinkCounts> e = iter.next() ;
+				DbPageLinkCounts counts = e.getValue() ;
+				
+				if (counts.getDistinctLinksIn() > minLinksIn && counts.getDistinctLinksOut() >= minLinksOut) {
+					
+					boolean valid = true ;
+					if (pageCursor != null) {
+						keyBinding.objectToEntry(e.getKey(), pageKey) ;
+						valid = pageCursor.getSearchKey(pageKey, pageValue, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS 
+								&& isArticle(pages.valueBinding.entryToObject(pageValue)) ;
+					}
+					
+					if (valid)
+						ids.add(e.getKey()) ;
+				}
+			}
+		} finally {
+			iter.close() ;
+			if (pageCursor != null)
+				pageCursor.close() ;
+		}
+		
+		return ids ;
+	}
+	
+	private static boolean isArticle(DbPage page) {
+		
+		PageType type = PAGE_TYPES[page.getType()] ;
+		return type == PageType.article || type == PageType.disambiguation ;
+	}
+	
+	private static TIntArrayList waitForScan(Future<TIntArrayList> result) throws IOException {
+		
+		try {
+			return result.get() ;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while gathering valid page ids") ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause() ;
+			
+			throw new IOException("Could not gather valid page ids: " + e.getCause()) ;
+		}
+	}
+	
+	private static void gatherIds(File dataFile, CsvDelta delta, boolean previous, TIntHashSet ids) throws IOException {
+		
+		BufferedReader input = CsvDelta.openCsvFile(dataFile) ;
+		
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				if (previous ? delta.isStale(line) : delta.isChanged(line))
+					ids.add(CsvDelta.readIntKey(line)) ;
+			}
+		} finally {
+			input.close() ;
+		}
+	}
+	
+	private HashMap<Integer, WEntry<Integer, DbLinkLocationList>> readEntries(File dataFile, TIntHashSet ids) throws IOException {
+		
+		HashMap<Integer, WEntry<Integer, DbLinkLocationList>> entries = new HashMap<Integer, WEntry<Integer, DbLinkLocationList>>() ;
+		
+		BufferedReader input = CsvDelta.openCsvFile(dataFile) ;
+		
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				if (!ids.contains(CsvDelta.readIntKey(line)))
+					continue ;
+				
+				WEntry<Integer, DbLinkLocationList> entry = deserializePageLinkCsvRecord(CsvDelta.toRecord(line)) ;
+				entries.put(entry.getKey(), entry) ;
+			}
+		} finally {
+			input.close() ;
+		}
+		
+		return entries ;
+	}
+
 }
@@ -0,0 +1,205 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TByteArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TShortArrayList;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.wikipedia.miner.db.struct.DbPage;
+import org.wikipedia.miner.model.Page.PageType;
+
+/**
+ * A compact, read-only, columnar copy of the {@link WDatabase.DatabaseType#page} database.
+ *
+ * Page ids are remapped to dense row numbers via a primitive hash map, and each row is stored across parallel arrays:
+ * the page id, a byte for the page type, a short for the depth, and an offset into a single pool of UTF-8 encoded titles.
+ *
+ * Types and depths can be read in constant time without any allocation, which makes this suitable for checking
+ * the types of large numbers of link targets.
+ */
+public class PageTable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8") ;
+
+	//PageType.values() returns a fresh copy every time it is called
+	private static final PageType[] PAGE_TYPES = PageType.values() ;
+
+	private TIntIntHashMap rowsById ;
+
+	private int[] ids ;
+	private byte[] types ;
+	private short[] depths ;
+
+	private byte[] titles ;
+	private int[] titleOffsets ;
+
+	private PageTable(Builder builder) {
+
+		rowsById = builder.rowsById ;
+		rowsById.compact() ;
+
+		ids = builder.ids.toNativeArray() ;
+		types = builder.types.toNativeArray() ;
+		depths = builder.depths.toNativeArray() ;
+
+		titles = builder.titles.toByteArray() ;
+
+		builder.titleOffsets.add(titles.length) ;
+		titleOffsets = builder.titleOffsets.toNativeArray() ;
+	}
+
+	/**
+	 * @return the number of pages stored in this table
+	 */
+	public int size() {
+		return types.length ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return true if the given page is stored in this table, otherwise false
+	 */
+	public boolean contains(int id) {
+		return rowOf(id) >= 0 ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the type of the given page, or {@link PageType#invalid} if it is not stored in this table
+	 */
+	public PageType getType(int id) {
+
+		int row = rowOf(id) ;
+		if (row < 0)
+			return PageType.invalid ;
+
+		return PAGE_TYPES[types[row]] ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @param type a type of page
+	 * @return true if the given page is stored in this table and is of the given type, otherwise false
+	 */
+	public boolean isType(int id, PageType type) {
+
+		int row = rowOf(id) ;
+		return row >= 0 && types[row] == type.ordinal() ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the length of the shortest path from the given page to the root category, or -1 if there is no such path or the page is not stored in this table
+	 */
+	public int getDepth(int id) {
+
+		int row = rowOf(id) ;
+		if (row < 0)
+			return -1 ;
+
+		return depths[row] ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the title of the given page, or null if it is not stored in this table
+	 */
+	public String getTitle(int id) {
+
+		int row = rowOf(id) ;
+		if (row < 0)
+			return null ;
+
+		return getTitleAt(row) ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the details of the given page, or null if it is not stored in this table
+	 */
+	public DbPage getPage(int id) {
+
+		int row = rowOf(id) ;
+		if (row < 0)
+			return null ;
+
+		return new DbPage(getTitleAt(row), types[row], depths[row]) ;
+	}
+
+	/**
+	 * @param row a row of this table, between 0 and {@link #size()}
+	 * @return the id of the page stored in the given row
+	 */
+	int getIdAt(int row) {
+		return ids[row] ;
+	}
+
+	private String getTitleAt(int row) {
+		int start = titleOffsets[row] ;
+		return new String(titles, start, titleOffsets[row+1] - start, UTF8) ;
+	}
+
+	private int rowOf(int id) {
+		//rows are stored with an offset of one, since missing keys map to 0
+		return rowsById.get(id) - 1 ;
+	}
+
+
+	/**
+	 * Gathers pages (in any order) for a new {@link PageTable}
+	 */
+	public static class Builder {
+
+		private TIntIntHashMap rowsById = new TIntIntHashMap() ;
+
+		private TIntArrayList ids = new TIntArrayList() ;
+		private TByteArrayList types = new TByteArrayList() ;
+		private TShortArrayList depths = new TShortArrayList() ;
+
+		private ByteArrayOutputStream titles = new ByteArrayOutputStream() ;
+		private TIntArrayList titleOffsets = new TIntArrayList() ;
+
+		/**
+		 * Adds a page to the table. Each page should only be added once; any later details for the same id are ignored.
+		 *
+		 * @param id the id of the page
+		 * @param page the details of the page
+		 */
+		public void add(int id, DbPage page) {
+
+			if (rowsById.containsKey(id))
+				return ;
+
+			byte[] title = page.getTitle().getBytes(UTF8) ;
+
+			//depths beyond the range of a short are meaningless for a category hierarchy, so are treated as unreachable
+			int depth = page.getDepth() ;
+			if (depth > Short.MAX_VALUE)
+				depth = -1 ;
+
+			rowsById.put(id, types.size() + 1) ;
+			ids.add(id) ;
+			types.add((byte)page.getType()) ;
+			depths.add((short)depth) ;
+			titleOffsets.add(titles.size()) ;
+			titles.write(title, 0, title.length) ;
+		}
+
+		/**
+		 * @return the number of pages that have been added
+		 */
+		public int size() {
+			return types.size() ;
+		}
+
+		/**
+		 * @return a table containing every page that has been added
+		 */
+		public PageTable build() {
+			return new PageTable(this) ;
+		}
+	}
+}
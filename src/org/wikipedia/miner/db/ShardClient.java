@@ -0,0 +1,427 @@
+package org.wikipedia.miner.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A connection to the {@link ShardServer}s that between them hold every database of a sharded environment.
+ *
+ * Every database is split into the same number of shards, and each key belongs to exactly one of them (see {@link WDatabase#getShard(byte[], int)}):
+ * int-keyed databases are partitioned by page id, and the rest by a hash of the stored key. A shard may be served by several
+ * replicas, which are used in turn so that the load of a busy shard can be spread over more processes, and which stand in
+ * for one another if a connection fails.
+ *
+ * When many keys are requested at once, they are grouped by shard and each shard is sent a single request, with all of them
+ * made in parallel.
+ */
+public class ShardClient {
+
+	private static final int CONNECT_TIMEOUT = 10000 ;
+
+	/**
+	 * How long (in milliseconds) to wait for a replica to respond, before passing over to the next one, unless configured otherwise
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 30000 ;
+
+	//how long a replica is passed over for, after a request to it fails
+	private static final long SUSPENSION_TIME = 10000 ;
+
+	private Replica[][] shards ;
+	private AtomicInteger requestCount = new AtomicInteger() ;
+
+	private ExecutorService fanOutExecutor ;
+
+	/**
+	 * Describes (but does not yet connect to) the given shards.
+	 *
+	 * @param shardAddresses the address of each shard, in order, as a comma separated list of host:port pairs, one for each replica
+	 * @throws IllegalArgumentException if any of the addresses cannot be parsed
+	 */
+	public ShardClient(List<String> shardAddresses) {
+		this(shardAddresses, DEFAULT_READ_TIMEOUT) ;
+	}
+
+	/**
+	 * Describes (but does not yet connect to) the given shards.
+	 *
+	 * @param shardAddresses the address of each shard, in order, as a comma separated list of host:port pairs, one for each replica
+	 * @param readTimeout how long (in milliseconds) to wait for a replica to respond, before treating it as failed and moving on to the next one
+	 * @throws IllegalArgumentException if any of the addresses cannot be parsed
+	 */
+	public ShardClient(List<String> shardAddresses, int readTimeout) {
+
+		if (shardAddresses.isEmpty())
+			throw new IllegalArgumentException("at least one shard must be specified") ;
+
+		shards = new Replica[shardAddresses.size()][] ;
+
+		for (int s=0 ; s<shards.length ; s++) {
+
+			String[] replicaAddresses = shardAddresses.get(s).split(",") ;
+
+			shards[s] = new Replica[replicaAddresses.length] ;
+			for (int r=0 ; r<replicaAddresses.length ; r++)
+				shards[s][r] = new Replica(parseAddress(replicaAddresses[r].trim()), readTimeout) ;
+		}
+
+		fanOutExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				//these only ever wait on shards, so they should never keep the application alive
+				Thread t = new Thread(r, "shard-client") ;
+				t.setDaemon(true) ;
+				return t ;
+			}
+		}) ;
+	}
+
+	private static InetSocketAddress parseAddress(String address) {
+
+		int colon = address.lastIndexOf(':') ;
+		if (colon <= 0)
+			throw new IllegalArgumentException("'" + address + "' is not a valid host:port address") ;
+
+		try {
+			return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon+1))) ;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("'" + address + "' is not a valid host:port address") ;
+		}
+	}
+
+	/**
+	 * @return the number of shards that each database is split into
+	 */
+	public int getShardCount() {
+		return shards.length ;
+	}
+
+	/**
+	 * Retrieves the stored value of a single key
+	 *
+	 * @param db the database to search
+	 * @param key the key to search for, exactly as stored by the database
+	 * @return the value associated with the given key, exactly as stored, or null if none exists
+	 */
+	byte[] retrieve(WDatabase<?,?> db, byte[] key) {
+
+		int shard = db.getShard(key, shards.length) ;
+		return request(shard, db.getName(), new byte[][] {key})[0] ;
+	}
+
+	/**
+	 * Retrieves the stored values of many keys, with a single request to each of the shards involved
+	 *
+	 * @param db the database to search
+	 * @param keys the keys to search for, exactly as stored by the database
+	 * @return the value associated with each key, exactly as stored (or null if none exists), in the same order as the given keys
+	 */
+	byte[][] retrieveAll(WDatabase<?,?> db, byte[][] keys) {
+
+		final String dbName = db.getName() ;
+
+		//group keys by shard, remembering where each one came from
+		int[] shardOfKey = new int[keys.length] ;
+		int[] keysPerShard = new int[shards.length] ;
+
+		for (int i=0 ; i<keys.length ; i++) {
+			shardOfKey[i] = db.getShard(keys[i], shards.length) ;
+			keysPerShard[shardOfKey[i]]++ ;
+		}
+
+		final byte[][][] keysByShard = new byte[shards.length][][] ;
+		int[][] indexesByShard = new int[shards.length][] ;
+
+		for (int s=0 ; s<shards.length ; s++) {
+			keysByShard[s] = new byte[keysPerShard[s]][] ;
+			indexesByShard[s] = new int[keysPerShard[s]] ;
+			keysPerShard[s] = 0 ;
+		}
+
+		for (int i=0 ; i<keys.length ; i++) {
+			int s = shardOfKey[i] ;
+			keysByShard[s][keysPerShard[s]] = keys[i] ;
+			indexesByShard[s][keysPerShard[s]] = i ;
+			keysPerShard[s]++ ;
+		}
+
+		//every shard but the last one involved is queried in the background, and the last one while we wait
+		ArrayList<Future<byte[][]>> results = new ArrayList<Future<byte[][]>>() ;
+		for (int s=0 ; s<shards.length ; s++)
+			results.add(null) ;
+
+		int lastShard = -1 ;
+		for (int s=0 ; s<shards.length ; s++) {
+
+			if (keysByShard[s].length == 0)
+				continue ;
+
+			if (lastShard >= 0) {
+				final int shard = lastShard ;
+				results.set(shard, fanOutExecutor.submit(new Callable<byte[][]>() {
+					public byte[][] call() {
+						return request(shard, dbName, keysByShard[shard]) ;
+					}
+				})) ;
+			}
+			lastShard = s ;
+		}
+
+		byte[][] values = new byte[keys.length][] ;
+
+		if (lastShard >= 0)
+			setValues(values, indexesByShard[lastShard], request(lastShard, dbName, keysByShard[lastShard])) ;
+
+		for (int s=0 ; s<shards.length ; s++) {
+			if (results.get(s) != null)
+				setValues(values, indexesByShard[s], waitForRequest(results.get(s))) ;
+		}
+
+		return values ;
+	}
+
+	private static void setValues(byte[][] values, int[] indexes, byte[][] shardValues) {
+		for (int i=0 ; i<indexes.length ; i++)
+			values[indexes[i]] = shardValues[i] ;
+	}
+
+	private static byte[][] waitForRequest(Future<byte[][]> result) {
+
+		try {
+			return result.get() ;
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while waiting for shard", e) ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause() ;
+
+			throw new RuntimeException(e.getCause()) ;
+		}
+	}
+
+	/**
+	 * @param dbName the name of a database
+	 * @return the total number of entries in the given database across all shards, or -1 if none of the shards hold it
+	 */
+	long count(final String dbName) {
+
+		long total = -1 ;
+
+		for (int s=0 ; s<shards.length ; s++) {
+
+			long count = send(s, new Exchange<Long>() {
+				public Long exchange(DataInputStream in, DataOutputStream out) throws IOException {
+					out.writeByte(ShardServer.COUNT) ;
+					out.writeUTF(dbName) ;
+					out.flush() ;
+
+					return in.readLong() ;
+				}
+			}) ;
+
+			if (count >= 0)
+				total = Math.max(total, 0) + count ;
+		}
+
+		return total ;
+	}
+
+	private byte[][] request(int shard, String dbName, byte[][] keys) {
+
+		if (keys.length <= ShardServer.MAX_KEYS)
+			return requestBatch(shard, dbName, keys) ;
+
+		//servers refuse requests for too many keys at once, so larger ones are split up
+		byte[][] values = new byte[keys.length][] ;
+		for (int start=0 ; start<keys.length ; start+=ShardServer.MAX_KEYS) {
+			byte[][] batch = Arrays.copyOfRange(keys, start, Math.min(start + ShardServer.MAX_KEYS, keys.length)) ;
+			System.arraycopy(requestBatch(shard, dbName, batch), 0, values, start, batch.length) ;
+		}
+		return values ;
+	}
+
+	private byte[][] requestBatch(int shard, final String dbName, final byte[][] keys) {
+
+		return send(shard, new Exchange<byte[][]>() {
+			public byte[][] exchange(DataInputStream in, DataOutputStream out) throws IOException {
+				out.writeByte(ShardServer.RETRIEVE) ;
+				out.writeUTF(dbName) ;
+				out.writeInt(keys.length) ;
+				for (byte[] key:keys) {
+					out.writeInt(key.length) ;
+					out.write(key) ;
+				}
+				out.flush() ;
+
+				byte[][] values = new byte[keys.length][] ;
+				for (int i=0 ; i<keys.length ; i++) {
+					int length = in.readInt() ;
+					if (length >= 0) {
+						values[i] = new byte[length] ;
+						in.readFully(values[i]) ;
+					}
+				}
+				return values ;
+			}
+		}) ;
+	}
+
+	/**
+	 * Makes the given exchange with one of the replicas of the given shard, moving on to the next replica whenever a connection fails.
+	 */
+	private <T> T send(int shard, Exchange<T> exchange) {
+
+		Replica[] replicas = shards[shard] ;
+
+		//replicas take turns, so that requests are spread evenly between them, but any that failed recently are only tried as a last resort
+		int first = (requestCount.getAndIncrement() & Integer.MAX_VALUE) % replicas.length ;
+
+		ArrayList<Replica> order = new ArrayList<Replica>(replicas.length + 1) ;
+		for (int r=0 ; r<replicas.length ; r++) {
+			if (!replicas[(first + r) % replicas.length].isSuspended())
+				order.add(replicas[(first + r) % replicas.length]) ;
+		}
+		for (int r=0 ; r<replicas.length ; r++) {
+			if (replicas[(first + r) % replicas.length].isSuspended())
+				order.add(replicas[(first + r) % replicas.length]) ;
+		}
+
+		//the first replica is tried twice, since an idle connection may have been dropped while a fresh one would succeed
+		order.add(order.get(0)) ;
+
+		IOException failure = null ;
+
+		for (Replica replica:order) {
+
+			Connection connection = null ;
+			try {
+				connection = replica.borrowConnection() ;
+				T result = exchange.exchange(connection.in, connection.out) ;
+				replica.returnConnection(connection) ;
+
+				return result ;
+			} catch (IOException e) {
+				if (connection != null)
+					connection.close() ;
+
+				//other idle connections to the same replica have probably been dropped too
+				replica.closeIdleConnections() ;
+
+				if (!replica.isSuspended())
+					Logger.getLogger(ShardClient.class).warn("Request to shard " + shard + " at " + replica.address + " failed, so it will be passed over for a while: " + e) ;
+
+				replica.suspend() ;
+				failure = e ;
+			}
+		}
+
+		throw new RuntimeException("Could not reach any replica of shard " + shard, failure) ;
+	}
+
+	/**
+	 * Closes every connection that is not currently in use
+	 */
+	public void close() {
+
+		for (Replica[] replicas:shards) {
+			for (Replica replica:replicas)
+				replica.closeIdleConnections() ;
+		}
+
+		fanOutExecutor.shutdownNow() ;
+	}
+
+	private interface Exchange<T> {
+		T exchange(DataInputStream in, DataOutputStream out) throws IOException ;
+	}
+
+	/**
+	 * A single server of a shard, and a pool of connections to it.
+	 */
+	private static class Replica {
+
+		InetSocketAddress address ;
+		int readTimeout ;
+		ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<Connection>() ;
+
+		volatile long suspendedUntil = 0 ;
+
+		Replica(InetSocketAddress address, int readTimeout) {
+			this.address = address ;
+			this.readTimeout = readTimeout ;
+		}
+
+		boolean isSuspended() {
+			return System.currentTimeMillis() < suspendedUntil ;
+		}
+
+		void suspend() {
+			suspendedUntil = System.currentTimeMillis() + SUSPENSION_TIME ;
+		}
+
+		Connection borrowConnection() throws IOException {
+
+			Connection connection = idleConnections.poll() ;
+			if (connection == null)
+				connection = new Connection(address, readTimeout) ;
+
+			return connection ;
+		}
+
+		void returnConnection(Connection connection) {
+			idleConnections.add(connection) ;
+		}
+
+		void closeIdleConnections() {
+
+			Connection connection ;
+			while ((connection = idleConnections.poll()) != null)
+				connection.close() ;
+		}
+	}
+
+	private static class Connection {
+
+		Socket socket ;
+		DataInputStream in ;
+		DataOutputStream out ;
+
+		Connection(InetSocketAddress address, int readTimeout) throws IOException {
+
+			socket = new Socket() ;
+			socket.connect(address, CONNECT_TIMEOUT) ;
+			socket.setTcpNoDelay(true) ;
+
+			//a replica that has stalled rather than died would otherwise never be passed over
+			socket.setSoTimeout(readTimeout) ;
+
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream())) ;
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())) ;
+
+			out.writeInt(ShardServer.MAGIC) ;
+			out.writeInt(ShardServer.VERSION) ;
+		}
+
+		void close() {
+			try {
+				socket.close() ;
+			} catch (IOException e) {}
+		}
+	}
+}
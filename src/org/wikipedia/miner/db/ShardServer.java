@@ -0,0 +1,271 @@
+package org.wikipedia.miner.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.sleepycat.bind.tuple.IntegerBinding;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Serves one shard of a sharded environment (as written by {@link WEnvironment#exportShards(org.wikipedia.miner.util.WikipediaConfiguration, File, int, boolean)})
+ * to {@link ShardClient}s over a socket.
+ *
+ * The shard is held as a directory of memory-mapped {@link SnapshotFile}s, one for each database, so a server only needs enough memory
+ * for the parts of its shard that are frequently requested. Several servers can serve the same shard, to share the load of a busy one.
+ *
+ * Each client connection is handled by its own thread, and carries any number of requests, one after another.
+ * A connection starts with {@link #MAGIC} and {@link #VERSION} (as ints), and each request is made up of a single byte identifying
+ * the type of request, the name of a database (as UTF), and then:
+ * <ul>
+ * <li>for {@link #RETRIEVE}, the number of keys (as an int, no more than {@link #MAX_KEYS}), followed by each key (as an int length of no more than 
+ * {@link #MAX_KEY_LENGTH}, and then the key, exactly as stored by the database).
+ * The response is the value of each key in the same order, as an int length (or -1 if it is not found) and then the value, exactly as stored.</li>
+ * <li>for {@link #COUNT}, nothing. The response is the number of entries in this shard of the database (as a long), or -1 if it is not available.</li>
+ * </ul>
+ */
+public class ShardServer {
+
+	static final int MAGIC = 0x574d5348 ;
+	static final int VERSION = 1 ;
+
+	static final int RETRIEVE = 1 ;
+	static final int COUNT = 2 ;
+
+	//the most keys, and the longest key, that a single retrieval may ask for
+	static final int MAX_KEYS = 1 << 20 ;
+	static final int MAX_KEY_LENGTH = 1 << 20 ;
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot" ;
+
+	//seconds to wait for connection handlers to finish their current request when closing
+	private static final int HANDLER_SHUTDOWN_TIMEOUT = 60 ;
+
+	private File directory ;
+	private ConcurrentHashMap<String,SnapshotFile> snapshots = new ConcurrentHashMap<String,SnapshotFile>() ;
+
+	private ServerSocket serverSocket ;
+	private ExecutorService connectionHandlers ;
+	private Set<Socket> openSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket,Boolean>()) ;
+
+	private volatile boolean closed = false ;
+
+	/**
+	 * Maps every snapshot in the given shard directory, and starts listening (but not accepting connections) on the given port.
+	 *
+	 * @param directory a directory containing one shard of an environment
+	 * @param port the port to listen on (or 0 to choose any free port)
+	 * @throws IOException if the snapshots cannot be read, or the port cannot be bound
+	 */
+	public ShardServer(File directory, int port) throws IOException {
+
+		this.directory = directory ;
+
+		File[] files = directory.listFiles() ;
+		if (files == null)
+			throw new IOException(directory + " is not a directory") ;
+
+		for (File file:files) {
+			if (!file.getName().endsWith(SNAPSHOT_SUFFIX))
+				continue ;
+
+			String dbName = file.getName().substring(0, file.getName().length() - SNAPSHOT_SUFFIX.length()) ;
+			snapshots.put(dbName, new SnapshotFile(file)) ;
+		}
+
+		if (snapshots.isEmpty())
+			throw new IOException(directory + " does not contain any snapshots") ;
+
+		serverSocket = new ServerSocket(port) ;
+		connectionHandlers = Executors.newCachedThreadPool() ;
+	}
+
+	/**
+	 * @param shardsDirectory a directory containing every shard of an environment
+	 * @param shard the index of a shard
+	 * @return the directory within the given one that holds the given shard
+	 */
+	public static File getShardDirectory(File shardsDirectory, int shard) {
+		return new File(shardsDirectory + File.separator + "shard" + shard) ;
+	}
+
+	/**
+	 * @return the port this server is listening on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort() ;
+	}
+
+	/**
+	 * Accepts and handles connections until {@link #close()} is called.
+	 *
+	 * @throws IOException if connections can no longer be accepted
+	 */
+	public void serve() throws IOException {
+
+		Logger.getLogger(ShardServer.class).info("Serving " + snapshots.size() + " databases from " + directory + " on port " + getPort()) ;
+
+		while (!closed) {
+
+			final Socket socket ;
+			try {
+				socket = serverSocket.accept() ;
+			} catch (SocketException e) {
+				if (closed)
+					return ;
+				throw e ;
+			}
+
+			connectionHandlers.execute(new Runnable() {
+				public void run() {
+					handleConnection(socket) ;
+				}
+			}) ;
+		}
+	}
+
+	/**
+	 * Stops accepting connections, closes any that are open, waits for their handlers to finish, and unmaps the snapshots.
+	 */
+	public void close() {
+
+		closed = true ;
+
+		try {
+			serverSocket.close() ;
+		} catch (IOException e) {
+			Logger.getLogger(ShardServer.class).warn("Could not close server socket", e) ;
+		}
+
+		connectionHandlers.shutdownNow() ;
+
+		//handlers waiting on a read aren't interrupted, so their connections are closed directly. Otherwise a client
+		//could be told that every key is missing, rather than failing over to another replica
+		for (Socket socket:openSockets) {
+			try {
+				socket.close() ;
+			} catch (IOException e) {}
+		}
+
+		//a handler may be part way through a request, so snapshots can only be unmapped once every handler has finished
+		try {
+			if (!connectionHandlers.awaitTermination(HANDLER_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+				Logger.getLogger(ShardServer.class).warn("Connection handlers are still running, so snapshots will be left for the garbage collector to unmap") ;
+				return ;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			return ;
+		}
+
+		for (SnapshotFile snapshot:snapshots.values())
+			snapshot.close() ;
+
+		snapshots.clear() ;
+	}
+
+	private void handleConnection(Socket socket) {
+
+		openSockets.add(socket) ;
+
+		try {
+			//close() may have already closed every socket it knew about
+			if (closed)
+				return ;
+
+			socket.setTcpNoDelay(true) ;
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream())) ;
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())) ;
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("unrecognised client") ;
+
+			int request ;
+			while (!closed && (request = in.read()) >= 0) {
+
+				String dbName = in.readUTF() ;
+
+				if (closed)
+					break ;
+
+				SnapshotFile snapshot = snapshots.get(dbName) ;
+
+				switch (request) {
+				case RETRIEVE:
+					handleRetrieve(snapshot, in, out) ;
+					break ;
+				case COUNT:
+					out.writeLong(snapshot == null ? -1 : snapshot.size()) ;
+					break ;
+				default:
+					throw new IOException("unrecognised request " + request) ;
+				}
+
+				out.flush() ;
+			}
+		} catch (EOFException e) {
+			//the client has gone away
+		} catch (IOException e) {
+			if (!closed)
+				Logger.getLogger(ShardServer.class).warn("Dropping connection from " + socket.getRemoteSocketAddress(), e) ;
+		} finally {
+			openSockets.remove(socket) ;
+			try {
+				socket.close() ;
+			} catch (IOException e) {}
+		}
+	}
+
+	private void handleRetrieve(SnapshotFile snapshot, DataInputStream in, DataOutputStream out) throws IOException {
+
+		//the whole batch is read before anything is written, so neither side can block the other by filling its buffers
+		//lengths are checked before anything is allocated, so a bad client can't exhaust memory
+		int keyCount = in.readInt() ;
+		if (keyCount < 0 || keyCount > MAX_KEYS)
+			throw new IOException("invalid number of keys " + keyCount) ;
+
+		byte[][] keys = new byte[keyCount][] ;
+		for (int i=0 ; i<keys.length ; i++) {
+			int keyLength = in.readInt() ;
+			if (keyLength < 0 || keyLength > MAX_KEY_LENGTH)
+				throw new IOException("invalid key length " + keyLength) ;
+
+			keys[i] = new byte[keyLength] ;
+			in.readFully(keys[i]) ;
+		}
+
+		for (byte[] key:keys) {
+
+			byte[] value = null ;
+			if (snapshot != null) {
+				if (snapshot.getLayout() == SnapshotFile.Layout.intKeys)
+					value = snapshot.get(IntegerBinding.entryToInt(new DatabaseEntry(key))) ;
+				else
+					value = snapshot.get(key) ;
+			}
+
+			if (value == null) {
+				out.writeInt(-1) ;
+			} else {
+				out.writeInt(value.length) ;
+				out.write(value) ;
+			}
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An immutable, sorted, memory-mapped file containing a read-only copy of a single {@link WDatabase}.
+ *
+ * Snapshots store keys and values exactly as they are serialised by the database's bindings, so they can be served
+ * without Berkeley DB latches, and the operating system's page cache can be shared between several JVMs reading the same file.
+ *
+ * There are two layouts:
+ * <ul>
+ * <li>{@link Layout#intKeys} - a fixed-width table of sorted int keys, followed by a table of value offsets and the values themselves</li>
+ * <li>{@link Layout#byteKeys} - tables of key and value offsets, followed by a pool of sorted (byte-wise) keys and a pool of values</li>
+ * </ul>
+ *
+ * Lookups are made via binary search over the mapped tables.
+ */
+public class SnapshotFile {
+
+	/**
+	 * The ways in which keys can be laid out within a snapshot
+	 */
+	public enum Layout {
+
+		/**
+		 * Keys are stored as a fixed-width table of ints
+		 */
+		intKeys,
+
+		/**
+		 * Keys are stored as variable length byte arrays, sorted in the same order as Berkeley DB would sort them
+		 */
+		byteKeys
+	}
+
+	private static final int MAGIC = 0x574d534e ;
+	private static final int VERSION = 1 ;
+	private static final int HEADER_LENGTH = 20 ;
+
+	//the largest region that can be mapped in one go
+	private static final long MAX_REGION = Integer.MAX_VALUE ;
+
+	private File file ;
+	private Layout layout ;
+	private int count ;
+
+	private long keyTableStart ;
+	private long valueTableStart ;
+	private long keyPoolStart ;
+	private long valuePoolStart ;
+
+	private MappedByteBuffer[] regions ;
+
+	/**
+	 * Opens and maps the given snapshot file
+	 *
+	 * @param file a file that has been written by a {@link SnapshotFile.Writer}
+	 * @throws IOException if the file cannot be read, or is not a valid snapshot
+	 */
+	public SnapshotFile(File file) throws IOException {
+
+		this.file = file ;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		FileChannel channel = raf.getChannel() ;
+
+		try {
+			long length = channel.size() ;
+
+			int regionCount = (int)((length + MAX_REGION - 1) / MAX_REGION) ;
+			regions = new MappedByteBuffer[Math.max(regionCount, 1)] ;
+
+			for (int r=0 ; r<regionCount ; r++) {
+				long start = r * MAX_REGION ;
+				regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAX_REGION, length-start)) ;
+			}
+		} finally {
+			channel.close() ;
+			raf.close() ;
+		}
+
+		if (regions[0] == null || regions[0].capacity() < HEADER_LENGTH || getInt(0) != MAGIC)
+			throw new IOException(file + " is not a valid snapshot") ;
+
+		if (getInt(4) != VERSION)
+			throw new IOException(file + " was written by an incompatible version (" + getInt(4) + ")") ;
+
+		layout = Layout.values()[getInt(8)] ;
+		count = getInt(12) ;
+
+		if (layout == Layout.intKeys) {
+			keyTableStart = HEADER_LENGTH ;
+			valueTableStart = keyTableStart + (4L * count) ;
+			keyPoolStart = -1 ;
+			valuePoolStart = valueTableStart + (8L * (count+1)) ;
+		} else {
+			keyTableStart = HEADER_LENGTH ;
+			valueTableStart = keyTableStart + (8L * (count+1)) ;
+			keyPoolStart = valueTableStart + (8L * (count+1)) ;
+			valuePoolStart = keyPoolStart + getLong(valueTableStart - 8) ;
+		}
+	}
+
+	/**
+	 * @return the file underlying this snapshot
+	 */
+	public File getFile() {
+		return file ;
+	}
+
+	/**
+	 * @return the layout of keys within this snapshot
+	 */
+	public Layout getLayout() {
+		return layout ;
+	}
+
+	/**
+	 * @return the number of entries stored in this snapshot
+	 */
+	public int size() {
+		return count ;
+	}
+
+	/**
+	 * Retrieves the serialised value associated with the given int key.
+	 *
+	 * @param key the key to search for
+	 * @return the serialised value, or null if the key is not found
+	 */
+	public byte[] get(int key) {
+
+		if (layout != Layout.intKeys)
+			throw new UnsupportedOperationException("snapshot " + file + " is not keyed by ints") ;
+
+		int lo = 0 ;
+		int hi = count - 1 ;
+
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1 ;
+			int midKey = getInt(keyTableStart + (4L * mid)) ;
+
+			if (midKey < key)
+				lo = mid + 1 ;
+			else if (midKey > key)
+				hi = mid - 1 ;
+			else
+				return getValue(mid) ;
+		}
+
+		return null ;
+	}
+
+	/**
+	 * Retrieves the serialised value associated with the given serialised key.
+	 *
+	 * @param key the key to search for, as serialised by the database's key binding
+	 * @return the serialised value, or null if the key is not found
+	 */
+	public byte[] get(byte[] key) {
+
+		if (layout != Layout.byteKeys)
+			throw new UnsupportedOperationException("snapshot " + file + " is not keyed by byte arrays") ;
+
+		int lo = 0 ;
+		int hi = count - 1 ;
+
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1 ;
+			int cmp = compareKey(mid, key) ;
+
+			if (cmp < 0)
+				lo = mid + 1 ;
+			else if (cmp > 0)
+				hi = mid - 1 ;
+			else
+				return getValue(mid) ;
+		}
+
+		return null ;
+	}
+
+	/**
+	 * Unmaps this snapshot. It should not be used after this call.
+	 */
+	public void close() {
+		//mapped buffers are released by the garbage collector; we just drop our references to them
+		regions = null ;
+	}
+
+	private byte[] getValue(int index) {
+
+		long start = getLong(valueTableStart + (8L * index)) ;
+		long end = getLong(valueTableStart + (8L * (index+1))) ;
+
+		byte[] value = new byte[(int)(end-start)] ;
+		getBytes(valuePoolStart + start, value) ;
+		return value ;
+	}
+
+	private int compareKey(int index, byte[] key) {
+
+		long start = keyPoolStart + getLong(keyTableStart + (8L * index)) ;
+		long end = keyPoolStart + getLong(keyTableStart + (8L * (index+1))) ;
+
+		int length = (int)(end-start) ;
+
+		for (int i=0 ; i<length && i<key.length ; i++) {
+			int a = getByte(start + i) & 0xff ;
+			int b = key[i] & 0xff ;
+
+			if (a != b)
+				return a - b ;
+		}
+
+		return length - key.length ;
+	}
+
+	private byte getByte(long pos) {
+		return regions[(int)(pos / MAX_REGION)].get((int)(pos % MAX_REGION)) ;
+	}
+
+	private int getInt(long pos) {
+
+		int offset = (int)(pos % MAX_REGION) ;
+		ByteBuffer region = regions[(int)(pos / MAX_REGION)] ;
+
+		if (offset + 4 <= region.capacity())
+			return region.getInt(offset) ;
+
+		//value spans two regions
+		return ((getByte(pos) & 0xff) << 24) | ((getByte(pos+1) & 0xff) << 16) | ((getByte(pos+2) & 0xff) << 8) | (getByte(pos+3) & 0xff) ;
+	}
+
+	private long getLong(long pos) {
+
+		int offset = (int)(pos % MAX_REGION) ;
+		ByteBuffer region = regions[(int)(pos / MAX_REGION)] ;
+
+		if (offset + 8 <= region.capacity())
+			return region.getLong(offset) ;
+
+		return ((long)getInt(pos) << 32) | (getInt(pos+4) & 0xffffffffL) ;
+	}
+
+	private void getBytes(long pos, byte[] dest) {
+
+		int copied = 0 ;
+
+		while (copied < dest.length) {
+			long curr = pos + copied ;
+
+			ByteBuffer region = regions[(int)(curr / MAX_REGION)].duplicate() ;
+			int offset = (int)(curr % MAX_REGION) ;
+			int length = Math.min(dest.length - copied, region.capacity() - offset) ;
+
+			region.position(offset) ;
+			region.get(dest, copied, length) ;
+
+			copied += length ;
+		}
+	}
+
+
+
+	/**
+	 * Writes a snapshot file. Entries must be added in ascending key order (the order in which a {@link WIterator} returns them).
+	 */
+	public static class Writer {
+
+		private File file ;
+		private Layout layout ;
+
+		private File keyPoolFile ;
+		private File valuePoolFile ;
+
+		private DataOutputStream keyPool ;
+		private DataOutputStream valuePool ;
+
+		private TIntArrayList intKeys = new TIntArrayList() ;
+		private TLongArrayList keyOffsets = new TLongArrayList() ;
+		private TLongArrayList valueOffsets = new TLongArrayList() ;
+
+		private long keyPoolLength = 0 ;
+		private long valuePoolLength = 0 ;
+
+		private byte[] lastKey = null ;
+
+		/**
+		 * Starts writing a snapshot to the given file
+		 *
+		 * @param file the file to write to (any existing file will be overwritten when {@link #close()} is called)
+		 * @param layout the layout of keys within this snapshot
+		 * @throws IOException if temporary files cannot be created alongside the given file
+		 */
+		public Writer(File file, Layout layout) throws IOException {
+			this.file = file ;
+			this.layout = layout ;
+
+			valuePoolFile = new File(file.getPath() + ".values.tmp") ;
+			valuePool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(valuePoolFile))) ;
+
+			if (layout == Layout.byteKeys) {
+				keyPoolFile = new File(file.getPath() + ".keys.tmp") ;
+				keyPool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(keyPoolFile))) ;
+				keyOffsets.add(0) ;
+			}
+
+			valueOffsets.add(0) ;
+		}
+
+		/**
+		 * Adds an entry to a snapshot with the {@link Layout#intKeys} layout
+		 *
+		 * @param key the key
+		 * @param value the serialised value
+		 * @throws IOException if the entry cannot be written, or is out of order
+		 */
+		public void add(int key, byte[] value) throws IOException {
+
+			if (layout != Layout.intKeys)
+				throw new IOException("snapshot " + file + " is not keyed by ints") ;
+
+			if (!intKeys.isEmpty() && intKeys.get(intKeys.size()-1) >= key)
+				throw new IOException("keys must be added in ascending order: " + key) ;
+
+			intKeys.add(key) ;
+			addValue(value) ;
+		}
+
+		/**
+		 * Adds an entry to a snapshot with the {@link Layout#byteKeys} layout
+		 *
+		 * @param key the serialised key
+		 * @param value the serialised value
+		 * @throws IOException if the entry cannot be written, or is out of order
+		 */
+		public void add(byte[] key, byte[] value) throws IOException {
+
+			if (layout != Layout.byteKeys)
+				throw new IOException("snapshot " + file + " is not keyed by byte arrays") ;
+
+			if (lastKey != null && compare(lastKey, key) >= 0)
+				throw new IOException("keys must be added in ascending order") ;
+
+			keyPool.write(key) ;
+			keyPoolLength += key.length ;
+			keyOffsets.add(keyPoolLength) ;
+			lastKey = key ;
+
+			addValue(value) ;
+		}
+
+		private void addValue(byte[] value) throws IOException {
+			valuePool.write(value) ;
+			valuePoolLength += value.length ;
+			valueOffsets.add(valuePoolLength) ;
+		}
+
+		/**
+		 * Assembles the snapshot file, and removes any temporary files
+		 *
+		 * @throws IOException if the snapshot cannot be written
+		 */
+		public void close() throws IOException {
+
+			valuePool.close() ;
+			if (keyPool != null)
+				keyPool.close() ;
+
+			int count = valueOffsets.size() - 1 ;
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) ;
+
+			out.writeInt(MAGIC) ;
+			out.writeInt(VERSION) ;
+			out.writeInt(layout.ordinal()) ;
+			out.writeInt(count) ;
+			out.writeInt(0) ;
+
+			if (layout == Layout.intKeys) {
+				for (int i=0 ; i<count ; i++)
+					out.writeInt(intKeys.get(i)) ;
+			} else {
+				for (int i=0 ; i<=count ; i++)
+					out.writeLong(keyOffsets.get(i)) ;
+			}
+
+			for (int i=0 ; i<=count ; i++)
+				out.writeLong(valueOffsets.get(i)) ;
+
+			if (keyPoolFile != null) {
+				append(keyPoolFile, out) ;
+				keyPoolFile.delete() ;
+			}
+
+			append(valuePoolFile, out) ;
+			valuePoolFile.delete() ;
+
+			out.close() ;
+		}
+
+		private void append(File source, DataOutputStream out) throws IOException {
+
+			InputStream in = new BufferedInputStream(new FileInputStream(source)) ;
+			byte[] buffer = new byte[1 << 16] ;
+
+			int read ;
+			while ((read = in.read(buffer)) > 0)
+				out.write(buffer, 0, read) ;
+
+			in.close() ;
+		}
+
+		private static int compare(byte[] a, byte[] b) {
+
+			for (int i=0 ; i<a.length && i<b.length ; i++) {
+				int cmp = (a[i] & 0xff) - (b[i] & 0xff) ;
+				if (cmp != 0)
+					return cmp ;
+			}
+			return a.length - b.length ;
+		}
+	}
+}
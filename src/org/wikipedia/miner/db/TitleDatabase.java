@@ -1,7 +1,6 @@
 package org.wikipedia.miner.db;
 
 import gnu.trove.TIntHash;
-import gnu.trove.TIntHashSet;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -9,6 +8,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -25,8 +27,18 @@ import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseEntry;
 
+/**
+ * A {@link WDatabase} for associating the titles of articles, categories or templates with their ids.
+ * 
+ * When cached (with either {@link WDatabase.CachePriority#speed} or {@link WDatabase.CachePriority#space}), titles are held in a 
+ * {@link TitleIndex} rather than a map of strings, since this takes a small fraction of the space. Images of the index 
+ * (see {@link WikipediaConfiguration#getCacheImageDirectory()}) can be memory-mapped (see {@link WikipediaConfiguration#isMapTitleIndexes()}).
+ */
 public class TitleDatabase extends WDatabase<String,Integer>{
 
+	private TitleIndex.Builder indexBuilder ;
+	private volatile TitleIndex index ;
+
 	public TitleDatabase(WEnvironment env, DatabaseType type) {
 		super(env, type, new StringBinding(), new IntegerBinding());
 
@@ -43,27 +55,31 @@ public class TitleDatabase extends WDatabase<String,Integer>{
 		DbPage p = new DbPage() ;
 		p.deserialize(record) ;
 
-		PageType pageType = PageType.values()[p.getType()];
-		DatabaseType dbType = getType() ;
-
-		if (dbType == DatabaseType.articlesByTitle && (pageType != PageType.article && pageType != PageType.disambiguation && pageType != PageType.redirect))
-			return null ;
-
-		if (dbType == DatabaseType.categoriesByTitle && pageType != PageType.category)
+		if (!accepts(PageType.values()[p.getType()]))
 			return null ;
 
-		if (dbType == DatabaseType.templatesByTitle && pageType != PageType.template)
-			return null ;
-
-
 		return new WEntry<String,Integer>(p.getTitle(), id) ;
 	}
+	
+	private boolean accepts(PageType pageType) {
+		
+		switch (getType()) {
+		case articlesByTitle:
+			return pageType == PageType.article || pageType == PageType.disambiguation || pageType == PageType.redirect ;
+		case categoriesByTitle:
+			return pageType == PageType.category ;
+		case templatesByTitle:
+			return pageType == PageType.template ;
+		default:
+			return false ;
+		}
+	}
 
 	@Override
 	public Integer filterCacheEntry(WEntry<String, Integer> e,
 			WikipediaConfiguration conf) {
 
-		TIntHashSet validIds = conf.getArticlesOfInterest() ;
+		PageIdSet validIds = conf.getArticlesOfInterest() ;
 
 		if (getType() == DatabaseType.articlesByTitle) {
 			if (validIds != null && !validIds.contains(e.getValue()))
@@ -77,42 +93,207 @@ public class TitleDatabase extends WDatabase<String,Integer>{
 
 	@Override
 	public void loadFromCsvFile(File dataFile, boolean overwrite, ProgressTracker tracker) throws IOException  {
+		loadFromCsvFile(dataFile, overwrite, tracker, this) ;
+	}
 
-		if (exists() && !overwrite)
+	/**
+	 * Loads any number of title databases from a single pass over the given page csv file.
+	 * 
+	 * @param dataFile the page.csv file produced by DumpExtractor
+	 * @param overwrite true if existing databases should be overwritten, otherwise false
+	 * @param tracker an optional progress tracker (may be null)
+	 * @param databases the databases to load
+	 * @throws IOException if there is a problem reading or deserialising the given data file.
+	 */
+	public static void loadFromCsvFile(File dataFile, boolean overwrite, ProgressTracker tracker, TitleDatabase... databases) throws IOException  {
+
+		ArrayList<TitleDatabase> pending = new ArrayList<TitleDatabase>() ;
+		ArrayList<TreeMap<String,Integer>> titles = new ArrayList<TreeMap<String,Integer>>() ;
+		
+		for (TitleDatabase db:databases) {
+			if (db.exists() && !overwrite)
+				continue ;
+			
+			pending.add(db) ;
+			titles.add(new TreeMap<String,Integer>()) ;
+		}
+		
+		if (pending.isEmpty())
 			return ;
 
 		if (tracker == null) tracker = new ProgressTracker(1, WDatabase.class) ;
-		tracker.startTask(dataFile.length(), "Loading " + getName()) ;
+		tracker.startTask(dataFile.length(), "Loading " + getNames(pending.toArray(new TitleDatabase[pending.size()]))) ;
 
 
 		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), "UTF-8")) ;
 
 		long bytesRead = 0 ;
-		int lineNum = 0 ;
-
-		TreeMap<String, Integer> tmp = new TreeMap<String, Integer>() ;
 
 		String line ;
 		while ((line=input.readLine()) != null) {
 			bytesRead = bytesRead + line.length() + 1 ;
-			lineNum++ ;
 
 			CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream((line + "\n").getBytes("UTF-8"))) ;
 
-			WEntry<String,Integer> entry = deserialiseCsvRecord(cri) ;
+			Integer id = cri.readInt(null) ;
 
-			if (entry != null) {				
-				tmp.put(entry.getKey(), entry.getValue()) ;
-				tracker.update(bytesRead) ;
+			DbPage p = new DbPage() ;
+			p.deserialize(cri) ;
+			
+			PageType pageType = PageType.values()[p.getType()] ;
+			
+			for (int i=0 ; i<pending.size() ; i++) {
+				if (pending.get(i).accepts(pageType))
+					titles.get(i).put(p.getTitle(), id) ;
 			}
+			
+			tracker.update(bytesRead) ;
 		}
 		input.close();
 
+		for (int i=0 ; i<pending.size() ; i++) 
+			pending.get(i).write(titles.get(i)) ;
+	}
+	
+	@Override
+	public int updateFromCsvFiles(File previousDataFile, File dataFile, ProgressTracker tracker) throws IOException  {
+		return updateFromCsvFiles(previousDataFile, dataFile, tracker, this)[0] ;
+	}
+	
+	/**
+	 * Updates any number of existing title databases in place, so they match the newer of two versions of the page csv file. 
+	 * 
+	 * Only titles of pages that have been added, changed or removed are rewritten. Since several pages can share a title
+	 * (the last one in the file wins, exactly as when the databases are loaded), each of these titles is resolved against the 
+	 * whole of the newer file before it is written or deleted. 
+	 * 
+	 * @param previousDataFile the page.csv file that the databases were built (or last updated) from
+	 * @param dataFile the newer version of the page.csv file
+	 * @param tracker an optional progress tracker (may be null)
+	 * @param databases the databases to update
+	 * @return the number of titles that were added, changed or removed in each of the given databases
+	 * @throws IOException if there is a problem reading or deserialising either file.
+	 */
+	public static int[] updateFromCsvFiles(File previousDataFile, File dataFile, ProgressTracker tracker, TitleDatabase... databases) throws IOException  {
 
+		if (tracker == null) tracker = new ProgressTracker(1, WDatabase.class) ;
+		tracker.startTask(previousDataFile.length() + (3 * dataFile.length()), "Updating " + getNames(databases)) ;
+		
+		CsvDelta delta = new CsvDelta(previousDataFile, dataFile) ;
+		
+		ArrayList<HashSet<String>> affectedTitles = new ArrayList<HashSet<String>>() ;
+		ArrayList<HashMap<String,Integer>> resolvedTitles = new ArrayList<HashMap<String,Integer>>() ;
+		for (int i=0 ; i<databases.length ; i++) {
+			affectedTitles.add(new HashSet<String>()) ;
+			resolvedTitles.add(new HashMap<String,Integer>()) ;
+		}
+		
+		long bytesRead = previousDataFile.length() + dataFile.length() ;
+		
+		if (!delta.isEmpty()) {
+			//gather the old titles of stale pages, and the new titles of changed pages
+			bytesRead = gatherTitles(previousDataFile, delta, true, databases, affectedTitles, null, tracker, 0) ;
+			bytesRead = gatherTitles(dataFile, delta, false, databases, affectedTitles, null, tracker, bytesRead) ;
+			
+			//then find where each of them should now point
+			bytesRead = gatherTitles(dataFile, null, false, databases, affectedTitles, resolvedTitles, tracker, bytesRead) ;
+		}
+
+		int[] changes = new int[databases.length] ;
+		for (int i=0 ; i<databases.length ; i++) {
+			
+			if (!affectedTitles.get(i).isEmpty())
+				changes[i] = databases[i].update(affectedTitles.get(i), resolvedTitles.get(i)) ;
+		}
+		
+		tracker.update(previousDataFile.length() + (3 * dataFile.length())) ;
+		
+		return changes ;
+	}
+	
+	private static long gatherTitles(File dataFile, CsvDelta delta, boolean previous, TitleDatabase[] databases, ArrayList<HashSet<String>> affectedTitles, ArrayList<HashMap<String,Integer>> resolvedTitles, ProgressTracker tracker, long bytesRead) throws IOException {
+		
+		BufferedReader input = CsvDelta.openCsvFile(dataFile) ;
+		
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				bytesRead = bytesRead + line.length() + 1 ;
+				
+				if (delta != null && !(previous ? delta.isStale(line) : delta.isChanged(line)))
+					continue ;
+				
+				CsvRecordInput cri = CsvDelta.toRecord(line) ;
+				
+				Integer id = cri.readInt(null) ;
+
+				DbPage p = new DbPage() ;
+				p.deserialize(cri) ;
+				
+				PageType pageType = PageType.values()[p.getType()] ;
+				
+				for (int i=0 ; i<databases.length ; i++) {
+					if (!databases[i].accepts(pageType))
+						continue ;
+					
+					if (resolvedTitles == null) 
+						affectedTitles.get(i).add(p.getTitle()) ;
+					else if (affectedTitles.get(i).contains(p.getTitle()))
+						resolvedTitles.get(i).put(p.getTitle(), id) ;
+				}
+				
+				tracker.update(bytesRead) ;
+			}
+		} finally {
+			input.close() ;
+		}
+		
+		return bytesRead ;
+	}
+	
+	private int update(HashSet<String> affectedTitles, HashMap<String,Integer> resolvedTitles) {
+		
+		Database db = getDatabaseForUpdate() ;
+		
+		for (String title:affectedTitles) {
+			
+			DatabaseEntry k = new DatabaseEntry() ;
+			keyBinding.objectToEntry(title, k) ;
+			
+			Integer id = resolvedTitles.get(title) ;
+			
+			if (id == null) {
+				db.delete(null, k) ;
+			} else {
+				DatabaseEntry v = new DatabaseEntry() ;
+				valueBinding.objectToEntry(id, v) ;
+
+				db.put(null, k, v) ;
+			}
+		}
+		
+		env.cleanAndCheckpoint() ;
+		getDatabase(true) ;
+		
+		return affectedTitles.size() ;
+	}
+	
+	private static String getNames(TitleDatabase[] databases) {
+		
+		StringBuffer names = new StringBuffer() ;
+		for (TitleDatabase db:databases) {
+			if (names.length() > 0)
+				names.append(", ") ;
+			names.append(db.getName()) ;
+		}
+		return names.toString() ;
+	}
+	
+	private void write(TreeMap<String, Integer> titles) {
 
 		Database db = getDatabase(false) ;
 
-		for (Map.Entry<String, Integer> entry: tmp.entrySet()) {
+		for (Map.Entry<String, Integer> entry: titles.entrySet()) {
 
 			DatabaseEntry k = new DatabaseEntry() ;
 			keyBinding.objectToEntry(entry.getKey(), k) ;
@@ -121,13 +302,109 @@ public class TitleDatabase extends WDatabase<String,Integer>{
 			valueBinding.objectToEntry(entry.getValue(), v) ;
 
 			db.put(null, k, v) ;
-			//TODO: progress update
 		}
 
-		input.close();
-
 		env.cleanAndCheckpoint() ;
 		getDatabase(true) ;
 	}
-
+	
+	/**
+	 * @return the index of cached titles, or null if this database has not (yet) been cached.
+	 */
+	public TitleIndex getTitleIndex() {
+		
+		if (!isCached())
+			return null ;
+		
+		return index ;
+	}
+	
+	@Override
+	public long getCacheSize() {
+		
+		if (getBoundedCache() != null)
+			return getBoundedCache().size() ;
+		
+		if (!isCached())
+			return 0 ;
+		
+		return index.size() ;
+	}
+	
+	@Override
+	protected Integer retrieveFromCache(String key) {
+		
+		int id = index.get(key) ;
+		if (id < 0)
+			return null ;
+		
+		return id ;
+	}
+	
+	@Override
+	protected void initializeCache() {
+		indexBuilder = new TitleIndex.Builder() ;
+	}
+	
+	@Override
+	protected void addToCache(WEntry<String,Integer> entry) {
+		indexBuilder.add(entry.getKey(), entry.getValue()) ;
+	}
+	
+	@Override
+	protected void finalizeCache() {
+		
+		if (indexBuilder != null) {
+			index = indexBuilder.build() ;
+			indexBuilder = null ;
+		}
+		
+		super.finalizeCache() ;
+	}
+	
+	/**
+	 * Writes the cached index to the given file. Unlike other databases, this stores the index itself rather than 
+	 * the entries it was built from, since titles are not retained once they have been indexed.
+	 */
+	@Override
+	public void writeCacheImage(File file, long fingerprint) throws IOException {
+		
+		if (!isCached())
+			throw new IllegalStateException(getName() + " has not been cached") ;
+		
+		index.write(file, fingerprint) ;
+	}
+	
+	/**
+	 * Restores the cached index from an image written by {@link #writeCacheImage(File, long)}. The index will be 
+	 * memory-mapped if {@link WikipediaConfiguration#isMapTitleIndexes()} is set. 
+	 */
+	@Override
+	public boolean loadCacheImage(File file, long fingerprint, CachePriority priority, ProgressTracker tracker) throws IOException {
+		
+		if (priority == CachePriority.bounded)
+			return false ;
+		
+		if (tracker == null) 
+			tracker = new ProgressTracker(1, WDatabase.class) ;
+		
+		tracker.startTask(1, "loading cached " + getName() + " database") ;
+		
+		TitleIndex loadedIndex = TitleIndex.load(file, fingerprint, env.getConfiguration().isMapTitleIndexes()) ;
+		if (loadedIndex == null)
+			return false ;
+		
+		beginCaching(priority) ;
+		index = loadedIndex ;
+		finalizeCache() ;
+		
+		tracker.update() ;
+		return true ;
+	}
+	
+	@Override
+	public void close() {
+		super.close() ;
+		index = null ;
+	}
 }
@@ -0,0 +1,441 @@
+package org.wikipedia.miner.db;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongHashSet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact, read-only index from page titles to ids, for the {@link WDatabase.DatabaseType#articlesByTitle},
+ * {@link WDatabase.DatabaseType#categoriesByTitle} and {@link WDatabase.DatabaseType#templatesByTitle} databases.
+ *
+ * Titles are not stored at all. Instead, the UTF-8 bytes of each title are hashed, and a minimal perfect hash function
+ * (built by hashing and displacing buckets of roughly two titles) maps each hash to its own slot in a table of ids.
+ * Every slot also holds a 32 bit fingerprint of the title that was placed there, which is used to reject titles that
+ * are not in the index. The chance of a missing title being mistaken for one that is present is one in 2^32.
+ *
+ * All of this takes roughly 10 bytes per title, and lookups are made without any allocation. An index can be written
+ * to a file and either read back onto the heap or memory-mapped (see {@link #load(File, long, boolean)}).
+ */
+public class TitleIndex {
+
+	private static final int MAGIC = 0x574d5449 ;
+	private static final int VERSION = 1 ;
+	private static final int HEADER_LENGTH = 36 ;
+
+	//the average number of titles in each bucket
+	private static final int BUCKET_SIZE = 2 ;
+
+	//buckets that can't be placed within this many displacements cause the whole function to be rebuilt with a new salt
+	private static final int MAX_DISPLACEMENT = 1 << 20 ;
+	private static final int MAX_ATTEMPTS = 16 ;
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L ;
+
+	private long salt ;
+	private int size ;
+	private int bucketCount ;
+
+	//a displacement for each bucket, or (for buckets with only one title) -(slot+1)
+	private IntBuffer displacements ;
+	private IntBuffer ids ;
+	private IntBuffer fingerprints ;
+
+	private TitleIndex(long salt, int size, int bucketCount, IntBuffer displacements, IntBuffer ids, IntBuffer fingerprints) {
+		this.salt = salt ;
+		this.size = size ;
+		this.bucketCount = bucketCount ;
+		this.displacements = displacements ;
+		this.ids = ids ;
+		this.fingerprints = fingerprints ;
+	}
+
+	/**
+	 * @return the number of titles stored in this index
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * @param title a page title
+	 * @return the id of the page with the given title, or -1 if it is not stored in this index
+	 */
+	public int get(String title) {
+
+		if (size == 0)
+			return -1 ;
+
+		long hash = hash(title) ;
+		int slot = slotOf(hash) ;
+
+		if (fingerprints.get(slot) != fingerprint(hash))
+			return -1 ;
+
+		return ids.get(slot) ;
+	}
+
+	private int slotOf(long hash) {
+
+		long bucketHash = mix(hash ^ salt) ;
+		int displacement = displacements.get(unsignedMod(bucketHash, bucketCount)) ;
+
+		if (displacement < 0)
+			return -(displacement + 1) ;
+
+		return unsignedMod(mix(bucketHash + (displacement + 1) * GOLDEN), size) ;
+	}
+
+	/**
+	 * Writes this index to the given file, so it can be restored by {@link #load(File, long, boolean)}.
+	 * This is written to a temporary file first, and then renamed, so an incomplete index is never left behind.
+	 *
+	 * @param file the file to write to
+	 * @param fingerprint a value that identifies the data and configuration that the index was built from
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file, long fingerprint) throws IOException {
+
+		File tempFile = new File(file.getPath() + ".tmp") ;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20)) ;
+
+		try {
+			out.writeInt(MAGIC) ;
+			out.writeInt(VERSION) ;
+			out.writeLong(fingerprint) ;
+			out.writeLong(salt) ;
+			out.writeInt(size) ;
+			out.writeInt(bucketCount) ;
+			out.writeInt(0) ;
+
+			writeInts(out, displacements, bucketCount) ;
+			writeInts(out, ids, size) ;
+			writeInts(out, fingerprints, size) ;
+		} finally {
+			out.close() ;
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file) ;
+
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename " + tempFile + " to " + file) ;
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer values, int count) throws IOException {
+		for (int i=0 ; i<count ; i++)
+			out.writeInt(values.get(i)) ;
+	}
+
+	/**
+	 * Restores an index that was written by {@link #write(File, long)}
+	 *
+	 * @param file the file to read from
+	 * @param fingerprint a value that identifies the data and configuration that the index should be built from
+	 * @param mapped true if the index should be memory-mapped (so it takes no heap space, and the operating system's
+	 * page cache can be shared between several JVMs), or false if it should be read onto the heap.
+	 * @return the index, or null if there is no index, or it is stale.
+	 * @throws IOException if the file is unreadable
+	 */
+	public static TitleIndex load(File file, long fingerprint, boolean mapped) throws IOException {
+
+		if (!file.canRead())
+			return null ;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		FileChannel channel = raf.getChannel() ;
+
+		try {
+			if (channel.size() < HEADER_LENGTH)
+				return null ;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH) ;
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0)
+					throw new IOException("Unexpected end of " + file) ;
+			}
+			header.flip() ;
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != fingerprint)
+				return null ;
+
+			long salt = header.getLong() ;
+			int size = header.getInt() ;
+			int bucketCount = header.getInt() ;
+
+			long length = 4L * (bucketCount + 2L * size) ;
+			if (channel.size() != HEADER_LENGTH + length)
+				throw new IOException(file + " is truncated") ;
+
+			ByteBuffer body ;
+			if (mapped) {
+				body = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, length) ;
+			} else {
+				body = ByteBuffer.allocate((int)length) ;
+				while (body.hasRemaining()) {
+					if (channel.read(body) < 0)
+						throw new IOException("Unexpected end of " + file) ;
+				}
+				body.flip() ;
+			}
+
+			IntBuffer values = body.asIntBuffer() ;
+
+			IntBuffer displacements = slice(values, 0, bucketCount, mapped) ;
+			IntBuffer ids = slice(values, bucketCount, size, mapped) ;
+			IntBuffer fingerprints = slice(values, bucketCount + size, size, mapped) ;
+
+			return new TitleIndex(salt, size, bucketCount, displacements, ids, fingerprints) ;
+		} finally {
+			raf.close() ;
+		}
+	}
+
+	private static IntBuffer slice(IntBuffer values, int start, int length, boolean mapped) {
+
+		if (!mapped) {
+			//copied into plain arrays, so the (temporary) byte buffer can be discarded
+			int[] array = new int[length] ;
+			values.position(start) ;
+			values.get(array) ;
+			return IntBuffer.wrap(array) ;
+		}
+
+		values.position(start) ;
+		values.limit(start + length) ;
+		IntBuffer slice = values.slice() ;
+		values.clear() ;
+
+		return slice ;
+	}
+
+
+	/**
+	 * Hashes the UTF-8 encoding of the given string, without actually allocating it
+	 */
+	static long hash(String s) {
+
+		long h = 0xCBF29CE484222325L ;
+
+		int length = s.length() ;
+		for (int i=0 ; i<length ; i++) {
+			int c = s.charAt(i) ;
+
+			if (c < 0x80) {
+				h = (h ^ c) * 0x100000001B3L ;
+			} else if (c < 0x800) {
+				h = (h ^ (0xC0 | (c >> 6))) * 0x100000001B3L ;
+				h = (h ^ (0x80 | (c & 0x3F))) * 0x100000001B3L ;
+			} else if (Character.isHighSurrogate((char)c) && i+1 < length && Character.isLowSurrogate(s.charAt(i+1))) {
+				int cp = Character.toCodePoint((char)c, s.charAt(++i)) ;
+				h = (h ^ (0xF0 | (cp >> 18))) * 0x100000001B3L ;
+				h = (h ^ (0x80 | ((cp >> 12) & 0x3F))) * 0x100000001B3L ;
+				h = (h ^ (0x80 | ((cp >> 6) & 0x3F))) * 0x100000001B3L ;
+				h = (h ^ (0x80 | (cp & 0x3F))) * 0x100000001B3L ;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				//unpaired surrogates are encoded as '?', just as String.getBytes("UTF-8") would
+				h = (h ^ '?') * 0x100000001B3L ;
+			} else {
+				h = (h ^ (0xE0 | (c >> 12))) * 0x100000001B3L ;
+				h = (h ^ (0x80 | ((c >> 6) & 0x3F))) * 0x100000001B3L ;
+				h = (h ^ (0x80 | (c & 0x3F))) * 0x100000001B3L ;
+			}
+		}
+
+		return mix(h) ;
+	}
+
+	private static int fingerprint(long hash) {
+		return (int)(hash >>> 32) ;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33 ;
+		h *= 0xFF51AFD7ED558CCDL ;
+		h ^= h >>> 33 ;
+		h *= 0xC4CEB9FE1A85EC53L ;
+		h ^= h >>> 33 ;
+		return h ;
+	}
+
+	private static int unsignedMod(long h, int n) {
+		return (int)((h >>> 1) % n) ;
+	}
+
+
+	/**
+	 * Gathers titles (in any order) for a new {@link TitleIndex}
+	 */
+	public static class Builder {
+
+		private TLongArrayList hashes = new TLongArrayList() ;
+		private TIntArrayList ids = new TIntArrayList() ;
+
+		private TLongHashSet seen = new TLongHashSet() ;
+
+		/**
+		 * Adds a title to the index. Each title should only be added once; any later ids for the same title are ignored.
+		 *
+		 * @param title the title of a page
+		 * @param id the id of the page
+		 */
+		public void add(String title, int id) {
+
+			long hash = hash(title) ;
+
+			//distinct titles with the same 64 bit hash are vanishingly unlikely, but can't be told apart
+			if (!seen.add(hash))
+				return ;
+
+			hashes.add(hash) ;
+			ids.add(id) ;
+		}
+
+		/**
+		 * @return the number of titles that have been added
+		 */
+		public int size() {
+			return hashes.size() ;
+		}
+
+		/**
+		 * @return an index of every title that has been added
+		 */
+		public TitleIndex build() {
+
+			seen = null ;
+
+			long salt = 0 ;
+			for (int attempt=0 ; attempt<MAX_ATTEMPTS ; attempt++) {
+
+				TitleIndex index = build(salt) ;
+				if (index != null)
+					return index ;
+
+				salt = mix(salt + GOLDEN) ;
+			}
+
+			throw new IllegalStateException("Could not build a perfect hash over " + hashes.size() + " titles") ;
+		}
+
+		private TitleIndex build(long salt) {
+
+			int size = hashes.size() ;
+			int bucketCount = Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE) ;
+
+			int[] displacements = new int[bucketCount] ;
+			int[] slotIds = new int[size] ;
+			int[] slotFingerprints = new int[size] ;
+
+			if (size == 0)
+				return new TitleIndex(salt, 0, bucketCount, IntBuffer.wrap(displacements), IntBuffer.wrap(slotIds), IntBuffer.wrap(slotFingerprints)) ;
+
+			//group titles by bucket, in compressed rows
+			long[] bucketHashes = new long[size] ;
+			int[] bucketStarts = new int[bucketCount + 1] ;
+
+			for (int i=0 ; i<size ; i++) {
+				bucketHashes[i] = mix(hashes.getQuick(i) ^ salt) ;
+				bucketStarts[unsignedMod(bucketHashes[i], bucketCount) + 1]++ ;
+			}
+
+			int maxBucketSize = 0 ;
+			for (int b=0 ; b<bucketCount ; b++) {
+				maxBucketSize = Math.max(maxBucketSize, bucketStarts[b+1]) ;
+				bucketStarts[b+1] += bucketStarts[b] ;
+			}
+
+			int[] members = new int[size] ;
+			int[] fill = new int[bucketCount] ;
+			for (int i=0 ; i<size ; i++) {
+				int b = unsignedMod(bucketHashes[i], bucketCount) ;
+				members[bucketStarts[b] + fill[b]++] = i ;
+			}
+
+			//the largest buckets are the hardest to place, so they go first, while the table is still empty
+			int[] bucketsBySize = new int[bucketCount] ;
+			int[] sizeStarts = new int[maxBucketSize + 2] ;
+			for (int b=0 ; b<bucketCount ; b++)
+				sizeStarts[maxBucketSize - (bucketStarts[b+1] - bucketStarts[b]) + 1]++ ;
+			for (int s=0 ; s<=maxBucketSize ; s++)
+				sizeStarts[s+1] += sizeStarts[s] ;
+			for (int b=0 ; b<bucketCount ; b++)
+				bucketsBySize[sizeStarts[maxBucketSize - (bucketStarts[b+1] - bucketStarts[b])]++] = b ;
+
+			boolean[] taken = new boolean[size] ;
+			int[] slots = new int[maxBucketSize] ;
+			int nextFree = 0 ;
+
+			for (int b:bucketsBySize) {
+
+				int start = bucketStarts[b] ;
+				int count = bucketStarts[b+1] - start ;
+
+				if (count == 0)
+					break ;
+
+				if (count == 1) {
+					//no need to search for a displacement, since any free slot will do
+					while (taken[nextFree])
+						nextFree++ ;
+
+					slots[0] = nextFree ;
+					displacements[b] = -(nextFree + 1) ;
+				} else {
+					int displacement = findDisplacement(members, start, count, bucketHashes, taken, slots, size) ;
+					if (displacement < 0)
+						return null ;
+
+					displacements[b] = displacement ;
+				}
+
+				for (int j=0 ; j<count ; j++) {
+					int i = members[start + j] ;
+
+					taken[slots[j]] = true ;
+					slotIds[slots[j]] = ids.getQuick(i) ;
+					slotFingerprints[slots[j]] = fingerprint(hashes.getQuick(i)) ;
+				}
+			}
+
+			return new TitleIndex(salt, size, bucketCount, IntBuffer.wrap(displacements), IntBuffer.wrap(slotIds), IntBuffer.wrap(slotFingerprints)) ;
+		}
+
+		private static int findDisplacement(int[] members, int start, int count, long[] bucketHashes, boolean[] taken, int[] slots, int size) {
+
+			for (int displacement=0 ; displacement<MAX_DISPLACEMENT ; displacement++) {
+
+				boolean placed = true ;
+
+				for (int j=0 ; j<count && placed ; j++) {
+					int slot = unsignedMod(mix(bucketHashes[members[start + j]] + (displacement + 1) * GOLDEN), size) ;
+
+					if (taken[slot])
+						placed = false ;
+
+					for (int k=0 ; k<j && placed ; k++) {
+						if (slots[k] == slot)
+							placed = false ;
+					}
+
+					slots[j] = slot ;
+				}
+
+				if (placed)
+					return displacement ;
+			}
+
+			return -1 ;
+		}
+	}
+}
@@ -3,14 +3,36 @@ package org.wikipedia.miner.db;
 import gnu.trove.THashMap;
 import gnu.trove.TIntHash;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -22,6 +44,9 @@ import org.wikipedia.miner.util.WikipediaConfiguration;
 
 
 import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -142,6 +167,12 @@ public abstract class WDatabase<K,V> {
 		 */
 		translations,
 
+		/**
+		 * Associates integer id of article with the ids of the articles that are most related to it, sorted by relatedness. 
+		 * This is not built along with the rest of the environment; see {@link org.wikipedia.miner.util.RelatedArticlesBuilder}
+		 */
+		relatedArticles,
+
 		/**
 		 * Associates integer id of page with its content, in mediawiki markup format
 		 */
@@ -165,26 +196,61 @@ public abstract class WDatabase<K,V> {
 		speed,
 
 		/**
-		 * Focus on memory, by compressing values before storing them.
+		 * Focus on memory, by compressing values before storing them. Values of databases that have a {@link CompactEncoding}
+		 * can also be read in place, via {@link WDatabase#retrieveView(Object, CompactView)}.
 		 */
-		space
+		space,
+
+		/**
+		 * Focus on memory, by holding only a bounded number of frequently requested values, which are read through from 
+		 * the database as they are needed (see {@link BoundedCache}). Nothing is loaded in advance, and values are not filtered.
+		 */
+		bounded
 	}
 
 
+	private static final int LOADING_BATCH_SIZE = 1000 ;
+	
+	//the number of bytes (beyond those shared by the first and last keys) used to choose partition boundaries
+	private static final int PARTITION_KEY_PRECISION = 8 ;
+	private static final int MAX_PENDING_BATCHES = 16 ;
+	private static final int MAX_CURSOR_STEPS = 16 ;
+
+	//asynchronous retrievals are gathered into batches of up to this many keys, with no more than a few batches of the same database in flight at once
+	private static final int MAX_ASYNC_BATCH_SIZE = 256 ;
+	private static final int MAX_ASYNC_BATCHES = 4 ;
+
+	private static final int CACHE_IMAGE_MAGIC = 0x574d4349 ;
+	private static final int CACHE_IMAGE_VERSION = 1 ;
+	private static final int CACHE_IMAGE_BUFFER = 1 << 20 ;
+
 	private String name ;
 	private DatabaseType type ;
 
 	protected WEnvironment env ;
 	private Database database ;
+	private boolean databaseReadOnly ;
+	
+	//the same handle as database, but only while it is open read-only, so that reads can fetch it without taking the lock
+	private volatile Database readOnlyDatabase ;
 	protected EntryBinding<K> keyBinding ;
 	protected EntryBinding<V> valueBinding ;
 
-	private boolean isCached = false ;
+	//the cache is filled before this is set, and never modified afterwards, so reads switch from disk to memory in a single step
+	private volatile boolean isCached = false ;
 	private CachePriority cachePriority = CachePriority.space ;
 
 	private THashMap<K,byte[]> compactCache = null ;
 	private THashMap<K,V> fastCache = null ;
 
+	private volatile BoundedCache<K,V> boundedCache = null ;
+
+	private SnapshotFile snapshot = null ;
+	private ShardClient shards = null ;
+
+	private ConcurrentLinkedQueue<AsyncRetrieval<K,V>> asyncRetrievals = new ConcurrentLinkedQueue<AsyncRetrieval<K,V>>() ;
+	private AtomicInteger asyncBatches = new AtomicInteger() ;
+
 	/**
 	 * Creates or connects to a database, whose name will match the given {@link WDatabase.DatabaseType}
 	 * 
@@ -250,6 +316,9 @@ public abstract class WDatabase<K,V> {
 	 * @return the number of entries in the database
 	 */
 	public long getDatabaseSize() {
+		if (shards != null)
+			return Math.max(shards.count(name), 0) ;
+
 		return getDatabase(true).count();
 	}
 
@@ -259,13 +328,17 @@ public abstract class WDatabase<K,V> {
 	 * @return the number of entries that have been cached to memory
 	 */
 	public long getCacheSize() {
+		BoundedCache<K,V> boundedCache = this.boundedCache ;
+		if (boundedCache != null)
+			return boundedCache.size() ;
+		
 		if (!isCached)
 			return 0 ;
 
 		if (cachePriority == CachePriority.space)
-			return fastCache.size();
-		else
 			return compactCache.size();
+		else
+			return fastCache.size();
 	}
 
 	/**
@@ -277,6 +350,34 @@ public abstract class WDatabase<K,V> {
 		return isCached ;
 	}
 
+	/**
+	 * Returns the read-through cache that holds frequently requested values, if this has been cached with {@link CachePriority#bounded}. 
+	 * This can be used to monitor how effective the cache is. 
+	 * 
+	 * @return the read-through cache, or null if this has not been cached with {@link CachePriority#bounded}
+	 */
+	public BoundedCache<K,V> getBoundedCache() {
+		return boundedCache ;
+	}
+
+	/**
+	 * Returns true if this is being served from a read-only {@link SnapshotFile}, otherwise false
+	 * 
+	 * @return true if this is being served from a read-only {@link SnapshotFile}, otherwise false
+	 */
+	public boolean hasSnapshot() {
+		return snapshot != null ;
+	}
+
+	/**
+	 * Returns true if this is being served by {@link ShardServer}s rather than from local storage, otherwise false
+	 * 
+	 * @return true if this is being served by {@link ShardServer}s rather than from local storage, otherwise false
+	 */
+	public boolean isSharded() {
+		return shards != null ;
+	}
+
 	/**
 	 * Returns whether this has been cached for speed or memory efficiency
 	 * 
@@ -292,6 +393,9 @@ public abstract class WDatabase<K,V> {
 	 * @return true if there is a persistent database underlying this, otherwise false
 	 */
 	public boolean exists() {
+		if (shards != null)
+			return shards.count(name) >= 0 ;
+
 		try {
 			getDatabase(true) ;
 		} catch(DatabaseNotFoundException e) {
@@ -312,22 +416,404 @@ public abstract class WDatabase<K,V> {
 		if (isCached) {
 			//System.out.println("c") ;
 			return retrieveFromCache(key) ;
-		} else {
-			//System.out.println("d") ;
-			Database db = getDatabase(true) ;
+		}
+
+		BoundedCache<K,V> boundedCache = this.boundedCache ;
+		if (boundedCache != null) 
+			return retrieveThroughBoundedCache(boundedCache, key) ;
+		else 
+			return retrieveFromStore(key) ;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V retrieveThroughBoundedCache(BoundedCache<K,V> boundedCache, K key) {
+
+		Object cachedValue = boundedCache.get(key) ;
+
+		if (cachedValue == BoundedCache.ABSENT)
+			return null ;
+
+		if (cachedValue != null)
+			return (V)cachedValue ;
+
+		V value = retrieveFromStore(key) ;
+		boundedCache.put(key, value) ;
 
+		return value ;
+	}
+
+	private V retrieveFromStore(K key) {
+
+		byte[] data = retrieveBytesFromStore(key) ;
+
+		if (data == null)
+			return null ;
+		else
+			return valueBinding.entryToObject(new DatabaseEntry(data)) ;
+	}
+
+	/**
+	 * Retrieves the value associated with the given key from the shards, snapshot or persistent database (never the cache), exactly as it is stored.
+	 * 
+	 * @param key the key to search for
+	 * @return the stored bytes of the value associated with the given key, or null if none exists.
+	 */
+	protected byte[] retrieveBytesFromStore(K key) {
+
+		if (shards != null) {
 			DatabaseEntry dbKey = new DatabaseEntry() ;
 			keyBinding.objectToEntry(key, dbKey) ;
 
+			return shards.retrieve(this, toBytes(dbKey)) ;
+		}
+
+		if (snapshot != null) 
+			return retrieveFromSnapshot(snapshot, key) ;
+
+		//System.out.println("d") ;
+		Database db = getDatabase(true) ;
+
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		keyBinding.objectToEntry(key, dbKey) ;
+
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+
+		OperationStatus os = db.get(null, dbKey, dbValue, LockMode.READ_COMMITTED) ; 
+
+		if (!os.equals(OperationStatus.SUCCESS)) 
+			return null ;
+
+		//avoid a copy in the usual case where the entry spans the whole array
+		if (dbValue.getOffset() == 0 && dbValue.getSize() == dbValue.getData().length)
+			return dbValue.getData() ;
+
+		return toBytes(dbValue) ;
+	}
+
+	/**
+	 * Retrieves the values associated with each of the given keys, exactly as {@link #retrieve(Object)} would. 
+	 * 
+	 * This is much faster than retrieving values one at a time when the database has not been cached, because 
+	 * keys are sorted and then looked up in a single pass of a cursor; neighbouring keys are reached by stepping 
+	 * forward rather than by searching from the root of the database again, so they share page fetches. 
+	 * 
+	 * @param keys the keys to search for
+	 * @return the value associated with each key (or null if none exists), in the same order as the given keys
+	 */
+	public ArrayList<V> retrieveAll(Collection<K> keys) {
+		return retrieveAllStored(keys) ;
+	}
+
+	/**
+	 * Retrieves the values associated with each of the given keys, which are used exactly as given. Subclasses that transform keys 
+	 * before looking them up (such as {@link LabelDatabase}) do so in {@link #retrieveAll(Collection)}, but not here. 
+	 * 
+	 * @param keys the keys to search for, as they are stored
+	 * @return the value associated with each key (or null if none exists), in the same order as the given keys
+	 */
+	protected ArrayList<V> retrieveAllStored(Collection<K> keys) {
+
+		ArrayList<V> values = new ArrayList<V>(keys.size()) ;
+
+		if (isCached) {
+			for (K key:keys) 
+				values.add(retrieveFromCache(key)) ;
+
+			return values ;
+		}
+
+		BoundedCache<K,V> boundedCache = this.boundedCache ;
+
+		//gather the keys that have to be read from disk
+		ArrayList<PendingKey<K>> pending = new ArrayList<PendingKey<K>>() ;
+
+		int index = 0 ;
+		for (K key:keys) {
+
+			Object cachedValue = boundedCache == null ? null : boundedCache.get(key) ;
+
+			if (cachedValue != null) {
+				values.add(cachedValue == BoundedCache.ABSENT ? null : getCachedValue(cachedValue)) ;
+			} else {
+				values.add(null) ;
+
+				DatabaseEntry dbKey = new DatabaseEntry() ;
+				keyBinding.objectToEntry(key, dbKey) ;
+				pending.add(new PendingKey<K>(index, key, toBytes(dbKey))) ;
+			}
+			index++ ;
+		}
+
+		if (pending.isEmpty())
+			return values ;
+
+		//sort keys the same way the database does, so that reads move steadily forward through it
+		Collections.sort(pending) ;
+
+		if (shards != null) {
+			byte[][] keyBytes = new byte[pending.size()][] ;
+			for (int i=0 ; i<keyBytes.length ; i++)
+				keyBytes[i] = pending.get(i).bytes ;
+
+			byte[][] data = shards.retrieveAll(this, keyBytes) ;
+			for (int i=0 ; i<data.length ; i++) {
+				if (data[i] != null)
+					values.set(pending.get(i).index, valueBinding.entryToObject(new DatabaseEntry(data[i]))) ;
+			}
+		} else if (snapshot != null) {
+			for (PendingKey<K> p:pending) {
+				byte[] data = retrieveFromSnapshot(snapshot, p.key) ;
+				if (data != null)
+					values.set(p.index, valueBinding.entryToObject(new DatabaseEntry(data))) ;
+			}
+		} else {
+			retrieveSortedFromDatabase(pending, values) ;
+		}
+
+		if (boundedCache != null) {
+			for (PendingKey<K> p:pending) 
+				boundedCache.put(p.key, values.get(p.index)) ;
+		}
+
+		return values ;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V getCachedValue(Object cachedValue) {
+		return (V)cachedValue ;
+	}
+
+	private void retrieveSortedFromDatabase(ArrayList<PendingKey<K>> pending, ArrayList<V> values) {
+
+		Cursor cursor = getDatabase(true).openCursor(null, CursorConfig.READ_COMMITTED) ;
+
+		try {
+			DatabaseEntry dbKey = new DatabaseEntry() ;
 			DatabaseEntry dbValue = new DatabaseEntry() ;
 
-			OperationStatus os = db.get(null, dbKey, dbValue, LockMode.READ_COMMITTED) ; 
+			//we only need to see keys while moving the cursor
+			DatabaseEntry noData = new DatabaseEntry() ;
+			noData.setPartial(0, 0, true) ;
 
-			if (!os.equals(OperationStatus.SUCCESS)) 
-				return null ;
-			else
-				return valueBinding.entryToObject(dbValue) ;
+			//the key the cursor is currently positioned on, or null if it has not been positioned yet
+			byte[] currKey = null ;
+
+			for (PendingKey<K> p:pending) {
+
+				int steps = 0 ;
+				while (currKey != null && KEY_ORDER.compare(currKey, p.bytes) < 0 && steps < MAX_CURSOR_STEPS) {
+
+					if (cursor.getNext(dbKey, noData, LockMode.DEFAULT) != OperationStatus.SUCCESS) 
+						return ;
+
+					currKey = toBytes(dbKey) ;
+					steps++ ;
+				}
+
+				//the key is too far away to step to (or this is the first key), so search for it directly
+				if (currKey == null || KEY_ORDER.compare(currKey, p.bytes) < 0) {
+
+					dbKey.setData(p.bytes) ;
+
+					if (cursor.getSearchKeyRange(dbKey, noData, LockMode.DEFAULT) != OperationStatus.SUCCESS) 
+						return ;
+
+					currKey = toBytes(dbKey) ;
+				}
+
+				if (KEY_ORDER.compare(currKey, p.bytes) == 0) {
+					if (cursor.getCurrent(dbKey, dbValue, LockMode.DEFAULT) == OperationStatus.SUCCESS) 
+						values.set(p.index, valueBinding.entryToObject(dbValue)) ;
+				}
+			}
+		} finally {
+			cursor.close() ;
+		}
+	}
+
+	/**
+	 * @return a copy of the bytes of the given entry
+	 */
+	static byte[] toBytes(DatabaseEntry entry) {
+		return Arrays.copyOfRange(entry.getData(), entry.getOffset(), entry.getOffset() + entry.getSize()) ;
+	}
+
+	private static class PendingKey<K> implements Comparable<PendingKey<K>> {
+
+		int index ;
+		K key ;
+		byte[] bytes ;
+
+		PendingKey(int index, K key, byte[] bytes) {
+			this.index = index ;
+			this.key = key ;
+			this.bytes = bytes ;
+		}
+
+		@Override
+		public int compareTo(PendingKey<K> p) {
+			return KEY_ORDER.compare(bytes, p.bytes) ;
+		}
+	}
+
+	/**
+	 * Starts retrieving the value associated with the given key, without waiting for it. 
+	 * 
+	 * If the database has been cached to memory then the value is retrieved straight away. Otherwise the key is queued, 
+	 * and retrieved in the background by the environment's retrieval threads (see {@link WikipediaConfiguration#getRetrievalThreads()}). 
+	 * Keys that are queued while earlier ones are being retrieved are gathered up and retrieved together (as {@link #retrieveAll(Collection)} does), 
+	 * so many callers that each need a single value share the same cursor pass, or the same request to each shard. 
+	 * 
+	 * This allows lookups in several databases (or several lookups in one database) to overlap, rather than being made one after another.
+	 * 
+	 * @param key the key to search for
+	 * @return the value that {@link #retrieve(Object)} would return for the given key, once it is available
+	 */
+	public Future<V> retrieveAsync(final K key) {
+
+		//subclasses that transform keys have already done so, so this (like queued keys) skips any transformation that retrieve would make
+		if (isCached || env == null) {
+			FutureTask<V> retrieval = new FutureTask<V>(new Callable<V>() {
+				public V call() {
+					return retrieveAllStored(Collections.singletonList(key)).get(0) ;
+				}
+			}) ;
+			retrieval.run() ;
+			return retrieval ;
+		}
+
+		AsyncRetrieval<K,V> retrieval = new AsyncRetrieval<K,V>(key) ;
+		asyncRetrievals.add(retrieval) ;
+		scheduleAsyncBatch() ;
+
+		return retrieval ;
+	}
+
+	/**
+	 * Hands the queued asynchronous retrievals to another batch, unless there is nothing queued or enough batches are already in flight.
+	 */
+	private void scheduleAsyncBatch() {
+
+		while (true) {
+			int batches = asyncBatches.get() ;
+
+			if (batches >= MAX_ASYNC_BATCHES || asyncRetrievals.isEmpty())
+				return ;
+
+			if (asyncBatches.compareAndSet(batches, batches + 1))
+				break ;
+		}
+
+		try {
+			env.getRetrievalExecutor().execute(new Runnable() {
+				public void run() {
+					retrieveAsyncBatch() ;
+				}
+			}) ;
+		} catch (RejectedExecutionException e) {
+			//the environment has been closed, so nothing that is still queued will ever be retrieved
+			asyncBatches.decrementAndGet() ;
+
+			AsyncRetrieval<K,V> retrieval ;
+			while ((retrieval = asyncRetrievals.poll()) != null)
+				retrieval.fail(new IllegalStateException("Environment has been closed", e)) ;
+		}
+	}
+
+	private void retrieveAsyncBatch() {
+
+		try {
+			ArrayList<AsyncRetrieval<K,V>> batch = new ArrayList<AsyncRetrieval<K,V>>() ;
+			ArrayList<K> keys = new ArrayList<K>() ;
+
+			AsyncRetrieval<K,V> retrieval ;
+			while (batch.size() < MAX_ASYNC_BATCH_SIZE && (retrieval = asyncRetrievals.poll()) != null) {
+				if (retrieval.isCancelled())
+					continue ;
+
+				batch.add(retrieval) ;
+				keys.add(retrieval.key) ;
+			}
+
+			if (batch.isEmpty())
+				return ;
+
+			try {
+				ArrayList<V> values = retrieveAllStored(keys) ;
+
+				for (int i=0 ; i<batch.size() ; i++)
+					batch.get(i).complete(values.get(i)) ;
+			} catch (Throwable t) {
+				for (AsyncRetrieval<K,V> r:batch)
+					r.fail(t) ;
+			}
+		} finally {
+			//anything queued while this batch was in flight (and turned away because too many were) is picked up by the next one
+			asyncBatches.decrementAndGet() ;
+			scheduleAsyncBatch() ;
+		}
+	}
+
+	private static final Runnable NO_TASK = new Runnable() {
+		public void run() {}
+	} ;
+
+	/**
+	 * A key that is waiting to be retrieved asynchronously, and the future through which its value will be returned.
+	 */
+	private static class AsyncRetrieval<K,V> extends FutureTask<V> {
+
+		K key ;
+
+		AsyncRetrieval(K key) {
+			//this is never run; its result is set once its batch has been retrieved
+			super(NO_TASK, null) ;
+			this.key = key ;
 		}
+
+		void complete(V value) {
+			set(value) ;
+		}
+
+		void fail(Throwable t) {
+			setException(t) ;
+		}
+	}
+
+	/**
+	 * Returns true if values can be read in place with {@link #retrieveView(Object, CompactView)}. This is only possible 
+	 * once the database has been cached with {@link CachePriority#space}, and only if it has a {@link CompactEncoding}.
+	 * 
+	 * @return true if values can be read in place, otherwise false
+	 */
+	public boolean isViewable() {
+		return isCached && cachePriority == CachePriority.space && getCompactEncoding() != null ;
+	}
+
+	/**
+	 * Points the given view at the cached bytes of the value associated with the given key, so that its fields can be 
+	 * read without deserialising it. 
+	 * 
+	 * @param key the key to search for
+	 * @param view a view of the type given by {@link CompactEncoding#getViewClass()} for this database's encoding
+	 * @return true if the key was found (and the view now wraps its value), otherwise false
+	 * @throws IllegalStateException if values cannot be read in place (see {@link #isViewable()})
+	 * @throws IllegalArgumentException if the view cannot read this database's encoding
+	 */
+	public boolean retrieveView(K key, CompactView view) {
+
+		if (!isViewable())
+			throw new IllegalStateException(name + " has not been cached compactly") ;
+
+		if (!getCompactEncoding().getViewClass().isInstance(view))
+			throw new IllegalArgumentException(view.getClass().getSimpleName() + " cannot read values of " + name) ;
+
+		byte[] cachedData = retrieveCompactFromCache(key) ;
+		if (cachedData == null)
+			return false ;
+
+		view.wrap(cachedData) ;
+		return true ;
 	}
 
 	/**
@@ -369,36 +855,190 @@ public abstract class WDatabase<K,V> {
 		Database db = getDatabase(false) ;
 
 		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), "UTF-8")) ;
+		
+		//lines are parsed in batches (in parallel, if the environment is being built by several threads),
+		//but are written in the order they were read, so later records still replace earlier ones.
+		ExecutorService parsers = env.getLoadingExecutor() ;
+		LinkedList<Future<ArrayList<DatabaseEntry[]>>> pendingBatches = new LinkedList<Future<ArrayList<DatabaseEntry[]>>>() ;
 
 		long bytesRead = 0 ;
-		int lineNum = 0 ;
 
-		String line ;
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() + 1 ;
-			lineNum++ ;
-
-			CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream((line + "\n").getBytes("UTF-8"))) ;
-
-			WEntry<K,V> entry = deserialiseCsvRecord(cri) ;
+		try {
+			ArrayList<String> lines = new ArrayList<String>(LOADING_BATCH_SIZE) ;
+			
+			String line ;
+			while ((line=input.readLine()) != null) {
+				bytesRead = bytesRead + line.length() + 1 ;
+				lines.add(line) ;
+	
+				if (lines.size() == LOADING_BATCH_SIZE) {
+					pendingBatches.add(parseCsvLines(lines, parsers)) ;
+					lines = new ArrayList<String>(LOADING_BATCH_SIZE) ;
+				}
+				
+				if (pendingBatches.size() > MAX_PENDING_BATCHES) {
+					putBatch(db, pendingBatches.removeFirst()) ;
+					tracker.update(bytesRead) ;
+				}
+			}
+			
+			if (!lines.isEmpty())
+				pendingBatches.add(parseCsvLines(lines, parsers)) ;
+			
+			while (!pendingBatches.isEmpty())
+				putBatch(db, pendingBatches.removeFirst()) ;
+			
+			tracker.update(bytesRead) ;
+		} finally {
+			for (Future<ArrayList<DatabaseEntry[]>> batch:pendingBatches) 
+				batch.cancel(true) ;
+			
+			input.close();
+		}
 
-			if (entry != null) {
-				DatabaseEntry k = new DatabaseEntry() ;
-				keyBinding.objectToEntry(entry.getKey(), k) ;
+		env.cleanAndCheckpoint() ;
+		getDatabase(true) ;
+	}
+	
+	/**
+	 * Updates the persistent database in place, so that it matches the newer of two versions of a file (typically CSV files 
+	 * extracted from consecutive dumps). Only the records that differ between the two files are deserialised and written; 
+	 * all others are left untouched. 
+	 * 
+	 * Records from the older file that have been changed or removed are deleted first, and then every new or changed record 
+	 * from the newer file is written. 
+	 * 
+	 * @param previousDataFile the file that the database was built (or last updated) from
+	 * @param dataFile the newer version of the file 
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return the number of records that were added, changed or removed
+	 * @throws IOException if there is a problem reading or deserialising either file.
+	 */
+	public int updateFromCsvFiles(File previousDataFile, File dataFile, ProgressTracker tracker) throws IOException  {
 
-				DatabaseEntry v = new DatabaseEntry() ;
-				valueBinding.objectToEntry(entry.getValue(), v) ;
+		if (tracker == null) tracker = new ProgressTracker(1, WDatabase.class) ;
+		tracker.startTask(previousDataFile.length() + dataFile.length(), "Updating " + name + " database") ;
+		
+		CsvDelta delta = new CsvDelta(previousDataFile, dataFile) ;
+		
+		if (delta.isEmpty()) {
+			tracker.update(previousDataFile.length() + dataFile.length()) ;
+			return 0 ;
+		}
 
-				db.put(null, k, v) ;
+		Database db = getDatabaseForUpdate() ;
+		
+		long bytesRead = 0 ;
+		
+		BufferedReader input = CsvDelta.openCsvFile(previousDataFile) ;
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				bytesRead = bytesRead + line.length() + 1 ;
+				
+				if (!delta.isStale(line))
+					continue ;
+				
+				WEntry<K,V> entry = deserialiseCsvRecord(CsvDelta.toRecord(line)) ;
+				if (entry != null) {
+					DatabaseEntry k = new DatabaseEntry() ;
+					keyBinding.objectToEntry(entry.getKey(), k) ;
+					
+					db.delete(null, k) ;
+				}
+				tracker.update(bytesRead) ;
 			}
-
-			tracker.update(bytesRead) ;
+		} finally {
+			input.close() ;
 		}
-
-		input.close();
+		
+		input = CsvDelta.openCsvFile(dataFile) ;
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				bytesRead = bytesRead + line.length() + 1 ;
+				
+				if (!delta.isChanged(line))
+					continue ;
+				
+				WEntry<K,V> entry = deserialiseCsvRecord(CsvDelta.toRecord(line)) ;
+				if (entry != null) {
+					DatabaseEntry k = new DatabaseEntry() ;
+					keyBinding.objectToEntry(entry.getKey(), k) ;
+
+					DatabaseEntry v = new DatabaseEntry() ;
+					valueBinding.objectToEntry(entry.getValue(), v) ;
+					
+					db.put(null, k, v) ;
+				}
+				tracker.update(bytesRead) ;
+			}
+		} finally {
+			input.close() ;
+		}
+		
+		tracker.update(previousDataFile.length() + dataFile.length()) ;
 
 		env.cleanAndCheckpoint() ;
 		getDatabase(true) ;
+		
+		return delta.size() ;
+	}
+	
+	private Future<ArrayList<DatabaseEntry[]>> parseCsvLines(final ArrayList<String> lines, ExecutorService parsers) {
+		
+		FutureTask<ArrayList<DatabaseEntry[]>> task = new FutureTask<ArrayList<DatabaseEntry[]>>(new Callable<ArrayList<DatabaseEntry[]>>() {
+			@Override
+			public ArrayList<DatabaseEntry[]> call() throws IOException {
+				
+				ArrayList<DatabaseEntry[]> entries = new ArrayList<DatabaseEntry[]>(lines.size()) ;
+				
+				for (String line:lines) {
+					CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream((line + "\n").getBytes("UTF-8"))) ;
+
+					WEntry<K,V> entry = deserialiseCsvRecord(cri) ;
+
+					if (entry != null) {
+						DatabaseEntry k = new DatabaseEntry() ;
+						keyBinding.objectToEntry(entry.getKey(), k) ;
+
+						DatabaseEntry v = new DatabaseEntry() ;
+						valueBinding.objectToEntry(entry.getValue(), v) ;
+
+						entries.add(new DatabaseEntry[] {k, v}) ;
+					}
+				}
+				return entries ;
+			}
+		}) ;
+		
+		if (parsers == null)
+			task.run() ;
+		else
+			parsers.execute(task) ;
+		
+		return task ;
+	}
+	
+	private void putBatch(Database db, Future<ArrayList<DatabaseEntry[]>> batch) throws IOException {
+		
+		ArrayList<DatabaseEntry[]> entries ;
+		
+		try {
+			entries = batch.get() ;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while loading " + name) ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause() ;
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause() ;
+			
+			throw new IOException("Could not parse records for " + name + ": " + e.getCause()) ;
+		}
+		
+		for (DatabaseEntry[] entry:entries) 
+			db.put(null, entry[0], entry[1]) ;
 	}
 
 
@@ -413,15 +1053,32 @@ public abstract class WDatabase<K,V> {
 	 */
 	public void cache(WikipediaConfiguration conf, ProgressTracker tracker) throws DatabaseException, IOException {
 
-		Database db = getDatabase(true) ;
+		CachePriority priority = conf.getCachePriority(type) ;
 
-		this.cachePriority = conf.getCachePriority(type) ;
+		//the contents of shards can't be scanned from here, so only the values that are actually requested can be held in memory
+		if (shards != null && priority != CachePriority.bounded) {
+			Logger.getLogger(WDatabase.class).info(name + " is sharded, so will be cached with " + CachePriority.bounded + " rather than " + priority + " priority") ;
+			priority = CachePriority.bounded ;
+		}
 
-		initializeCache() ;
+		Database db = shards == null ? getDatabase(true) : null ;
+
+		//values are read from disk until the new cache is complete
+		beginCaching(priority) ;
 
 		if (tracker == null) 
 			tracker = new ProgressTracker(1, WDatabase.class) ;
 
+		//bounded caches are filled as values are requested, so there is nothing to load
+		if (cachePriority == CachePriority.bounded) {
+			tracker.startTask(1, "caching " + name + " database") ;
+			boundedCache = new BoundedCache<K,V>(conf.getCacheCapacity(type)) ;
+			tracker.update() ;
+			return ;
+		}
+
+		initializeCache() ;
+
 		tracker.startTask(db.count(), "caching " + name + " database") ;
 
 		//first, try caching from file
@@ -484,25 +1141,391 @@ public abstract class WDatabase<K,V> {
 		finalizeCache() ;
 	}
 
+	/**
+	 * Writes the contents of the in-memory cache to the given file, so that it can be restored much more quickly 
+	 * (without parsing or filtering anything) by {@link #loadCacheImage(File, long, CachePriority, ProgressTracker)}.
+	 * 
+	 * Values are written exactly as they are held in memory, so images of databases cached with {@link CachePriority#space} 
+	 * can be loaded without decoding anything.
+	 * 
+	 * @param file the file to write the image to. This is written to a temporary file first, and then renamed, so an incomplete image is never left behind.
+	 * @param fingerprint a value that identifies the data and configuration that the cache was built from
+	 * @throws IOException if the image cannot be written
+	 * @throws IllegalStateException if this has not been fully cached
+	 */
+	public void writeCacheImage(File file, long fingerprint) throws IOException {
+
+		if (!isCached)
+			throw new IllegalStateException(name + " has not been cached") ;
+
+		File tempFile = new File(file.getPath() + ".tmp") ;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), CACHE_IMAGE_BUFFER)) ;
+
+		try {
+			out.writeInt(CACHE_IMAGE_MAGIC) ;
+			out.writeInt(CACHE_IMAGE_VERSION) ;
+			out.writeLong(fingerprint) ;
+			out.writeInt(cachePriority.ordinal()) ;
+			out.writeInt((int)getCacheSize()) ;
+
+			writeCacheEntries(out) ;
+		} finally {
+			out.close() ;
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file) ;
+
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename " + tempFile + " to " + file) ;
+	}
+
+	/**
+	 * Restores the in-memory cache from an image written by {@link #writeCacheImage(File, long)}, provided it was written
+	 * with the same fingerprint and cache priority. 
+	 * 
+	 * @param file the file to read the image from
+	 * @param fingerprint a value that identifies the data and configuration that the cache should be built from
+	 * @param priority the priority that this should be cached with
+	 * @param tracker an optional progress tracker (may be null)
+	 * @return true if the cache was restored, or false if there is no image, or it is stale. 
+	 * @throws IOException if the image is unreadable. The cache may be partially filled, so should be rebuilt via {@link #cache(WikipediaConfiguration, ProgressTracker)}.
+	 */
+	public boolean loadCacheImage(File file, long fingerprint, CachePriority priority, ProgressTracker tracker) throws IOException {
+
+		if (priority == CachePriority.bounded || !file.canRead())
+			return false ;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), CACHE_IMAGE_BUFFER)) ;
+
+		try {
+			if (in.readInt() != CACHE_IMAGE_MAGIC || in.readInt() != CACHE_IMAGE_VERSION) 
+				return false ;
+
+			if (in.readLong() != fingerprint || in.readInt() != priority.ordinal())
+				return false ;
+
+			int count = in.readInt() ;
+
+			if (tracker == null) 
+				tracker = new ProgressTracker(1, WDatabase.class) ;
+
+			tracker.startTask(count, "loading cached " + name + " database") ;
+
+			beginCaching(priority) ;
+			initializeCache() ;
+
+			for (int i=0 ; i<count ; i++) {
+				readCacheEntry(in) ;
+				tracker.update() ;
+			}
+		} finally {
+			in.close() ;
+		}
+
+		finalizeCache() ;
+		return true ;
+	}
+
+	protected void writeCacheEntries(DataOutputStream out) throws IOException {
+
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+
+		if (cachePriority == CachePriority.speed) {
+			DatabaseEntry dbValue = new DatabaseEntry() ;
+
+			for (Map.Entry<K,V> e:fastCache.entrySet()) {
+				keyBinding.objectToEntry(e.getKey(), dbKey) ;
+				writeCacheBytes(out, toBytes(dbKey)) ;
+
+				valueBinding.objectToEntry(e.getValue(), dbValue) ;
+				writeCacheBytes(out, toBytes(dbValue)) ;
+			}
+		} else {
+			for (Map.Entry<K,byte[]> e:compactCache.entrySet()) {
+				keyBinding.objectToEntry(e.getKey(), dbKey) ;
+				writeCacheBytes(out, toBytes(dbKey)) ;
+
+				writeCacheBytes(out, e.getValue()) ;
+			}
+		}
+	}
+
+	protected void readCacheEntry(DataInputStream in) throws IOException {
+
+		K key = keyBinding.entryToObject(new DatabaseEntry(readCacheBytes(in))) ;
+		byte[] value = readCacheBytes(in) ;
+
+		if (cachePriority == CachePriority.speed) 
+			fastCache.put(key, valueBinding.entryToObject(new DatabaseEntry(value))) ;
+		else
+			compactCache.put(key, value) ;
+	}
+
+	protected static void writeCacheBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length) ;
+		out.write(bytes) ;
+	}
+
+	protected static byte[] readCacheBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()] ;
+		in.readFully(bytes) ;
+		return bytes ;
+	}
+
+	/**
+	 * Writes an immutable copy of this database to the given file, so that it can later be served 
+	 * via {@link #attachSnapshot(SnapshotFile)} without going through Berkeley DB.
+	 * 
+	 * Keys and values are copied exactly as they are stored, so no filtering (as in {@link #cache(WikipediaConfiguration, ProgressTracker)}) is applied.
+	 * 
+	 * @param file the file to write the snapshot to
+	 * @param tracker an optional progress tracker (may be null)
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void exportSnapshot(File file, ProgressTracker tracker) throws IOException {
+
+		Database db = getDatabase(true) ;
+
+		if (tracker == null) 
+			tracker = new ProgressTracker(1, WDatabase.class) ;
+
+		tracker.startTask(db.count(), "Exporting snapshot of " + name + " database") ;
+
+		SnapshotFile.Writer writer = new SnapshotFile.Writer(file, getSnapshotLayout()) ;
+
+		Cursor cursor = db.openCursor(null, null) ;
+		cursor.setCacheMode(CacheMode.UNCHANGED) ;
+
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+
+		try {
+			while (cursor.getNext(dbKey, dbValue, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+				addToSnapshot(writer, dbKey, dbValue.getData()) ;
+				tracker.update() ;
+			}
+		} finally {
+			cursor.close() ;
+			writer.close() ;
+		}
+	}
+
+	/**
+	 * Serves all subsequent (uncached) lookups from the given snapshot rather than the underlying Berkeley DB database. 
+	 * 
+	 * @param snapshot a snapshot written by {@link #exportSnapshot(File, ProgressTracker)}
+	 */
+	public void attachSnapshot(SnapshotFile snapshot) {
+
+		if (snapshot.getLayout() != getSnapshotLayout())
+			throw new IllegalArgumentException(snapshot.getFile() + " does not have the " + getSnapshotLayout() + " layout required by " + name) ;
+
+		this.snapshot = snapshot ;
+	}
+
+	/**
+	 * Splits this database into the given number of shards (see {@link #getShard(byte[], int)}), and writes each of them to 
+	 * a snapshot, so that they can be served by separate {@link ShardServer}s.
+	 * 
+	 * @param files the file to write each shard to, in order
+	 * @param tracker an optional progress tracker (may be null)
+	 * @throws IOException if the snapshots cannot be written
+	 */
+	public void exportShards(File[] files, ProgressTracker tracker) throws IOException {
+
+		Database db = getDatabase(true) ;
+
+		if (tracker == null) 
+			tracker = new ProgressTracker(1, WDatabase.class) ;
+
+		tracker.startTask(db.count(), "Exporting " + files.length + " shards of " + name + " database") ;
+
+		//each shard receives its keys in the same ascending order as the cursor returns them, so they can all be written in one pass
+		SnapshotFile.Writer[] writers = new SnapshotFile.Writer[files.length] ;
+		for (int s=0 ; s<files.length ; s++)
+			writers[s] = new SnapshotFile.Writer(files[s], getSnapshotLayout()) ;
+
+		Cursor cursor = db.openCursor(null, null) ;
+		cursor.setCacheMode(CacheMode.UNCHANGED) ;
+
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		DatabaseEntry dbValue = new DatabaseEntry() ;
+
+		try {
+			while (cursor.getNext(dbKey, dbValue, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+				int shard = getShard(toBytes(dbKey), files.length) ;
+				addToSnapshot(writers[shard], dbKey, dbValue.getData()) ;
+				tracker.update() ;
+			}
+		} finally {
+			cursor.close() ;
+			for (SnapshotFile.Writer writer:writers)
+				writer.close() ;
+		}
+	}
+
+	/**
+	 * Serves all subsequent (uncached) lookups from the given shard servers, rather than from any snapshot or Berkeley DB database. 
+	 * The shards should have been written by {@link #exportShards(File[], ProgressTracker)}.
+	 * 
+	 * @param shards a client for the servers that hold every shard of this database
+	 */
+	public void attachShards(ShardClient shards) {
+		this.shards = shards ;
+	}
+
+	/**
+	 * Turns an entry that has been read by a {@link WIterator} into a key and value. 
+	 * 
+	 * @param key the key, exactly as stored
+	 * @param value the value, exactly as stored
+	 * @return the deserialised entry, or null if the stored entry does not represent one (and should be skipped)
+	 */
+	protected WEntry<K,V> toIteratedEntry(DatabaseEntry key, DatabaseEntry value) {
+		return new WEntry<K,V>(keyBinding.entryToObject(key), valueBinding.entryToObject(value)) ;
+	}
+
 	/**
 	 * @return an iterator for the entries in this database, in ascending key order.
+	 * @throws UnsupportedOperationException if this is sharded, since no one process holds all of the entries
 	 */
 	public WIterator<K,V> getIterator() {
+
+		if (shards != null)
+			throw new UnsupportedOperationException(name + " is sharded, so cannot be iterated") ;
+
 		return new WIterator<K,V>(this) ;
 	}
+	
+	/**
+	 * Splits this database into contiguous ranges of keys, each of which can be iterated by its own cursor, so that a scan 
+	 * of the whole database can be shared between several threads. Together, the partitions cover every entry exactly once, 
+	 * in ascending key order. 
+	 * 
+	 * Ranges are split evenly between the first and last keys, by their stored bytes. For int keys this gives partitions of roughly 
+	 * equal size (since ids are fairly dense), but other keys may be spread much less evenly, so it is worth asking for several 
+	 * partitions per thread.
+	 * 
+	 * Like {@link #getIterator()}, partitions are always read from the persistent database, never the cache. 
+	 * 
+	 * @param partitionCount the number of partitions to split into
+	 * @return the partitions, in ascending key order. There may be fewer than requested (or none, if this database is empty)
+	 * @throws UnsupportedOperationException if this is sharded, since no one process holds all of the entries
+	 */
+	public List<WPartition<K,V>> getPartitions(int partitionCount) {
+		
+		if (shards != null)
+			throw new UnsupportedOperationException(name + " is sharded, so cannot be iterated") ;
+		
+		ArrayList<WPartition<K,V>> partitions = new ArrayList<WPartition<K,V>>() ;
+		
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		DatabaseEntry noData = new DatabaseEntry() ;
+		noData.setPartial(0, 0, true) ;
+		
+		byte[] firstKey, lastKey ;
+		
+		Cursor cursor = getDatabase(true).openCursor(null, null) ;
+		try {
+			if (cursor.getFirst(dbKey, noData, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS) 
+				return partitions ;
+			firstKey = toBytes(dbKey) ;
+			
+			cursor.getLast(dbKey, noData, LockMode.READ_UNCOMMITTED) ;
+			lastKey = toBytes(dbKey) ;
+		} finally {
+			cursor.close() ;
+		}
+		
+		//keys are treated as big-endian numbers, from the first byte at which they differ, to a few bytes beyond that
+		int commonLength = 0 ;
+		while (commonLength < firstKey.length && commonLength < lastKey.length && firstKey[commonLength] == lastKey[commonLength])
+			commonLength++ ;
+		
+		int width = Math.min(Math.max(firstKey.length, lastKey.length), commonLength + PARTITION_KEY_PRECISION) ;
+		
+		BigInteger first = toUnsigned(firstKey, width) ;
+		BigInteger span = toUnsigned(lastKey, width).subtract(first) ;
+		
+		byte[] startKey = null ;
+		for (int p=1 ; p<partitionCount ; p++) {
+			
+			BigInteger boundary = first.add(span.multiply(BigInteger.valueOf(p)).divide(BigInteger.valueOf(partitionCount))) ;
+			byte[] endKey = fromUnsigned(boundary, width) ;
+			
+			//tiny ranges may not be divisible into as many partitions as requested
+			if (compareKeys(endKey, 0, endKey.length, firstKey) <= 0 || (startKey != null && compareKeys(endKey, 0, endKey.length, startKey) <= 0))
+				continue ;
+			
+			partitions.add(new WPartition<K,V>(this, startKey, endKey)) ;
+			startKey = endKey ;
+		}
+		
+		partitions.add(new WPartition<K,V>(this, startKey, null)) ;
+		
+		return partitions ;
+	}
+	
+	private static BigInteger toUnsigned(byte[] key, int width) {
+		
+		//shorter keys are padded with zeros, which sort in the same place
+		byte[] bytes = new byte[width + 1] ;
+		System.arraycopy(key, 0, bytes, 1, Math.min(key.length, width)) ;
+		return new BigInteger(bytes) ;
+	}
+	
+	private static byte[] fromUnsigned(BigInteger value, int width) {
+		
+		byte[] bytes = value.toByteArray() ;
+		byte[] key = new byte[width] ;
+		
+		int length = Math.min(bytes.length, width) ;
+		System.arraycopy(bytes, bytes.length - length, key, width - length, length) ;
+		return key ;
+	}
+	
+	/**
+	 * Compares keys in the same way as the persistent database does: by their unsigned bytes
+	 * 
+	 * @return a negative number, zero, or a positive number if the first key sorts before, alongside or after the second
+	 */
+	static int compareKeys(byte[] a, int offset, int length, byte[] b) {
+		
+		int commonLength = Math.min(length, b.length) ;
+		for (int i=0 ; i<commonLength ; i++) {
+			int cmp = (a[offset + i] & 0xff) - (b[i] & 0xff) ;
+			if (cmp != 0)
+				return cmp ;
+		}
+		return length - b.length ;
+	}
+	
+	/**
+	 * Orders keys in the same way as the persistent database does: by their unsigned bytes
+	 */
+	static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			return compareKeys(a, 0, a.length, b) ;
+		}
+	} ;
 
 	/**
 	 * Closes the underlying database
 	 */
 	public void close() {
 
-		if (database != null) {
-			database.close() ;
-			database = null ;
-		}
+		closeDatabase() ;
 
 		fastCache = null ;
 		compactCache = null ;
+		boundedCache = null ;
+
+		if (snapshot != null) {
+			snapshot.close() ;
+			snapshot = null ;
+		}
 	}
 
 	@Override
@@ -523,11 +1546,90 @@ public abstract class WDatabase<K,V> {
 			if (cachedData == null)
 				return null ;
 
-			DatabaseEntry dbValue = new DatabaseEntry(cachedData) ;
-			return valueBinding.entryToObject(dbValue) ;
+			return fromCompactValue(cachedData) ;
+		}
+	}
+
+	protected byte[] retrieveCompactFromCache(K key) {
+		return compactCache.get(key) ;
+	}
+
+	/**
+	 * Returns a purpose-built encoding for values that are cached with {@link CachePriority#space}, or null if values should
+	 * be cached exactly as they are serialised by the value binding (the default).
+	 * 
+	 * @return an encoding for compactly cached values, or null
+	 */
+	protected CompactEncoding<V> getCompactEncoding() {
+		return null ;
+	}
+
+	protected byte[] toCompactValue(V value) {
+
+		CompactEncoding<V> encoding = getCompactEncoding() ;
+		if (encoding != null)
+			return encoding.encode(value) ;
+
+		DatabaseEntry cacheValue = new DatabaseEntry() ;
+		valueBinding.objectToEntry(value, cacheValue) ;
+		return cacheValue.getData() ;
+	}
+
+	protected V fromCompactValue(byte[] cachedData) {
+
+		CompactEncoding<V> encoding = getCompactEncoding() ;
+		if (encoding != null)
+			return encoding.decode(cachedData) ;
+
+		return valueBinding.entryToObject(new DatabaseEntry(cachedData)) ;
+	}
+
+
+	protected SnapshotFile.Layout getSnapshotLayout() {
+		return SnapshotFile.Layout.byteKeys ;
+	}
+
+	protected byte[] retrieveFromSnapshot(SnapshotFile snapshot, K key) {
+
+		DatabaseEntry dbKey = new DatabaseEntry() ;
+		keyBinding.objectToEntry(key, dbKey) ;
+
+		return snapshot.get(dbKey.getData()) ;
+	}
+
+	protected void addToSnapshot(SnapshotFile.Writer writer, DatabaseEntry key, byte[] value) throws IOException {
+		writer.add(key.getData(), value) ;
+	}
+
+	/**
+	 * Identifies the shard that holds the given key, when this database is split into the given number of shards. 
+	 * By default keys are spread by a hash of their stored bytes, which is the same in every JVM.
+	 * 
+	 * @param key a key, exactly as it is stored
+	 * @param shardCount the number of shards this database is split into
+	 * @return the index of the shard that holds the given key, between 0 and shardCount-1
+	 */
+	protected int getShard(byte[] key, int shardCount) {
+
+		//32 bit FNV-1a
+		int hash = 0x811c9dc5 ;
+		for (byte b:key) {
+			hash ^= (b & 0xFF) ;
+			hash *= 0x01000193 ;
 		}
+		return (hash & Integer.MAX_VALUE) % shardCount ;
 	}
 
+	/**
+	 * Marks this database as uncached (so values are read from disk until the new cache is complete), and sets the 
+	 * priority with which it will be cached.
+	 * 
+	 * @param priority the priority with which this database is about to be cached
+	 */
+	protected void beginCaching(CachePriority priority) {
+		this.isCached = false ;
+		this.cachePriority = priority ;
+	}
 
 	protected void initializeCache() {
 
@@ -542,9 +1644,7 @@ public abstract class WDatabase<K,V> {
 		if (cachePriority == CachePriority.speed) {
 			fastCache.put(entry.getKey(), entry.getValue()) ;
 		} else {
-			DatabaseEntry cacheValue = new DatabaseEntry() ;
-			valueBinding.objectToEntry(entry.getValue(), cacheValue) ;
-			compactCache.put(entry.getKey(), cacheValue.getData()) ;
+			compactCache.put(entry.getKey(), toCompactValue(entry.getValue())) ;
 		}
 	}
 
@@ -552,31 +1652,82 @@ public abstract class WDatabase<K,V> {
 		this.isCached = true ;
 	}
 
+	//databases are opened lazily, possibly by several threads at once, so only one handle must ever be opened
 	protected Database getDatabase(boolean readOnly) throws DatabaseException {
+		
+		if (readOnly) {
+			Database db = readOnlyDatabase ;
+			if (db != null)
+				return db ;
+		}
+		
+		synchronized (this) {
+			return openDatabase(readOnly, !readOnly) ;
+		}
+	}
+	
+	/**
+	 * Opens the persistent database for writing, without discarding its existing contents (as {@link #getDatabase(boolean)} does). 
+	 * It should be reopened with getDatabase(true) once all changes have been written.
+	 * 
+	 * @return a writable handle for the existing database
+	 * @throws DatabaseException if the database cannot be opened
+	 */
+	protected synchronized Database getDatabaseForUpdate() throws DatabaseException {
+		return openDatabase(false, false) ;
+	}
+	
+	private Database openDatabase(boolean readOnly, boolean replace) throws DatabaseException {
 
 		DatabaseConfig conf = new DatabaseConfig() ;
 
 		conf.setReadOnly(readOnly) ;
 		conf.setAllowCreate(!readOnly) ;
-		conf.setExclusiveCreate(!readOnly) ;
+		conf.setExclusiveCreate(replace) ;
+		
+		//databases are only written to in bulk, so there is no need to log every put
+		conf.setDeferredWrite(!readOnly) ;
 
 		if (database != null) {
-			if (database.getConfig().getReadOnly() == readOnly) {
+			if (databaseReadOnly == readOnly) {
 				//the database is already open as it should be.
 				return database ;
 			} else {
 				//the database needs to be closed and re-opened.
-				database.close();
+				closeDatabase() ;
 			}
 		}
 
-		if (!readOnly) {
+		if (env.getEnvironment() == null)
+			throw new IllegalStateException(name + " has no local database, since its environment is sharded") ;
+
+		if (replace) {
 			try {
 				env.getEnvironment().removeDatabase(null, name) ;
 			} catch (DatabaseNotFoundException e) {} ;
 		}
 
 		database = env.getEnvironment().openDatabase(null, name, conf);
+		databaseReadOnly = readOnly ;
+		
+		if (readOnly)
+			readOnlyDatabase = database ;
+		
 		return database ;
 	}
+	
+	private synchronized void closeDatabase() throws DatabaseException {
+		
+		if (database == null)
+			return ;
+		
+		readOnlyDatabase = null ;
+		
+		//make sure everything written so far is persisted
+		if (!databaseReadOnly)
+			database.sync() ;
+		
+		database.close() ;
+		database = null ;
+	}
 }
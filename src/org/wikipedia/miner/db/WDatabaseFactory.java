@@ -1,14 +1,8 @@
 package org.wikipedia.miner.db;
 
 import gnu.trove.TIntHash;
-import gnu.trove.TIntHashSet;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
@@ -18,16 +12,12 @@ import org.apache.log4j.Logger;
 import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.db.WEnvironment.StatisticName;
 import org.wikipedia.miner.db.struct.*;
-import org.wikipedia.miner.model.Page.PageType;
-import org.wikipedia.miner.util.ProgressTracker;
 import org.wikipedia.miner.util.WikipediaConfiguration;
 import org.wikipedia.miner.util.text.TextProcessor;
 
 
 import com.sleepycat.bind.tuple.IntegerBinding;
 import com.sleepycat.bind.tuple.LongBinding;
-import com.sleepycat.je.Database;
-import com.sleepycat.je.DatabaseEntry;
 
 
 /**
@@ -52,45 +42,8 @@ public class WDatabaseFactory {
 	 * 
 	 * @return a database associating page ids with the title, type and generality of the page. 
 	 */
-	public WDatabase<Integer, DbPage> buildPageDatabase() {
-
-		RecordBinding<DbPage> keyBinding = new RecordBinding<DbPage>() {
-			public DbPage createRecordInstance() {
-				return new DbPage() ;
-			}
-		} ;
-
-		return new IntObjectDatabase<DbPage>(
-				env, 
-				DatabaseType.page,
-				keyBinding
-		) {
-			@Override
-			public WEntry<Integer,DbPage> deserialiseCsvRecord(CsvRecordInput record) throws IOException {
-				Integer id = record.readInt(null) ;
-
-				DbPage p = new DbPage() ;
-				p.deserialize(record) ;
-
-				return new WEntry<Integer,DbPage>(id, p) ;
-			}
-
-			@Override
-			public DbPage filterCacheEntry(
-					WEntry<Integer, DbPage> e, 
-					WikipediaConfiguration conf
-			) {
-
-				PageType pageType = PageType.values()[e.getValue().getType()] ;
-
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
-				
-				if (validIds == null || validIds.contains(e.getKey()) || pageType == PageType.category || pageType==PageType.redirect) 
-					return e.getValue() ;
-				else
-					return null ;
-			}
-		};
+	public PageDatabase buildPageDatabase() {
+		return new PageDatabase(env) ;
 	}
 
 	/**
@@ -99,7 +52,7 @@ public class WDatabaseFactory {
 	 * @param {@link DatabaseType#articlesByTitle}, {@link DatabaseType#templatesByTitle} or {@link DatabaseType#categoriesByTitle}.
 	 * @return a database associating article, category or template titles with their ids.
 	 */
-	public WDatabase<String,Integer> buildTitleDatabase(DatabaseType type) {
+	public TitleDatabase buildTitleDatabase(DatabaseType type) {
 
 		return new TitleDatabase(env, type) ;
 	}
@@ -160,7 +113,7 @@ public class WDatabaseFactory {
 			@Override
 			public DbLabelForPageList filterCacheEntry(WEntry<Integer,DbLabelForPageList> e, WikipediaConfiguration conf) {
 
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
 				
 				if (validIds != null && !validIds.contains(e.getKey()))
 					return null ;
@@ -212,7 +165,7 @@ public class WDatabaseFactory {
 				int id = e.getKey() ;
 				DbLinkLocationList links = e.getValue() ;
 				
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
 
 				if (validIds != null && !validIds.contains(id))
 					return null ;
@@ -249,11 +202,7 @@ public class WDatabaseFactory {
 		if (type != DatabaseType.pageLinksInNoSentences && type != DatabaseType.pageLinksOutNoSentences)
 			throw new IllegalArgumentException("type must be either DatabaseType.pageLinksInNoSentences or DatabaseType.pageLinksOutNoSentences") ;
 
-		RecordBinding<DbIntList> keyBinding = new RecordBinding<DbIntList>() {
-			public DbIntList createRecordInstance() {
-				return new DbIntList() ;
-			}
-		} ;
+		IntListBinding keyBinding = new IntListBinding() ;
 
 		return new IntObjectDatabase<DbIntList>(
 				env, 
@@ -261,6 +210,11 @@ public class WDatabaseFactory {
 				keyBinding
 		) {
 
+			@Override
+			protected CompactEncoding<DbIntList> getCompactEncoding() {
+				return IntListView.ENCODING ;
+			}
+
 			@Override
 			public WEntry<Integer, DbIntList> deserialiseCsvRecord(CsvRecordInput record) throws IOException {
 				// this has to read from pagelinks file (with sentences
@@ -286,7 +240,7 @@ public class WDatabaseFactory {
 				int id = e.getKey() ;
 				DbIntList links = e.getValue() ;
 				
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
 
 				if (validIds != null && !validIds.contains(id))
 					return null ;
@@ -307,48 +261,6 @@ public class WDatabaseFactory {
 
 				return links ;
 			}
-			
-			@Override
-			public void loadFromCsvFile(File dataFile, boolean overwrite, ProgressTracker tracker) throws IOException  {
-
-				if (exists() && !overwrite)
-					return ;
-
-				if (tracker == null) tracker = new ProgressTracker(1, WDatabase.class) ;
-				tracker.startTask(dataFile.length(), "Loading " + getName()) ;
-
-				BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), "UTF-8")) ;
-
-				long bytesRead = 0 ;
-				int lineNum = 0 ;
-
-				Database db = getDatabase(false) ;
-
-				String line ;
-				while ((line=input.readLine()) != null) {
-					bytesRead = bytesRead + line.length() + 1 ;
-					lineNum++ ;
-
-					CsvRecordInput cri = new CsvRecordInput(new ByteArrayInputStream((line + "\n").getBytes("UTF-8"))) ;
-
-					WEntry<Integer,DbIntList> entry = deserialiseCsvRecord(cri) ;
-
-					if (entry != null) {				
-						DatabaseEntry k = new DatabaseEntry() ;
-						keyBinding.objectToEntry(entry.getKey(), k) ;
-
-						DatabaseEntry v = new DatabaseEntry() ;
-						valueBinding.objectToEntry(entry.getValue(), v) ;
-
-						db.put(null, k, v) ;
-					}
-					tracker.update(bytesRead) ;
-				}
-				input.close();
-
-				env.cleanAndCheckpoint() ;
-				getDatabase(true) ;
-			}
 
 		} ;
 	}
@@ -373,17 +285,18 @@ public class WDatabaseFactory {
 			throw new IllegalArgumentException(type.name() + " is not a valid DatabaseType for IntIntListDatabase") ;
 		}
 
-		RecordBinding<DbIntList> keyBinding = new RecordBinding<DbIntList>() {
-			public DbIntList createRecordInstance() {
-				return new DbIntList() ;
-			}
-		} ;
+		IntListBinding keyBinding = new IntListBinding() ;
 
 		return new IntObjectDatabase<DbIntList>(
 				env, 
 				type, 
 				keyBinding
 		) {
+			@Override
+			protected CompactEncoding<DbIntList> getCompactEncoding() {
+				return IntListView.ENCODING ;
+			}
+
 			@Override
 			public WEntry<Integer, DbIntList> deserialiseCsvRecord(CsvRecordInput record) throws IOException {
 
@@ -400,7 +313,7 @@ public class WDatabaseFactory {
 				int key = e.getKey() ;
 				ArrayList<Integer> values = e.getValue().getValues() ;
 
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
 				
 				ArrayList<Integer> newValues = null ;
 
@@ -460,7 +373,7 @@ public class WDatabaseFactory {
 					WEntry<Integer, Integer> e, 
 					WikipediaConfiguration conf
 			) {
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
 
 				if (validIds != null && !validIds.contains(e.getValue()))
 					return null ; 
@@ -544,7 +457,7 @@ public class WDatabaseFactory {
 			public DbTranslations filterCacheEntry(
 					WEntry<Integer, DbTranslations> e, WikipediaConfiguration conf
 			) {
-				TIntHashSet validIds = conf.getArticlesOfInterest() ;
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
 				
 				if (validIds != null && !validIds.contains(e.getKey()))
 					return null ; 
@@ -555,6 +468,49 @@ public class WDatabaseFactory {
 		} ;
 	}
 
+	/**
+	 * Returns a database associating integer id of article with the articles that are most related to it
+	 * 
+	 * @return a database associating integer id of article with the articles that are most related to it
+	 */
+	public WDatabase<Integer,DbRelatedArticleList> buildRelatedArticlesDatabase() {
+
+		return new IntObjectDatabase<DbRelatedArticleList>(
+				env, 
+				DatabaseType.relatedArticles, 
+				new RecordBinding<DbRelatedArticleList>() {
+					@Override
+					public DbRelatedArticleList createRecordInstance() {
+						return new DbRelatedArticleList() ;
+					}
+				}
+		) {
+
+			@Override
+			public WEntry<Integer, DbRelatedArticleList> deserialiseCsvRecord(
+					CsvRecordInput record) throws IOException {
+				int k = record.readInt(null) ;
+
+				DbRelatedArticleList v = new DbRelatedArticleList() ;
+				v.deserialize(record) ;
+
+				return new WEntry<Integer, DbRelatedArticleList>(k,v) ;
+			}
+
+			@Override
+			public DbRelatedArticleList filterCacheEntry(
+					WEntry<Integer, DbRelatedArticleList> e, WikipediaConfiguration conf
+			) {
+				PageIdSet validIds = conf.getArticlesOfInterest() ;
+				
+				if (validIds != null && !validIds.contains(e.getKey()))
+					return null ; 
+
+				return e.getValue();
+			}
+		} ;
+	}
+
 	/**
 	 * Returns a database associating integer ids with counts of how many pages it links to or that link to it
 	 * 
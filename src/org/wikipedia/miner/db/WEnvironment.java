@@ -2,10 +2,33 @@ package org.wikipedia.miner.db;
 
 import gnu.trove.TIntHashSet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -68,21 +91,43 @@ public class WEnvironment  {
 		rootCategoryId 
 	}
 	
+	/**
+	 * How ready a database is to be served, while the environment is being prepared
+	 */
+	public enum Readiness 
+	{
+		/**
+		 * The database will be cached to memory, but this has not started yet. Until it is, values are read from disk.
+		 */
+		pending,
+		
+		/**
+		 * The database is being cached to memory. Until this finishes, values are read from disk.
+		 */
+		caching,
+		
+		/**
+		 * The database has been cached to memory (along with any link graph or trie built from it), or was never going to be.
+		 */
+		ready
+	}
+	
 
 	private WikipediaConfiguration conf ;
 	private Environment env ;
+	private ShardClient shardClient ;
 	private PreparationThread prepThread ;
 	
 	
-	private WDatabase<Integer, DbPage> dbPage ;
+	private PageDatabase dbPage ;
 	private LabelDatabase dbLabel ;
-	private HashMap<String, LabelDatabase> processedLabelDbs ;
+	private ConcurrentHashMap<String, LabelDatabase> processedLabelDbs ;
 	
 	private WDatabase<Integer, DbLabelForPageList> dbLabelsForPage ; 
 	
-	private WDatabase<String,Integer> dbArticlesByTitle ;
-	private WDatabase<String,Integer> dbCategoriesByTitle ;
-	private WDatabase<String,Integer> dbTemplatesByTitle ;
+	private TitleDatabase dbArticlesByTitle ;
+	private TitleDatabase dbCategoriesByTitle ;
+	private TitleDatabase dbTemplatesByTitle ;
 	
 	private WDatabase<Integer,Integer> dbRedirectTargetBySource ;
 	private WDatabase<Integer,DbIntList> dbRedirectSourcesByTarget ;
@@ -103,8 +148,28 @@ public class WEnvironment  {
 	
 	private WDatabase<Integer, DbTranslations> dbTranslations ;
 	
+	private WDatabase<Integer, DbRelatedArticleList> dbRelatedArticles ;
+	
 	private WDatabase<Integer, Long> dbStatistics ;
 	
+	//graphs are built concurrently, and read by other threads as soon as they are available
+	private ConcurrentHashMap<DatabaseType, LinkGraph> linkGraphs = new ConcurrentHashMap<DatabaseType, LinkGraph>() ;
+	private volatile LinkCountTable linkCounts ;
+	
+	//read once, since it is needed every time the generality of a page is calculated
+	private volatile int maxCategoryDepth = -1 ;
+	
+	//checked once, since it is needed every time related articles are requested (and costs a request to every shard when sharded)
+	private volatile Boolean relatedArticlesAvailable = null ;
+	
+	private ExecutorService loadingExecutor ;
+	
+	//how long (in seconds) closing the environment waits for asynchronous retrievals that are in flight
+	private static final int RETRIEVAL_SHUTDOWN_TIMEOUT = 60 ;
+	
+	private ExecutorService retrievalExecutor ;
+	private boolean retrievalsClosed = false ;
+	
 	
 	@SuppressWarnings("unchecked")
 	private HashMap<DatabaseType, WDatabase> databasesByType ;
@@ -124,7 +189,7 @@ public class WEnvironment  {
 	 * 
 	 * @return see {@link DatabaseType#page} 
 	 */
-	public WDatabase<Integer, DbPage> getDbPage() {
+	public PageDatabase getDbPage() {
 		return dbPage;
 	}
 
@@ -142,9 +207,18 @@ public class WEnvironment  {
 			LabelDatabase db = processedLabelDbs.get(textProcessor.getName()) ;
 			
 			if (db == null) {
-				db = new LabelDatabase(this, textProcessor) ;
-				
-				processedLabelDbs.put(textProcessor.getName(), db) ;
+				//requests and preparation work may ask for the same database at once, so make sure only one is ever created
+				synchronized (processedLabelDbs) {
+					db = processedLabelDbs.get(textProcessor.getName()) ;
+					
+					if (db == null) {
+						db = new LabelDatabase(this, textProcessor) ;
+						attachSnapshot(db) ;
+						attachShards(db) ;
+						
+						processedLabelDbs.put(textProcessor.getName(), db) ;
+					}
+				}
 			}
 			return db ;
 		}
@@ -164,7 +238,7 @@ public class WEnvironment  {
 	 * 
 	 * @return see {@link DatabaseType#articlesByTitle} 
 	 */
-	public WDatabase<String, Integer> getDbArticlesByTitle() {
+	public TitleDatabase getDbArticlesByTitle() {
 		return dbArticlesByTitle ;
 	}
 	
@@ -173,7 +247,7 @@ public class WEnvironment  {
 	 * 
 	 * @return see {@link DatabaseType#categoriesByTitle} 
 	 */
-	public WDatabase<String, Integer> getDbCategoriesByTitle() {
+	public TitleDatabase getDbCategoriesByTitle() {
 		return dbCategoriesByTitle ;
 	}
 	
@@ -182,7 +256,7 @@ public class WEnvironment  {
 	 * 
 	 * @return see {@link DatabaseType#templatesByTitle} 
 	 */
-	public WDatabase<String, Integer> getDbTemplatesByTitle() {
+	public TitleDatabase getDbTemplatesByTitle() {
 		return dbTemplatesByTitle ;
 	}
 
@@ -307,6 +381,30 @@ public class WEnvironment  {
 	}
 	
 
+	/**
+	 * Returns the {@link DatabaseType#relatedArticles} database
+	 * 
+	 * @return see {@link DatabaseType#relatedArticles} 
+	 */
+	public WDatabase<Integer, DbRelatedArticleList> getDbRelatedArticles() {
+		return dbRelatedArticles;
+	}
+	
+	/**
+	 * @return true if related articles have been precomputed and loaded (see {@link #loadRelatedArticles(WikipediaConfiguration, File, boolean)}), otherwise false
+	 */
+	public boolean hasRelatedArticles() {
+		
+		Boolean available = relatedArticlesAvailable ;
+		
+		if (available == null) {
+			available = dbRelatedArticles.exists() ;
+			relatedArticlesAvailable = available ;
+		}
+		
+		return available ;
+	}
+	
 	/**
 	 * Returns the {@link DatabaseType#translations} database
 	 * 
@@ -316,11 +414,34 @@ public class WEnvironment  {
 		return dbTranslations ;
 	}
 
+	/**
+	 * Returns the compressed-sparse-row {@link LinkGraph} for the given direction, if one has been cached
+	 * 
+	 * @param type either {@link DatabaseType#pageLinksIn} or {@link DatabaseType#pageLinksOut}
+	 * @return the cached link graph, or null if it has not (yet) been built.
+	 */
+	public LinkGraph getLinkGraph(DatabaseType type) {
+		return linkGraphs.get(type) ;
+	}
+	
+	/**
+	 * Returns a compact copy of the {@link DatabaseType#pageLinkCounts} database. This is built whenever 
+	 * a {@link LinkGraph} is cached, since the two are used together when measuring relatedness.
+	 * 
+	 * @return the cached link counts, or null if they have not (yet) been built.
+	 */
+	public LinkCountTable getLinkCountTable() {
+		return linkCounts ;
+	}
+
 	/**
 	 * Intitializes the environment defined in the given configuration, and immediately begins connecting to databases and caching them to memory.
 	 * 
 	 * This preparation can be done in a separate thread if required, in which case progress can be tracked using {@link #getProgress()}, {@link #getPreparationTracker()} and {@link #isReady()}.
 	 * 
+	 * If the configuration specifies any {@link WikipediaConfiguration#getShards() shards}, then no local databases are opened, and every 
+	 * database is read from the {@link ShardServer}s instead. 
+	 * 
 	 * @param conf configuration options
 	 * @param threaded true if this should be prepared (e.g. cached to memory) in a separate thread, otherwise false
 	 * @throws EnvironmentLockedException if the underlying {@link Environment} is unavailable
@@ -329,15 +450,14 @@ public class WEnvironment  {
 
 		this.conf = conf ;
 		
-		
-		EnvironmentConfig envConf = new EnvironmentConfig() ;
-		envConf.setAllowCreate(false) ;
-		envConf.setReadOnly(true) ;
-		envConf.setCachePercent(10) ;
-		
-		env = new Environment(conf.getDatabaseDirectory(), envConf) ;
+		if (conf.getShards().isEmpty())
+			env = new Environment(conf.getDatabaseDirectory(), getReadOnlyConfig()) ;
+		else
+			shardClient = new ShardClient(conf.getShards(), conf.getShardReadTimeout()) ;
 		
 		initDatabases() ;
+		attachSnapshots() ;
+		attachShards() ;
 				
 		prepThread = new PreparationThread(conf) ;
 		if (threaded)
@@ -351,19 +471,39 @@ public class WEnvironment  {
 	
 	
 	private WEnvironment(WikipediaConfiguration conf) {
+		this(conf, getWritableConfig()) ;
+	}
+	
+	private WEnvironment(WikipediaConfiguration conf, EnvironmentConfig envConf) {
 		
 		this.conf = conf ;
 		
 		initDatabases() ;
 		
+		env = new Environment(conf.getDatabaseDirectory(), envConf) ;
+		
+	}
+	
+	private static EnvironmentConfig getWritableConfig() {
+		
 		EnvironmentConfig envConf = new EnvironmentConfig() ;
 		envConf.setCachePercent(10) ;
 		
 		envConf.setAllowCreate(true) ;
 		envConf.setReadOnly(false) ;
 		
-		env = new Environment(conf.getDatabaseDirectory(), envConf) ;
+		return envConf ;
+	}
+	
+	private static EnvironmentConfig getReadOnlyConfig() {
+		
+		EnvironmentConfig envConf = new EnvironmentConfig() ;
+		envConf.setCachePercent(10) ;
+		
+		envConf.setAllowCreate(false) ;
+		envConf.setReadOnly(true) ;
 		
+		return envConf ;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -379,7 +519,7 @@ public class WEnvironment  {
 		dbLabel = dbFactory.buildLabelDatabase() ;
 		databasesByType.put(DatabaseType.label, dbLabel) ;
 		
-		processedLabelDbs = new HashMap<String, LabelDatabase>() ;
+		processedLabelDbs = new ConcurrentHashMap<String, LabelDatabase>() ;
 		
 		dbLabelsForPage = dbFactory.buildPageLabelDatabase() ;
 		databasesByType.put(DatabaseType.pageLabel, dbLabelsForPage) ;
@@ -427,11 +567,73 @@ public class WEnvironment  {
 		dbTranslations = dbFactory.buildTranslationsDatabase() ;
 		databasesByType.put(DatabaseType.translations, dbTranslations) ;
 		
+		dbRelatedArticles = dbFactory.buildRelatedArticlesDatabase() ;
+		databasesByType.put(DatabaseType.relatedArticles, dbRelatedArticles) ;
+		
 		dbStatistics = dbFactory.buildStatisticsDatabase() ;
 		databasesByType.put(DatabaseType.statistics, dbStatistics) ;
 	}
 	
 	
+	@SuppressWarnings("unchecked")
+	private void attachSnapshots() {
+		
+		if (conf.getSnapshotDirectory() == null)
+			return ;
+		
+		for (WDatabase db:databasesByType.values()) 
+			attachSnapshot(db) ;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void attachSnapshot(WDatabase db) {
+		
+		if (conf.getSnapshotDirectory() == null)
+			return ;
+		
+		File snapshotFile = getSnapshotFile(conf.getSnapshotDirectory(), db) ;
+		if (!snapshotFile.canRead())
+			return ;
+		
+		try {
+			db.attachSnapshot(new SnapshotFile(snapshotFile)) ;
+			Logger.getLogger(WEnvironment.class).info("Serving " + db.getName() + " from snapshot " + snapshotFile) ;
+		} catch (IOException e) {
+			Logger.getLogger(WEnvironment.class).warn("Could not attach snapshot " + snapshotFile, e) ;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void attachShards() {
+		
+		if (shardClient == null)
+			return ;
+		
+		for (WDatabase db:databasesByType.values()) 
+			attachShards(db) ;
+		
+		Logger.getLogger(WEnvironment.class).info("Serving all databases from " + shardClient.getShardCount() + " shards") ;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void attachShards(WDatabase db) {
+		
+		if (shardClient != null)
+			db.attachShards(shardClient) ;
+	}
+	
+	/**
+	 * @return true if every database is read from {@link ShardServer}s (see {@link WikipediaConfiguration#getShards()}), otherwise false
+	 */
+	public boolean isSharded() {
+		return shardClient != null ;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static File getSnapshotFile(File snapshotDirectory, WDatabase db) {
+		return new File(snapshotDirectory + File.separator + db.getName() + ".snapshot") ;
+	}
+	
 	/**
 	 * @return true if the preparation work has been completed, otherwise false
 	 */
@@ -454,6 +656,59 @@ public class WEnvironment  {
 		return prepThread.getTracker() ;
 	}
 	
+	/**
+	 * Databases, link graphs and tries are cached concurrently (see {@link WikipediaConfiguration#getPreparationThreads()}), so this
+	 * reports the progress of each of them separately.
+	 * 
+	 * @return the name of each piece of preparation work, in the order they are started, mapped to a number between 0 (not started) and 1 (completed) indicating its progress. 
+	 */
+	public Map<String,Double> getPreparationProgressByTask() {
+		return prepThread.getProgressByTask() ;
+	}
+	
+	/**
+	 * Each database switches from being read from disk to being read from memory as soon as its own cache is built, 
+	 * so some can be served quickly long before the environment as a whole is ready. 
+	 * 
+	 * @param type the type of database
+	 * @return how ready the given database is to be served
+	 */
+	public Readiness getReadiness(DatabaseType type) {
+		
+		if (prepThread.isCompleted())
+			return Readiness.ready ;
+		
+		return prepThread.getReadiness(type) ;
+	}
+	
+	/**
+	 * @param types the types of database that some piece of work depends on
+	 * @return true if all of the given databases are ready to be served, otherwise false
+	 */
+	public boolean isReady(Collection<DatabaseType> types) {
+		
+		if (prepThread.isCompleted())
+			return true ;
+		
+		for (DatabaseType type:types) {
+			if (prepThread.getReadiness(type) != Readiness.ready)
+				return false ;
+		}
+		return true ;
+	}
+	
+	/**
+	 * @param types the types of database that some piece of work depends on
+	 * @return a number between 0 (just started) and 1 (completed) indicating progress of the preparation of the given databases. 
+	 */
+	public double getProgress(Collection<DatabaseType> types) {
+		
+		if (prepThread.isCompleted())
+			return 1 ;
+		
+		return prepThread.getProgress(types) ;
+	}
+	
 
 	/**
 	 * @param sn the name of the desired statistic
@@ -463,6 +718,21 @@ public class WEnvironment  {
 		return dbStatistics.retrieve(sn.ordinal()) ;
 	}
 	
+	/**
+	 * @return the length of the longest path from any page to the root category (see {@link StatisticName#maxCategoryDepth})
+	 */
+	public int getMaxCategoryDepth() {
+		
+		int depth = maxCategoryDepth ;
+		
+		if (depth < 0) {
+			depth = retrieveStatistic(StatisticName.maxCategoryDepth).intValue() ;
+			maxCategoryDepth = depth ;
+		}
+		
+		return depth ;
+	}
+	
 	/**
 	 * @param tp a text processor
 	 * @return true if the environment is ready to be searched for labels using the given text processor, otherwise false 
@@ -478,16 +748,22 @@ public class WEnvironment  {
 	 * Identifies the set of valid article ids which fit the given constrains. Useful for specifying a subset of 
 	 * articles that we are interested in caching.
 	 * 
-	 * @param minLinkCount the minimum number of links that an article must receive from other articles to be included
+	 * Only articles and disambiguation pages are included. If link counts are available, these are scanned in parallel 
+	 * (using {@link WikipediaConfiguration#getPreparationThreads()} threads), otherwise the much larger pageLinksIn database is 
+	 * read instead, and pages are not filtered by type or out-links.
+	 * 
+	 * @param minLinksIn articles must receive links from more than this many distinct pages to be included
+	 * @param minLinksOut articles must link to at least this many distinct pages to be included
 	 * @param tracker an optional progress notifier
 	 * @return the set of valid ids which fit the given constrains. 
+	 * @throws IOException if the ids cannot be gathered
 	 */
-	public TIntHashSet getValidArticleIds(int minLinkCount, ProgressTracker tracker) {
+	public PageIdSet getValidArticleIds(int minLinksIn, int minLinksOut, ProgressTracker tracker) throws IOException {
 		
-		//TODO: ideally this should advance a page iterator at the same time, to check page type
-		//TODO: ideally this should advance a pageLinkOut iterator at the same time, to check minimum outlinks
+		if (dbPageLinkCounts.exists())
+			return dbPageLinkCounts.getValidIds(minLinksIn, minLinksOut, dbPage, conf.getPreparationThreads(), tracker) ;
 		
-		TIntHashSet pageIds = new TIntHashSet() ;
+		PageIdSet pageIds = new PageIdSet() ;
 
 		if (tracker == null) tracker = new ProgressTracker(1, WEnvironment.class) ;
 		tracker.startTask(dbPageLinkIn.getDatabaseSize(), "gathering valid page ids") ;
@@ -498,7 +774,7 @@ public class WEnvironment  {
 			
 			WEntry<Integer, DbLinkLocationList> e = iter.next() ;
 						
-			if (e.getValue().getLinkLocations().size() > minLinkCount) 
+			if (e.getValue().getLinkLocations().size() > minLinksIn) 
 				pageIds.add(e.getKey()) ;
 			
 			tracker.update();
@@ -508,14 +784,104 @@ public class WEnvironment  {
 					
 		return pageIds ;
 	}
+	
+	private static final int VALID_IDS_MAGIC = 0x574d4944 ;
+	private static final int VALID_IDS_VERSION = 1 ;
+	
+	/**
+	 * Gathers the valid article ids for the configured thresholds, or restores them from the cache image directory 
+	 * if they have already been gathered from the same data.
+	 */
+	private PageIdSet gatherValidArticleIds(ProgressTracker tracker) throws IOException {
+		
+		int minLinksIn = conf.getMinLinksIn() ;
+		int minLinksOut = conf.getMinLinksOut() ;
+		
+		File idFile = null ;
+		long fingerprint = 0 ;
+		
+		if (conf.getCacheImageDirectory() != null) {
+			idFile = new File(conf.getCacheImageDirectory() + File.separator + "articlesOfInterest-" + minLinksIn + "-" + minLinksOut + ".ids") ;
+			fingerprint = getValidIdsFingerprint() ;
+			
+			try {
+				PageIdSet ids = readValidIds(idFile, fingerprint) ;
+				if (ids != null) {
+					Logger.getLogger(WEnvironment.class).info("Restored " + ids.size() + " valid article ids from " + idFile) ;
+					return ids ;
+				}
+			} catch (IOException e) {
+				Logger.getLogger(WEnvironment.class).warn("Could not read valid article ids from " + idFile + ", so they will be gathered again", e) ;
+			}
+		}
+		
+		PageIdSet ids = getValidArticleIds(minLinksIn, minLinksOut, tracker) ;
+		
+		if (idFile != null) {
+			try {
+				writeValidIds(idFile, fingerprint, ids) ;
+			} catch (IOException e) {
+				Logger.getLogger(WEnvironment.class).warn("Could not write valid article ids to " + idFile, e) ;
+			}
+		}
+		
+		return ids ;
+	}
+	
+	private long getValidIdsFingerprint() {
+		
+		StringBuffer sb = new StringBuffer() ;
+		sb.append(retrieveStatistic(StatisticName.lastEdit)).append('|') ;
+		sb.append(dbPage.getDatabaseSize()).append('|') ;
+		sb.append(dbPageLinkCounts.exists() ? dbPageLinkCounts.getDatabaseSize() : -1).append('|') ;
+		sb.append(dbPageLinkIn.getDatabaseSize()) ;
+		
+		return CsvDelta.hash(sb, sb.length()) ;
+	}
+	
+	private static PageIdSet readValidIds(File file, long fingerprint) throws IOException {
+		
+		if (!file.canRead())
+			return null ;
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))) ;
+		
+		try {
+			if (in.readInt() != VALID_IDS_MAGIC || in.readInt() != VALID_IDS_VERSION || in.readLong() != fingerprint) 
+				return null ;
+			
+			return PageIdSet.read(in) ;
+		} finally {
+			in.close() ;
+		}
+	}
+	
+	private static void writeValidIds(File file, long fingerprint, PageIdSet ids) throws IOException {
+		
+		file.getParentFile().mkdirs() ;
+		
+		//written to a temporary file first, so an incomplete set is never left behind
+		File tempFile = new File(file.getPath() + ".tmp") ;
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))) ;
+		
+		try {
+			out.writeInt(VALID_IDS_MAGIC) ;
+			out.writeInt(VALID_IDS_VERSION) ;
+			out.writeLong(fingerprint) ;
+			ids.write(out) ;
+		} finally {
+			out.close() ;
+		}
+		
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file) ;
 
-
-
-
-
-
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename " + tempFile + " to " + file) ;
+	}
 	
-	protected void cleanAndCheckpoint() throws DatabaseException{
+	protected synchronized void cleanAndCheckpoint() throws DatabaseException{
 		
 		Logger.getLogger(WEnvironment.class).info("Starting cleaning") ;
 		boolean anyCleaned = false;
@@ -549,12 +915,31 @@ public class WEnvironment  {
 		
 		WikipediaConfiguration conf ;
 		
-		private ProgressTracker tracker ;		
-		private boolean completed = false ;
-		private Exception failureCause = null ;
+		private volatile ProgressTracker tracker ;		
+		private volatile boolean completed = false ;
+		private volatile Exception failureCause = null ;
+		
+		private boolean mustGatherIds ;
+		private boolean gatherIdsFirst ;
+		
+		//cache images depend on which articles are of interest, so note whether these were given explicitly before we gather any
+		private long articlesOfInterestHash ;
+		
+		private List<WarmUpTask> warmUpTasks ;
 		
 		PreparationThread(WikipediaConfiguration conf) {
 			this.conf = conf ;
+			
+			//sharded databases can't be scanned, so ids can't be gathered (and are not needed, since nothing is filtered)
+			mustGatherIds = shardClient == null && ((conf.getMinLinksIn() > 0 || conf.getMinLinksOut() > 0) && (!conf.getDatabasesToCache().isEmpty() || !conf.getLinkGraphsToCache().isEmpty() || conf.isLabelTrieToCache())) && conf.getArticlesOfInterest() == null ;
+			
+			//link graphs and the trie can't be restored from images, so if they are needed then valid ids must be gathered up front
+			gatherIdsFirst = mustGatherIds && (!conf.getLinkGraphsToCache().isEmpty() || conf.isLabelTrieToCache()) ;
+			
+			articlesOfInterestHash = getHash(conf.getArticlesOfInterest()) ;
+			
+			//tasks are known up front, so the readiness of every database can be reported as soon as the environment is created
+			warmUpTasks = Collections.unmodifiableList(createWarmUpTasks()) ;
 		}
 		
 		public boolean isCompleted() {
@@ -570,6 +955,7 @@ public class WEnvironment  {
 			if (completed)
 				return 1 ;
 
+			ProgressTracker tracker = this.tracker ;
 			if (tracker == null) 
 				return 0 ;
 
@@ -580,6 +966,47 @@ public class WEnvironment  {
 			return tracker ;
 		}
 		
+		public Map<String,Double> getProgressByTask() {
+			
+			LinkedHashMap<String,Double> progress = new LinkedHashMap<String,Double>() ;
+			
+			for (WarmUpTask task:warmUpTasks)
+				progress.put(task.getName(), task.getProgress()) ;
+			
+			return progress ;
+		}
+		
+		public Readiness getReadiness(DatabaseType type) {
+			
+			Readiness readiness = Readiness.ready ;
+			
+			//a database is only as ready as the least ready piece of work that involves it
+			for (WarmUpTask task:warmUpTasks) {
+				if (task.getType() == type && task.getReadiness().compareTo(readiness) < 0)
+					readiness = task.getReadiness() ;
+			}
+			
+			return readiness ;
+		}
+		
+		public double getProgress(Collection<DatabaseType> types) {
+			
+			double progress = 0 ;
+			int count = 0 ;
+			
+			for (WarmUpTask task:warmUpTasks) {
+				if (types.contains(task.getType())) {
+					progress = progress + task.getProgress() ;
+					count++ ;
+				}
+			}
+			
+			if (count == 0)
+				return 1 ;
+			
+			return progress/count ;
+		}
+		
 		@Override
 		public void run() {
 			doPreparation() ;
@@ -587,13 +1014,10 @@ public class WEnvironment  {
 
 		public void doPreparation() {
 			
-			boolean mustGatherIds = (conf.getMinLinksIn() > 0 && !conf.getDatabasesToCache().isEmpty()) && conf.getArticlesOfInterest() == null ;
+			ProgressTracker tracker = new ProgressTracker(gatherIdsFirst ? 3 : 2, WEnvironment.class) ;
+			this.tracker = tracker ;
 			
-			int taskCount = conf.getDatabasesToCache().size() + 1;
-			if (mustGatherIds)
-				taskCount++ ;
-			
-			tracker = new ProgressTracker(taskCount, WEnvironment.class) ;
+			ExecutorService warmers = null ;
 			
 			try {
 				tracker.startTask(1, "Connecting to database") ;
@@ -603,50 +1027,424 @@ public class WEnvironment  {
 				
 				tracker.update();
 				
-				if (mustGatherIds)
-					conf.setArticlesOfInterest(getValidArticleIds(conf.getMinLinksIn(), tracker)) ;
+				if (gatherIdsFirst) {
+					conf.setArticlesOfInterest(gatherValidArticleIds(tracker)) ;
+					mustGatherIds = false ;
+				}
+				
+				//progress of all caches is reported together, as a single task
+				tracker.startTask(0, "Warming up caches") ;
+				
+				//every task claims its share of the overall progress before any of them start 
+				for (WarmUpTask task:warmUpTasks)
+					task.setTracker(tracker.createSubTracker()) ;
 				
-				for(DatabaseType dbName:conf.getDatabasesToCache()) {
+				if (!warmUpTasks.isEmpty()) {
+					int threads = Math.max(1, Math.min(conf.getPreparationThreads(), warmUpTasks.size())) ;
+					warmers = Executors.newFixedThreadPool(threads) ;
 					
-					if (dbName == DatabaseType.label)
-						getDbLabel(conf.getDefaultTextProcessor()).cache(conf, tracker) ;
-					else
-						getDatabase(dbName).cache(conf, tracker) ;
+					ArrayList<Future<Void>> results = new ArrayList<Future<Void>>() ;
+					for (WarmUpTask task:warmUpTasks)
+						results.add(warmers.submit(task)) ;
+					
+					//wait for everything to finish, and rethrow the first problem encountered
+					for (Future<Void> result:results)
+						waitForWarmUp(result) ;
 				}
 				
-				conf.setArticlesOfInterest(null) ;
-				
 				System.gc() ;
 				
 			} catch (Exception e) {
 				failureCause = e ;
-			} ;
+			} finally {
+				if (warmers != null)
+					warmers.shutdownNow() ;
+				
+				conf.setArticlesOfInterest(null) ;
+			}
 
 			completed = true ;
 		}
-	}
-	
-	public Exception getCachingFailureReason() {
-		
-		if (this.prepThread == null)
-			return null ;
-	
-		return this.prepThread.failureCause ;
-	}
-	
-	/**
-	 * Tidily closes the environment, and all databases within it. This should always be called once you are finished with the environment.
-	 */
-	@SuppressWarnings("unchecked")
-	public void close() {
 		
-		for (WDatabase<String, DbLabel> dbProcessedLabel: processedLabelDbs.values()) {
-			dbProcessedLabel.close();
+		private ArrayList<WarmUpTask> createWarmUpTasks() {
+			
+			ArrayList<WarmUpTask> tasks = new ArrayList<WarmUpTask>() ;
+			
+			//label and page are started first, because little can be served without them
+			for (DatabaseType dbName:getWarmUpOrder(conf.getDatabasesToCache())) {
+				
+				if (isWarmUpPriority(dbName))
+					tasks.add(createDatabaseWarmUp(dbName)) ;
+			}
+			
+			//graphs and tries are built by scanning whole databases, which can't be done when they are sharded
+			if (shardClient == null) {
+				//the largest and slowest are started next, so they aren't left running on their own at the end
+				for (final DatabaseType linkType:conf.getLinkGraphsToCache()) {
+					tasks.add(new WarmUpTask(linkType.name() + " graph", linkType) {
+						@Override
+						void warmUp(ProgressTracker tracker) throws Exception {
+							cacheLinkGraph(linkType, tracker) ;
+						}
+					}) ;
+				}
+				
+				if (!conf.getLinkGraphsToCache().isEmpty()) {
+					tasks.add(new WarmUpTask("link counts", DatabaseType.pageLinkCounts) {
+						@Override
+						void warmUp(ProgressTracker tracker) throws Exception {
+							linkCounts = LinkCountTable.build(dbPageLinkCounts, conf.getArticlesOfInterest(), tracker) ;
+						}
+					}) ;
+				}
+				
+				if (conf.isLabelTrieToCache()) {
+					tasks.add(new WarmUpTask("label trie", DatabaseType.label) {
+						@Override
+						void warmUp(ProgressTracker tracker) throws Exception {
+							getDbLabel(conf.getDefaultTextProcessor()).cacheTrie(conf, tracker) ;
+						}
+					}) ;
+				}
+			} else if (!conf.getLinkGraphsToCache().isEmpty() || conf.isLabelTrieToCache()) {
+				Logger.getLogger(WEnvironment.class).warn("Link graphs and label tries are not cached when databases are sharded") ;
+			}
+			
+			for (DatabaseType dbName:getWarmUpOrder(conf.getDatabasesToCache())) {
+				
+				if (!isWarmUpPriority(dbName))
+					tasks.add(createDatabaseWarmUp(dbName)) ;
+			}
+			
+			return tasks ;
 		}
 		
-		for (WDatabase db:this.databasesByType.values()) {
+		@SuppressWarnings("unchecked")
+		private WarmUpTask createDatabaseWarmUp(DatabaseType dbName) {
+			
+			final WDatabase db ;
+			if (dbName == DatabaseType.label)
+				db = getDbLabel(conf.getDefaultTextProcessor()) ;
+			else
+				db = getDatabase(dbName) ;
+			
+			return new WarmUpTask(db.getName(), dbName) {
+				@Override
+				void warmUp(ProgressTracker tracker) throws Exception {
+					cacheDatabase(db, tracker) ;
+				}
+			} ;
+		}
+		
+		@SuppressWarnings("unchecked")
+		private void cacheDatabase(WDatabase db, ProgressTracker tracker) throws DatabaseException, IOException {
+			
+			//sharded databases only ever have bounded caches, which are filled as values are requested, so there is nothing to restore or save
+			if (shardClient != null) {
+				db.cache(conf, tracker) ;
+				return ;
+			}
+			
+			File imageFile = getCacheImageFile(db) ;
+			long fingerprint = getCacheImageFingerprint(db, articlesOfInterestHash) ;
+			
+			if (imageFile != null && loadCacheImage(db, imageFile, fingerprint, tracker)) 
+				return ;
+			
+			gatherArticlesOfInterest(tracker) ;
+			
+			db.cache(conf, tracker) ;
+			
+			if (imageFile != null && db.isCached()) 
+				writeCacheImage(db, imageFile, fingerprint) ;
+		}
+		
+		/**
+		 * Gathers valid article ids the first time a database needs them, so that they are 
+		 * never gathered if every database can be restored from an image.
+		 */
+		private synchronized void gatherArticlesOfInterest(ProgressTracker tracker) throws IOException {
+			
+			if (!mustGatherIds)
+				return ;
+			
+			conf.setArticlesOfInterest(gatherValidArticleIds(tracker)) ;
+			mustGatherIds = false ;
+		}
+		
+		private void waitForWarmUp(Future<Void> result) throws Exception {
+			
+			try {
+				result.get() ;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() ;
+				
+				if (cause instanceof Exception)
+					throw (Exception)cause ;
+				if (cause instanceof Error)
+					throw (Error)cause ;
+				
+				throw new IOException("Could not cache databases: " + cause) ;
+			}
+		}
+	}
+	
+	/**
+	 * A unit of preparation work (caching a single database, link graph or trie), which runs alongside others 
+	 * and reports its own progress.
+	 */
+	private static abstract class WarmUpTask implements Callable<Void> {
+		
+		private String name ;
+		private DatabaseType type ;
+		
+		private volatile ProgressTracker tracker ;
+		private volatile Readiness readiness = Readiness.pending ;
+		
+		WarmUpTask(String name, DatabaseType type) {
+			this.name = name ;
+			this.type = type ;
+		}
+		
+		void setTracker(ProgressTracker tracker) {
+			this.tracker = tracker ;
+			
+			//a placeholder part, so that this task has a share of overall progress before it starts
+			tracker.startTask(1) ;
+		}
+		
+		String getName() {
+			return name ;
+		}
+		
+		/**
+		 * @return the type of database that this work makes ready
+		 */
+		DatabaseType getType() {
+			return type ;
+		}
+		
+		Readiness getReadiness() {
+			return readiness ;
+		}
+		
+		double getProgress() {
+			
+			if (readiness == Readiness.ready)
+				return 1 ;
+			
+			ProgressTracker tracker = this.tracker ;
+			if (tracker == null)
+				return 0 ;
+			
+			return tracker.getTaskProgress() ;
+		}
+		
+		@Override
+		public Void call() throws Exception {
+			
+			readiness = Readiness.caching ;
+			
+			try {
+				warmUp(tracker) ;
+			} finally {
+				tracker.startTask(0) ;
+				
+				//even if this failed, the database can still be read from disk
+				readiness = Readiness.ready ;
+			}
+			return null ;
+		}
+		
+		abstract void warmUp(ProgressTracker tracker) throws Exception ;
+	}
+	
+	private static final DatabaseType[] WARM_UP_PRIORITY = {DatabaseType.label, DatabaseType.page, DatabaseType.articlesByTitle, DatabaseType.categoriesByTitle, DatabaseType.templatesByTitle, DatabaseType.redirectTargetBySource} ;
+	
+	private static boolean isWarmUpPriority(DatabaseType type) {
+		
+		for (DatabaseType t:WARM_UP_PRIORITY) {
+			if (t == type)
+				return true ;
+		}
+		return false ;
+	}
+	
+	/**
+	 * Orders the given databases so that those needed to resolve labels and titles to pages come first, in the order of {@link #WARM_UP_PRIORITY}, 
+	 * followed by the rest in the order they are declared.
+	 */
+	private static List<DatabaseType> getWarmUpOrder(Set<DatabaseType> types) {
+		
+		ArrayList<DatabaseType> order = new ArrayList<DatabaseType>() ;
+		
+		for (DatabaseType type:WARM_UP_PRIORITY) {
+			if (types.contains(type))
+				order.add(type) ;
+		}
+		
+		for (DatabaseType type:DatabaseType.values()) {
+			if (types.contains(type) && !isWarmUpPriority(type))
+				order.add(type) ;
+		}
+		
+		return order ;
+	}
+
+	@SuppressWarnings("unchecked")
+	private File getCacheImageFile(WDatabase db) {
+		
+		if (conf.getCacheImageDirectory() == null)
+			return null ;
+		
+		return new File(conf.getCacheImageDirectory() + File.separator + db.getName() + ".cache") ;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private boolean loadCacheImage(WDatabase db, File imageFile, long fingerprint, ProgressTracker tracker) {
+		
+		try {
+			if (db.loadCacheImage(imageFile, fingerprint, conf.getCachePriority(db.getType()), tracker)) {
+				Logger.getLogger(WEnvironment.class).info("Restored " + db.getName() + " from cache image " + imageFile) ;
+				return true ;
+			}
+		} catch (IOException e) {
+			Logger.getLogger(WEnvironment.class).warn("Could not read cache image " + imageFile + ", so it will be rebuilt", e) ;
+		}
+		return false ;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void writeCacheImage(WDatabase db, File imageFile, long fingerprint) {
+		
+		try {
+			imageFile.getParentFile().mkdirs() ;
+			db.writeCacheImage(imageFile, fingerprint) ;
+		} catch (IOException e) {
+			Logger.getLogger(WEnvironment.class).warn("Could not write cache image " + imageFile, e) ;
+		}
+	}
+	
+	/**
+	 * Identifies everything that affects the contents of a cached database: the data it was built from,
+	 * and all of the configuration parameters that are used to filter it. 
+	 */
+	@SuppressWarnings("unchecked")
+	private long getCacheImageFingerprint(WDatabase db, long articlesOfInterestHash) {
+		
+		StringBuffer sb = new StringBuffer() ;
+		sb.append(db.getName()).append('|') ;
+		sb.append(db.getDatabaseSize()).append('|') ;
+		sb.append(retrieveStatistic(StatisticName.lastEdit)).append('|') ;
+		sb.append(conf.getCachePriority(db.getType())).append('|') ;
+		
+		if (db.getCompactEncoding() != null)
+			sb.append(db.getCompactEncoding().getViewClass().getName()) ;
+		sb.append('|') ;
+		
+		//explicitly given articles of interest take precedence over minLinksIn
+		if (articlesOfInterestHash != 0)
+			sb.append("articles:").append(articlesOfInterestHash).append('|') ;
+		else
+			sb.append("minLinksIn:").append(conf.getMinLinksIn()).append('|') ;
+		
+		//only appended when set, so that images written before this was configurable stay valid
+		if (articlesOfInterestHash == 0 && conf.getMinLinksOut() > 0)
+			sb.append("minLinksOut:").append(conf.getMinLinksOut()).append('|') ;
+		
+		sb.append(conf.getMinLinkProbability()).append('|') ;
+		sb.append(conf.getMinSenseProbability()) ;
+		
+		return CsvDelta.hash(sb, sb.length()) ;
+	}
+	
+	private static long getHash(PageIdSet ids) {
+		
+		if (ids == null)
+			return 0 ;
+		
+		//independent of iteration order
+		long hash = ids.size() ;
+		for (int id=ids.nextId(0) ; id>=0 ; id=ids.nextId(id+1)) {
+			long h = id * 0x9E3779B97F4A7C15L ;
+			hash += h ^ (h >>> 29) ;
+		}
+		
+		return hash == 0 ? 1 : hash ;
+	}
+	
+	private void cacheLinkGraph(DatabaseType type, ProgressTracker tracker) throws IOException {
+		
+		boolean offHeap = conf.isLinkGraphOffHeap(type) ;
+		
+		//first, try building from file
+		if (conf.getDataDirectory() != null) {
+			File dataFile = new File(conf.getDataDirectory() + File.separator + (type == DatabaseType.pageLinksIn ? "pageLinkIn.csv" : "pageLinkOut.csv")) ;
+			
+			if (dataFile.canRead()) {
+				linkGraphs.put(type, LinkGraph.build(dataFile, type, conf.getArticlesOfInterest(), offHeap, tracker)) ;
+				return ;
+			}
+		}
+		
+		WDatabase<Integer, DbIntList> db = (type == DatabaseType.pageLinksIn) ? dbPageLinkInNoSentences : dbPageLinkOutNoSentences ;
+		linkGraphs.put(type, LinkGraph.build(db, conf.getArticlesOfInterest(), offHeap, tracker)) ;
+	}
+	
+	public Exception getCachingFailureReason() {
+		
+		if (this.prepThread == null)
+			return null ;
+	
+		return this.prepThread.failureCause ;
+	}
+	
+	/**
+	 * Tidily closes the environment, and all databases within it. This should always be called once you are finished with the environment.
+	 */
+	@SuppressWarnings("unchecked")
+	public void close() {
+		
+		//batches already in flight are allowed to finish (interrupting them could invalidate the environment) before their databases are closed
+		ExecutorService retrievals ;
+		synchronized (this) {
+			retrievalsClosed = true ;
+			retrievals = retrievalExecutor ;
+		}
+		
+		if (retrievals != null) {
+			retrievals.shutdown() ;
+			try {
+				if (!retrievals.awaitTermination(RETRIEVAL_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+					Logger.getLogger(WEnvironment.class).warn("Asynchronous retrievals are still running, but databases will be closed anyway") ;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+			}
+		}
+		
+		for (WDatabase<String, DbLabel> dbProcessedLabel: processedLabelDbs.values()) {
+			dbProcessedLabel.close();
+		}
+		
+		for (WDatabase db:this.databasesByType.values()) {
 			db.close() ;
 		}
+		
+		linkGraphs.clear() ;
+		linkCounts = null ;
+		maxCategoryDepth = -1 ;
+		relatedArticlesAvailable = null ;
+		
+		if (shardClient != null) {
+			shardClient.close() ;
+			shardClient = null ;
+		}
+		
+		//closing the environment flushes anything that has been written, and releases it so it can be reopened
+		if (env != null) {
+			env.close() ;
+			env = null ;
+		}
 	}
 	
 	@Override
@@ -673,16 +1471,37 @@ public class WEnvironment  {
 	 * @throws XMLStreamException if the XML dump of wikipedia cannot be parsed
 	 */
 	public static void buildEnvironment(WikipediaConfiguration conf, File dataDirectory, boolean overwrite) throws IOException, XMLStreamException {
+		buildEnvironment(conf, dataDirectory, overwrite, 1) ;
+	}
+	
+	/**
+	 * Builds a WEnvironment, by loading all of the data files stored in the given directory into persistent databases.
+	 * 
+	 * Independent databases are loaded concurrently, and the records within each data file are parsed in parallel, 
+	 * using at most the given number of threads for each. 
+	 * 
+	 * It will not create the environment or any databases unless all of the required files are found in the given directory. 
+	 * 
+	 * It will not delete any existing databases, and will only overwrite them if explicitly specified (even if they are incomplete).
+	 * 
+	 * @param conf a configuration specifying where the databases are to be stored, etc.
+	 * @param dataDirectory a directory containing the a single XML dump of wikipedia, and all of the CSV files produced by {@link DumpExtractor}
+	 * @param overwrite true if existing databases should be overwritten, otherwise false
+	 * @param threads the number of threads to use (1 loads each database in turn, as a single thread)
+	 * @throws IOException if any of the required files cannot be read
+	 * @throws XMLStreamException if the XML dump of wikipedia cannot be parsed
+	 */
+	public static void buildEnvironment(WikipediaConfiguration conf, File dataDirectory, final boolean overwrite, int threads) throws IOException, XMLStreamException {
 		
 		//check all files exist and are readable before doing anything
 		
 		File statistics = getDataFile(dataDirectory, "stats.csv") ;
-		File page = getDataFile(dataDirectory, "page.csv") ;
+		final File page = getDataFile(dataDirectory, "page.csv") ;
 		File label = getDataFile(dataDirectory, "label.csv") ;
 		File pageLabel = getDataFile(dataDirectory, "pageLabel.csv") ;
 		
-		File pageLinksIn = getDataFile(dataDirectory, "pageLinkIn.csv") ;
-		File pageLinksOut = getDataFile(dataDirectory, "pageLinkOut.csv") ;
+		final File pageLinksIn = getDataFile(dataDirectory, "pageLinkIn.csv") ;
+		final File pageLinksOut = getDataFile(dataDirectory, "pageLinkOut.csv") ;
 		
 		File categoryParents = getDataFile(dataDirectory, "categoryParents.csv") ;
 		File articleParents = getDataFile(dataDirectory, "articleParents.csv") ;
@@ -696,8 +1515,10 @@ public class WEnvironment  {
 		
 		File translations = getDataFile(dataDirectory, "translations.csv") ;
 		
-		File markup = getMarkupDataFile(dataDirectory) ;
+		final File markup = getMarkupDataFile(dataDirectory) ;
 		
+		//related articles are optional, since they can only be calculated once everything else is built
+		File relatedArticles = new File(dataDirectory + File.separator + "relatedArticles.csv") ;
 		
 		
 		//now load databases
@@ -705,48 +1526,466 @@ public class WEnvironment  {
 		if (!conf.getDatabaseDirectory().exists())
 			conf.getDatabaseDirectory().mkdirs() ;
 		
-		WEnvironment env = new WEnvironment(conf) ;
+		final WEnvironment env = new WEnvironment(conf) ;
+		
+		//progress of all databases is reported together
+		final ProgressTracker tracker = new ProgressTracker(1, WEnvironment.class) ;
+		tracker.startTask(0, "Building environment") ;
+		
+		ExecutorService loaders = Executors.newFixedThreadPool(threads) ;
+		if (threads > 1)
+			env.loadingExecutor = Executors.newFixedThreadPool(threads) ;
+		
+		ArrayList<Future<?>> loads = new ArrayList<Future<?>>() ;
+		
+		try {
+			//the largest and slowest are started first, so they aren't left running on their own at the end
+			loads.add(loaders.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException, XMLStreamException {
+					env.dbMarkup.loadFromXmlFile(markup, overwrite, tracker.createSubTracker()) ;
+					return null ;
+				}
+			})) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbPageLinkIn, pageLinksIn, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbPageLinkOut, pageLinksOut, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbPageLinkInNoSentences, pageLinksIn, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbPageLinkOutNoSentences, pageLinksOut, overwrite, tracker)) ;
+			loads.add(loaders.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					env.dbPageLinkCounts.loadFromCsvFiles(pageLinksIn, pageLinksOut, overwrite, tracker.createSubTracker()) ;
+					return null ;
+				}
+			})) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbLabel, label, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbLabelsForPage, pageLabel, overwrite, tracker)) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbStatistics, statistics, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbPage, page, overwrite, tracker)) ;
+			
+			//all title databases are gathered from a single pass over the page file
+			loads.add(loaders.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					TitleDatabase.loadFromCsvFile(page, overwrite, tracker.createSubTracker(), env.dbArticlesByTitle, env.dbCategoriesByTitle, env.dbTemplatesByTitle) ;
+					return null ;
+				}
+			})) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbRedirectTargetBySource, redirectTargetBySource, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbRedirectSourcesByTarget, redirectSourcesByTarget, overwrite, tracker)) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbCategoryParents, categoryParents, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbArticleParents, articleParents, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbChildCategories, childCategories, overwrite, tracker)) ;
+			loads.add(submitCsvLoad(loaders, env.dbChildArticles, childArticles, overwrite, tracker)) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbSentenceSplits, sentenceSplits, overwrite, tracker)) ;
+			
+			loads.add(submitCsvLoad(loaders, env.dbTranslations, translations, overwrite, tracker)) ;
+			
+			if (relatedArticles.canRead())
+				loads.add(submitCsvLoad(loaders, env.dbRelatedArticles, relatedArticles, overwrite, tracker)) ;
+			
+			//wait for everything to finish, and rethrow the first problem encountered
+			for (Future<?> load:loads)
+				waitForLoad(load) ;
+			
+		} finally {
+			loaders.shutdownNow() ;
+			
+			if (env.loadingExecutor != null) {
+				env.loadingExecutor.shutdownNow() ;
+				env.loadingExecutor = null ;
+			}
+		}
+		
+		env.close();
+		
+		TextProcessor tp = conf.getDefaultTextProcessor() ;
+		if (tp != null) {
+			File tmpDir = new File(conf.getDataDirectory() + File.separator + "tmp" + tp.getName()) ;
+			tmpDir.mkdir() ;
+			tmpDir.deleteOnExit() ;
+			
+			prepareTextProcessor(tp, conf, tmpDir, overwrite, LabelDatabase.getDefaultMemoryBudget()) ;
+		}
+	}
+	
+	/**
+	 * Updates an existing WEnvironment in place, so that it matches a newer dump of wikipedia, without rebuilding any of its databases. 
+	 * 
+	 * The newer dump must still be extracted by {@link DumpExtractor}, since labels, link counts and statistics are gathered 
+	 * across the whole of wikipedia. Each CSV file it produces is then compared against the file that the environment was built 
+	 * (or last updated) from, and only the records that have been added, changed or removed are written. Markup is only written 
+	 * for pages whose markup differs from what is already stored. 
+	 * 
+	 * Afterwards, the default text processor (if any) is prepared again if labels have changed, cache images of any changed 
+	 * databases are discarded, and any existing snapshots of them are exported again.
+	 * 
+	 * The environment must not be in use while it is being updated.
+	 * 
+	 * @param conf a configuration specifying where the databases are stored, etc.
+	 * @param previousDataDirectory a directory containing the CSV files that the environment was built (or last updated) from
+	 * @param dataDirectory a directory containing the newer XML dump of wikipedia, and all of the CSV files produced from it by {@link DumpExtractor}
+	 * @param threads the number of databases to update concurrently
+	 * @return the number of records that were added, changed or removed in each database
+	 * @throws IOException if any of the required files cannot be read
+	 * @throws XMLStreamException if the XML dump of wikipedia cannot be parsed
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<DatabaseType,Integer> updateEnvironment(WikipediaConfiguration conf, File previousDataDirectory, File dataDirectory, int threads) throws IOException, XMLStreamException {
 		
+		//check all files exist and are readable before doing anything
+		
+		String[] fileNames = {
+				"stats.csv", "page.csv", "label.csv", "pageLabel.csv", "pageLinkIn.csv", "pageLinkOut.csv", 
+				"categoryParents.csv", "articleParents.csv", "childCategories.csv", "childArticles.csv", 
+				"redirectTargetsBySource.csv", "redirectSourcesByTarget.csv", "sentenceSplits.csv", "translations.csv"
+		} ;
 		
-		env.dbStatistics.loadFromCsvFile(statistics, overwrite, null) ;
-		env.dbPage.loadFromCsvFile(page, overwrite, null) ;
-		env.dbLabel.loadFromCsvFile(label, overwrite, null) ;
-		env.dbLabelsForPage.loadFromCsvFile(pageLabel, overwrite, null) ;
+		for (String fileName:fileNames) {
+			getDataFile(previousDataDirectory, fileName) ;
+			getDataFile(dataDirectory, fileName) ;
+		}
 		
-		env.dbArticlesByTitle.loadFromCsvFile(page, overwrite, null) ;
-		env.dbCategoriesByTitle.loadFromCsvFile(page, overwrite, null) ;
-		env.dbTemplatesByTitle.loadFromCsvFile(page, overwrite, null) ;
+		final File previousPage = getDataFile(previousDataDirectory, "page.csv") ;
+		final File page = getDataFile(dataDirectory, "page.csv") ;
 		
-		env.dbRedirectTargetBySource.loadFromCsvFile(redirectTargetBySource, overwrite, null) ;
-		env.dbRedirectSourcesByTarget.loadFromCsvFile(redirectSourcesByTarget, overwrite, null) ;
+		final File previousPageLinksIn = getDataFile(previousDataDirectory, "pageLinkIn.csv") ;
+		final File pageLinksIn = getDataFile(dataDirectory, "pageLinkIn.csv") ;
+		final File previousPageLinksOut = getDataFile(previousDataDirectory, "pageLinkOut.csv") ;
+		final File pageLinksOut = getDataFile(dataDirectory, "pageLinkOut.csv") ;
 		
-		env.dbPageLinkIn.loadFromCsvFile(pageLinksIn, overwrite, null) ;
-		env.dbPageLinkInNoSentences.loadFromCsvFile(pageLinksIn, overwrite, null) ;
-		env.dbPageLinkOut.loadFromCsvFile(pageLinksOut, overwrite, null) ;
-		env.dbPageLinkOutNoSentences.loadFromCsvFile(pageLinksOut, overwrite, null) ;
-		env.dbPageLinkCounts.loadFromCsvFiles(pageLinksIn, pageLinksOut, overwrite, null) ;
+		final File markup = getMarkupDataFile(dataDirectory) ;
 		
-		env.dbCategoryParents.loadFromCsvFile(categoryParents, overwrite, null) ;
-		env.dbArticleParents.loadFromCsvFile(articleParents, overwrite, null) ;
-		env.dbChildCategories.loadFromCsvFile(childCategories, overwrite, null) ;
-		env.dbChildArticles.loadFromCsvFile(childArticles, overwrite, null) ;
+		File previousRelatedArticles = new File(previousDataDirectory + File.separator + "relatedArticles.csv") ;
+		File relatedArticles = new File(dataDirectory + File.separator + "relatedArticles.csv") ;
 		
-		env.dbSentenceSplits.loadFromCsvFile(sentenceSplits, overwrite, null) ;
+		final WEnvironment env = new WEnvironment(conf) ;
 		
-		env.dbTranslations.loadFromCsvFile(translations, overwrite, null) ;
+		//progress of all databases is reported together
+		final ProgressTracker tracker = new ProgressTracker(1, WEnvironment.class) ;
+		tracker.startTask(0, "Updating environment") ;
 		
-		env.dbMarkup.loadFromXmlFile(markup, overwrite, null) ;
+		ExecutorService updaters = Executors.newFixedThreadPool(threads) ;
+		
+		LinkedHashMap<DatabaseType, Future<Integer>> updates = new LinkedHashMap<DatabaseType, Future<Integer>>() ;
+		Future<int[]> titleUpdates ;
+		LinkedHashMap<DatabaseType, Integer> changes = new LinkedHashMap<DatabaseType, Integer>() ;
+		
+		try {
+			//pages that have gone are only known from the page file, since the dump doesn't mention them
+			final TIntHashSet removedIds = getRemovedIds(previousPage, page) ;
+			
+			//the largest and slowest are started first, so they aren't left running on their own at the end
+			updates.put(DatabaseType.markup, updaters.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws IOException, XMLStreamException {
+					return env.dbMarkup.updateFromXmlFile(markup, removedIds, tracker.createSubTracker()) ;
+				}
+			})) ;
+			
+			updates.put(DatabaseType.pageLinksIn, submitCsvUpdate(updaters, env.dbPageLinkIn, previousPageLinksIn, pageLinksIn, tracker)) ;
+			updates.put(DatabaseType.pageLinksOut, submitCsvUpdate(updaters, env.dbPageLinkOut, previousPageLinksOut, pageLinksOut, tracker)) ;
+			updates.put(DatabaseType.pageLinksInNoSentences, submitCsvUpdate(updaters, env.dbPageLinkInNoSentences, previousPageLinksIn, pageLinksIn, tracker)) ;
+			updates.put(DatabaseType.pageLinksOutNoSentences, submitCsvUpdate(updaters, env.dbPageLinkOutNoSentences, previousPageLinksOut, pageLinksOut, tracker)) ;
+			updates.put(DatabaseType.pageLinkCounts, updaters.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws IOException {
+					return env.dbPageLinkCounts.updateFromCsvFiles(previousPageLinksIn, previousPageLinksOut, pageLinksIn, pageLinksOut, tracker.createSubTracker()) ;
+				}
+			})) ;
+			
+			updates.put(DatabaseType.label, submitCsvUpdate(updaters, env.dbLabel, previousDataDirectory, dataDirectory, "label.csv", tracker)) ;
+			updates.put(DatabaseType.pageLabel, submitCsvUpdate(updaters, env.dbLabelsForPage, previousDataDirectory, dataDirectory, "pageLabel.csv", tracker)) ;
+			
+			updates.put(DatabaseType.statistics, submitCsvUpdate(updaters, env.dbStatistics, previousDataDirectory, dataDirectory, "stats.csv", tracker)) ;
+			updates.put(DatabaseType.page, submitCsvUpdate(updaters, env.dbPage, previousPage, page, tracker)) ;
+			
+			//all title databases are updated together, from the same passes over the page files 
+			titleUpdates = updaters.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() throws IOException {
+					return TitleDatabase.updateFromCsvFiles(previousPage, page, tracker.createSubTracker(), env.dbArticlesByTitle, env.dbCategoriesByTitle, env.dbTemplatesByTitle) ;
+				}
+			}) ;
+			
+			updates.put(DatabaseType.redirectTargetBySource, submitCsvUpdate(updaters, env.dbRedirectTargetBySource, previousDataDirectory, dataDirectory, "redirectTargetsBySource.csv", tracker)) ;
+			updates.put(DatabaseType.redirectSourcesByTarget, submitCsvUpdate(updaters, env.dbRedirectSourcesByTarget, previousDataDirectory, dataDirectory, "redirectSourcesByTarget.csv", tracker)) ;
+			
+			updates.put(DatabaseType.categoryParents, submitCsvUpdate(updaters, env.dbCategoryParents, previousDataDirectory, dataDirectory, "categoryParents.csv", tracker)) ;
+			updates.put(DatabaseType.articleParents, submitCsvUpdate(updaters, env.dbArticleParents, previousDataDirectory, dataDirectory, "articleParents.csv", tracker)) ;
+			updates.put(DatabaseType.childCategories, submitCsvUpdate(updaters, env.dbChildCategories, previousDataDirectory, dataDirectory, "childCategories.csv", tracker)) ;
+			updates.put(DatabaseType.childArticles, submitCsvUpdate(updaters, env.dbChildArticles, previousDataDirectory, dataDirectory, "childArticles.csv", tracker)) ;
+			
+			updates.put(DatabaseType.sentenceSplits, submitCsvUpdate(updaters, env.dbSentenceSplits, previousDataDirectory, dataDirectory, "sentenceSplits.csv", tracker)) ;
+			
+			updates.put(DatabaseType.translations, submitCsvUpdate(updaters, env.dbTranslations, previousDataDirectory, dataDirectory, "translations.csv", tracker)) ;
+			
+			if (previousRelatedArticles.canRead() && relatedArticles.canRead())
+				updates.put(DatabaseType.relatedArticles, submitCsvUpdate(updaters, env.dbRelatedArticles, previousRelatedArticles, relatedArticles, tracker)) ;
+			
+			//wait for everything to finish, and rethrow the first problem encountered
+			for (Map.Entry<DatabaseType, Future<Integer>> update:updates.entrySet()) 
+				changes.put(update.getKey(), waitForLoad(update.getValue())) ;
+			
+			int[] titleChanges = waitForLoad(titleUpdates) ;
+			changes.put(DatabaseType.articlesByTitle, titleChanges[0]) ;
+			changes.put(DatabaseType.categoriesByTitle, titleChanges[1]) ;
+			changes.put(DatabaseType.templatesByTitle, titleChanges[2]) ;
+			
+		} finally {
+			updaters.shutdownNow() ;
+		}
+		
+		ArrayList<WDatabase> changedDbs = new ArrayList<WDatabase>() ;
+		for (Map.Entry<DatabaseType, Integer> change:changes.entrySet()) {
+			Logger.getLogger(WEnvironment.class).info("Updated " + change.getValue() + " records of " + change.getKey()) ;
+			
+			if (change.getValue() > 0)
+				changedDbs.add(env.getDatabase(change.getKey())) ;
+		}
 		
 		env.close();
 		
 		TextProcessor tp = conf.getDefaultTextProcessor() ;
-		if (tp != null) {
+		if (tp != null && changes.get(DatabaseType.label) > 0) {
 			File tmpDir = new File(conf.getDataDirectory() + File.separator + "tmp" + tp.getName()) ;
 			tmpDir.mkdir() ;
 			tmpDir.deleteOnExit() ;
 			
-			prepareTextProcessor(tp, conf, tmpDir, overwrite, 5) ;
+			prepareTextProcessor(tp, conf, tmpDir, true, LabelDatabase.getDefaultMemoryBudget()) ;
 		}
+		
+		refreshDerivedFiles(conf, changedDbs, tp != null && changes.get(DatabaseType.label) > 0) ;
+		
+		return changes ;
+	}
+	
+	/**
+	 * Discards cache images of the given databases, and exports any snapshots of them again, since both were taken from data 
+	 * that has now changed.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void refreshDerivedFiles(WikipediaConfiguration conf, ArrayList<WDatabase> changedDbs, boolean labelsPrepared) throws IOException {
+		
+		if (conf.getCacheImageDirectory() == null && conf.getSnapshotDirectory() == null)
+			return ;
+		
+		WEnvironment env = new WEnvironment(conf, getReadOnlyConfig()) ;
+		
+		ArrayList<WDatabase> dbs = new ArrayList<WDatabase>() ;
+		for (WDatabase changedDb:changedDbs)
+			dbs.add(env.getDatabase(changedDb.getType())) ;
+		
+		TextProcessor tp = conf.getDefaultTextProcessor() ;
+		if (labelsPrepared && env.isPreparedFor(tp))
+			dbs.add(env.getDbLabel(tp)) ;
+		
+		try {
+			for (WDatabase db:dbs) {
+				
+				File imageFile = env.getCacheImageFile(db) ;
+				if (imageFile != null && imageFile.exists() && !imageFile.delete())
+					Logger.getLogger(WEnvironment.class).warn("Could not discard stale cache image " + imageFile) ;
+				
+				if (conf.getSnapshotDirectory() != null) {
+					File snapshotFile = getSnapshotFile(conf.getSnapshotDirectory(), db) ;
+					
+					if (snapshotFile.exists())
+						db.exportSnapshot(snapshotFile, null) ;
+				}
+			}
+		} finally {
+			env.close() ;
+		}
+	}
+	
+	private static TIntHashSet getRemovedIds(File previousDataFile, File dataFile) throws IOException {
+		
+		CsvDelta delta = new CsvDelta(previousDataFile, dataFile) ;
+		
+		TIntHashSet removedIds = new TIntHashSet() ;
+		
+		BufferedReader input = CsvDelta.openCsvFile(previousDataFile) ;
+		try {
+			String line ;
+			while ((line=input.readLine()) != null) {
+				if (delta.isRemoved(line))
+					removedIds.add(CsvDelta.readIntKey(line)) ;
+			}
+		} finally {
+			input.close() ;
+		}
+		
+		return removedIds ;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static Future<Integer> submitCsvUpdate(ExecutorService updaters, WDatabase db, File previousDataDirectory, File dataDirectory, String fileName, ProgressTracker tracker) throws IOException {
+		return submitCsvUpdate(updaters, db, getDataFile(previousDataDirectory, fileName), getDataFile(dataDirectory, fileName), tracker) ;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static Future<Integer> submitCsvUpdate(ExecutorService updaters, final WDatabase db, final File previousDataFile, final File dataFile, final ProgressTracker tracker) {
+		
+		return updaters.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				return db.updateFromCsvFiles(previousDataFile, dataFile, tracker.createSubTracker()) ;
+			}
+		}) ;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static Future<?> submitCsvLoad(ExecutorService loaders, final WDatabase db, final File dataFile, final boolean overwrite, final ProgressTracker tracker) {
+		
+		return loaders.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				db.loadFromCsvFile(dataFile, overwrite, tracker.createSubTracker()) ;
+				return null ;
+			}
+		}) ;
+	}
+	
+	private static <T> T waitForLoad(Future<T> load) throws IOException, XMLStreamException {
+		
+		try {
+			return load.get() ;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while building environment") ;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			
+			if (cause instanceof IOException)
+				throw (IOException)cause ;
+			if (cause instanceof XMLStreamException)
+				throw (XMLStreamException)cause ;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause ;
+			if (cause instanceof Error)
+				throw (Error)cause ;
+			
+			throw new IOException("Could not build environment: " + cause) ;
+		}
+	}
+	
+	/**
+	 * Writes an immutable, memory-mappable {@link SnapshotFile} for every database in the environment described by the given configuration 
+	 * (including the label database for the default text processor, if one has been prepared). 
+	 * 
+	 * If the configuration specifies a {@link WikipediaConfiguration#getSnapshotDirectory() snapshot directory}, then any environments 
+	 * subsequently created with it will serve lookups from these snapshots rather than from Berkeley DB.
+	 * 
+	 * @param conf a configuration specifying where the databases are stored
+	 * @param snapshotDirectory the directory to write snapshots to
+	 * @param overwrite true if existing snapshots should be overwritten, otherwise false
+	 * @throws IOException if the snapshots cannot be written
+	 */
+	@SuppressWarnings("unchecked")
+	public static void exportSnapshots(WikipediaConfiguration conf, File snapshotDirectory, boolean overwrite) throws IOException {
+		
+		if (!snapshotDirectory.exists())
+			snapshotDirectory.mkdirs() ;
+		
+		WEnvironment env = new WEnvironment(conf, getReadOnlyConfig()) ;
+		
+		ArrayList<WDatabase> dbs = new ArrayList<WDatabase>(env.databasesByType.values()) ;
+		
+		TextProcessor tp = conf.getDefaultTextProcessor() ;
+		if (tp != null && env.isPreparedFor(tp))
+			dbs.add(env.getDbLabel(tp)) ;
+		
+		ProgressTracker tracker = new ProgressTracker(dbs.size(), WEnvironment.class) ;
+		
+		for (WDatabase db:dbs) {
+			
+			File snapshotFile = getSnapshotFile(snapshotDirectory, db) ;
+			
+			if (!db.exists() || (snapshotFile.exists() && !overwrite)) {
+				tracker.startTask(1, "Skipping snapshot of " + db.getName()) ;
+				continue ;
+			}
+			
+			db.exportSnapshot(snapshotFile, tracker) ;
+		}
+		
+		env.close() ;
+	}
+	
+	/**
+	 * Splits every database in the environment described by the given configuration (including the label database for the default 
+	 * text processor, if one has been prepared) into the given number of shards, so that they can be served by separate {@link ShardServer}s 
+	 * and read by environments whose configuration lists those servers (see {@link WikipediaConfiguration#getShards()}). 
+	 * 
+	 * Int-keyed databases are partitioned by page id, and the rest by a hash of their keys. Each shard is written to its own 
+	 * directory (see {@link ShardServer#getShardDirectory(File, int)}), as a memory-mappable {@link SnapshotFile} for each database. 
+	 * 
+	 * @param conf a configuration specifying where the databases are stored
+	 * @param shardsDirectory the directory to write shards to
+	 * @param shardCount the number of shards to split each database into
+	 * @param overwrite true if existing shards should be overwritten, otherwise false
+	 * @throws IOException if the shards cannot be written
+	 */
+	@SuppressWarnings("unchecked")
+	public static void exportShards(WikipediaConfiguration conf, File shardsDirectory, int shardCount, boolean overwrite) throws IOException {
+		
+		if (shardCount < 1)
+			throw new IllegalArgumentException("there must be at least one shard") ;
+		
+		for (int s=0 ; s<shardCount ; s++) 
+			ShardServer.getShardDirectory(shardsDirectory, s).mkdirs() ;
+		
+		WEnvironment env = new WEnvironment(conf, getReadOnlyConfig()) ;
+		
+		ArrayList<WDatabase> dbs = new ArrayList<WDatabase>(env.databasesByType.values()) ;
+		
+		TextProcessor tp = conf.getDefaultTextProcessor() ;
+		if (tp != null && env.isPreparedFor(tp))
+			dbs.add(env.getDbLabel(tp)) ;
+		
+		ProgressTracker tracker = new ProgressTracker(dbs.size(), WEnvironment.class) ;
+		
+		for (WDatabase db:dbs) {
+			
+			File[] shardFiles = new File[shardCount] ;
+			for (int s=0 ; s<shardCount ; s++)
+				shardFiles[s] = getSnapshotFile(ShardServer.getShardDirectory(shardsDirectory, s), db) ;
+			
+			if (!db.exists() || (shardFiles[0].exists() && !overwrite)) {
+				tracker.startTask(1, "Skipping shards of " + db.getName()) ;
+				continue ;
+			}
+			
+			db.exportShards(shardFiles, tracker) ;
+		}
+		
+		env.close() ;
+	}
+	
+	/**
+	 * Loads the {@link DatabaseType#relatedArticles} database from the given file, into an environment that has already been built. 
+	 * 
+	 * @see org.wikipedia.miner.util.RelatedArticlesBuilder
+	 * 
+	 * @param conf a configuration specifying where the databases are stored
+	 * @param dataFile a csv file of related articles, as produced by {@link org.wikipedia.miner.util.RelatedArticlesBuilder}
+	 * @param overwrite true if any existing related articles database should be overwritten, otherwise false
+	 * @throws IOException if the data file cannot be read
+	 */
+	public static void loadRelatedArticles(WikipediaConfiguration conf, File dataFile, boolean overwrite) throws IOException {
+		
+		WEnvironment env = new WEnvironment(conf) ;
+		
+		env.dbRelatedArticles.loadFromCsvFile(dataFile, overwrite, null) ;
+		
+		env.cleanAndCheckpoint() ;
+		env.close();
 	}
 	
 	/**
@@ -754,16 +1993,16 @@ public class WEnvironment  {
 	 * 
 	 * Note: you can use as many different text processors as you like
 	 * 
-	 * @see LabelDatabase#prepare(File, int)
+	 * @see LabelDatabase#prepare(File, int, long)
 	 * 
 	 * @param tp a text processor
-	 * @param conf a configuration specifying where the databases are to be stored, etc.
+	 * @param conf a configuration specifying where the databases are to be stored, the number of threads to prepare them with, etc.
 	 * @param tempDirectory a directory for writing temporary files
 	 * @param overwrite true if the preparation should occur even if the environment has been prepared for this processor already
-	 * @param passes the number of the number of passes to break the task into (more = slower, but less memory required)
+	 * @param memoryBudget the approximate number of bytes of labels to sort in memory before writing them to a temporary file (less = slower, but less memory required)
 	 * @throws IOException if the temporary directory is not writable
 	 */
-	public static void prepareTextProcessor(TextProcessor tp, WikipediaConfiguration conf, File tempDirectory, boolean overwrite, int passes) throws IOException {
+	public static void prepareTextProcessor(TextProcessor tp, WikipediaConfiguration conf, File tempDirectory, boolean overwrite, long memoryBudget) throws IOException {
 		
 		if (tp == null)
 			return ;
@@ -774,16 +2013,62 @@ public class WEnvironment  {
 			return ;
 		
 		LabelDatabase db = env.getDbLabel(tp) ;
-		db.prepare(tempDirectory, passes) ;
+		db.prepare(tempDirectory, conf.getPreparationThreads(), memoryBudget) ;
 		
 		env.cleanAndCheckpoint() ;
 		env.close();
 	}
 	
+	/**
+	 * Prepares the environment, so it can be searched efficiently for labels using the given text processor, with the default memory budget.
+	 * 
+	 * @param tp a text processor
+	 * @param conf a configuration specifying where the databases are to be stored, the number of threads to prepare them with, etc.
+	 * @param tempDirectory a directory for writing temporary files
+	 * @param overwrite true if the preparation should occur even if the environment has been prepared for this processor already
+	 * @param passes ignored; labels are now sorted in runs that fit a memory budget rather than in a fixed number of passes
+	 * @throws IOException if the temporary directory is not writable
+	 * @deprecated use {@link #prepareTextProcessor(TextProcessor, WikipediaConfiguration, File, boolean, long)}, 
+	 * with {@link LabelDatabase#getDefaultMemoryBudget()} or a budget of your own
+	 */
+	@Deprecated
+	public static void prepareTextProcessor(TextProcessor tp, WikipediaConfiguration conf, File tempDirectory, boolean overwrite, int passes) throws IOException {
+		prepareTextProcessor(tp, conf, tempDirectory, overwrite, LabelDatabase.getDefaultMemoryBudget()) ;
+	}
+	
 	protected Environment getEnvironment() {
 		return env ;
 	}
 	
+	/**
+	 * @return an executor for parsing records in parallel while databases are being loaded, or null if they should be parsed by the loading thread
+	 */
+	protected ExecutorService getLoadingExecutor() {
+		return loadingExecutor ;
+	}
+	
+	/**
+	 * @return an executor for the batches of asynchronous retrievals made by {@link WDatabase#retrieveAsync(Object)}, which is started the first time it is needed
+	 */
+	protected synchronized ExecutorService getRetrievalExecutor() {
+		
+		if (retrievalsClosed)
+			throw new RejectedExecutionException("Environment has been closed") ;
+		
+		if (retrievalExecutor == null) {
+			retrievalExecutor = Executors.newFixedThreadPool(Math.max(1, conf.getRetrievalThreads()), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					//these only ever wait on databases, so they should never keep the application alive
+					Thread t = new Thread(r, "retrieval") ;
+					t.setDaemon(true) ;
+					return t ;
+				}
+			}) ;
+		}
+		
+		return retrievalExecutor ;
+	}
+	
 	
 	private static File getDataFile(File dataDirectory, String fileName) throws IOException {
 		
@@ -33,6 +33,9 @@ public class WIterator<K,V> implements Iterator<WEntry<K,V>> {
 	
 	DatabaseEntry key = new DatabaseEntry() ;
 	DatabaseEntry value = new DatabaseEntry() ;
+	
+	byte[] startKey ;
+	byte[] endKey ;
 
 	/**
 	 * Creates an iterator that will cycle through all entries the given WDatabase.
@@ -40,8 +43,22 @@ public class WIterator<K,V> implements Iterator<WEntry<K,V>> {
 	 * @param database an active (connected) WDatabase.
 	 */
 	public WIterator(WDatabase<K,V> database) {
+		this(database, null, null) ;
+	}
+	
+	/**
+	 * Creates an iterator that will cycle through the entries of the given WDatabase whose keys fall within the given range.
+	 * 
+	 * @param database an active (connected) WDatabase.
+	 * @param startKey the first key to include, exactly as stored, or null to start from the first entry
+	 * @param endKey the first key to exclude, exactly as stored, or null to continue to the last entry
+	 */
+	WIterator(WDatabase<K,V> database, byte[] startKey, byte[] endKey) {
 		
 		this.db = database ;
+		this.startKey = startKey ;
+		this.endKey = endKey ;
+		
 		cursor = db.getDatabase(true).openCursor(null, null) ;
 		cursor.setCacheMode(CacheMode.UNCHANGED) ;
 
@@ -88,14 +105,25 @@ public class WIterator<K,V> implements Iterator<WEntry<K,V>> {
 	
 	private void queueNext()  {
 		
-		if (cursor.getNext(key, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+		nextEntry = null ;
+		
+		//some databases store entries that are not values of their own (see WDatabase#toIteratedEntry), which are skipped
+		while (nextEntry == null) {
+			
+			OperationStatus status ;
+			if (startKey != null) {
+				//the cursor is only positioned at the start of the range once
+				key.setData(startKey) ;
+				status = cursor.getSearchKeyRange(key, value, LockMode.DEFAULT) ;
+				startKey = null ;
+			} else {
+				status = cursor.getNext(key, value, LockMode.DEFAULT) ;
+			}
 			
-			K k = db.keyBinding.entryToObject(key) ;
-			V v = db.valueBinding.entryToObject(value) ;
+			if (status != OperationStatus.SUCCESS || (endKey != null && WDatabase.compareKeys(key.getData(), key.getOffset(), key.getSize(), endKey) >= 0)) 
+				return ;
 			
-			nextEntry = new WEntry<K,V>(k,v) ;
-		} else {
-			nextEntry = null ;
+			nextEntry = db.toIteratedEntry(key, value) ;
 		}
 	}
 }
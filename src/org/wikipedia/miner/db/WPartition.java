@@ -0,0 +1,42 @@
+package org.wikipedia.miner.db;
+
+/**
+ * A contiguous range of keys within a WDatabase, as returned by {@link WDatabase#getPartitions(int)}.
+ *
+ * Each partition is iterated by its own cursor, so the partitions of a database can be iterated by separate threads at the same time.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public class WPartition<K,V> {
+
+	private WDatabase<K,V> db ;
+
+	private byte[] startKey ;
+	private byte[] endKey ;
+
+	/**
+	 * @param db the database to iterate
+	 * @param startKey the first key of this partition, exactly as stored (inclusive), or null to start at the first key of the database
+	 * @param endKey the first key after this partition, exactly as stored (exclusive), or null to continue to the last key of the database
+	 */
+	WPartition(WDatabase<K,V> db, byte[] startKey, byte[] endKey) {
+		this.db = db ;
+		this.startKey = startKey ;
+		this.endKey = endKey ;
+	}
+
+	/**
+	 * @return the database this is a partition of
+	 */
+	public WDatabase<K,V> getDatabase() {
+		return db ;
+	}
+
+	/**
+	 * @return an iterator for the entries in this partition, in ascending key order. This should be closed once it is finished with.
+	 */
+	public WIterator<K,V> getIterator() {
+		return new WIterator<K,V>(db, startKey, endKey) ;
+	}
+}
@@ -0,0 +1,214 @@
+// File generated by hadoop record compiler. Do not edit.
+package org.wikipedia.miner.db.struct;
+
+public class DbRelatedArticle extends org.apache.hadoop.record.Record {
+  private static final org.apache.hadoop.record.meta.RecordTypeInfo _rio_recTypeInfo;
+  private static org.apache.hadoop.record.meta.RecordTypeInfo _rio_rtiFilter;
+  private static int[] _rio_rtiFilterFields;
+  static {
+    _rio_recTypeInfo = new org.apache.hadoop.record.meta.RecordTypeInfo("DbRelatedArticle");
+    _rio_recTypeInfo.addField("Id", org.apache.hadoop.record.meta.TypeID.IntTypeID);
+    _rio_recTypeInfo.addField("Relatedness", org.apache.hadoop.record.meta.TypeID.DoubleTypeID);
+  }
+  
+  private int Id;
+  private double Relatedness;
+  public DbRelatedArticle() { }
+  public DbRelatedArticle(
+    final int Id,
+    final double Relatedness) {
+    this.Id = Id;
+    this.Relatedness = Relatedness;
+  }
+  public static org.apache.hadoop.record.meta.RecordTypeInfo getTypeInfo() {
+    return _rio_recTypeInfo;
+  }
+  public static void setTypeFilter(org.apache.hadoop.record.meta.RecordTypeInfo rti) {
+    if (null == rti) return;
+    _rio_rtiFilter = rti;
+    _rio_rtiFilterFields = null;
+  }
+  private static void setupRtiFields()
+  {
+    if (null == _rio_rtiFilter) return;
+    // we may already have done this
+    if (null != _rio_rtiFilterFields) return;
+    int _rio_i, _rio_j;
+    _rio_rtiFilterFields = new int [_rio_rtiFilter.getFieldTypeInfos().size()];
+    for (_rio_i=0; _rio_i<_rio_rtiFilterFields.length; _rio_i++) {
+      _rio_rtiFilterFields[_rio_i] = 0;
+    }
+    java.util.Iterator<org.apache.hadoop.record.meta.FieldTypeInfo> _rio_itFilter = _rio_rtiFilter.getFieldTypeInfos().iterator();
+    _rio_i=0;
+    while (_rio_itFilter.hasNext()) {
+      org.apache.hadoop.record.meta.FieldTypeInfo _rio_tInfoFilter = _rio_itFilter.next();
+      java.util.Iterator<org.apache.hadoop.record.meta.FieldTypeInfo> _rio_it = _rio_recTypeInfo.getFieldTypeInfos().iterator();
+      _rio_j=1;
+      while (_rio_it.hasNext()) {
+        org.apache.hadoop.record.meta.FieldTypeInfo _rio_tInfo = _rio_it.next();
+        if (_rio_tInfo.equals(_rio_tInfoFilter)) {
+          _rio_rtiFilterFields[_rio_i] = _rio_j;
+          break;
+        }
+        _rio_j++;
+      }
+      _rio_i++;
+    }
+  }
+  public int getId() {
+    return Id;
+  }
+  public void setId(final int Id) {
+    this.Id=Id;
+  }
+  public double getRelatedness() {
+    return Relatedness;
+  }
+  public void setRelatedness(final double Relatedness) {
+    this.Relatedness=Relatedness;
+  }
+  public void serialize(final org.apache.hadoop.record.RecordOutput _rio_a, final String _rio_tag)
+  throws java.io.IOException {
+    _rio_a.startRecord(this,_rio_tag);
+    _rio_a.writeInt(Id,"Id");
+    _rio_a.writeDouble(Relatedness,"Relatedness");
+    _rio_a.endRecord(this,_rio_tag);
+  }
+  private void deserializeWithoutFilter(final org.apache.hadoop.record.RecordInput _rio_a, final String _rio_tag)
+  throws java.io.IOException {
+    _rio_a.startRecord(_rio_tag);
+    Id=_rio_a.readInt("Id");
+    Relatedness=_rio_a.readDouble("Relatedness");
+    _rio_a.endRecord(_rio_tag);
+  }
+  public void deserialize(final org.apache.hadoop.record.RecordInput _rio_a, final String _rio_tag)
+  throws java.io.IOException {
+    if (null == _rio_rtiFilter) {
+      deserializeWithoutFilter(_rio_a, _rio_tag);
+      return;
+    }
+    // if we're here, we need to read based on version info
+    _rio_a.startRecord(_rio_tag);
+    setupRtiFields();
+    for (int _rio_i=0; _rio_i<_rio_rtiFilter.getFieldTypeInfos().size(); _rio_i++) {
+      if (1 == _rio_rtiFilterFields[_rio_i]) {
+        Id=_rio_a.readInt("Id");
+      }
+      else if (2 == _rio_rtiFilterFields[_rio_i]) {
+        Relatedness=_rio_a.readDouble("Relatedness");
+      }
+      else {
+        java.util.ArrayList<org.apache.hadoop.record.meta.FieldTypeInfo> typeInfos = (java.util.ArrayList<org.apache.hadoop.record.meta.FieldTypeInfo>)(_rio_rtiFilter.getFieldTypeInfos());
+        org.apache.hadoop.record.meta.Utils.skip(_rio_a, typeInfos.get(_rio_i).getFieldID(), typeInfos.get(_rio_i).getTypeID());
+      }
+    }
+    _rio_a.endRecord(_rio_tag);
+  }
+  public int compareTo (final Object _rio_peer_) throws ClassCastException {
+    if (!(_rio_peer_ instanceof DbRelatedArticle)) {
+      throw new ClassCastException("Comparing different types of records.");
+    }
+    DbRelatedArticle _rio_peer = (DbRelatedArticle) _rio_peer_;
+    int _rio_ret = 0;
+    _rio_ret = (Id == _rio_peer.Id)? 0 :((Id<_rio_peer.Id)?-1:1);
+    if (_rio_ret != 0) return _rio_ret;
+    _rio_ret = (Relatedness == _rio_peer.Relatedness)? 0 :((Relatedness<_rio_peer.Relatedness)?-1:1);
+    if (_rio_ret != 0) return _rio_ret;
+    return _rio_ret;
+  }
+  public boolean equals(final Object _rio_peer_) {
+    if (!(_rio_peer_ instanceof DbRelatedArticle)) {
+      return false;
+    }
+    if (_rio_peer_ == this) {
+      return true;
+    }
+    DbRelatedArticle _rio_peer = (DbRelatedArticle) _rio_peer_;
+    boolean _rio_ret = false;
+    _rio_ret = (Id==_rio_peer.Id);
+    if (!_rio_ret) return _rio_ret;
+    _rio_ret = (Relatedness==_rio_peer.Relatedness);
+    if (!_rio_ret) return _rio_ret;
+    return _rio_ret;
+  }
+  public Object clone() throws CloneNotSupportedException {
+    DbRelatedArticle _rio_other = new DbRelatedArticle();
+    _rio_other.Id = this.Id;
+    _rio_other.Relatedness = this.Relatedness;
+    return _rio_other;
+  }
+  public int hashCode() {
+    int _rio_result = 17;
+    int _rio_ret;
+    _rio_ret = (int)Id;
+    _rio_result = 37*_rio_result + _rio_ret;
+    _rio_ret = (int)(Double.doubleToLongBits(Relatedness)^(Double.doubleToLongBits(Relatedness)>>>32));
+    _rio_result = 37*_rio_result + _rio_ret;
+    return _rio_result;
+  }
+  public static String signature() {
+    return "LDbRelatedArticle(id)";
+  }
+  public static class Comparator extends org.apache.hadoop.record.RecordComparator {
+    public Comparator() {
+      super(DbRelatedArticle.class);
+    }
+    static public int slurpRaw(byte[] b, int s, int l) {
+      try {
+        int os = s;
+        {
+          int i = org.apache.hadoop.record.Utils.readVInt(b, s);
+          int z = org.apache.hadoop.record.Utils.getVIntSize(i);
+          s+=z; l-=z;
+        }
+        {
+          if (l<8) {
+            throw new java.io.IOException("Double is exactly 8 bytes. Provided buffer is smaller.");
+          }
+          s+=8; l-=8;
+        }
+        return (os - s);
+      } catch(java.io.IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    static public int compareRaw(byte[] b1, int s1, int l1,
+                                   byte[] b2, int s2, int l2) {
+      try {
+        int os1 = s1;
+        {
+          int i1 = org.apache.hadoop.record.Utils.readVInt(b1, s1);
+          int i2 = org.apache.hadoop.record.Utils.readVInt(b2, s2);
+          if (i1 != i2) {
+            return ((i1-i2) < 0) ? -1 : 0;
+          }
+          int z1 = org.apache.hadoop.record.Utils.getVIntSize(i1);
+          int z2 = org.apache.hadoop.record.Utils.getVIntSize(i2);
+          s1+=z1; s2+=z2; l1-=z1; l2-=z2;
+        }
+        {
+          if (l1<8 || l2<8) {
+            throw new java.io.IOException("Double is exactly 8 bytes. Provided buffer is smaller.");
+          }
+          double d1 = org.apache.hadoop.record.Utils.readDouble(b1, s1);
+          double d2 = org.apache.hadoop.record.Utils.readDouble(b2, s2);
+          if (d1 != d2) {
+            return ((d1-d2) < 0) ? -1 : 0;
+          }
+          s1+=8; s2+=8; l1-=8; l2-=8;
+        }
+        return (os1 - s1);
+      } catch(java.io.IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    public int compare(byte[] b1, int s1, int l1,
+                         byte[] b2, int s2, int l2) {
+      int ret = compareRaw(b1,s1,l1,b2,s2,l2);
+      return (ret == -1)? -1 : ((ret==0)? 1 : 0);}
+  }
+  
+  static {
+    org.apache.hadoop.record.RecordComparator.define(DbRelatedArticle.class, new Comparator());
+  }
+}
@@ -20,7 +20,16 @@
 package org.wikipedia.miner.model;
 
 import java.util.* ; 
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.wikipedia.miner.db.LinkGraph;
+import org.wikipedia.miner.db.WDatabase;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.db.struct.DbIntList;
 import org.wikipedia.miner.db.struct.DbLabelForPage;
@@ -29,6 +38,8 @@ import org.wikipedia.miner.db.struct.DbLinkLocation;
 import org.wikipedia.miner.db.struct.DbLinkLocationList;
 import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.db.struct.DbPageLinkCounts;
+import org.wikipedia.miner.db.struct.DbRelatedArticle;
+import org.wikipedia.miner.db.struct.DbRelatedArticleList;
 import org.wikipedia.miner.db.struct.DbTranslations;
 
 /**
@@ -125,6 +136,34 @@ public class Article extends Page {
 		return equivalentCategory ;
 	}*/
 
+	/**
+	 * Returns the articles that are most related to this one, as precomputed by {@link org.wikipedia.miner.util.RelatedArticlesBuilder}.
+	 * The {@link #getWeight() weight} of each returned article is its relatedness to this one.
+	 * 
+	 * @param k the maximum number of related articles to return
+	 * @return an array of at most k related Articles, sorted by descending relatedness. This will be empty if related articles have not been precomputed.
+	 */
+	public Article[] getMostRelated(int k) {
+		
+		if (!env.hasRelatedArticles())
+			return new Article[0] ;
+		
+		DbRelatedArticleList tmpRelated = env.getDbRelatedArticles().retrieve(id) ;
+		if (tmpRelated == null || tmpRelated.getRelatedArticles() == null) 
+			return new Article[0] ;
+		
+		Article[] related = new Article[Math.min(k, tmpRelated.getRelatedArticles().size())] ;
+		
+		for (int i=0 ; i<related.length ; i++) {
+			DbRelatedArticle ra = tmpRelated.getRelatedArticles().get(i) ;
+			
+			related[i] = new Article(env, ra.getId()) ;
+			related[i].setWeight(ra.getRelatedness()) ;
+		}
+		
+		return related ;
+	}
+
 	/**
 	 * Returns an array of {@link Article Articles} that link to this article. These 
 	 * are defined by the internal hyperlinks within article text. If these hyperlinks came via 
@@ -134,37 +173,48 @@ public class Article extends Page {
 	 */
 	public Article[] getLinksIn() {
 
-		if (env.getDbPageLinkIn().isCached() && !env.getDbPageLinkInNoSentences().isCached()) {
-			
-			DbLinkLocationList tmpLinks = env.getDbPageLinkIn().retrieve(id) ;
-			if (tmpLinks == null || tmpLinks.getLinkLocations() == null) 
-				return new Article[0] ;
-	
-			Article[] links = new Article[tmpLinks.getLinkLocations().size()] ;
-	
-			int index = 0 ;
-			for (DbLinkLocation ll:tmpLinks.getLinkLocations()) {
-				links[index] = new Article(env, ll.getLinkId()) ;
-				index++ ;
-			}
-	
-			return links ;	
-		} else {
-			
-			DbIntList tmpLinks = env.getDbPageLinkInNoSentences().retrieve(id) ;
-			if (tmpLinks == null || tmpLinks.getValues() == null) 
-				return new Article[0] ;
-	
-			Article[] links = new Article[tmpLinks.getValues().size()] ;
-	
-			int index = 0 ;
-			for (Integer linkId:tmpLinks.getValues()) {
-				links[index] = new Article(env, linkId) ;
-				index++ ;
-			}
-			
+		LinkGraph graph = env.getLinkGraph(DatabaseType.pageLinksIn) ;
+		if (graph != null) 
+			return toArticles(graph.getNeighbours(id)) ;
+		
+		if ((env.getDbPageLinkIn().isCached() || env.getDbPageLinkIn().getBoundedCache() != null) && !env.getDbPageLinkInNoSentences().isCached()) 
+			return toArticles(env.getDbPageLinkIn().retrieve(id)) ;
+		else 
+			return toArticles(env.getDbPageLinkInNoSentences().retrieve(id)) ;
+	}
+
+	/**
+	 * Starts gathering the {@link Article Articles} that link to this article, without waiting for them. 
+	 * This allows the links of several articles to be looked up at the same time (see {@link WDatabase#retrieveAsync(Object)}).
+	 * 
+	 * @return	the array of Articles that link to this article, sorted by id, once it is available
+	 * @see #getLinksIn()
+	 */
+	public Future<Article[]> getLinksInAsync() {
+
+		if (env.getLinkGraph(DatabaseType.pageLinksIn) != null) {
+			FutureTask<Article[]> links = new FutureTask<Article[]>(new Callable<Article[]>() {
+				public Article[] call() {
+					return getLinksIn() ;
+				}
+			}) ;
+			links.run() ;
 			return links ;
 		}
+
+		if ((env.getDbPageLinkIn().isCached() || env.getDbPageLinkIn().getBoundedCache() != null) && !env.getDbPageLinkInNoSentences().isCached()) {
+			return new LinksFuture<DbLinkLocationList>(env.getDbPageLinkIn().retrieveAsync(id)) {
+				protected Article[] toLinks(DbLinkLocationList tmpLinks) {
+					return toArticles(tmpLinks) ;
+				}
+			} ;
+		} else {
+			return new LinksFuture<DbIntList>(env.getDbPageLinkInNoSentences().retrieveAsync(id)) {
+				protected Article[] toLinks(DbIntList tmpLinks) {
+					return toArticles(tmpLinks) ;
+				}
+			} ;
+		}
 	}
 
 	/**
@@ -176,34 +226,127 @@ public class Article extends Page {
 	 */
 	public Article[] getLinksOut()  {
 
-		if (env.getDbPageLinkOut().isCached() && !env.getDbPageLinkOutNoSentences().isCached()) {
-			
-			DbLinkLocationList tmpLinks = env.getDbPageLinkOut().retrieve(id) ;
-			if (tmpLinks == null || tmpLinks.getLinkLocations() == null) 
-				return new Article[0] ;
-	
-			Article[] links = new Article[tmpLinks.getLinkLocations().size()] ;
-	
-			int index = 0 ;
-			for (DbLinkLocation ll:tmpLinks.getLinkLocations()) {
-				links[index] = new Article(env, ll.getLinkId()) ;
-				index++ ;
-			}
-	
-			return links ;	
+		LinkGraph graph = env.getLinkGraph(DatabaseType.pageLinksOut) ;
+		if (graph != null) 
+			return toArticles(graph.getNeighbours(id)) ;
+		
+		if ((env.getDbPageLinkOut().isCached() || env.getDbPageLinkOut().getBoundedCache() != null) && !env.getDbPageLinkOutNoSentences().isCached()) 
+			return toArticles(env.getDbPageLinkOut().retrieve(id)) ;
+		else 
+			return toArticles(env.getDbPageLinkOutNoSentences().retrieve(id)) ;
+	}
+
+	/**
+	 * Starts gathering the {@link Article}s that this article links to, without waiting for them. 
+	 * This allows the links of several articles to be looked up at the same time (see {@link WDatabase#retrieveAsync(Object)}).
+	 * 
+	 * @return	an array of Articles that this article links to, sorted by id, once it is available
+	 * @see #getLinksOut()
+	 */
+	public Future<Article[]> getLinksOutAsync() {
+
+		if (env.getLinkGraph(DatabaseType.pageLinksOut) != null) {
+			FutureTask<Article[]> links = new FutureTask<Article[]>(new Callable<Article[]>() {
+				public Article[] call() {
+					return getLinksOut() ;
+				}
+			}) ;
+			links.run() ;
+			return links ;
+		}
+
+		if ((env.getDbPageLinkOut().isCached() || env.getDbPageLinkOut().getBoundedCache() != null) && !env.getDbPageLinkOutNoSentences().isCached()) {
+			return new LinksFuture<DbLinkLocationList>(env.getDbPageLinkOut().retrieveAsync(id)) {
+				protected Article[] toLinks(DbLinkLocationList tmpLinks) {
+					return toArticles(tmpLinks) ;
+				}
+			} ;
 		} else {
+			return new LinksFuture<DbIntList>(env.getDbPageLinkOutNoSentences().retrieveAsync(id)) {
+				protected Article[] toLinks(DbIntList tmpLinks) {
+					return toArticles(tmpLinks) ;
+				}
+			} ;
+		}
+	}
+
+	private Article[] toArticles(int[] linkIds) {
+
+		Article[] links = new Article[linkIds.length] ;
+		for (int i=0 ; i<linkIds.length ; i++) 
+			links[i] = new Article(env, linkIds[i]) ;
+		
+		return links ;
+	}
+
+	private Article[] toArticles(DbLinkLocationList tmpLinks) {
+
+		if (tmpLinks == null || tmpLinks.getLinkLocations() == null) 
+			return new Article[0] ;
+
+		Article[] links = new Article[tmpLinks.getLinkLocations().size()] ;
+
+		int index = 0 ;
+		for (DbLinkLocation ll:tmpLinks.getLinkLocations()) {
+			links[index] = new Article(env, ll.getLinkId()) ;
+			index++ ;
+		}
+
+		return links ;
+	}
+
+	private Article[] toArticles(DbIntList tmpLinks) {
+
+		if (tmpLinks == null || tmpLinks.getValues() == null) 
+			return new Article[0] ;
+
+		Article[] links = new Article[tmpLinks.getValues().size()] ;
+
+		int index = 0 ;
+		for (Integer linkId:tmpLinks.getValues()) {
+			links[index] = new Article(env, linkId) ;
+			index++ ;
+		}
+		
+		return links ;
+	}
+
+	/**
+	 * Turns the record of a pending retrieval into links, once it arrives. The links are only built once, however often they are asked for.
+	 */
+	private abstract static class LinksFuture<S> implements Future<Article[]> {
+
+		private Future<S> retrieval ;
+		private Article[] links ;
+
+		LinksFuture(Future<S> retrieval) {
+			this.retrieval = retrieval ;
+		}
+
+		protected abstract Article[] toLinks(S record) ;
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return retrieval.cancel(mayInterruptIfRunning) ;
+		}
+
+		public boolean isCancelled() {
+			return retrieval.isCancelled() ;
+		}
+
+		public boolean isDone() {
+			return retrieval.isDone() ;
+		}
+
+		public synchronized Article[] get() throws InterruptedException, ExecutionException {
+			if (links == null)
+				links = toLinks(retrieval.get()) ;
 			
-			DbIntList tmpLinks = env.getDbPageLinkOutNoSentences().retrieve(id) ;
-			if (tmpLinks == null || tmpLinks.getValues() == null) 
-				return new Article[0] ;
-	
-			Article[] links = new Article[tmpLinks.getValues().size()] ;
-	
-			int index = 0 ;
-			for (Integer linkId:tmpLinks.getValues()) {
-				links[index] = new Article(env, linkId) ;
-				index++ ;
-			}
+			return links ;
+		}
+
+		public synchronized Article[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (links == null)
+				links = toLinks(retrieval.get(timeout, unit)) ;
 			
 			return links ;
 		}
@@ -20,6 +20,8 @@
 package org.wikipedia.miner.model;
 
 import java.util.Collections;
+import org.wikipedia.miner.db.IntListView;
+import org.wikipedia.miner.db.WDatabase;
 import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.db.struct.DbIntList;
 import org.wikipedia.miner.db.struct.DbPage;
@@ -95,7 +97,14 @@ public class Category extends Page {
 	 */
 	public boolean contains(Article article) {
 
-		DbIntList tmpChildCats = env.getDbChildArticles().retrieve(id) ;
+		WDatabase<Integer,DbIntList> db = env.getDbChildArticles() ;
+		
+		if (db.isViewable()) {
+			IntListView view = new IntListView() ;
+			return db.retrieveView(id, view) && view.contains(article.getId()) ;
+		}
+		
+		DbIntList tmpChildCats = db.retrieve(id) ;
 		if (tmpChildCats == null || tmpChildCats.getValues() == null) 
 			return false ;
 		
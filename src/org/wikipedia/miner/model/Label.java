@@ -1,6 +1,8 @@
 package org.wikipedia.miner.model;
 
 
+import org.wikipedia.miner.db.LabelDatabase;
+import org.wikipedia.miner.db.LabelView;
 import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.db.struct.DbLabel;
 import org.wikipedia.miner.db.struct.DbSenseForLabel;
@@ -167,6 +169,16 @@ public class Label {
 			this.fromTitle = s.getFromTitle() ;
 			this.fromRedirect = s.getFromRedirect() ;
 		}
+		
+		protected Sense(WEnvironment env,  LabelView view) {
+			
+			super(env, view.getSenseId()) ;
+
+			this.sLinkDocCount = view.getSenseLinkDocCount() ;
+			this.sLinkOccCount = view.getSenseLinkOccCount() ;
+			this.fromTitle = view.isSenseFromTitle() ;
+			this.fromRedirect = view.isSenseFromRedirect() ;
+		}
 
 		
 		//public ==================================================================
@@ -248,7 +260,20 @@ public class Label {
 	private void setDetails() {
 		
 		try {
-			DbLabel lbl = env.getDbLabel(textProcessor).retrieve(text) ;
+			LabelDatabase db = env.getDbLabel(textProcessor) ;
+			
+			//read straight from the cached bytes if we can, rather than building a DbLabel just to copy it
+			if (db.isViewable()) {
+				LabelView view = new LabelView() ;
+				
+				if (!db.retrieveView(text, view)) 
+					throw new Exception() ;
+				
+				setDetails(view) ;
+				return ;
+			}
+			
+			DbLabel lbl = db.retrieve(text) ;
 		
 			if (lbl == null) {
 				throw new Exception() ;
@@ -280,6 +305,24 @@ public class Label {
 	}	
 	
 	
+	private void setDetails(LabelView view) {
+		
+		this.linkDocCount = view.getLinkDocCount() ;
+		this.linkOccCount = view.getLinkOccCount() ;
+		this.textDocCount = view.getTextDocCount() ;
+		this.textOccCount = view.getTextOccCount() ;
+		
+		this.senses = new Sense[view.getSenseCount()] ;
+		
+		int i = 0 ;
+		while (view.nextSense()) {
+			this.senses[i] = new Sense(env, view) ;
+			i++ ;
+		}
+		
+		this.detailsSet = true ;
+	}
+	
 	public static Label createLabel(WEnvironment env, String text, DbLabel dbLabel, TextProcessor tp) {
 		Label l = new Label(env, text, tp) ;
 		l.setDetails(dbLabel) ;
@@ -1,6 +1,8 @@
 package org.wikipedia.miner.model;
 
-import org.wikipedia.miner.db.WEnvironment.StatisticName;
+import java.util.ArrayList;
+
+import org.wikipedia.miner.db.PageTable;
 import org.wikipedia.miner.db.struct.DbIntList;
 import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.db.WEnvironment;
@@ -56,6 +58,9 @@ public class Page implements Comparable<Page> {
 
 	protected WEnvironment env ;
 	protected boolean detailsSet ;
+	
+	//set when details are read from a page table, which only decodes titles when they are asked for
+	private boolean titlePending = false ;
 
 	//constructor =============================================================
 
@@ -182,6 +187,9 @@ public class Page implements Comparable<Page> {
 	 */
 	public String getTitle() {
 		if (!detailsSet) setDetails() ;
+		
+		if (titlePending) 
+			setTitle() ;
 
 		return title;
 	}
@@ -218,7 +226,7 @@ public class Page implements Comparable<Page> {
 			return null ;
 
 
-		int maxDepth = env.retrieveStatistic(StatisticName.maxCategoryDepth).intValue() ;
+		int maxDepth = env.getMaxCategoryDepth() ;
 
 		return 1-((float)d/maxDepth) ;
 	}
@@ -327,8 +335,12 @@ public class Page implements Comparable<Page> {
 	 * @return the instantiated page, which can be safely cast as appropriate
 	 */
 	public static Page createPage(WEnvironment env, int id)  {
+		
+		PageTable table = env.getDbPage().getPageTable() ;
+		if (table != null && table.contains(id)) 
+			return createPage(env, id, table) ;
 
-		DbPage pd = env.getDbPage().retrieve(id) ; 
+		DbPage pd = (table != null) ? null : env.getDbPage().retrieve(id) ; 
 
 		if (pd != null)
 			return createPage(env, id, pd) ;
@@ -377,9 +389,103 @@ public class Page implements Comparable<Page> {
 	}
 
 
+	private static Page createPage(WEnvironment env, int id, PageTable table) {
+		
+		Page p ;
+		
+		switch (table.getType(id)) {
+		case article:
+			p = new Article(env, id) ;
+			break ;
+		case redirect:
+			p = new Redirect(env, id) ;
+			break ;
+		case disambiguation:
+			p = new Disambiguation(env, id) ;
+			break ;
+		case category:
+			p = new Category(env, id) ;
+			break ;
+		case template:
+			p = new Template(env, id) ;
+			break ;
+		default:
+			p = new Page(env, id) ;
+		}
+		
+		p.setDetails(table) ;
+		return p ;
+	}
+
+
+	/**
+	 * Retrieves details (title, type, etc) for all of the given pages at once. This is much faster than letting each page 
+	 * retrieve its own details when they are first needed, if the page database has not been cached. 
+	 * 
+	 * @param pages the pages whose details will be needed
+	 */
+	public static void loadDetails(Page[] pages) {
+		loadDetails(pages, 0, pages.length) ;
+	}
+	
+	/**
+	 * Retrieves details (title, type, etc) for a range of the given pages at once. This is much faster than letting each page 
+	 * retrieve its own details when they are first needed, if the page database has not been cached. 
+	 * 
+	 * @param pages the pages whose details will be needed
+	 * @param start the index of the first page in the range
+	 * @param end the index after the last page in the range
+	 */
+	public static void loadDetails(Page[] pages, int start, int end) {
+		
+		end = Math.min(end, pages.length) ;
+		
+		ArrayList<Page> pending = new ArrayList<Page>() ;
+		ArrayList<Integer> ids = new ArrayList<Integer>() ;
+		
+		for (int i=start ; i<end ; i++) {
+			if (!pages[i].detailsSet) {
+				pending.add(pages[i]) ;
+				ids.add(pages[i].id) ;
+			}
+		}
+		
+		if (pending.isEmpty())
+			return ;
+		
+		//nothing is gained by batching lookups that never touch the disk
+		PageTable table = pending.get(0).env.getDbPage().getPageTable() ;
+		if (table != null) {
+			for (Page p:pending) 
+				p.setDetails(table) ;
+			return ;
+		}
+		
+		ArrayList<DbPage> details = pending.get(0).env.getDbPage().retrieveAll(ids) ;
+		
+		for (int i=0 ; i<pending.size() ; i++) {
+			Page p = pending.get(i) ;
+			DbPage pd = details.get(i) ;
+			
+			if (pd == null) {
+				p.title = null ;
+				p.type = PageType.invalid ;
+			} else {
+				p.setDetails(pd) ;
+			}
+		}
+	}
+
+
 	//protected and private ====================================================
 
 	private void setDetails()  {
+		
+		PageTable table = env.getDbPage().getPageTable() ;
+		if (table != null) {
+			setDetails(table) ;
+			return ;
+		}
 
 		try {
 			DbPage pd = env.getDbPage().retrieve(id) ;
@@ -395,6 +501,38 @@ public class Page implements Comparable<Page> {
 		}
 	}
 
+	private void setDetails(PageTable table) {
+		
+		if (!table.contains(id)) {
+			title = null ;
+			type = PageType.invalid ;
+			return ;
+		}
+		
+		type = table.getType(id) ;
+		depth = table.getDepth(id) ;
+		
+		title = null ;
+		titlePending = true ;
+		
+		detailsSet = true ;
+	}
+	
+	private void setTitle() {
+		
+		titlePending = false ;
+		
+		PageTable table = env.getDbPage().getPageTable() ;
+		if (table != null) {
+			title = table.getTitle(id) ;
+			return ;
+		}
+		
+		DbPage pd = env.getDbPage().retrieve(id) ;
+		if (pd != null)
+			title = pd.getTitle() ;
+	}
+
 	private void setDetails(DbPage pd)  {
 
 		title = pd.getTitle() ;
@@ -21,18 +21,28 @@ package org.wikipedia.miner.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import jsc.ci.ConfidenceBand;
 
 import org.apache.log4j.Logger;
+import org.wikipedia.miner.db.LabelDatabase;
+import org.wikipedia.miner.db.LabelTrie;
+import org.wikipedia.miner.db.LabelView;
 import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.db.WIterator;
+import org.wikipedia.miner.db.WPartition;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
+import org.wikipedia.miner.db.WEnvironment.Readiness;
 import org.wikipedia.miner.db.WEnvironment.StatisticName;
 import org.wikipedia.miner.db.struct.DbLabel;
+import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.model.Page.PageType;
 import org.wikipedia.miner.util.LabelIterator;
+import org.wikipedia.miner.util.NGrammer;
 import org.wikipedia.miner.util.NGrammer.CaseContext;
 import org.wikipedia.miner.util.NGrammer.NGramSpan;
 import org.wikipedia.miner.util.PageIterator;
@@ -111,6 +121,17 @@ public class Wikipedia {
 
 	}
 
+	/**
+	 * Returns true if the given database has been cached to memory (or was never going to be), otherwise false. 
+	 * Each database becomes ready as soon as its own cache is built, so this can be true long before {@link #isReady()}.
+	 * 
+	 * @param type the type of database
+	 * @return true if the given database is ready to be served, otherwise false
+	 */
+	public boolean isReady(DatabaseType type) {
+		return env.getReadiness(type) == Readiness.ready ;
+	}
+
 	/**
 	 * Returns a number between 0 (just started) and 1 (completed) indicating progress of the preparation work.
 	 * 
@@ -269,7 +290,12 @@ public class Wikipedia {
 	 * @return true if there is an anchor corresponding to the given text, otherwise false
 	 */
 	public boolean isLabel(String text, TextProcessor tp)  {
-		DbLabel lbl = env.getDbLabel(tp).retrieve(text) ; 
+		LabelDatabase db = env.getDbLabel(tp) ;
+		
+		if (db.isViewable())
+			return db.retrieveView(text, new LabelView()) ;
+		
+		DbLabel lbl = db.retrieve(text) ; 
 
 		return lbl != null ;
 	}
@@ -280,6 +306,22 @@ public class Wikipedia {
 		
 		String ngram = span.getNgram(sourceText) ;
 		
+		//if the span was found by walking a label trie, we already know which variations are worth looking up
+		if (span.getLabelTexts() != null) {
+			Label bestLabel = null ;
+			for (String text:span.getLabelTexts()) {
+				Label label = getLabel(text) ;
+				
+				if (label.exists() && (bestLabel == null || label.getLinkOccCount() > bestLabel.getLinkOccCount())) 
+					bestLabel = label ;
+			}
+			
+			if (bestLabel != null)
+				return bestLabel ;
+			
+			return getLabel(ngram) ;
+		}
+		
 		Label bestLabel = getLabel(ngram) ;
 		
 		//don't bother trying out different casing variations if we are using casefolder as text processor
@@ -341,6 +383,23 @@ public class Wikipedia {
 		return bestLabel ;
 	}
 
+	/**
+	 * Returns a trie of label texts that can be used to spot labels within documents 
+	 * (see {@link NGrammer#labelPosDetect(String, LabelTrie)}), if one is available.
+	 * 
+	 * A trie is only built if the configuration asks for one (see {@link WikipediaConfiguration#isLabelTrieToCache()}), 
+	 * and can only be used for spotting if labels are matched without a text processor.
+	 * 
+	 * @return a trie of label texts, or null if labels cannot be spotted this way
+	 */
+	public LabelTrie getLabelTrie() {
+		
+		if (getConfig().getDefaultTextProcessor() != null)
+			return null ;
+		
+		return env.getDbLabel(null).getTrie() ;
+	}
+
 	public Label getLabel(String text)  {
 		return new Label(env, text) ;
 	}
@@ -379,6 +438,42 @@ public class Wikipedia {
 	public LabelIterator getLabelIterator(TextProcessor tp) {
 		return new LabelIterator(env, tp) ;
 	}
+	
+	/**
+	 * Returns iterators that between them cover all pages in the database of the given type, each over a separate range of ids. 
+	 * These can be used by different threads at the same time, to share out the work of visiting every page. 
+	 * Each iterator should be closed once it is finished with. 
+	 * 
+	 * @param type the type of page of interest, or null if all pages are of interest
+	 * @param partitionCount the number of iterators to split pages between (there may be fewer, if there are very few pages)
+	 * @return iterators for all pages in the database of the given type, each in order of ascending ids, and ordered by the ids they cover.
+	 */
+	public List<PageIterator> getPageIterators(PageType type, int partitionCount) {
+		
+		ArrayList<PageIterator> iterators = new ArrayList<PageIterator>() ;
+		for (WPartition<Integer,DbPage> partition:env.getDbPage().getPartitions(partitionCount))
+			iterators.add(new PageIterator(env, partition, type)) ;
+		
+		return iterators ;
+	}
+	
+	/**
+	 * Returns iterators that between them cover all labels in the database, processed according to the given text processor (may be null), 
+	 * each over a separate range of texts. These can be used by different threads at the same time, to share out the work of visiting every label. 
+	 * Each iterator should be closed once it is finished with. 
+	 * 
+	 * @param tp the text processor
+	 * @param partitionCount the number of iterators to split labels between (there may be fewer, if there are very few labels)
+	 * @return iterators for all labels in the database, each in alphabetical order, and ordered by the texts they cover.
+	 */
+	public List<LabelIterator> getLabelIterators(TextProcessor tp, int partitionCount) {
+		
+		ArrayList<LabelIterator> iterators = new ArrayList<LabelIterator>() ;
+		for (WPartition<String,DbLabel> partition:env.getDbLabel(tp).getPartitions(partitionCount))
+			iterators.add(new LabelIterator(env, tp, partition)) ;
+		
+		return iterators ;
+	}
 
 	/**
 	 * Tidily closes the database environment behind this wikipedia instance. This should be done whenever
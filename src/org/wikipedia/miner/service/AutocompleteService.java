@@ -0,0 +1,122 @@
+package org.wikipedia.miner.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.ElementList;
+import org.wikipedia.miner.db.LabelTrie;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
+import org.wikipedia.miner.model.Wikipedia;
+import org.wikipedia.miner.util.text.TextProcessor;
+import org.xjsf.Service;
+import org.xjsf.UtilityMessages.ErrorMessage;
+import org.xjsf.UtilityMessages.ParameterMissingMessage;
+import org.xjsf.param.IntParameter;
+import org.xjsf.param.StringParameter;
+
+import com.google.gson.annotations.Expose;
+
+public class AutocompleteService extends WMService {
+
+	private static final long serialVersionUID = -3466094838203574861L;
+
+	private StringParameter prmPrefix ;
+
+	private IntParameter prmMax ;
+
+	public AutocompleteService() {
+		super("query","Provides labels that start with a given prefix",
+				"<p>This service completes partially typed queries, by returning the most frequently mentioned labels that start with the given prefix.</p>" +
+				"<p>It requires the label trie to be cached (see <i>labelTrieToCache</i> in the wikipedia configuration). " +
+				"If labels are matched with a text processor, the prefix is processed in the same way, and each completion is the most frequent label text that matches it.</p>", false);
+
+		prmPrefix = new StringParameter("prefix", "The partially typed term or phrase to complete", null) ;
+		addGlobalParameter(prmPrefix) ;
+
+		prmMax = new IntParameter("max", "The maximum number of completions to return", 10) ;
+		addGlobalParameter(prmMax) ;
+		
+		addDependency(DatabaseType.label) ;
+	}
+
+	public Service.Message buildWrappedResponse(HttpServletRequest request) {
+
+		String prefix = prmPrefix.getValue(request) ;
+
+		if (prefix == null)
+			return new ParameterMissingMessage(request) ;
+
+		Wikipedia wikipedia = getWikipedia(request) ;
+		TextProcessor tp = wikipedia.getEnvironment().getConfiguration().getDefaultTextProcessor() ;
+
+		LabelTrie trie = wikipedia.getEnvironment().getDbLabel(tp).getTrie() ;
+		if (trie == null)
+			return new ErrorMessage(request, "labels have not been cached as a trie for this wikipedia") ;
+
+		if (tp != null)
+			prefix = tp.processText(prefix) ;
+
+		Message msg = new Message(request, trie.getCompletionCount(prefix)) ;
+
+		for (int ordinal:trie.getCompletions(prefix, prmMax.getValue(request)))
+			msg.addCompletion(new Completion(trie.getSurfaceText(ordinal), trie.getCount(ordinal))) ;
+
+		return msg;
+	}
+
+	public static class Message extends Service.Message {
+
+		@Expose
+		@Attribute
+		private Integer totalCompletions ;
+
+		@Expose
+		@ElementList(inline=true, entry="completion")
+		private ArrayList<Completion> completions = new ArrayList<Completion>() ;
+
+		private Message(HttpServletRequest request, int totalCompletions) {
+			super(request) ;
+			this.totalCompletions = totalCompletions ;
+		}
+
+		private void addCompletion(Completion c) {
+			completions.add(c) ;
+		}
+
+		public Integer getTotalCompletions() {
+			return totalCompletions ;
+		}
+
+		public List<Completion> getCompletions() {
+			return Collections.unmodifiableList(completions) ;
+		}
+	}
+
+	public static class Completion {
+
+		@Expose
+		@Attribute
+		private String text ;
+
+		@Expose
+		@Attribute
+		private Long occCount ;
+
+		private Completion(String text, long occCount) {
+			this.text = text ;
+			this.occCount = occCount ;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public Long getOccCount() {
+			return occCount;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,6 +24,7 @@ import org.wikipedia.miner.comparison.ArticleComparer;
 import org.wikipedia.miner.comparison.ConnectionSnippet;
 import org.wikipedia.miner.comparison.ConnectionSnippetWeighter;
 import org.wikipedia.miner.comparison.LabelComparer;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Article;
 import org.wikipedia.miner.model.Label;
 import org.wikipedia.miner.model.Page.PageType;
@@ -104,6 +106,12 @@ public class CompareService extends WMService{
 				"<p>The relatedness measures are calculated from the links going into and out of each page. Links that are common to both pages are used as evidence that they are related, while links that are unique to one or the other indicate the opposite.</p>",
 				true
 		);
+		
+		addDependency(DatabaseType.label) ;
+		addDependency(DatabaseType.page) ;
+		addDependency(DatabaseType.pageLinksIn) ;
+		addDependency(DatabaseType.pageLinksInNoSentences) ;
+		addDependency(DatabaseType.pageLinkCounts) ;
 	}
 	
 	@Override
@@ -359,10 +367,14 @@ public class CompareService extends WMService{
 		
 		//Build a list of pages that link to both art1 and art2, ordered by average relatedness to them
 		TreeSet<Article> connections = new TreeSet<Article>() ;
-		RelatednessCache rc = new RelatednessCache(getWMHub().getArticleComparer(getWikipediaName(request))) ;
+		RelatednessCache rc = getWMHub().getRelatednessCache(getWikipediaName(request)) ;
+
+		//both sets of links are looked up at the same time
+		Future<Article[]> pendingLinks1 = art1.getLinksInAsync() ;
+		Future<Article[]> pendingLinks2 = art2.getLinksInAsync() ;
 
-		Article[] links1 = art1.getLinksIn() ;
-		Article[] links2 = art2.getLinksIn() ;
+		Article[] links1 = pendingLinks1.get() ;
+		Article[] links2 = pendingLinks2.get() ;
 
 		int index1 = 0 ;
 		int index2 = 0 ;
@@ -1,5 +1,7 @@
 package org.wikipedia.miner.service;
 
+import gnu.trove.TIntIntIterator;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.SortedSet;
@@ -9,6 +11,8 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
+import org.wikipedia.miner.db.LabelTrie;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Label;
 import org.wikipedia.miner.model.Wikipedia;
 import org.xjsf.UtilityMessages.ParameterMissingMessage;
@@ -39,6 +43,8 @@ public class CorrectService extends WMService {
 		
 		prmMax = new IntParameter("max", "The maximum number of suggestions to return", 10) ;
 		addGlobalParameter(prmMax) ;
+		
+		addDependency(DatabaseType.label) ;
 	}
 
 	public Service.Message buildWrappedResponse(HttpServletRequest request) {
@@ -70,6 +76,22 @@ public class CorrectService extends WMService {
 		
 		TreeSet<Suggestion> suggestions = new TreeSet<Suggestion>() ;
 		
+		//if labels have been cached as a trie, we can walk it rather than checking every possible edit
+		LabelTrie trie = wikipedia.getEnvironment().getDbLabel(tp).getTrie() ;
+		if (trie != null) {
+			String processedTerm = (tp == null) ? term : tp.processText(term) ;
+			
+			//processed texts are replaced with the label text they most often come from, as AutocompleteService does
+			TIntIntIterator iter = trie.getMatches(processedTerm, 2).iterator() ;
+			while (iter.hasNext()) {
+				iter.advance() ;
+				
+				if (iter.value() > 0)
+					suggestions.add(new Suggestion(trie.getSurfaceText(iter.key()), iter.value(), trie.getCount(iter.key()))) ;
+			}
+			return suggestions ;
+		}
+		
 		for (String s1:getWordsWithin1Edit(term)) {
 			Label l1 = new Label(wikipedia.getEnvironment(), s1, tp) ;
 			
@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,6 +19,7 @@ import org.simpleframework.xml.Element;
 import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Text;
 import org.wikipedia.miner.comparison.ArticleComparer;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Article;
 import org.wikipedia.miner.model.Category;
 import org.wikipedia.miner.model.Wikipedia;
@@ -82,6 +84,15 @@ public class ExploreArticleService extends WMService{
 
 				"<p></p>", false
 		);
+		
+		addDependency(DatabaseType.page) ;
+		addDependency(DatabaseType.articlesByTitle) ;
+		addDependency(DatabaseType.redirectTargetBySource) ;
+		addDependency(DatabaseType.articleParents) ;
+		addDependency(DatabaseType.pageLabel) ;
+		addDependency(DatabaseType.pageLinksIn) ;
+		addDependency(DatabaseType.pageLinksOut) ;
+		addDependency(DatabaseType.translations) ;
 	}
 
 	@Override
@@ -198,6 +209,10 @@ public class ExploreArticleService extends WMService{
 
 		Message msg = new Message(request, art) ;
 		
+		//links are started now, so that they are retrieved while the rest of the message is being built
+		Future<Article[]> pendingLinksOut = prmOutLinks.getValue(request) ? art.getLinksOutAsync() : null ;
+		Future<Article[]> pendingLinksIn = prmInLinks.getValue(request) ? art.getLinksInAsync() : null ;
+		
 		if (prmDefinition.getValue(request)) {
 			String definition = null ;
 
@@ -253,6 +268,7 @@ public class ExploreArticleService extends WMService{
 
 		if (prmParentCategories.getValue(request)) {
 			Category[] parents = art.getParentCategories() ;
+			org.wikipedia.miner.model.Page.loadDetails(parents) ;
 
 			msg.setTotalParentCategories(parents.length) ;
 			for (Category parent:parents) 
@@ -268,7 +284,8 @@ public class ExploreArticleService extends WMService{
 			else
 				max = max + start ;
 
-			Article[] linksOut = art.getLinksOut() ;
+			Article[] linksOut = pendingLinksOut.get() ;
+			org.wikipedia.miner.model.Page.loadDetails(linksOut, start, max) ;
 
 			msg.setTotalOutLinks(linksOut.length) ;
 			for (int i=start ; i < max && i < linksOut.length ; i++) {
@@ -289,7 +306,8 @@ public class ExploreArticleService extends WMService{
 			else
 				max = max + start ;
 
-			Article[] linksIn = art.getLinksIn() ;
+			Article[] linksIn = pendingLinksIn.get() ;
+			org.wikipedia.miner.model.Page.loadDetails(linksIn, start, max) ;
 
 			msg.setTotalInLinks(linksIn.length) ;
 			for (int i=start ; i < max && i < linksIn.length ; i++) {
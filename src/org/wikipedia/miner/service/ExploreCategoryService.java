@@ -10,6 +10,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Article;
 import org.wikipedia.miner.model.Category;
 import org.wikipedia.miner.model.Wikipedia;
@@ -50,6 +51,12 @@ public class ExploreCategoryService extends WMService{
 			
 			"<p></p>", false
 		);
+		
+		addDependency(DatabaseType.page) ;
+		addDependency(DatabaseType.categoriesByTitle) ;
+		addDependency(DatabaseType.categoryParents) ;
+		addDependency(DatabaseType.childCategories) ;
+		addDependency(DatabaseType.childArticles) ;
 	}
 	
 	
@@ -133,6 +140,7 @@ public class ExploreCategoryService extends WMService{
 		if (prmParentCategories.getValue(request)) {
 			
 			Category[] parents = cat.getParentCategories() ;
+			org.wikipedia.miner.model.Page.loadDetails(parents) ;
 			
 			msg.setTotalParentCategories(parents.length) ;
 
@@ -150,6 +158,7 @@ public class ExploreCategoryService extends WMService{
 				max = max + start ;
 		
 			Category[] children = cat.getChildCategories() ;
+			org.wikipedia.miner.model.Page.loadDetails(children, start, max) ;
 			
 			msg.setTotalChildCategories(children.length) ;
 			for (int i=start ; i < max && i < children.length ; i++) 
@@ -166,6 +175,7 @@ public class ExploreCategoryService extends WMService{
 				max = max + start ;
 			
 			Article[] children = cat.getChildArticles() ;
+			org.wikipedia.miner.model.Page.loadDetails(children, start, max) ;
 			
 			msg.setTotalChildArticles(children.length) ;
 			for (int i=start ; i < max && i < children.length ; i++) 
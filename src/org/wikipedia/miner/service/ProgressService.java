@@ -1,8 +1,14 @@
 package org.wikipedia.miner.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.ElementList;
 import org.wikipedia.miner.model.Wikipedia;
 import org.xjsf.Service;
 
@@ -24,7 +30,13 @@ public class ProgressService extends WMService {
 		
 		double progress = wikipedia.getEnvironment().getProgress() ;
 		
-		return new Message(request, progress) ;
+		Message msg = new Message(request, progress) ;
+		
+		//databases are cached concurrently, so report each of them too
+		for (Map.Entry<String,Double> e:wikipedia.getEnvironment().getPreparationProgressByTask().entrySet()) 
+			msg.addTask(new Task(e.getKey(), e.getValue())) ;
+		
+		return msg ;
 	}
 		
 	@Override
@@ -38,14 +50,50 @@ public class ProgressService extends WMService {
 		@Attribute
 		private double progress ;
 		
+		@Expose
+		@ElementList(required=false, entry="task")
+		private ArrayList<Task> tasks = new ArrayList<Task>() ;
+		
 		private Message(HttpServletRequest request, double progress) {
 			super(request) ;
 			this.progress = progress ;
 		}
+		
+		private void addTask(Task t) {
+			tasks.add(t) ;
+		}
 
 		public double getProgress() {
 			return progress;
 		}
+		
+		public List<Task> getTasks() {
+			return Collections.unmodifiableList(tasks) ;
+		}
+	}
+	
+	public static class Task {
+		
+		@Expose
+		@Attribute
+		private String name ;
+		
+		@Expose
+		@Attribute
+		private double progress ;
+		
+		private Task(String name, double progress) {
+			this.name = name ;
+			this.progress = progress ;
+		}
+		
+		public String getName() {
+			return name ;
+		}
+		
+		public double getProgress() {
+			return progress ;
+		}
 	}
 
 }
@@ -20,6 +20,7 @@ import opennlp.tools.util.Span;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
 import org.wikipedia.miner.comparison.ArticleComparer;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Wikipedia;
 import org.wikipedia.miner.util.NGrammer;
 import org.wikipedia.miner.util.NGrammer.NGramSpan;
@@ -60,6 +61,12 @@ public class SearchService extends WMService {
 				"so that the most obvious senses are listed first.</p>" +
 				"<p>For queries that contain multiple terms, the senses of each term will be compared against each other to disambiguate them. This " +
 				"provides the weight attribute, which is larger for senses that are likely to be the correct interpretation of the query.</p>", false);
+		
+		addDependency(DatabaseType.label) ;
+		addDependency(DatabaseType.page) ;
+		addDependency(DatabaseType.pageLinksIn) ;
+		addDependency(DatabaseType.pageLinksInNoSentences) ;
+		addDependency(DatabaseType.pageLinkCounts) ;
 	}
 	
 	@Override
@@ -136,7 +143,7 @@ public class SearchService extends WMService {
 		if (artComparer == null)
 			return new ErrorMessage(request, "article comparisons are not available with this wikipedia instance") ;
 
-		ExhaustiveDisambiguator disambiguator = new ExhaustiveDisambiguator(artComparer) ;
+		ExhaustiveDisambiguator disambiguator = new ExhaustiveDisambiguator(getWMHub().getRelatednessCache(getWikipediaName(request))) ;
 
 		float minPriorProb = prmMinPriorProb.getValue(request) ;
 		
@@ -344,9 +351,9 @@ public class SearchService extends WMService {
 
 		private TIntFloatHashMap bestSenseWeights ;
 		
-		public ExhaustiveDisambiguator(ArticleComparer comparer) {
+		public ExhaustiveDisambiguator(RelatednessCache rc) {
 			
-			rc = new RelatednessCache(comparer) ;
+			this.rc = rc ;
 			
 		}
 
@@ -19,7 +19,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
-import org.wikipedia.miner.comparison.ArticleComparer;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.db.struct.DbLinkLocation;
 import org.wikipedia.miner.db.struct.DbLinkLocationList;
 import org.wikipedia.miner.model.Article;
@@ -53,6 +53,13 @@ public class SuggestService extends WMService {
 		super("query","Suggests alternative topics that are related to a set of seed topics",
 				"<p>This service takes a set of seed topics, and suggests articles that relate to them. These suggestions are weighted by thier relatedness to the query, and organized by the categories they belong to.</p>" +
 				"<p>It is designed to be used in conjunction with the <a href='services.html?search'>search</a> service</p>", false);
+		
+		addDependency(DatabaseType.page) ;
+		addDependency(DatabaseType.articleParents) ;
+		addDependency(DatabaseType.pageLinksIn) ;
+		addDependency(DatabaseType.pageLinksOut) ;
+		addDependency(DatabaseType.pageLinksInNoSentences) ;
+		addDependency(DatabaseType.pageLinkCounts) ;
 	}
 	
 	public void init(ServletConfig config) throws ServletException {
@@ -193,7 +200,7 @@ public class SuggestService extends WMService {
 		float minIndividualRelatedness = prmMinIndividualRelatedness.getValue(request) ;
 		float minAvgRelatedness = prmMinAverageRelatedness.getValue(request) ;
 		
-		RelatednessCache rc = new RelatednessCache(new ArticleComparer(wikipedia)) ;
+		RelatednessCache rc = getWMHub().getRelatednessCache(getWikipediaName(request)) ;
 		
 		int c=0 ;
 		for (Article suggestion:roughSuggestions) {
@@ -10,7 +10,9 @@ import javax.servlet.ServletException;
 import org.wikipedia.miner.comparison.ArticleComparer;
 import org.wikipedia.miner.comparison.ConnectionSnippetWeighter;
 import org.wikipedia.miner.comparison.LabelComparer;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Wikipedia;
+import org.wikipedia.miner.util.RelatednessCache;
 import org.wikipedia.miner.util.WikipediaConfiguration;
 
 public class WMHub {
@@ -21,6 +23,7 @@ public class WMHub {
 	private HashMap<String, Wikipedia> wikipediasByName ;
 	
 	private HashMap<String, ArticleComparer> articleComparersByWikiName ;
+	private HashMap<String, RelatednessCache> relatednessCachesByWikiName ;
 	private HashMap<String, LabelComparer> labelComparersByWikiName ;
 	private HashMap<String, ConnectionSnippetWeighter> snippetWeightersByWikiName ;
 		
@@ -32,6 +35,7 @@ public class WMHub {
 
 		wikipediasByName = new HashMap<String, Wikipedia>() ;
 		articleComparersByWikiName = new HashMap<String, ArticleComparer>()  ;
+		relatednessCachesByWikiName = new HashMap<String, RelatednessCache>()  ;
 		labelComparersByWikiName = new HashMap<String, LabelComparer>()  ;
 		snippetWeightersByWikiName = new HashMap<String, ConnectionSnippetWeighter>() ;
 				
@@ -51,6 +55,10 @@ public class WMHub {
 				ArticleComparer artCmp = new ArticleComparer(wikipedia) ;
 				articleComparersByWikiName.put(wikiName, artCmp) ;
 				
+				//shared between all requests, so commonly compared articles stay cached
+				RelatednessCache rc = new RelatednessCache(artCmp, wikiConfig.getRelatednessCacheCapacity()) ;
+				relatednessCachesByWikiName.put(wikiName, rc) ;
+				
 				if (artCmp != null && wikiConfig.getLabelDisambiguationModel() != null && wikiConfig.getLabelComparisonModel() != null) {
 					LabelComparer lblCmp = new LabelComparer(wikipedia, artCmp) ;
 					labelComparersByWikiName.put(wikiName, lblCmp) ;
@@ -85,6 +93,25 @@ public class WMHub {
 		return wikipediasByName.get(wikiName) ;
 	}
 	
+	/**
+	 * Each database of a wikipedia becomes available as soon as its own cache has been built, so requests 
+	 * can be routed to it as soon as the databases they depend on are ready, rather than waiting for all of them.
+	 * 
+	 * @param wikiName the name of a wikipedia
+	 * @param dependencies the types of database that a request depends on
+	 * @return a number between 0 (just started) and 1 (ready to serve the request) indicating progress of the preparation of the given databases
+	 */
+	public double getPreparationProgress(String wikiName, Set<DatabaseType> dependencies) {
+		
+		Wikipedia wikipedia = wikipediasByName.get(wikiName) ;
+		
+		if (wikipedia.getEnvironment().isReady(dependencies))
+			return 1 ;
+		
+		//never report that a request can be served until it really can
+		return Math.min(wikipedia.getEnvironment().getProgress(dependencies), 0.99) ;
+	}
+	
 	public String getWikipediaDescription(String wikiName) {
 		return config.getWikipediaDescription(wikiName) ;
 	}
@@ -99,6 +126,10 @@ public class WMHub {
 		return articleComparersByWikiName.get(wikiName) ;
 	}
 	
+	public RelatednessCache getRelatednessCache(String wikiName) {
+		return relatednessCachesByWikiName.get(wikiName) ;
+	}
+	
 	public LabelComparer getLabelComparer(String wikiName) {
 		return labelComparersByWikiName.get(wikiName) ;
 	}
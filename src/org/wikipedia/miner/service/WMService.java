@@ -1,9 +1,16 @@
 package org.wikipedia.miner.service;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Wikipedia;
 import org.xjsf.Service;
 import org.xjsf.param.StringArrayParameter;
@@ -19,6 +26,11 @@ public abstract class WMService extends Service {
 
 	protected StringArrayParameter prmWikipedia ;
 
+	private EnumSet<DatabaseType> dependencies = EnumSet.noneOf(DatabaseType.class) ;
+
+	//the wikipedia targeted by the request being handled by the current thread
+	private transient ThreadLocal<String> requestedWikiName = new ThreadLocal<String>() ;
+
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
 
@@ -43,6 +55,56 @@ public abstract class WMService extends Service {
 		return wmHub ;
 	}	                                                            
 
+	/**
+	 * Declares that this service reads from the given database. Requests are answered with a progress message 
+	 * until every database the service depends on has been cached, rather than being served slowly from disk.
+	 * 
+	 * Services that declare no dependencies are always available. 
+	 * 
+	 * @param type a type of database that this service reads from
+	 */
+	public void addDependency(DatabaseType type) {
+		dependencies.add(type) ;
+	}
+
+	/**
+	 * @return the types of database that this service reads from
+	 */
+	public Set<DatabaseType> getDependencies() {
+		return Collections.unmodifiableSet(dependencies) ;
+	}
+
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+
+		try {
+			requestedWikiName.set(getWikipediaName(request)) ;
+		} catch (IllegalArgumentException e) {
+			//an invalid wikipedia is reported when the request is handled
+		}
+
+		try {
+			super.doGet(request, response) ;
+		} finally {
+			requestedWikiName.remove() ;
+		}
+	}
+
+	/**
+	 * Reports how much of the preparation work this service depends on has been completed, for the wikipedia 
+	 * targeted by the current request. Requests are only handled once this reaches 1. 
+	 */
+	@Override
+	public double getInitProgress() {
+
+		String wikiName = requestedWikiName.get() ;
+
+		if (wikiName == null || wmHub.getWikipedia(wikiName) == null)
+			return 1 ;
+
+		return wmHub.getPreparationProgress(wikiName, dependencies) ;
+	}
+
 	public Wikipedia getWikipedia(HttpServletRequest request) {
 
 		String wikiName = prmWikipedia.getValue(request) ;
@@ -30,6 +30,7 @@ import org.wikipedia.miner.annotation.tagging.HtmlTagger;
 import org.wikipedia.miner.annotation.tagging.WikiTagger;
 import org.wikipedia.miner.annotation.tagging.DocumentTagger.RepeatMode;
 import org.wikipedia.miner.annotation.weighting.LinkDetector;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Wikipedia;
 import org.xjsf.Service;
 import org.xjsf.param.*;
@@ -68,6 +69,12 @@ public class WikifyService extends WMService {
 				+ "<p> It doesn't just use Wikipedia as a source of information to link to, but also as training data for how best to do it. In other words, it has been trained to make the same decisions as the people who edit Wikipedia. </p>"
 				+ "<p> It may not work very well if the document does not fit the model of what it has been trained on. Documents should not be too short, and should be dedicated to a particular topic.</p>", true
 			);
+		
+		addDependency(DatabaseType.label) ;
+		addDependency(DatabaseType.page) ;
+		addDependency(DatabaseType.pageLinksIn) ;
+		addDependency(DatabaseType.pageLinksInNoSentences) ;
+		addDependency(DatabaseType.pageLinkCounts) ;
 	}
 	
 	
@@ -223,8 +230,6 @@ public class WikifyService extends WMService {
 		TopicDetector topicDetector = topicDetectors.get(wikiName) ;
 		LinkDetector linkDetector = linkDetectors.get(wikiName) ;
 		
-		topicDetector.setDisambiguationPolicy(prmDisambigPolicy.getValue(request)) ;
-		
 		String source = prmSource.getValue(request) ;
 		
 		if (source == null || source.trim().equals(""))
@@ -280,7 +285,7 @@ public class WikifyService extends WMService {
 			throw new TooLongException(tokens.length, maxTokenCount) ;
 		
 		
-		ArrayList<org.wikipedia.miner.annotation.Topic> allTopics = linkDetector.getWeightedTopics(topicDetector.getTopics(doc, null)) ;
+		ArrayList<org.wikipedia.miner.annotation.Topic> allTopics = linkDetector.getWeightedTopics(topicDetector.getTopics(doc, getWMHub().getRelatednessCache(wikiName), prmDisambigPolicy.getValue(request), topicDetector.areDisambiguationsAllowed())) ;
 		ArrayList<org.wikipedia.miner.annotation.Topic> bestTopics = new ArrayList<org.wikipedia.miner.annotation.Topic>() ;
 		float minProb = prmMinProb.getValue(request) ;
 		
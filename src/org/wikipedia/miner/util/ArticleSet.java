@@ -22,10 +22,18 @@ package org.wikipedia.miner.util;
 import java.io.*;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.*;
 
 import org.apache.log4j.Logger;
+import org.wikipedia.miner.db.WPartition;
 import org.wikipedia.miner.db.WEnvironment.StatisticName;
+import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.model.*;
 import org.wikipedia.miner.model.Page.PageType;
 
@@ -41,6 +49,8 @@ public class ArticleSet extends ArrayList<Article> {
 	
 	private static final long serialVersionUID = 6142971965290887331L;
 	
+	private static final int PARTITIONS_PER_THREAD = 4 ;
+	
 	//private TreeSet<Integer> articleIds = new TreeSet<Integer>() ;
 	private MarkupStripper stripper = new MarkupStripper() ;
 	
@@ -196,28 +206,72 @@ public class ArticleSet extends ArrayList<Article> {
 		writer.close() ;
 	}
 		
-	protected static Vector<Article> getRoughCandidates(Wikipedia wikipedia, Integer minInLinks, Integer minOutLinks)  {
+	protected static Vector<Article> getRoughCandidates(final Wikipedia wikipedia, final Integer minInLinks, final Integer minOutLinks)  {
 		
 		Vector<Article> articles = new Vector<Article>() ;
 		int totalArticles = wikipedia.getEnvironment().retrieveStatistic(StatisticName.articleCount).intValue() ;
 		
 		ProgressTracker pn = new ProgressTracker(totalArticles, "Gathering rough candidates", ArticleSet.class) ;
 		
-		PageIterator i = wikipedia.getPageIterator(PageType.article) ;
+		//articles are split into ranges of ids, which are checked in parallel, and then gathered back together in order
+		int threads = Runtime.getRuntime().availableProcessors() ;
+		ExecutorService gatherers = Executors.newFixedThreadPool(threads) ;
 		
-		while (i.hasNext()) {
-			Article art = (Article)i.next() ;
-			pn.update() ;
-			
-			if (minOutLinks != null && art.getLinksOut().length < minOutLinks)
-				continue ;
+		List<WPartition<Integer,DbPage>> partitions = wikipedia.getEnvironment().getDbPage().getPartitions(threads * PARTITIONS_PER_THREAD) ;
+		final AtomicInteger articlesChecked = new AtomicInteger() ;
+		
+		try {
+			ArrayList<Future<Vector<Article>>> results = new ArrayList<Future<Vector<Article>>>() ;
 			
-			if (minInLinks != null && art.getLinksIn().length < minInLinks)
-				continue ;
+			for (final WPartition<Integer,DbPage> partition:partitions) {
+				results.add(gatherers.submit(new Callable<Vector<Article>>() {
+					public Vector<Article> call() {
+						
+						Vector<Article> candidates = new Vector<Article>() ;
+						
+						PageIterator i = new PageIterator(wikipedia.getEnvironment(), partition, PageType.article) ;
+						try {
+							while (i.hasNext()) {
+								Article art = (Article)i.next() ;
+								articlesChecked.incrementAndGet() ;
+								
+								if (minOutLinks != null && art.getLinksOut().length < minOutLinks)
+									continue ;
+								
+								if (minInLinks != null && art.getLinksIn().length < minInLinks)
+									continue ;
+								
+								candidates.add(art) ;
+							}
+						} finally {
+							i.close() ;
+						}
+						
+						return candidates ;
+					}
+				})) ;
+			}
 			
-			articles.add(art) ;
+			for (Future<Vector<Article>> result:results) {
+				
+				Vector<Article> candidates ;
+				try {
+					candidates = result.get() ;
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Interrupted while gathering rough candidates", e) ;
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException)e.getCause() ;
+					
+					throw new RuntimeException(e.getCause()) ;
+				}
+				
+				articles.addAll(candidates) ;
+				pn.update(articlesChecked.get()) ;
+			}
+		} finally {
+			gatherers.shutdownNow() ;
 		}
-		i.close();
 		
 		return articles ;
 	}
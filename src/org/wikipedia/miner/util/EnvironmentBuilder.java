@@ -14,8 +14,8 @@ public class EnvironmentBuilder {
 
 	public static void main(String args[]) throws Exception {
 		
-		if (args.length != 1) {
-			System.out.println("Please specify path to wikipedia configuration file") ;
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("Please specify path to wikipedia configuration file, and optionally the number of threads to use") ;
 			System.exit(1) ;
 		}
 		
@@ -32,7 +32,11 @@ public class EnvironmentBuilder {
 			System.exit(1) ;
 		}
 	
-		WEnvironment.buildEnvironment(conf, conf.getDataDirectory(), false) ;
+		int threads = Runtime.getRuntime().availableProcessors() ;
+		if (args.length > 1)
+			threads = Integer.parseInt(args[1]) ;
+	
+		WEnvironment.buildEnvironment(conf, conf.getDataDirectory(), false, threads) ;
 	}
 	
 }
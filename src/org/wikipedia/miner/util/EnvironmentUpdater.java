@@ -0,0 +1,47 @@
+package org.wikipedia.miner.util;
+
+import java.io.File;
+import java.util.Map;
+
+import org.wikipedia.miner.db.*;
+import org.wikipedia.miner.db.WDatabase.DatabaseType;
+
+public class EnvironmentUpdater {
+
+	public static void main(String args[]) throws Exception {
+
+		if (args.length < 2 || args.length > 3) {
+			System.out.println("Please specify path to wikipedia configuration file, the directory of data files that the environment was built from, and optionally the number of threads to use") ;
+			System.exit(1) ;
+		}
+
+		File confFile = new File(args[0])  ;
+		if (!confFile.canRead()) {
+			System.out.println("'" + args[0] + "' cannot be read") ;
+			System.exit(1) ;
+		}
+
+		WikipediaConfiguration conf = new WikipediaConfiguration(confFile) ;
+
+		if (conf.getDataDirectory() == null || !conf.getDataDirectory().isDirectory()) {
+			System.out.println("'" + args[0] + "' does not specify a valid data directory") ;
+			System.exit(1) ;
+		}
+
+		File previousDataDirectory = new File(args[1]) ;
+		if (!previousDataDirectory.isDirectory()) {
+			System.out.println("'" + args[1] + "' is not a valid data directory") ;
+			System.exit(1) ;
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors() ;
+		if (args.length > 2)
+			threads = Integer.parseInt(args[2]) ;
+
+		Map<DatabaseType,Integer> changes = WEnvironment.updateEnvironment(conf, previousDataDirectory, conf.getDataDirectory(), threads) ;
+
+		for (Map.Entry<DatabaseType,Integer> change:changes.entrySet())
+			System.out.println(change.getKey() + ": " + change.getValue() + " records added, changed or removed") ;
+	}
+
+}
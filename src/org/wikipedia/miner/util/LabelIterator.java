@@ -6,11 +6,9 @@ import java.util.NoSuchElementException;
 import org.wikipedia.miner.db.WEntry;
 import org.wikipedia.miner.db.WEnvironment;
 import org.wikipedia.miner.db.WIterator;
+import org.wikipedia.miner.db.WPartition;
 import org.wikipedia.miner.db.struct.DbLabel;
-import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.model.Label;
-import org.wikipedia.miner.model.Page;
-import org.wikipedia.miner.model.Page.PageType;
 import org.wikipedia.miner.util.text.TextProcessor;
 
 /**
@@ -40,6 +38,24 @@ public class LabelIterator implements Iterator<Label>{
 
 		queueNext() ;
 	}
+	
+	/**
+	 * Creates an iterator that will loop through the labels within a single partition of a label database. 
+	 * 
+	 * @see org.wikipedia.miner.db.WDatabase#getPartitions(int)
+	 * 
+	 * @param env an active (connected) Wikipedia environment.
+	 * @param tp the text processor that the partitioned label database was prepared for (may be null)
+	 * @param partition a partition of the environment's label database for the given text processor
+	 */
+	public LabelIterator(WEnvironment env, TextProcessor tp, WPartition<String,DbLabel> partition) {
+
+		this.env = env ;
+		this.tp = tp ;
+		iter = partition.getIterator() ; 
+
+		queueNext() ;
+	}
 
 	@Override
 	public boolean hasNext() {
@@ -0,0 +1,113 @@
+package org.wikipedia.miner.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+import org.wikipedia.miner.db.*;
+
+/**
+ * Serves every shard written by {@link ShardBuilder} from a separate process on this machine (with as many replicas 
+ * of each as requested), and prints the shard parameters that a wikipedia configuration needs in order to use them. 
+ * 
+ * This stands in for a cluster of shard servers while testing. The processes are stopped when this is.
+ */
+public class LocalShardCluster {
+
+	public static void main(String args[]) throws Exception {
+		
+		if (args.length < 2 || args.length > 3) {
+			System.out.println("Please specify the directory that shards were written to, the first port to serve them on, and optionally the number of replicas of each shard") ;
+			System.exit(1) ;
+		}
+		
+		File shardsDirectory = new File(args[0]) ;
+		
+		int shardCount = 0 ;
+		while (ShardServer.getShardDirectory(shardsDirectory, shardCount).isDirectory())
+			shardCount++ ;
+		
+		if (shardCount == 0) {
+			System.out.println("'" + args[0] + "' does not contain any shards") ;
+			System.exit(1) ;
+		}
+		
+		int firstPort = Integer.parseInt(args[1]) ;
+		
+		int replicas = 1 ;
+		if (args.length > 2)
+			replicas = Integer.parseInt(args[2]) ;
+		
+		final ArrayList<Process> processes = new ArrayList<Process>() ;
+		
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				for (Process process:processes)
+					process.destroy() ;
+			}
+		}) ;
+		
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java" ;
+		
+		for (int s=0 ; s<shardCount ; s++) {
+			
+			StringBuffer addresses = new StringBuffer() ;
+			
+			for (int r=0 ; r<replicas ; r++) {
+				
+				int port = firstPort + (r * shardCount) + s ;
+				
+				ArrayList<String> command = new ArrayList<String>() ;
+				command.add(java) ;
+				command.add("-cp") ;
+				command.add(System.getProperty("java.class.path")) ;
+				
+				//servers log the same way we do
+				if (System.getProperty("log4j.configuration") != null)
+					command.add("-Dlog4j.configuration=" + System.getProperty("log4j.configuration")) ;
+				
+				command.add(ShardHost.class.getName()) ;
+				command.add(ShardServer.getShardDirectory(shardsDirectory, s).getPath()) ;
+				command.add(String.valueOf(port)) ;
+				
+				ProcessBuilder pb = new ProcessBuilder(command) ;
+				pb.redirectErrorStream(true) ;
+				
+				Process process = pb.start() ;
+				processes.add(process) ;
+				echo(process, "shard" + s + ":" + port) ;
+				
+				if (r > 0)
+					addresses.append(',') ;
+				addresses.append("localhost:").append(port) ;
+			}
+			
+			System.out.println("<shard>" + addresses + "</shard>") ;
+		}
+		
+		for (Process process:processes)
+			process.waitFor() ;
+	}
+	
+	/**
+	 * Copies the output of the given process to our own, so that servers can be monitored from one place
+	 */
+	private static void echo(Process process, final String prefix) {
+		
+		final BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream())) ;
+		
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					String line ;
+					while ((line = output.readLine()) != null) 
+						System.out.println("[" + prefix + "] " + line) ;
+				} catch (IOException e) {}
+			}
+		} ;
+		t.setDaemon(true) ;
+		t.start() ;
+	}
+}
@@ -8,6 +8,9 @@ import opennlp.tools.sentdetect.SentenceDetector;
 import opennlp.tools.tokenize.Tokenizer;
 import opennlp.tools.util.Span;
 
+import org.wikipedia.miner.db.LabelTrie;
+import org.wikipedia.miner.model.Wikipedia;
+
 /**
  * A utility class for gathering n-grams from text. Uses an openNLP tokenizer to identify word boundaries, and optionally uses an openNLP sentence splitter to ensure that ngrams do not span sentence boundaries. Also ensures that ngrams do not span line breaks. 
  * 
@@ -75,6 +78,32 @@ public class NGrammer {
 	}
 
 	public NGramSpan[] ngramPosDetect(String s) {
+		return detect(s, null) ;
+	}
+	
+	/**
+	 * Gathers only those ngrams that are labels, by walking the tokens that follow each potential starting point through the given trie. 
+	 * Casing variations are walked alongside the ngram as it is found in the text (following the same rules as 
+	 * {@link Wikipedia#getLabel(NGramSpan, String)}), and walks stop as soon as no variation can be extended into a label.
+	 * 
+	 * Ngrams are returned in the same order as {@link #ngramPosDetect(String)}, and the texts of the matching variations are available via
+	 * {@link NGramSpan#getLabelTexts()}. 
+	 * 
+	 * <p>Note:<b> texts are walked without any processing, so the trie should be built from a label database without a text processor.
+	 * 
+	 * @param s the text to gather labels from
+	 * @param trie a trie of label texts
+	 * @return the locations of all ngrams that are labels (or that have casing variations that are labels)
+	 */
+	public NGramSpan[] labelPosDetect(String s, LabelTrie trie) {
+		
+		if (trie == null) 
+			throw new NullPointerException() ;
+		
+		return detect(s, trie) ;
+	}
+	
+	private NGramSpan[] detect(String s, LabelTrie trie) {
 
 		ArrayList<Span> ngramSpans = new ArrayList<Span>() ;
 
@@ -109,6 +138,11 @@ public class NGrammer {
 						continue ;
 					
 					int ngramStart = tokenSpans[i].getStart();
+					
+					if (trie != null) {
+						addLabelSpans(sentence, tokenSpans, i, caseContext, lineStart + sentenceSpan.getStart(), trie, ngramSpans) ;
+						continue ;
+					}
 
 					for (int j=Math.min(i + _maxN, tokenSpans.length-1) ; j >= i ; j--) {
 
@@ -139,6 +173,187 @@ public class NGrammer {
 		return ngramSpans.toArray(new NGramSpan[ngramSpans.size()]) ;
 	}
 
+	private void addLabelSpans(String sentence, Span[] tokenSpans, int i, CaseContext caseContext, int sentenceOffset, LabelTrie trie, ArrayList<Span> ngramSpans) {
+		
+		int ngramStart = tokenSpans[i].getStart() ;
+		
+		//walk each casing variation that would be tried for this ngram, keeping the text walked so far 
+		//and the position at which it fell out of the trie (if it has)
+		CasingVariation[] variations = CasingVariation.values() ;
+		String[] walked = new String[variations.length] ;
+		long[] cursors = new long[variations.length] ;
+		int[] failures = new int[variations.length] ;
+		
+		ArrayList<NGramSpan> found = new ArrayList<NGramSpan>() ;
+		
+		for (int j=i ; j<=Math.min(i + _maxN, tokenSpans.length-1) ; j++) {
+			
+			String ngram = sentence.substring(ngramStart, tokenSpans[j].getEnd()) ;
+			
+			Span[] tokenSpansLocalToNgram = new Span[(j-i)+1] ;
+			for (int k=0 ; k<tokenSpansLocalToNgram.length ; k++) {
+				Span tokenSpan = tokenSpans[i+k] ;
+				tokenSpansLocalToNgram[k] = new Span(tokenSpan.getStart()-ngramStart, tokenSpan.getEnd()-ngramStart) ;
+			}
+			
+			boolean alive = false ;
+			for (CasingVariation v:variations) {
+				
+				if (!v.appliesTo(caseContext, i==0, ngram.charAt(0)))
+					continue ;
+				
+				int k = v.ordinal() ;
+				String text = v.apply(ngram, tokenSpansLocalToNgram) ;
+				
+				//casing a string can depend on what follows it (e.g. a final sigma), so walk again if this doesn't extend the previous text
+				if (walked[k] == null || !text.startsWith(walked[k])) {
+					walked[k] = "" ;
+					cursors[k] = trie.getRootCursor() ;
+					failures[k] = -1 ;
+				}
+				
+				for (int p=walked[k].length() ; p<text.length() && failures[k] < 0 ; p++) {
+					cursors[k] = trie.step(cursors[k], text.charAt(p)) ;
+					
+					if (cursors[k] < 0)
+						failures[k] = p ;
+				}
+				
+				walked[k] = text ;
+				
+				//a walk that has failed can only recover if the casing of the characters it walked changes, which can only 
+				//happen to the last cased character
+				if (failures[k] < 0 || lastCasedIndex(text) <= failures[k])
+					alive = true ;
+			}
+			
+			if (!alive)
+				break ;
+			
+			//never end an ngram with a punctuation token
+			if (tokenSpans[j].length() == 1 && !Character.isLetterOrDigit(sentence.charAt(tokenSpans[j].getStart())))
+				continue ;
+			
+			ArrayList<String> labelTexts = new ArrayList<String>() ;
+			for (CasingVariation v:variations) {
+				int k = v.ordinal() ;
+				
+				if (walked[k] == null || failures[k] >= 0)
+					continue ;
+				
+				int ordinal = trie.getOrdinal(cursors[k]) ;
+				if (ordinal < 0)
+					continue ;
+				
+				String text = trie.getText(ordinal) ;
+				if (!labelTexts.contains(text))
+					labelTexts.add(text) ;
+			}
+			
+			if (labelTexts.isEmpty())
+				continue ;
+			
+			NGramSpan span = new NGramSpan(sentenceOffset + ngramStart, sentenceOffset + tokenSpans[j].getEnd(), tokenSpansLocalToNgram, caseContext, i==0) ;
+			span._labelTexts = labelTexts.toArray(new String[labelTexts.size()]) ;
+			found.add(span) ;
+		}
+		
+		//longest ngrams come first, as they do when ngrams are gathered exhaustively
+		for (int k=found.size()-1 ; k>=0 ; k--)
+			ngramSpans.add(found.get(k)) ;
+	}
+	
+	private static int lastCasedIndex(String text) {
+		
+		for (int i=text.length()-1 ; i>=0 ; i--) {
+			char c = text.charAt(i) ;
+			
+			if (Character.isUpperCase(c) || Character.isLowerCase(c) || Character.isTitleCase(c))
+				return i ;
+		}
+		
+		//nothing can change case
+		return Integer.MAX_VALUE ;
+	}
+	
+	private static String toUpperFirst(String ngram, Span[] tokenSpans) {
+		
+		char[] chars = ngram.toLowerCase().toCharArray() ;
+		
+		for (Span s:tokenSpans) 
+			chars[s.getStart()] = Character.toUpperCase(chars[s.getStart()]) ;
+		
+		return new String(chars) ;
+	}
+	
+	/**
+	 * The variations of casing that are tried when matching ngrams to labels, in order of preference
+	 */
+	private enum CasingVariation {
+		
+		/**
+		 * the ngram as it is found in the text
+		 */
+		original,
+		
+		/**
+		 * the first letter of an ngram at the start of a sentence is lower cased
+		 */
+		lowerFirst,
+		
+		/**
+		 * the first letter of each token is upper cased, and everything else is lower cased
+		 */
+		upperFirst,
+		
+		/**
+		 * everything is lower cased
+		 */
+		lower,
+		
+		/**
+		 * everything is upper cased
+		 */
+		upper ;
+		
+		boolean appliesTo(CaseContext context, boolean isSentenceStart, char firstChar) {
+			
+			switch (this) {
+			case lowerFirst:
+				return context == CaseContext.mixed && isSentenceStart && Character.isUpperCase(firstChar) ;
+			case upperFirst:
+				return context == CaseContext.lower || context == CaseContext.upper ;
+			case lower:
+				return context == CaseContext.upperFirst || context == CaseContext.upper ;
+			case upper:
+				return context == CaseContext.lower ;
+			default:
+				return true ;
+			}
+		}
+		
+		/**
+		 * Produces this variation of an ngram, exactly as {@link Wikipedia#getLabel(NGramSpan, String)} does
+		 */
+		String apply(String ngram, Span[] tokenSpans) {
+			
+			switch (this) {
+			case lowerFirst:
+				char[] chars = ngram.toCharArray() ;
+				chars[0] = Character.toLowerCase(chars[0]) ;
+				return new String(chars) ;
+			case upperFirst:
+				return toUpperFirst(ngram, tokenSpans) ;
+			case lower:
+				return ngram.toLowerCase() ;
+			case upper:
+				return ngram.toUpperCase() ;
+			default:
+				return ngram ;
+			}
+		}
+	}
+
 	private CaseContext identifyCaseContext(String text, Span[] tokenSpans) {
 
 		boolean allUpper = true ;
@@ -238,6 +453,7 @@ public class NGrammer {
 		private Span[] _tokenSpans ;
 		private CaseContext _caseContext ;
 		private boolean _isSentenceStart ;
+		private String[] _labelTexts ;
 
 		private NGramSpan(int start, int end, Span[] tokenSpans, CaseContext context, boolean isSentenceStart) {
 			super(start, end) ;
@@ -258,18 +474,21 @@ public class NGrammer {
 			return _isSentenceStart ;
 		}
 		
+		/**
+		 * @return the texts of labels that match this ngram (or its casing variations) in order of preference, if it was gathered via 
+		 * {@link NGrammer#labelPosDetect(String, LabelTrie)}, otherwise null.
+		 */
+		public String[] getLabelTexts() {
+			return _labelTexts ;
+		}
+		
 		public String getNgram(String sourceText) {
 			return sourceText.substring(getStart(), getEnd()) ;
 		}
 		
 		public String getNgramUpperFirst(String sourceText) {
 			
-			char[] ngram = getNgram(sourceText).toLowerCase().toCharArray() ;
-			
-			for (Span s:_tokenSpans) 
-				ngram[s.getStart()] = Character.toUpperCase(ngram[s.getStart()]) ;
-			
-			return new String(ngram) ;
+			return toUpperFirst(getNgram(sourceText), _tokenSpans) ;
 		}
 	}
 
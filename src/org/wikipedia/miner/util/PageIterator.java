@@ -25,6 +25,7 @@ import java.util.* ;
 import org.wikipedia.miner.db.WEntry;
 import org.wikipedia.miner.db.WIterator;
 import org.wikipedia.miner.db.WEnvironment;
+import org.wikipedia.miner.db.WPartition;
 import org.wikipedia.miner.db.struct.DbPage;
 import org.wikipedia.miner.model.* ;
 import org.wikipedia.miner.model.Page.PageType;
@@ -71,6 +72,24 @@ public class PageIterator implements Iterator<Page> {
 		
 		queueNext() ;
 	}
+	
+	/**
+	 * Creates an iterator that will loop through the pages of the given type within a single partition of the page database. 
+	 * 
+	 * @see org.wikipedia.miner.db.WDatabase#getPartitions(int)
+	 * 
+	 * @param env an active (connected) Wikipedia environment.
+	 * @param partition a partition of the environment's page database
+	 * @param type the type of page to restrict the iterator to, or null if all pages are of interest
+	 */
+	public PageIterator(WEnvironment env, WPartition<Integer,DbPage> partition, PageType type)  {
+
+		this.env = env ;
+		iter = partition.getIterator() ; 
+		this.type = type ;
+		
+		queueNext() ;
+	}
 
 	@Override
 	public boolean hasNext() {
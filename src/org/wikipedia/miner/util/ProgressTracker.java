@@ -127,6 +127,10 @@ public class ProgressTracker {
 	 * @return see above
 	 */
 	public double getTaskProgress() {
+		
+		if (currTask_parts <= 0)
+			return 0 ;
+		
 		return (double)currTask_partsDone/currTask_parts ;
 	}
 
@@ -182,6 +186,26 @@ public class ProgressTracker {
 		lastReportProgress = progress ;
 	}
 
+	/**
+	 * Creates a tracker for a task that runs concurrently with others. Any tasks started by the returned tracker 
+	 * add their parts to the current task of this one, and progress made on them is reported as progress of the current task.
+	 * 
+	 * This allows the progress of several threads to be reported together. 
+	 * 
+	 * @return a tracker whose progress is reported through this one
+	 */
+	public ProgressTracker createSubTracker() {
+		return new SubTracker(this) ;
+	}
+	
+	private synchronized void addTaskParts(long parts) {
+		currTask_parts = currTask_parts + parts ;
+	}
+	
+	private synchronized void addTaskPartsDone(long parts) {
+		update(currTask_partsDone + parts) ;
+	}
+
 	private String formatTime(long time) {
 
 		int hours = 0 ;
@@ -202,8 +226,53 @@ public class ProgressTracker {
 
 		return digitFormat.format(hours) + ":" + digitFormat.format(minutes) + ":" + digitFormat.format(seconds) ;
 	}
+	
+	private static class SubTracker extends ProgressTracker {
+		
+		private ProgressTracker parent ;
+		
+		private long parts = 0 ;
+		private long partsDone = 0 ;
+		
+		SubTracker(ProgressTracker parent) {
+			super(1, parent.logClass) ;
+			this.parent = parent ;
+		}
+		
+		@Override
+		public void startTask(long taskParts) {
+			
+			//assume any previous task is complete, even if it never reported so
+			parent.addTaskPartsDone(parts - partsDone) ;
+			
+			parts = taskParts ;
+			partsDone = 0 ;
+			parent.addTaskParts(taskParts) ;
+		}
+		
+		@Override
+		public void update(long partsDone) {
+			
+			long delta = Math.min(partsDone, parts) - this.partsDone ;
+			if (delta <= 0) 
+				return ;
+			
+			this.partsDone = this.partsDone + delta ;
+			parent.addTaskPartsDone(delta) ;
+		}
+		
+		@Override
+		public void update() {
+			update(partsDone+1) ;
+		}
+		
+		@Override
+		public double getTaskProgress() {
+			
+			if (parts <= 0)
+				return 0 ;
+			
+			return (double)partsDone/parts ;
+		}
+	}
 }
-
-
-
-
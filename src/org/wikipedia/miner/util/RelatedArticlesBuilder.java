@@ -0,0 +1,238 @@
+package org.wikipedia.miner.util;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.record.CsvRecordOutput;
+import org.wikipedia.miner.comparison.ArticleComparer;
+import org.wikipedia.miner.db.WEnvironment;
+import org.wikipedia.miner.db.struct.DbRelatedArticle;
+import org.wikipedia.miner.db.struct.DbRelatedArticleList;
+import org.wikipedia.miner.model.Article;
+import org.wikipedia.miner.model.Page;
+import org.wikipedia.miner.model.Wikipedia;
+import org.wikipedia.miner.model.Page.PageType;
+
+/**
+ * Precomputes the most related articles for every article in an environment that has already been built,
+ * so that {@link Article#getMostRelated(int)} can be answered with a single lookup.
+ *
+ * Candidates for each article are gathered from its links in and out, and are compared with an {@link ArticleComparer}
+ * configured by the given wikipedia configuration. The work is spread across several threads, each with its own comparer.
+ *
+ * Results are written to relatedArticles.csv in the data directory (so they are picked up by any later call to
+ * {@link WEnvironment#buildEnvironment(WikipediaConfiguration, File, boolean)}), and then loaded into the environment.
+ */
+public class RelatedArticlesBuilder {
+
+	/**
+	 * The number of related articles stored for each article, if none is specified
+	 */
+	public static final int DEFAULT_K = 50 ;
+
+	private static final int CHUNK_SIZE = 100 ;
+
+	private static final Comparator<DbRelatedArticle> relatednessComparator = new Comparator<DbRelatedArticle>() {
+		@Override
+		public int compare(DbRelatedArticle a, DbRelatedArticle b) {
+
+			int c = Double.compare(a.getRelatedness(), b.getRelatedness()) ;
+			if (c != 0)
+				return c ;
+
+			//prefer lower ids when relatedness is tied
+			return Integer.valueOf(b.getId()).compareTo(a.getId()) ;
+		}
+	} ;
+
+	public static void main(String args[]) throws Exception {
+
+		if (args.length < 1 || args.length > 3) {
+			System.out.println("Please specify path to wikipedia configuration file, and optionally the number of related articles to store for each article, and the number of threads to use") ;
+			System.exit(1) ;
+		}
+
+		File confFile = new File(args[0])  ;
+		if (!confFile.canRead()) {
+			System.out.println("'" + args[0] + "' cannot be read") ;
+			System.exit(1) ;
+		}
+
+		int k = DEFAULT_K ;
+		if (args.length > 1)
+			k = Integer.parseInt(args[1]) ;
+
+		int threads = Runtime.getRuntime().availableProcessors() ;
+		if (args.length > 2)
+			threads = Integer.parseInt(args[2]) ;
+
+		WikipediaConfiguration conf = new WikipediaConfiguration(confFile) ;
+
+		if (conf.getDataDirectory() == null || !conf.getDataDirectory().isDirectory()) {
+			System.out.println("'" + args[0] + "' does not specify a valid data directory") ;
+			System.exit(1) ;
+		}
+
+		if (conf.getArticleComparisonDependancies() == null) {
+			System.out.println("'" + args[0] + "' does not specify any article comparison dependencies") ;
+			System.exit(1) ;
+		}
+
+		File dataFile = new File(conf.getDataDirectory() + File.separator + "relatedArticles.csv") ;
+
+		Wikipedia wikipedia = new Wikipedia(conf, false) ;
+		writeRelatedArticles(wikipedia, dataFile, k, threads) ;
+		wikipedia.close() ;
+
+		WEnvironment.loadRelatedArticles(conf, dataFile, true) ;
+	}
+
+	/**
+	 * Calculates the k most related articles for every article in the given wikipedia, and writes them to a csv file
+	 * that can be loaded via {@link WEnvironment#loadRelatedArticles(WikipediaConfiguration, File, boolean)}
+	 *
+	 * @param wikipedia an instance of wikipedia, whose configuration specifies article comparison dependencies
+	 * @param dataFile the file to write results to
+	 * @param k the maximum number of related articles to store for each article
+	 * @param threads the number of threads to calculate relatedness with
+	 * @throws Exception if relatedness cannot be calculated, or the file cannot be written
+	 */
+	public static void writeRelatedArticles(final Wikipedia wikipedia, File dataFile, final int k, int threads) throws Exception {
+
+		final TIntArrayList articleIds = new TIntArrayList() ;
+
+		PageIterator iter = wikipedia.getPageIterator(PageType.article) ;
+		while (iter.hasNext()) {
+			Page p = iter.next() ;
+			articleIds.add(p.getId()) ;
+		}
+		iter.close() ;
+
+		final ProgressTracker tracker = new ProgressTracker(1, RelatedArticlesBuilder.class) ;
+		tracker.startTask(articleIds.size(), "calculating related articles") ;
+
+		final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dataFile), "UTF-8")) ;
+
+		final AtomicInteger nextIndex = new AtomicInteger() ;
+		final AtomicInteger completed = new AtomicInteger() ;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads) ;
+		ArrayList<Future<Void>> results = new ArrayList<Future<Void>>() ;
+
+		for (int t=0 ; t<threads ; t++) {
+
+			results.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+
+					//comparers aren't safe to share between threads, so each thread gets its own
+					ArticleComparer comparer = new ArticleComparer(wikipedia) ;
+
+					int start ;
+					while ((start = nextIndex.getAndAdd(CHUNK_SIZE)) < articleIds.size()) {
+
+						int end = Math.min(start + CHUNK_SIZE, articleIds.size()) ;
+
+						StringBuffer lines = new StringBuffer() ;
+						for (int i=start ; i<end ; i++) {
+							Article art = new Article(wikipedia.getEnvironment(), articleIds.get(i)) ;
+
+							DbRelatedArticleList related = getMostRelated(art, comparer, k) ;
+							if (!related.getRelatedArticles().isEmpty())
+								lines.append(toCsv(art.getId(), related)) ;
+						}
+
+						synchronized (writer) {
+							writer.write(lines.toString()) ;
+						}
+
+						//ranges finish out of order, so progress is the number of articles completed rather than the end of this range
+						synchronized (tracker) {
+							tracker.update(completed.addAndGet(end - start)) ;
+						}
+					}
+					return null ;
+				}
+			})) ;
+		}
+		pool.shutdown() ;
+
+		try {
+			//rethrows the first problem encountered by any thread
+			for (Future<Void> result:results)
+				result.get() ;
+		} finally {
+			pool.shutdownNow() ;
+			writer.close() ;
+		}
+	}
+
+	/**
+	 * Calculates the k articles that are most related to the given one, out of those that it links to or is linked from.
+	 *
+	 * @param art the article of interest
+	 * @param comparer the comparer to measure relatedness with
+	 * @param k the maximum number of related articles to return
+	 * @return the (at most) k most related articles, sorted by descending relatedness. Articles with no relatedness are excluded.
+	 * @throws Exception if relatedness cannot be calculated
+	 */
+	public static DbRelatedArticleList getMostRelated(Article art, ArticleComparer comparer, int k) throws Exception {
+
+		//an article may be both linked to and linked from, so skip duplicates
+		TIntHashSet candidateIds = new TIntHashSet() ;
+		ArrayList<Article> candidates = new ArrayList<Article>() ;
+
+		for (Article[] links:new Article[][] {art.getLinksOut(), art.getLinksIn()}) {
+			for (Article link:links) {
+				if (link.getId() != art.getId() && candidateIds.add(link.getId()))
+					candidates.add(link) ;
+			}
+		}
+
+		//a min-heap of the best k so far
+		PriorityQueue<DbRelatedArticle> best = new PriorityQueue<DbRelatedArticle>(k+1, relatednessComparator) ;
+
+		for (Article candidate:candidates) {
+
+			double relatedness = comparer.getRelatedness(art, candidate) ;
+			if (relatedness <= 0)
+				continue ;
+
+			best.add(new DbRelatedArticle(candidate.getId(), relatedness)) ;
+			if (best.size() > k)
+				best.poll() ;
+		}
+
+		ArrayList<DbRelatedArticle> related = new ArrayList<DbRelatedArticle>(best) ;
+		Collections.sort(related, Collections.reverseOrder(relatednessComparator)) ;
+
+		return new DbRelatedArticleList(related) ;
+	}
+
+	private static String toCsv(int id, DbRelatedArticleList related) throws IOException {
+
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream() ;
+
+		CsvRecordOutput cro = new CsvRecordOutput(outStream) ;
+		cro.writeInt(id, null) ;
+		related.serialize(cro) ;
+
+		return outStream.toString("UTF-8") ;
+	}
+}
@@ -19,6 +19,8 @@
 
 package org.wikipedia.miner.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.wikipedia.miner.comparison.ArticleComparer;
 import org.wikipedia.miner.model.Article;
 
@@ -26,26 +28,89 @@ import gnu.trove.* ;
 
 /**
  * This class caches the results of calculating relatedness measures between articles; 
- * If all article comparisons are performed via this class, then no calculations will be repeated.
+ * If all article comparisons are performed via this class, then no calculations will be repeated
+ * (until the cache fills up, at which point rarely used measures are evicted).
+ * <p>
+ * The cache is bounded and safe to share between threads. It is split into a number of independently locked segments, 
+ * each of which evicts entries using the CLOCK (second chance) policy once it is full. 
  */
 public class RelatednessCache {
 
-	TLongDoubleHashMap cachedRelatedness ;
+	/**
+	 * The capacity used when none is specified
+	 */
+	public static final int DEFAULT_CAPACITY = 100000 ;
+	
+	private static final int SEGMENT_BITS = 4 ;
+	private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS ;
+	
 	ArticleComparer comparer ;
 	
-	private long comparisonsRequested = 0 ;
-	private long comparisonsCalculated = 0 ;
+	private int capacity ;
+	private Segment[] segments ;
+	
+	private AtomicLong comparisonsRequested = new AtomicLong() ;
+	private AtomicLong comparisonsCalculated = new AtomicLong() ;
+	private AtomicLong evictions = new AtomicLong() ;
 	
 	/**
-	 * Initialises the relatedness cache, where relatedness will be measured using the given {@link  ArticleComparer}.
+	 * Initialises the relatedness cache, where relatedness will be measured using the given {@link  ArticleComparer}, 
+	 * and at most {@link #DEFAULT_CAPACITY} measures will be cached.
 	 *  
 	 * @param comparer the comparer to use. 
 	 */
 	public RelatednessCache(ArticleComparer comparer) {
-		cachedRelatedness = new TLongDoubleHashMap() ;
+		this(comparer, DEFAULT_CAPACITY) ;
+	}
+	
+	/**
+	 * Initialises the relatedness cache, where relatedness will be measured using the given {@link  ArticleComparer}.
+	 *  
+	 * @param comparer the comparer to use. 
+	 * @param capacity the maximum number of relatedness measures to cache. 
+	 */
+	public RelatednessCache(ArticleComparer comparer, int capacity) {
+		
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1") ;
+		
+		this.comparer = comparer ;
+		this.capacity = capacity ;
+		
+		//spread capacity as evenly as possible over segments (every segment must hold at least one entry)
+		segments = new Segment[SEGMENT_COUNT] ;
+		for (int i=0 ; i<SEGMENT_COUNT ; i++) {
+			int segmentCapacity = capacity / SEGMENT_COUNT ;
+			if (i < capacity % SEGMENT_COUNT)
+				segmentCapacity++ ;
+			
+			segments[i] = new Segment(Math.max(1, segmentCapacity)) ;
+		}
+	}
+	
+	
+	private RelatednessCache(RelatednessCache shared, ArticleComparer comparer) {
+		
 		this.comparer = comparer ;
+		this.capacity = shared.capacity ;
+		this.segments = shared.segments ;
+		
+		this.comparisonsRequested = shared.comparisonsRequested ;
+		this.comparisonsCalculated = shared.comparisonsCalculated ;
+		this.evictions = shared.evictions ;
 	}
 	
+	/**
+	 * Returns a view of this cache that calculates missing measures with the given comparer. The view shares all cached 
+	 * measures (and statistics) with this cache, so each thread can use its own comparer while still benefiting from the 
+	 * measures calculated by other threads.
+	 * 
+	 * @param comparer the comparer to use for measures that have not yet been cached
+	 * @return a view of this cache
+	 */
+	public RelatednessCache withComparer(ArticleComparer comparer) {
+		return new RelatednessCache(this, comparer) ;
+	}
 	
 	/**
 	 * Calculates (or retrieves) the semantic relatedness of two articles. 
@@ -57,39 +122,199 @@ public class RelatednessCache {
 	 */
 	public double getRelatedness(Article art1, Article art2) throws Exception {
 		
-		comparisonsRequested++ ;
+		comparisonsRequested.incrementAndGet() ;
 		
 		//generate unique key for this pair
 		long min = Math.min(art1.getId(), art2.getId()) ;
 		long max = Math.max(art1.getId(), art2.getId()) ;
-		long key = min + (max << 30) ;
+		long key = (max << 32) | min ;
 		
-		double relatedness ;
+		Segment segment = getSegment(key) ;
 		
-				
-		if (!cachedRelatedness.containsKey(key)) {		
-			relatedness = comparer.getRelatedness(art1, art2) ;		
-			cachedRelatedness.put(key, relatedness) ;
+		double relatedness = segment.get(key) ;
+		
+		//relatedness is calculated outside of any lock, so slow comparisons don't block other threads.
+		//Two threads may occasionally calculate the same measure, but will get the same result.
+		if (Double.isNaN(relatedness)) {
+			relatedness = comparer.getRelatedness(art1, art2) ;
+			comparisonsCalculated.incrementAndGet() ;
 			
-			comparisonsCalculated++ ;
-		} else {
-			relatedness = cachedRelatedness.get(key) ;
+			if (segment.put(key, relatedness)) 
+				evictions.incrementAndGet() ;
 		}
 		
 		//System.out.println(art1 + " vs. " + art2 + ", " + relatedness) ;
 		return relatedness ;
 	}
 	
+	/**
+	 * @return the number of relatedness measures that had to be calculated (i.e. cache misses)
+	 */
 	public long getComparisonsCalculated() {
-		return comparisonsCalculated ;
+		return comparisonsCalculated.get() ;
 	}
 	
+	/**
+	 * @return the number of relatedness measures that have been requested
+	 */
 	public long getComparisonsRequested() {
-		return comparisonsRequested ;
+		return comparisonsRequested.get() ;
+	}
+	
+	/**
+	 * @return the number of relatedness measures that were retrieved without being calculated (i.e. cache hits)
+	 */
+	public long getComparisonsCached() {
+		return getComparisonsRequested() - getComparisonsCalculated() ;
+	}
+	
+	/**
+	 * @return the number of relatedness measures that have been evicted to make room for new ones
+	 */
+	public long getEvictions() {
+		return evictions.get() ;
 	}
 	
 	public double getCachedProportion() {
-		double p = (double)comparisonsCalculated/comparisonsRequested ;
+		double p = (double)getComparisonsCalculated()/getComparisonsRequested() ;
 		return 1-p ;
 	}
+	
+	/**
+	 * @return the maximum number of relatedness measures this cache will hold
+	 */
+	public int getCapacity() {
+		return capacity ;
+	}
+	
+	/**
+	 * @return the number of relatedness measures currently cached
+	 */
+	public int size() {
+		
+		int size = 0 ;
+		for (Segment segment:segments)
+			size = size + segment.size() ;
+		
+		return size ;
+	}
+	
+	/**
+	 * Discards all cached relatedness measures (but not the statistics gathered so far)
+	 */
+	public void clear() {
+		for (Segment segment:segments)
+			segment.clear() ;
+	}
+	
+	private Segment getSegment(long key) {
+		
+		int hash = (int)(key ^ (key >>> 32)) * 0x9E3779B9 ;
+		return segments[hash >>> (32 - SEGMENT_BITS)] ;
+	}
+	
+	private static class Segment {
+		
+		private static final int INITIAL_SIZE = 64 ;
+		
+		private int capacity ;
+		
+		//slot (+1) of each key, so that 0 (trove's value for missing keys) means absent 
+		private TLongIntHashMap slotsByKey = new TLongIntHashMap() ;
+		
+		private long[] keys ;
+		private double[] values ;
+		private boolean[] referenced ;
+		
+		private int size = 0 ;
+		private int hand = 0 ;
+		
+		Segment(int capacity) {
+			this.capacity = capacity ;
+			clear() ;
+		}
+		
+		synchronized double get(long key) {
+			
+			int slot = slotsByKey.get(key) - 1 ;
+			if (slot < 0)
+				return Double.NaN ;
+			
+			referenced[slot] = true ;
+			return values[slot] ;
+		}
+		
+		/**
+		 * @return true if an entry had to be evicted, otherwise false.
+		 */
+		synchronized boolean put(long key, double value) {
+			
+			int slot = slotsByKey.get(key) - 1 ;
+			if (slot >= 0) {
+				values[slot] = value ;
+				return false ;
+			}
+			
+			boolean evicted = false ;
+			
+			if (size < capacity) {
+				if (size == keys.length) 
+					grow() ;
+				
+				slot = size++ ;
+			} else {
+				//sweep the clock hand until we find an entry that has not been referenced since the last sweep
+				while (referenced[hand]) {
+					referenced[hand] = false ;
+					hand = (hand + 1) % size ;
+				}
+				
+				slot = hand ;
+				hand = (hand + 1) % size ;
+				
+				slotsByKey.remove(keys[slot]) ;
+				evicted = true ;
+			}
+			
+			keys[slot] = key ;
+			values[slot] = value ;
+			referenced[slot] = false ;
+			slotsByKey.put(key, slot + 1) ;
+			
+			return evicted ;
+		}
+		
+		synchronized int size() {
+			return size ;
+		}
+		
+		synchronized void clear() {
+			
+			int initialSize = Math.min(capacity, INITIAL_SIZE) ;
+			
+			slotsByKey.clear() ;
+			keys = new long[initialSize] ;
+			values = new double[initialSize] ;
+			referenced = new boolean[initialSize] ;
+			size = 0 ;
+			hand = 0 ;
+		}
+		
+		private void grow() {
+			
+			int newLength = (int)Math.min((long)capacity, keys.length * 2L) ;
+			
+			long[] newKeys = new long[newLength] ;
+			System.arraycopy(keys, 0, newKeys, 0, size) ;
+			keys = newKeys ;
+			
+			double[] newValues = new double[newLength] ;
+			System.arraycopy(values, 0, newValues, 0, size) ;
+			values = newValues ;
+			
+			boolean[] newReferenced = new boolean[newLength] ;
+			System.arraycopy(referenced, 0, newReferenced, 0, size) ;
+			referenced = newReferenced ;
+		}
+	}
 }
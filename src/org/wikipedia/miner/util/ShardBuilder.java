@@ -0,0 +1,33 @@
+package org.wikipedia.miner.util;
+
+import java.io.File;
+
+import org.wikipedia.miner.db.*;
+
+public class ShardBuilder {
+
+	public static void main(String args[]) throws Exception {
+		
+		if (args.length != 3) {
+			System.out.println("Please specify path to wikipedia configuration file, the directory to write shards to, and the number of shards") ;
+			System.exit(1) ;
+		}
+		
+		File confFile = new File(args[0])  ;
+		if (!confFile.canRead()) {
+			System.out.println("'" + args[0] + "' cannot be read") ;
+			System.exit(1) ;
+		}
+		
+		WikipediaConfiguration conf = new WikipediaConfiguration(confFile) ;
+		
+		int shardCount = Integer.parseInt(args[2]) ;
+		if (shardCount < 1) {
+			System.out.println("There must be at least one shard") ;
+			System.exit(1) ;
+		}
+	
+		WEnvironment.exportShards(conf, new File(args[1]), shardCount, false) ;
+	}
+	
+}
@@ -0,0 +1,33 @@
+package org.wikipedia.miner.util;
+
+import java.io.File;
+
+import org.wikipedia.miner.db.*;
+
+public class ShardHost {
+
+	public static void main(String args[]) throws Exception {
+		
+		if (args.length != 2) {
+			System.out.println("Please specify the directory of a single shard (as written by ShardBuilder), and the port to serve it on") ;
+			System.exit(1) ;
+		}
+		
+		File shardDirectory = new File(args[0]) ;
+		if (!shardDirectory.isDirectory()) {
+			System.out.println("'" + args[0] + "' is not a valid shard directory") ;
+			System.exit(1) ;
+		}
+		
+		final ShardServer server = new ShardServer(shardDirectory, Integer.parseInt(args[1])) ;
+		
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.close() ;
+			}
+		}) ;
+		
+		server.serve() ;
+	}
+	
+}
@@ -0,0 +1,32 @@
+package org.wikipedia.miner.util;
+
+import java.io.File;
+
+import org.wikipedia.miner.db.*;
+
+public class SnapshotBuilder {
+
+	public static void main(String args[]) throws Exception {
+		
+		if (args.length != 1) {
+			System.out.println("Please specify path to wikipedia configuration file") ;
+			System.exit(1) ;
+		}
+		
+		File confFile = new File(args[0])  ;
+		if (!confFile.canRead()) {
+			System.out.println("'" + args[0] + "' cannot be read") ;
+			System.exit(1) ;
+		}
+		
+		WikipediaConfiguration conf = new WikipediaConfiguration(confFile) ;
+		
+		if (conf.getSnapshotDirectory() == null) {
+			System.out.println("'" + args[0] + "' does not specify a snapshot directory") ;
+			System.exit(1) ;
+		}
+	
+		WEnvironment.exportSnapshots(conf, conf.getSnapshotDirectory(), false) ;
+	}
+	
+}
@@ -1,7 +1,5 @@
 package org.wikipedia.miner.util;
 
-import gnu.trove.TIntHashSet;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,9 +7,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -33,6 +33,10 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.wikipedia.miner.comparison.ArticleComparer;
 import org.wikipedia.miner.comparison.ArticleComparer.DataDependency;
+import org.wikipedia.miner.db.BoundedCache;
+import org.wikipedia.miner.db.PageIdSet;
+import org.wikipedia.miner.db.ShardClient;
+import org.wikipedia.miner.db.WDatabase;
 import org.wikipedia.miner.db.WDatabase.CachePriority;
 import org.wikipedia.miner.db.WDatabase.DatabaseType;
 import org.wikipedia.miner.model.Article;
@@ -41,15 +45,23 @@ import org.xml.sax.SAXException;
 
 public class WikipediaConfiguration {
 	
-	private enum ParamName{langCode,databaseDirectory,dataDirectory,defaultTextProcessor,minLinksIn,minSenseProbability,minLinkProbability, articlesOfInterest, databaseToCache,stopwordFile,articleComparisonDependency,articleComparisonModel, labelDisambiguationModel, labelComparisonModel, comparisonSnippetModel, topicDisambiguationModel, linkDetectionModel, tokenModel, sentenceModel, unknown} ;
+	private enum ParamName{langCode,databaseDirectory,dataDirectory,snapshotDirectory,shard,shardReadTimeout,cacheImageDirectory,mapTitleIndexes,defaultTextProcessor,minLinksIn,minLinksOut,minSenseProbability,minLinkProbability, articlesOfInterest, databaseToCache,linkGraphToCache,labelTrieToCache,preparationThreads,retrievalThreads,relatednessCacheCapacity,stopwordFile,articleComparisonDependency,articleComparisonModel, labelDisambiguationModel, labelComparisonModel, comparisonSnippetModel, topicDisambiguationModel, linkDetectionModel, tokenModel, sentenceModel, unknown} ;
 	
 	private String langCode ;
 
 	private File dbDirectory ;
 	private File dataDirectory ;
+	private File snapshotDirectory ;
+	private ArrayList<String> shards = new ArrayList<String>() ;
+	private int shardReadTimeout = ShardClient.DEFAULT_READ_TIMEOUT ;
+	private File cacheImageDirectory ;
+	private boolean mapTitleIndexes = false ;
 	private TextProcessor defaultTextProcessor = null ;
 
 	private HashMap<DatabaseType, CachePriority> databasesToCache = new HashMap<DatabaseType, CachePriority>() ;
+	private HashMap<DatabaseType, Integer> cacheCapacities = new HashMap<DatabaseType, Integer>() ;
+	private HashMap<DatabaseType, Boolean> linkGraphsToCache = new HashMap<DatabaseType, Boolean>() ;
+	private boolean labelTrieToCache = false ;
 
 	private HashSet<String> stopwords = new HashSet<String>() ;
 	
@@ -67,10 +79,14 @@ public class WikipediaConfiguration {
 	private SentenceDetector sentenceDetector ;
 	
 	private int minLinksIn = 0;
+	private int minLinksOut = 0 ;
+	private int preparationThreads = Runtime.getRuntime().availableProcessors() ;
+	private int retrievalThreads = Runtime.getRuntime().availableProcessors() * 2 ;
+	private int relatednessCacheCapacity = RelatednessCache.DEFAULT_CAPACITY ;
 	private float minLinkProbability = 0 ;
 	private float minSenseProbability = 0 ;
 	
-	private TIntHashSet articlesOfInterest ;
+	private PageIdSet articlesOfInterest ;
 	
 	
 	public WikipediaConfiguration(Element xml) throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
@@ -111,6 +127,65 @@ public class WikipediaConfiguration {
 	public void setDataDirectory(File f) {
 		dataDirectory = f ;
 	}
+	
+	public File getSnapshotDirectory() {
+		return snapshotDirectory ;
+	}
+	
+	public void setSnapshotDirectory(File f) {
+		snapshotDirectory = f ;
+	}
+
+	/**
+	 * @return the address of each shard of a sharded environment, in order, as a comma separated list of host:port pairs (one for each replica). 
+	 * This is empty if the environment is held locally.
+	 */
+	public List<String> getShards() {
+		return Collections.unmodifiableList(shards) ;
+	}
+
+	/**
+	 * Adds the next shard of a sharded environment. Shards must be added in the same order as they were exported 
+	 * (see {@link org.wikipedia.miner.db.WEnvironment#exportShards(WikipediaConfiguration, File, int, boolean)})
+	 * 
+	 * @param addresses a comma separated list of host:port pairs, one for each replica of the shard
+	 */
+	public void addShard(String addresses) {
+		shards.add(addresses) ;
+	}
+
+	/**
+	 * @return how long (in milliseconds) to wait for a shard replica to respond, before passing over to another replica of the same shard
+	 */
+	public int getShardReadTimeout() {
+		return shardReadTimeout ;
+	}
+
+	public void setShardReadTimeout(int shardReadTimeout) {
+		this.shardReadTimeout = shardReadTimeout ;
+	}
+
+	/**
+	 * @return a directory where cached databases are saved as binary images, so they can be restored quickly when the environment is next loaded (may be null)
+	 */
+	public File getCacheImageDirectory() {
+		return cacheImageDirectory ;
+	}
+	
+	public void setCacheImageDirectory(File f) {
+		cacheImageDirectory = f ;
+	}
+	
+	/**
+	 * @return true if the images of cached title databases (articlesByTitle, categoriesByTitle and templatesByTitle) should be memory-mapped rather than read onto the heap
+	 */
+	public boolean isMapTitleIndexes() {
+		return mapTitleIndexes ;
+	}
+	
+	public void setMapTitleIndexes(boolean mapTitleIndexes) {
+		this.mapTitleIndexes = mapTitleIndexes ;
+	}
 
 	public void setDefaultTextProcessor(TextProcessor tp) {
 		defaultTextProcessor = tp ;
@@ -130,8 +205,21 @@ public class WikipediaConfiguration {
 		databasesToCache.put(type, priority) ;
 	}
 	
+	/**
+	 * Specifies that the given database should be cached with {@link CachePriority#bounded}, holding at most the given number of values
+	 * 
+	 * @param type the type of database to cache
+	 * @param capacity the maximum number of values to cache
+	 */
+	public void addDatabaseToCache(DatabaseType type, int capacity) {
+		
+		addDatabaseToCache(type, CachePriority.bounded) ;
+		cacheCapacities.put(type, capacity) ;
+	}
+	
 	public void clearDatabasesToCache() {
 		databasesToCache.clear();
+		cacheCapacities.clear() ;
 	}
 	
 	public Set<DatabaseType> getDatabasesToCache() {
@@ -141,6 +229,51 @@ public class WikipediaConfiguration {
 	public CachePriority getCachePriority(DatabaseType databaseType) {
 		return databasesToCache.get(databaseType) ;
 	}
+	
+	/**
+	 * @param databaseType the type of database
+	 * @return the maximum number of values to hold if the given database is cached with {@link CachePriority#bounded}
+	 */
+	public int getCacheCapacity(DatabaseType databaseType) {
+		Integer capacity = cacheCapacities.get(databaseType) ;
+		
+		if (capacity == null)
+			return BoundedCache.DEFAULT_CAPACITY ;
+		
+		return capacity ;
+	}
+	
+	public void addLinkGraphToCache(DatabaseType type, boolean offHeap) {
+		
+		if (type != DatabaseType.pageLinksIn && type != DatabaseType.pageLinksOut)
+			throw new IllegalArgumentException("type must be either DatabaseType.pageLinksIn or DatabaseType.pageLinksOut") ;
+		
+		linkGraphsToCache.put(type, offHeap) ;
+	}
+	
+	public void clearLinkGraphsToCache() {
+		linkGraphsToCache.clear() ;
+	}
+	
+	public Set<DatabaseType> getLinkGraphsToCache() {
+		return linkGraphsToCache.keySet() ;
+	}
+	
+	public boolean isLinkGraphOffHeap(DatabaseType type) {
+		Boolean offHeap = linkGraphsToCache.get(type) ;
+		return offHeap != null && offHeap ;
+	}
+
+	/**
+	 * @return true if a {@link org.wikipedia.miner.db.LabelTrie} should be built for the label database of the default text processor, otherwise false
+	 */
+	public boolean isLabelTrieToCache() {
+		return labelTrieToCache ;
+	}
+
+	public void setLabelTrieToCache(boolean labelTrieToCache) {
+		this.labelTrieToCache = labelTrieToCache ;
+	}
 
 	public int getMinLinksIn() {
 		return minLinksIn;
@@ -150,6 +283,50 @@ public class WikipediaConfiguration {
 		this.minLinksIn = minLinksIn;
 	}
 
+	/**
+	 * @return the minimum number of distinct pages an article must link to before it will be cached (only used along with {@link #getMinLinksIn()})
+	 */
+	public int getMinLinksOut() {
+		return minLinksOut ;
+	}
+
+	public void setMinLinksOut(int minLinksOut) {
+		this.minLinksOut = minLinksOut ;
+	}
+
+	/**
+	 * @return the maximum number of databases, link graphs and tries that should be cached to memory at the same time, when the environment is prepared
+	 */
+	public int getPreparationThreads() {
+		return preparationThreads ;
+	}
+
+	public void setPreparationThreads(int preparationThreads) {
+		this.preparationThreads = preparationThreads ;
+	}
+
+	/**
+	 * @return the number of threads that carry out asynchronous retrievals (see {@link WDatabase#retrieveAsync(Object)}), once the wikipedia is loaded
+	 */
+	public int getRetrievalThreads() {
+		return retrievalThreads ;
+	}
+
+	public void setRetrievalThreads(int retrievalThreads) {
+		this.retrievalThreads = retrievalThreads ;
+	}
+
+	/**
+	 * @return the maximum number of relatedness measures that should be held by a {@link RelatednessCache} that is shared between requests
+	 */
+	public int getRelatednessCacheCapacity() {
+		return relatednessCacheCapacity;
+	}
+
+	public void setRelatednessCacheCapacity(int relatednessCacheCapacity) {
+		this.relatednessCacheCapacity = relatednessCacheCapacity;
+	}
+
 	public float getMinLinkProbability() {
 		return minLinkProbability;
 	}
@@ -166,11 +343,11 @@ public class WikipediaConfiguration {
 		this.minSenseProbability = minSenseProbability;
 	}
 
-	public TIntHashSet getArticlesOfInterest() {
+	public PageIdSet getArticlesOfInterest() {
 		return this.articlesOfInterest ;
 	}
 	
-	public void setArticlesOfInterest(TIntHashSet articlesOfInterest) {
+	public void setArticlesOfInterest(PageIdSet articlesOfInterest) {
 		this.articlesOfInterest = articlesOfInterest;
 	}
 	
@@ -295,12 +472,12 @@ public class WikipediaConfiguration {
 		
 		boolean valid = false ;
 		
-		if (this.databasesToCache.containsKey(DatabaseType.pageLinksIn)) {
+		if (this.databasesToCache.containsKey(DatabaseType.pageLinksIn) || this.linkGraphsToCache.containsKey(DatabaseType.pageLinksIn)) {
 			dependancies.add(DataDependency.pageLinksIn) ;
 			valid = true ;
 		}
 		
-		if (this.databasesToCache.containsKey(DatabaseType.pageLinksOut)) {
+		if (this.databasesToCache.containsKey(DatabaseType.pageLinksOut) || this.linkGraphsToCache.containsKey(DatabaseType.pageLinksOut)) {
 			dependancies.add(DataDependency.pageLinksOut) ;
 			valid = true ;
 		}
@@ -347,6 +524,21 @@ public class WikipediaConfiguration {
 				case dataDirectory:
 					this.dataDirectory = new File(paramValue) ;
 					break ;
+				case snapshotDirectory:
+					this.snapshotDirectory = new File(paramValue) ;
+					break ;
+				case shard:
+					addShard(paramValue) ;
+					break ;
+				case shardReadTimeout:
+					this.shardReadTimeout = Integer.valueOf(paramValue) ;
+					break ;
+				case cacheImageDirectory:
+					this.cacheImageDirectory = new File(paramValue) ;
+					break ;
+				case mapTitleIndexes:
+					this.mapTitleIndexes = Boolean.valueOf(paramValue) ;
+					break ;
 				case defaultTextProcessor:
 					Class tpClass = Class.forName(paramValue) ;
 					this.defaultTextProcessor = (TextProcessor)tpClass.newInstance() ;
@@ -354,6 +546,18 @@ public class WikipediaConfiguration {
 				case minLinksIn:
 					this.minLinksIn = Integer.valueOf(paramValue) ;
 					break ;
+				case minLinksOut:
+					this.minLinksOut = Integer.valueOf(paramValue) ;
+					break ;
+				case preparationThreads:
+					this.preparationThreads = Integer.valueOf(paramValue) ;
+					break ;
+				case retrievalThreads:
+					this.retrievalThreads = Integer.valueOf(paramValue) ;
+					break ;
+				case relatednessCacheCapacity:
+					this.relatednessCacheCapacity = Integer.valueOf(paramValue) ;
+					break ;
 				case minSenseProbability:
 					this.minSenseProbability = Float.valueOf(paramValue) ;
 					break ;
@@ -368,6 +572,15 @@ public class WikipediaConfiguration {
 						addDatabaseToCache(DatabaseType.valueOf(paramValue), CachePriority.valueOf(xmlParam.getAttribute("priority"))) ;
 					else
 						addDatabaseToCache(DatabaseType.valueOf(paramValue)) ;
+					
+					if (xmlParam.hasAttribute("capacity"))
+						cacheCapacities.put(DatabaseType.valueOf(paramValue), Integer.valueOf(xmlParam.getAttribute("capacity"))) ;
+					break ;
+				case linkGraphToCache:
+					addLinkGraphToCache(DatabaseType.valueOf(paramValue), Boolean.valueOf(xmlParam.getAttribute("offHeap"))) ;
+					break ;
+				case labelTrieToCache:
+					this.labelTrieToCache = Boolean.valueOf(paramValue) ;
 					break ;
 				case stopwordFile:
 					this.setStopwords(new File(paramValue)) ;
@@ -438,9 +651,9 @@ public class WikipediaConfiguration {
 		}
 	}
 	
-	private TIntHashSet gatherArticles(File file) throws NumberFormatException, IOException {
+	private PageIdSet gatherArticles(File file) throws NumberFormatException, IOException {
 		
-		TIntHashSet artIds = new TIntHashSet() ;
+		PageIdSet artIds = new PageIdSet() ;
 		
 		BufferedReader reader = new BufferedReader(new FileReader(file)) ;
 		String line  ;
@@ -26,14 +26,12 @@ package org.wikipedia.miner.util.text;
 public class PorterStemmer extends TextProcessor {  
 
 	private Cleaner cleaner ;
-	private Stemmer stemmer ;
 
 	/**
 	 * Initializes a newly created PorterStemmer.  
 	 */	
 	public PorterStemmer() {  
 		cleaner = new Cleaner() ;
-		stemmer = new Stemmer() ;
 	}
 
 	/**
@@ -44,6 +42,9 @@ public class PorterStemmer extends TextProcessor {
 	 */
 	public String processText(String text) {
 
+		//a stemmer holds the word being stemmed, so each call gets its own, to allow texts to be processed by several threads at once
+		Stemmer stemmer = new Stemmer() ;
+		
 		String processedText = "" ;
 		String[] terms = text.split(" ") ;
 
@@ -45,7 +45,7 @@ public abstract class TextProcessor {
 	}
 	
 	/**
-	 * Returns the modified copy of the argument text
+	 * Returns the modified copy of the argument text. This may be called by several threads at once.
 	 * 
 	 * @param text	the text to be processed.
 	 * @return	the processed version of this text.